@@ -0,0 +1,263 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * This class represents an engine that thinks on its own thread, so the thread showing the board never waits for it
+ * Every search gets its own stop signal: cancelling raises it, and a search that was cancelled or replaced never
+ * reports back, even if it had already finished; the engine's stop() is not used, since by the time it is called
+ * the engine may already be running the next search
+ * Results and progress are handed to a publisher (Platform::runLater in the window), and requests, cancels and
+ * published callbacks are all meant to run on that publisher's thread
+ * Between the computer's moves the engine can ponder: it searches the position on the opponent's time so the moves
+ * it finds are already in its transposition table when its own turn comes
+ */
+
+public class BackgroundSearch
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the time budget of a ponder search, in milliseconds; it runs until it is cancelled */
+  public static final long PONDER_MILLIS = 3600000L;
+
+  /** Represents the shortest time between two progress reports handed to the publisher, in milliseconds */
+  private static final long PROGRESS_MILLIS = 100;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the engine; only the worker thread searches with it */
+  private final Engine engine;
+
+  /** Represents where results and progress are handed to */
+  private final Executor publisher;
+
+  /** Represents the single thread the searches run on, one after another */
+  private final ExecutorService worker;
+
+  /** Represents the latest search requested, or null if none is waiting or running */
+  private volatile Request current;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a background search; its thread runs below normal priority so the window keeps drawing while it thinks
+   * @param engine the engine to search with, which must not be used by anyone else
+   * @param publisher where results and progress are handed to
+   */
+  public BackgroundSearch(Engine engine, Executor publisher)
+  {
+    this.engine = engine;
+    this.publisher = publisher;
+    this.worker = Executors.newSingleThreadExecutor(task ->
+    {
+      Thread thread = new Thread(task, "background-search");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    });
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Starts searching for a move, cancelling any search still running
+   * @param position a board nobody changes while the search runs (see snapshot)
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   * @param onMove what is handed the result, unless the search is cancelled
+   * @param onProgress what is handed every finished depth and its expected line, or null
+   */
+  public void think(Board position, int color, long millis, Consumer<SearchResult> onMove,
+                    BiConsumer<SearchResult, int[]> onProgress)
+  {
+    submit(new Request(position, color, millis, onMove, onProgress));
+  }
+
+  /**
+   * Starts searching the position on the opponent's time, cancelling any search still running; the result is not
+   * used, only what the engine remembers of the search
+   * @param position a board nobody changes while the search runs (see snapshot)
+   * @param color the color to move, which is the opponent's
+   * @param onProgress what is handed every finished depth and its expected line, or null
+   */
+  public void ponder(Board position, int color, BiConsumer<SearchResult, int[]> onProgress)
+  {
+    submit(new Request(position, color, PONDER_MILLIS, null, onProgress));
+  }
+
+  /**
+   * Cancels the running search; it stops at its next check of the signal and reports nothing
+   */
+  public void cancel()
+  {
+    Request request = current;
+
+    if (request != null)
+    {
+      request.signal.set(true);
+      current = null;
+    }
+  }
+
+  /**
+   * Determines whether a search for a move (not a ponder search) has been started and not yet reported or cancelled
+   */
+  public boolean isThinking()
+  {
+    Request request = current;
+    return request != null && request.onMove != null;
+  }
+
+  /**
+   * Cancels the running search and stops the worker thread; the background search cannot be used afterwards
+   */
+  public void shutdown()
+  {
+    cancel();
+    worker.shutdown();
+  }
+
+  /**
+   * Copies the board of a game, so the game can go on while the copy is searched
+   * @param game the game
+   */
+  public static Board snapshot(Game game)
+  {
+    Board board = game.getBoard();
+    Board copy = Board.create(board.getRows(), board.getColumns());
+
+    for (int i = 0; i < game.getMoveCount(); i++)
+    {
+      int row = game.getMoveRow(i);
+      int column = game.getMoveColumn(i);
+      copy.place(row, column, board.get(row, column));
+    }
+
+    return copy;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Cancels the running search and queues a new one
+   * @param request the search to run
+   */
+  private void submit(Request request)
+  {
+    cancel();
+    current = request;
+    worker.execute(() -> run(request));
+  }
+
+  /**
+   * Runs a search on the worker thread and hands its result to the publisher
+   * @param request the search to run
+   */
+  private void run(Request request)
+  {
+    /** A search cancelled while it waited behind another is not started at all */
+    if (request.signal.get())
+      return;
+
+    if (request.onProgress != null)
+      engine.setListener(request::progress);
+
+    /** A ponder search picks no move, so it is not counted as one */
+    engine.setMoveMetrics(request.onMove != null);
+    SearchResult result;
+
+    try
+    {
+      result = engine.search(request.position, request.color, request.millis, request.signal);
+    }
+
+    finally
+    {
+      engine.setListener(null);
+      engine.setMoveMetrics(true);
+    }
+
+    if (request.onMove == null)
+      return;
+
+    publisher.execute(() ->
+    {
+      if (current != request)
+        return;
+
+      current = null;
+      request.onMove.accept(result);
+    });
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * One search and what is told about it
+   */
+  private class Request
+  {
+    /** Represents the board to search */
+    private final Board position;
+
+    /** Represents the color to move */
+    private final int color;
+
+    /** Represents the time budget in milliseconds */
+    private final long millis;
+
+    /** Represents what is handed the result, or null for a ponder search */
+    private final Consumer<SearchResult> onMove;
+
+    /** Represents what is handed the progress, or null */
+    private final BiConsumer<SearchResult, int[]> onProgress;
+
+    /** Represents the request to stop this search */
+    private final AtomicBoolean signal = new AtomicBoolean();
+
+    /** Represents the time (System.nanoTime) progress was last handed to the publisher; only the worker uses it */
+    private long lastProgress;
+
+    /**
+     * Creates a search request
+     * @param position the board to search
+     * @param color the color to move
+     * @param millis the time budget in milliseconds
+     * @param onMove what is handed the result, or null for a ponder search
+     * @param onProgress what is handed the progress, or null
+     */
+    private Request(Board position, int color, long millis, Consumer<SearchResult> onMove,
+                    BiConsumer<SearchResult, int[]> onProgress)
+    {
+      this.position = position;
+      this.color = color;
+      this.millis = millis;
+      this.onMove = onMove;
+      this.onProgress = onProgress;
+      this.lastProgress = System.nanoTime() - PROGRESS_MILLIS * 1000000L;
+    }
+
+    /**
+     * Hands progress to the publisher, at most once every PROGRESS_MILLIS; called on the worker thread
+     * @param progress the best move and score so far
+     * @param line the expected line, starting with the best move
+     */
+    private void progress(SearchResult progress, int[] line)
+    {
+      long now = System.nanoTime();
+
+      if (now - lastProgress < PROGRESS_MILLIS * 1000000L)
+        return;
+
+      lastProgress = now;
+      publisher.execute(() ->
+      {
+        if (current == this)
+          onProgress.accept(progress, line);
+      });
+    }
+  }
+}
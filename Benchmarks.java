@@ -0,0 +1,309 @@
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.Region;
+
+/**
+ * This class represents the micro-benchmarks of the rule checks, win detection and move handling
+ * Every benchmark runs on the same fixtures (empty, mid-game and near-full 19x19 boards and a mid-game 1000x1000 board,
+ * which Board.create stores sparsely)
+ * and the legacy paths of Gomoku are measured next to the Board, WinDetector and ForbiddenMoves code that replaced them
+ * Each benchmark is warmed up, then timed; the report gives nanoseconds and bytes allocated per operation
+ * Note: Run with "java Benchmarks [name filter] [milliseconds per benchmark]"; the JavaFX window is never opened
+ */
+
+public class Benchmarks
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the number of probe squares per fixture; operations cycle through them */
+  private static final int PROBES = 1024;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents a value every benchmark result is folded into, so that the JIT cannot drop the work */
+  private static long sink;
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * One benchmarked operation
+   */
+  private interface Operation
+  {
+    /**
+     * Runs the operation once on a probe square and returns a value that depends on the work done
+     * @param probe the probe index, from 0 to PROBES - 1
+     */
+    long run(int probe);
+  }
+
+  /**
+   * A board position loaded into Gomoku, with empty and occupied squares to probe
+   */
+  private static final class Fixture
+  {
+    /** Represents the fixture's name */
+    final String name;
+
+    /** Represents the rows of the probe squares on empty squares */
+    final int[] emptyRows = new int[PROBES];
+
+    /** Represents the columns of the probe squares on empty squares */
+    final int[] emptyColumns = new int[PROBES];
+
+    /** Represents the rows of the probe squares on pieces */
+    final int[] stoneRows = new int[PROBES];
+
+    /** Represents the columns of the probe squares on pieces */
+    final int[] stoneColumns = new int[PROBES];
+
+    /** Represents if the fixture has any piece to probe */
+    boolean hasStones;
+
+    /**
+     * Creates a fixture by filling a square area around the centre at random
+     * @param name the fixture's name
+     * @param rows the number of rows of the board
+     * @param columns the number of columns of the board
+     * @param area the side of the filled area around the centre
+     * @param density the share of the area's squares that get a piece
+     */
+    Fixture(String name, int rows, int columns, int area, double density)
+    {
+      this.name = name;
+      Gomoku.setGomoku(rows, columns);
+      Board board = Gomoku.getBoard();
+      SplittableRandom random = new SplittableRandom(rows * 31L + area);
+      int top = (rows - area) / 2;
+      int left = (columns - area) / 2;
+      int color = Board.BLACK;
+
+      for (int row = top; row < top + area; row++)
+      {
+        for (int column = left; column < left + area; column++)
+        {
+          if (random.nextDouble() < density)
+          {
+            board.place(row, column, color);
+            color = Board.opponent(color);
+          }
+        }
+      }
+
+      int empty = 0;
+      int stones = 0;
+
+      /** Probes stay near the pieces, where the game actually happens */
+      for (int tries = 0; tries < 1000 * PROBES && (empty < PROBES || stones < PROBES); tries++)
+      {
+        int row = top + random.nextInt(area);
+        int column = left + random.nextInt(area);
+
+        if (board.isEmpty(row, column) && empty < PROBES)
+        {
+          emptyRows[empty] = row;
+          emptyColumns[empty++] = column;
+        }
+
+        else if (!board.isEmpty(row, column) && stones < PROBES)
+        {
+          stoneRows[stones] = row;
+          stoneColumns[stones++] = column;
+        }
+      }
+
+      hasStones = stones == PROBES;
+    }
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Runs every benchmark whose name contains the filter on every fixture and prints the report
+   * @param args optionally a name filter and the milliseconds to time each benchmark (default 1000)
+   */
+  public static void main(String[] args)
+  {
+    String filter = (args.length > 0) ? args[0] : "";
+    long millis = (args.length > 1) ? Long.parseLong(args[1]) : 1000;
+
+    System.out.println(String.format("%-28s %-14s %12s %10s", "benchmark", "fixture", "ns/op", "B/op"));
+
+    runFixture(new Fixture("empty-19", 19, 19, 19, 0.0), filter, millis);
+    runFixture(new Fixture("midgame-19", 19, 19, 13, 0.35), filter, millis);
+    runFixture(new Fixture("nearfull-19", 19, 19, 19, 0.85), filter, millis);
+    runFixture(new Fixture("midgame-1000", 1000, 1000, 40, 0.35), filter, millis);
+
+    if (sink == 42)
+      System.out.println();
+  }
+
+  /**
+   * Runs the benchmarks on one fixture, which is the position currently loaded into Gomoku
+   * @param fixture the fixture
+   * @param filter the name filter
+   * @param millis the time for each benchmark in milliseconds
+   */
+  private static void runFixture(Fixture fixture, String filter, long millis)
+  {
+    Gomoku gomoku = new Gomoku();
+    Board board = Gomoku.getBoard();
+    WinDetector winDetector = Gomoku.getWinDetector();
+    ForbiddenMoves forbiddenMoves = new ForbiddenMoves(board, 5);
+    int[] er = fixture.emptyRows;
+    int[] ec = fixture.emptyColumns;
+    int[] sr = fixture.stoneRows;
+    int[] sc = fixture.stoneColumns;
+
+    /** One Region per probe square, painted the way the buttons of the window are */
+    Region[] regions = new Region[PROBES];
+
+    for (int i = 0; i < PROBES; i++)
+    {
+      regions[i] = new Region();
+      regions[i].setBackground(new Background(gomoku.getEmptyBoard()));
+    }
+
+    if (fixture.hasStones)
+    {
+      /** Legacy win check: eight numberInLine calls per direction pair, each walking the line again */
+      measure("legacy checkWin", fixture, filter, millis, i -> gomoku.checkWin(sr[i], sc[i]) ? 1 : 0);
+      measure("legacy numberInLine", fixture, filter, millis, i -> gomoku.numberInLine(board, sr[i], sc[i], "left down corner"));
+      measure("legacy isOpen", fixture, filter, millis, i -> gomoku.isOpen(board, sr[i], sc[i], "right down corner") ? 1 : 0);
+      measure("board countRun", fixture, filter, millis, i -> board.countRun(sr[i], sc[i], Board.ANTI_DIAGONAL, true));
+      measure("winDetector lineLength", fixture, filter, millis, i -> winDetector.lineLength(sr[i], sc[i], Board.DIAGONAL));
+    }
+
+    measure("legacy isAgainstHelper", fixture, filter, millis, i -> gomoku.isAgainstHelper(er[i], ec[i], 4) ? 1 : 0);
+    measure("legacy isBlank (Region)", fixture, filter, millis, i -> gomoku.isBlank(regions[i]) ? 1 : 0);
+    measure("board isEmpty", fixture, filter, millis, i -> board.isEmpty(er[i], ec[i]) ? 1 : 0);
+    measure("forbidden isForbidden", fixture, filter, millis, i -> forbiddenMoves.isForbidden(er[i], ec[i], Board.BLACK) ? 1 : 0);
+
+    /** Every rule set reads the same tables, so a move's legality and win cost the same whichever is played */
+    for (String name : RuleSet.NAMES)
+    {
+      ForbiddenMoves rules = new ForbiddenMoves(board, RuleSet.forName(name, 5));
+      measure("rules " + name + " isForbidden", fixture, filter, millis, i -> rules.isForbidden(er[i], ec[i], Board.BLACK) ? 1 : 0);
+      measure("rules " + name + " isWin", fixture, filter, millis, i -> rules.isWin(er[i], ec[i], Board.BLACK) ? 1 : 0);
+    }
+
+    measure("move place+remove", fixture, filter, millis, i ->
+    {
+      board.place(er[i], ec[i], Board.BLACK);
+      boolean won = winDetector.hasWinner();
+      board.remove(er[i], ec[i]);
+      return won ? 1 : 0;
+    });
+
+    /** The checks a click used to run: the Region blank test, both rules and the win check by walking lines */
+    measure("legacy click pass", fixture, filter, millis, i ->
+    {
+      if (!gomoku.isBlank(regions[i]) || gomoku.isAgainstHelper(er[i], ec[i], 4) || gomoku.isAgainstHelper(er[i], ec[i], 3))
+        return 0;
+
+      board.place(er[i], ec[i], Board.BLACK);
+      boolean won = gomoku.checkWin(er[i], ec[i]);
+      board.remove(er[i], ec[i]);
+      return won ? 2 : 1;
+    });
+
+    /** The checks ClickBlank.handle runs now, without the button repaint */
+    measure("click pass", fixture, filter, millis, i ->
+    {
+      if (!board.isEmpty(er[i], ec[i]) || gomoku.isAgainstFourFour(er[i], ec[i]) || gomoku.isAgainstThreeThree(er[i], ec[i]))
+        return 0;
+
+      board.place(er[i], ec[i], Board.BLACK);
+      boolean won = winDetector.hasWinner();
+      board.remove(er[i], ec[i]);
+      return won ? 2 : 1;
+    });
+
+    if (!board.isSparse())
+    {
+      /** A search leaf: the move is made, the position scored, and the move taken back */
+      Evaluator evaluator = new Evaluator(5);
+      measure("evaluator rescan leaf", fixture, filter, millis, i ->
+      {
+        board.place(er[i], ec[i], Board.BLACK);
+        int score = evaluator.evaluate(board, Board.WHITE);
+        board.remove(er[i], ec[i]);
+        return score;
+      });
+
+      IncrementalEvaluator incremental = new IncrementalEvaluator(board, 5);
+      measure("evaluator incremental leaf", fixture, filter, millis, i ->
+      {
+        board.place(er[i], ec[i], Board.BLACK);
+        int score = incremental.getScore(Board.WHITE);
+        board.remove(er[i], ec[i]);
+        return score;
+      });
+      board.removeListener(incremental);
+
+      NeuralEvaluator neural = new NeuralEvaluator(board, NeuralNetwork.random(board.getRows(), board.getColumns(), 128, 32, 1));
+      measure("evaluator neural leaf", fixture, filter, millis, i ->
+      {
+        board.place(er[i], ec[i], Board.BLACK);
+        int score = neural.getScore(Board.WHITE);
+        board.remove(er[i], ec[i]);
+        return score;
+      });
+      board.removeListener(neural);
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Warms an operation up, times it and prints one report line
+   * @param name the benchmark's name
+   * @param fixture the fixture it runs on
+   * @param filter the name filter; benchmarks whose name does not contain it are skipped
+   * @param millis the time to measure in milliseconds (the warm-up takes half as long)
+   * @param operation the operation
+   */
+  private static void measure(String name, Fixture fixture, String filter, long millis, Operation operation)
+  {
+    if (!name.contains(filter))
+      return;
+
+    run(operation, millis / 2 * 1000000L);
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long bytes = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    long operations = run(operation, millis * 1000000L);
+    long elapsed = System.nanoTime() - start;
+    bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+    System.out.println(String.format("%-28s %-14s %12.1f %10.1f", name, fixture.name, (double)elapsed / operations,
+                                     (double)bytes / operations));
+  }
+
+  /**
+   * Runs an operation over and over for a while and returns how many times it ran
+   * @param operation the operation
+   * @param nanos the time to run in nanoseconds
+   */
+  private static long run(Operation operation, long nanos)
+  {
+    long end = System.nanoTime() + nanos;
+    long operations = 0;
+    long result = 0;
+
+    do
+    {
+      for (int i = 0; i < PROBES; i++)
+        result += operation.run(i);
+
+      operations += PROBES;
+    }
+    while (System.nanoTime() < end);
+
+    sink += result;
+    return operations;
+  }
+}
@@ -0,0 +1,555 @@
+import java.util.Arrays;
+
+/**
+ * This class represents a headless Gomoku board
+ * Stones are stored as packed bitboards, one per color and per line direction, so that every row, column and diagonal
+ * is a run of consecutive bits and can be scanned a word at a time
+ * Note: This class has no JavaFX dependency so that rule checks and searches can run off the UI thread
+ */
+
+public class Board
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents a square without a piece */
+  public static final int EMPTY = 0;
+
+  /** Represents a square with a black piece */
+  public static final int BLACK = 1;
+
+  /** Represents a square with a white piece */
+  public static final int WHITE = 2;
+
+  /** Represents the "left" - "right" line direction */
+  public static final int HORIZONTAL = 0;
+
+  /** Represents the "up" - "down" line direction */
+  public static final int VERTICAL = 1;
+
+  /** Represents the "left up corner" - "right down corner" line direction */
+  public static final int DIAGONAL = 2;
+
+  /** Represents the "right up corner" - "left down corner" line direction */
+  public static final int ANTI_DIAGONAL = 3;
+
+  /** Represents the number of line directions */
+  public static final int DIRECTIONS = 4;
+
+  /** Represents the row step of each direction when moving forward along its line */
+  public static final int[] ROW_STEP = {0, 1, 1, 1};
+
+  /** Represents the column step of each direction when moving forward along its line */
+  public static final int[] COLUMN_STEP = {1, 0, 1, -1};
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the number of rows of the board */
+  private final int numRow;
+
+  /** Represents the number of columns of the board */
+  private final int numColumn;
+
+  /** Represents the black pieces, one bitboard per direction */
+  private final long[][] black = new long[DIRECTIONS][];
+
+  /** Represents the white pieces, one bitboard per direction */
+  private final long[][] white = new long[DIRECTIONS][];
+
+  /** Represents the first bit of every line, indexed by direction and line number */
+  private final int[][] lineStart = new int[DIRECTIONS][];
+
+  /** Represents the number of squares on every line, indexed by direction and line number */
+  private final int[][] lineLength = new int[DIRECTIONS][];
+
+  /** Represents the number of pieces on the board */
+  private int stoneCount = 0;
+
+  /** Represents the listeners told about every piece put on or taken off the board */
+  private BoardListener[] listeners = new BoardListener[0];
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an empty board
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public Board(int rows, int columns)
+  {
+    this(rows, columns, true);
+  }
+
+  /**
+   * Creates an empty board, with or without the dense bitboards
+   * Note: Subclasses that store the pieces another way (see SparseBoard) skip the bitboards, whose size grows
+   * with the board area, and override every method that reads them
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param dense true to allocate the bitboards
+   */
+  protected Board(int rows, int columns, boolean dense)
+  {
+    if (rows <= 0 || columns <= 0)
+      throw new IllegalArgumentException("Board size must be positive: " + rows + "x" + columns);
+
+    numRow = rows;
+    numColumn = columns;
+
+    if (!dense)
+    {
+      for (int direction = 0; direction < DIRECTIONS; direction++)
+      {
+        black[direction] = new long[0];
+        white[direction] = new long[0];
+      }
+
+      return;
+    }
+
+    /** Rows and columns are single lines, diagonals number rows + columns - 1 in each direction */
+    lineLength[HORIZONTAL] = new int[rows];
+    lineLength[VERTICAL] = new int[columns];
+    lineLength[DIAGONAL] = new int[rows + columns - 1];
+    lineLength[ANTI_DIAGONAL] = new int[rows + columns - 1];
+
+    for (int row = 0; row < rows; row++)
+    {
+      for (int column = 0; column < columns; column++)
+      {
+        for (int direction = 0; direction < DIRECTIONS; direction++)
+          lineLength[direction][lineIndex(direction, row, column)]++;
+      }
+    }
+
+    int words = (rows * columns + 63) >>> 6;
+
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      lineStart[direction] = new int[lineLength[direction].length];
+
+      for (int line = 1; line < lineStart[direction].length; line++)
+        lineStart[direction][line] = lineStart[direction][line - 1] + lineLength[direction][line - 1];
+
+      black[direction] = new long[words];
+      white[direction] = new long[words];
+    }
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of rows of the board
+   */
+  public int getRows()
+  {
+    return numRow;
+  }
+
+  /**
+   * Gets the number of columns of the board
+   */
+  public int getColumns()
+  {
+    return numColumn;
+  }
+
+  /**
+   * Gets the number of pieces on the board
+   */
+  public int getStoneCount()
+  {
+    return stoneCount;
+  }
+
+  /**
+   * Determines whether the board only stores its pieces (see SparseBoard) rather than every square
+   */
+  public boolean isSparse()
+  {
+    return false;
+  }
+
+  /**
+   * Creates an empty board that stores every square, or one that only stores its pieces if the board is too big
+   * for that (more than SparseBoard.DENSE_LIMIT squares)
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static Board create(int rows, int columns)
+  {
+    if ((long)rows * columns > SparseBoard.DENSE_LIMIT)
+      return new SparseBoard(rows, columns);
+
+    return new Board(rows, columns);
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns what is on a square: EMPTY, BLACK or WHITE
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public int get(int row, int column)
+  {
+    int bit = row * numColumn + column;
+
+    if ((black[HORIZONTAL][bit >>> 6] & (1L << bit)) != 0)
+      return BLACK;
+
+    else if ((white[HORIZONTAL][bit >>> 6] & (1L << bit)) != 0)
+      return WHITE;
+
+    else
+      return EMPTY;
+  }
+
+  /**
+   * Determines whether a square is not occupied by a game piece
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public boolean isEmpty(int row, int column)
+  {
+    int bit = row * numColumn + column;
+    return ((black[HORIZONTAL][bit >>> 6] | white[HORIZONTAL][bit >>> 6]) & (1L << bit)) == 0;
+  }
+
+  /**
+   * Determines whether a square is on the board
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public boolean isOnBoard(int row, int column)
+  {
+    return row >= 0 && row < numRow && column >= 0 && column < numColumn;
+  }
+
+  /**
+   * Puts a piece on an empty square
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  public void place(int row, int column, int color)
+  {
+    if (color != BLACK && color != WHITE)
+      throw new IllegalArgumentException("Not a piece color: " + color);
+
+    if (!isEmpty(row, column))
+      throw new IllegalStateException("Square is occupied: " + row + ", " + column);
+
+    store(row, column, color);
+    stoneCount++;
+
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].stonePlaced(row, column, color);
+  }
+
+  /**
+   * Takes the piece off a square
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public void remove(int row, int column)
+  {
+    int color = get(row, column);
+
+    if (color == EMPTY)
+      throw new IllegalStateException("Square is empty: " + row + ", " + column);
+
+    erase(row, column, color);
+    stoneCount--;
+
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].stoneRemoved(row, column, color);
+  }
+
+  /**
+   * Returns the number of pieces of the same color in a straight line, starting at (and counting) the given square
+   * An empty square counts as a line of one, matching Gomoku.numberInLine
+   * @param row the row the first piece is at
+   * @param column the column the first piece is at
+   * @param direction HORIZONTAL, VERTICAL, DIAGONAL or ANTI_DIAGONAL
+   * @param forward true to follow ROW_STEP/COLUMN_STEP, false to go the opposite way
+   */
+  public int countRun(int row, int column, int direction, boolean forward)
+  {
+    int color = get(row, column);
+
+    if (color == EMPTY)
+      return 1;
+
+    long[] bits = (color == BLACK) ? black[direction] : white[direction];
+    int line = lineIndex(direction, row, column);
+    int start = lineStart[direction][line];
+    int bit = start + position(direction, row, column);
+
+    if (forward)
+      return nextClearBit(bits, bit + 1, start + lineLength[direction][line]) - bit;
+
+    else
+      return bit - previousClearBit(bits, bit - 1, start);
+  }
+
+  /**
+   * Returns the pieces of one color on the line through a square as a bit mask
+   * Bit i stands for the square (i - radius) steps forward from the given square; squares off the board are 0
+   * @param color BLACK or WHITE
+   * @param direction the line direction
+   * @param row the centre square's row number
+   * @param column the centre square's column number
+   * @param radius the number of squares to read on each side, at most 31
+   */
+  public long window(int color, int direction, int row, int column, int radius)
+  {
+    long[] bits = (color == BLACK) ? black[direction] : white[direction];
+    int line = lineIndex(direction, row, column);
+    int start = lineStart[direction][line];
+    int centre = start + position(direction, row, column);
+    int low = Math.max(start, centre - radius);
+    int high = Math.min(start + lineLength[direction][line], centre + radius + 1);
+
+    return extract(bits, low, high - low) << (low - (centre - radius));
+  }
+
+  /**
+   * Returns the squares of a window (see window) that are off the board as a bit mask
+   * @param direction the line direction
+   * @param row the centre square's row number
+   * @param column the centre square's column number
+   * @param radius the number of squares to read on each side, at most 31
+   */
+  public long outside(int direction, int row, int column, int radius)
+  {
+    int position = position(direction, row, column);
+    int length = lineLength[direction][lineIndex(direction, row, column)];
+    int below = Math.max(0, radius - position);
+    int above = Math.max(0, position + radius - (length - 1));
+    long all = (1L << (2 * radius + 1)) - 1;
+
+    return ((1L << below) - 1) | (all & ~(all >>> above));
+  }
+
+  /**
+   * Adds a listener that is told about every piece put on or taken off the board
+   * @param listener the listener to add
+   */
+  public void addListener(BoardListener listener)
+  {
+    listeners = Arrays.copyOf(listeners, listeners.length + 1);
+    listeners[listeners.length - 1] = listener;
+  }
+
+  /**
+   * Removes a listener added with addListener
+   * @param listener the listener to remove
+   */
+  public void removeListener(BoardListener listener)
+  {
+    for (int i = 0; i < listeners.length; i++)
+    {
+      if (listeners[i] == listener)
+      {
+        BoardListener[] kept = new BoardListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, kept, 0, i);
+        System.arraycopy(listeners, i + 1, kept, i, kept.length - i);
+        listeners = kept;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Takes every piece off the board
+   * Note: Listeners are not told, they should be cleared along with the board
+   */
+  public void clear()
+  {
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      Arrays.fill(black[direction], 0L);
+      Arrays.fill(white[direction], 0L);
+    }
+
+    stoneCount = 0;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Sets the bits of a new piece, without any checks or counting
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  protected void store(int row, int column, int color)
+  {
+    long[][] bits = (color == BLACK) ? black : white;
+
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      int bit = bitIndex(direction, row, column);
+      bits[direction][bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Clears the bits of a piece, without any checks or counting
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the piece's color
+   */
+  protected void erase(int row, int column, int color)
+  {
+    long[][] bits = (color == BLACK) ? black : white;
+
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      int bit = bitIndex(direction, row, column);
+      bits[direction][bit >>> 6] &= ~(1L << bit);
+    }
+  }
+
+  /**
+   * Returns the color of the other player
+   * @param color BLACK or WHITE
+   */
+  public static int opponent(int color)
+  {
+    return BLACK + WHITE - color;
+  }
+
+  /**
+   * Returns the number of the line through a square
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int lineIndex(int direction, int row, int column)
+  {
+    switch (direction)
+    {
+      case HORIZONTAL:
+        return row;
+
+      case VERTICAL:
+        return column;
+
+      case DIAGONAL:
+        return row - column + numColumn - 1;
+
+      default:
+        return row + column;
+    }
+  }
+
+  /**
+   * Returns how many squares a square is from the start of its line
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int position(int direction, int row, int column)
+  {
+    switch (direction)
+    {
+      case HORIZONTAL:
+        return column;
+
+      case VERTICAL:
+        return row;
+
+      case DIAGONAL:
+        return Math.min(row, column);
+
+      default:
+        return row - Math.max(0, row + column - (numColumn - 1));
+    }
+  }
+
+  /**
+   * Returns the bit that stands for a square in the bitboard of a direction
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int bitIndex(int direction, int row, int column)
+  {
+    return lineStart[direction][lineIndex(direction, row, column)] + position(direction, row, column);
+  }
+
+  /**
+   * Returns count (at most 63) bits of a bitboard starting at a bit, lowest bit first
+   * @param bits the bitboard
+   * @param from the first bit
+   * @param count the number of bits
+   */
+  private static long extract(long[] bits, int from, int count)
+  {
+    if (count <= 0)
+      return 0L;
+
+    int word = from >>> 6;
+    int offset = from & 63;
+    long value = bits[word] >>> offset;
+
+    if (offset + count > 64)
+      value |= bits[word + 1] << (64 - offset);
+
+    return value & ((1L << count) - 1);
+  }
+
+  /**
+   * Returns the first clear bit at or after from and before end, or end if there is none
+   * @param bits the bitboard
+   * @param from the first bit to look at
+   * @param end the bit after the last bit to look at
+   */
+  private static int nextClearBit(long[] bits, int from, int end)
+  {
+    if (from >= end)
+      return end;
+
+    int word = from >>> 6;
+    long clear = ~bits[word] & (-1L << from);
+
+    while (clear == 0)
+    {
+      word++;
+
+      if (word << 6 >= end)
+        return end;
+
+      clear = ~bits[word];
+    }
+
+    return Math.min(end, (word << 6) + Long.numberOfTrailingZeros(clear));
+  }
+
+  /**
+   * Returns the last clear bit at or before from and not before start, or start - 1 if there is none
+   * @param bits the bitboard
+   * @param from the first bit to look at
+   * @param start the last bit to look at
+   */
+  private static int previousClearBit(long[] bits, int from, int start)
+  {
+    if (from < start)
+      return start - 1;
+
+    int word = from >>> 6;
+    long clear = ~bits[word] & (-1L >>> (63 - (from & 63)));
+
+    while (clear == 0)
+    {
+      if (word << 6 <= start)
+        return start - 1;
+
+      word--;
+      clear = ~bits[word];
+    }
+
+    return Math.max(start - 1, (word << 6) + 63 - Long.numberOfLeadingZeros(clear));
+  }
+}
@@ -0,0 +1,276 @@
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.BackgroundFill;
+import javafx.scene.paint.Color;
+
+/**
+ * This class represents the game board drawn on one Canvas
+ * The canvas only covers the visible part of the board, so a 1000x1000 board costs no more scene memory than a 19x19 one;
+ * the mouse wheel (with shift for sideways) and the arrow keys scroll the view
+ * Every square is drawn from one of a few cached tiles (empty, black, white, and each color with the last-move mark),
+ * and only the squares the board reports as changed are drawn again
+ */
+
+public class BoardCanvas implements BoardListener
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the largest width and height of the canvas in pixels */
+  private static final double MAX_VIEW = 800.0;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board being drawn */
+  private final Board board;
+
+  /** Represents the canvas */
+  private final Canvas canvas;
+
+  /** Represents the canvas's drawing context */
+  private final GraphicsContext graphics;
+
+  /** Represents the side of a square in pixels */
+  private final double cellSize;
+
+  /** Represents the number of rows that fit on the canvas */
+  private final int visibleRows;
+
+  /** Represents the number of columns that fit on the canvas */
+  private final int visibleColumns;
+
+  /** Represents the board row shown at the top of the canvas */
+  private int topRow = 0;
+
+  /** Represents the board column shown at the left of the canvas */
+  private int leftColumn = 0;
+
+  /** Represents the tiles, indexed by color (EMPTY, BLACK, WHITE) and then 1 for the last move or 0 otherwise */
+  private final Image[][] tiles = new Image[3][2];
+
+  /** Represents the row of the last piece put down, or -1 if there is none */
+  private int lastRow = -1;
+
+  /** Represents the column of the last piece put down, or -1 if there is none */
+  private int lastColumn = -1;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates the canvas for a board, centred on the middle of the board, and draws it
+   * Note: Must be called on the JavaFX application thread, which draws the tiles
+   * @param board the game board
+   * @param cellSize the side of a square in pixels
+   * @param emptyBoard the look of an empty square
+   * @param blackPiece the look of a black piece
+   * @param whitePiece the look of a white piece
+   */
+  public BoardCanvas(Board board, double cellSize, BackgroundFill emptyBoard, BackgroundFill blackPiece, BackgroundFill whitePiece)
+  {
+    this.board = board;
+    this.cellSize = cellSize;
+    visibleRows = Math.min(board.getRows(), (int)(MAX_VIEW / cellSize));
+    visibleColumns = Math.min(board.getColumns(), (int)(MAX_VIEW / cellSize));
+    canvas = new Canvas(visibleColumns * cellSize, visibleRows * cellSize);
+    graphics = canvas.getGraphicsContext2D();
+
+    for (int marked = 0; marked < 2; marked++)
+    {
+      tiles[Board.EMPTY][marked] = drawTile(emptyBoard, null, false);
+      tiles[Board.BLACK][marked] = drawTile(emptyBoard, blackPiece, marked == 1);
+      tiles[Board.WHITE][marked] = drawTile(emptyBoard, whitePiece, marked == 1);
+    }
+
+    canvas.setFocusTraversable(true);
+    canvas.setOnScroll(this::handleScroll);
+    canvas.setOnKeyPressed(this::handleKey);
+
+    board.addListener(this);
+    scrollTo((board.getRows() - visibleRows) / 2, (board.getColumns() - visibleColumns) / 2);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the canvas to put on the scene
+   */
+  public Canvas getCanvas()
+  {
+    return canvas;
+  }
+
+  /**
+   * Returns the board row under a point of the canvas, or -1 if there is none
+   * @param y the point's y coordinate on the canvas
+   */
+  public int rowAt(double y)
+  {
+    int row = topRow + (int)Math.floor(y / cellSize);
+    return (y >= 0 && row < board.getRows()) ? row : -1;
+  }
+
+  /**
+   * Returns the board column under a point of the canvas, or -1 if there is none
+   * @param x the point's x coordinate on the canvas
+   */
+  public int columnAt(double x)
+  {
+    int column = leftColumn + (int)Math.floor(x / cellSize);
+    return (x >= 0 && column < board.getColumns()) ? column : -1;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Moves the view so that a square is at the top left (as far as the board allows) and draws it again
+   * @param row the board row to show at the top
+   * @param column the board column to show at the left
+   */
+  public void scrollTo(int row, int column)
+  {
+    topRow = Math.max(0, Math.min(row, board.getRows() - visibleRows));
+    leftColumn = Math.max(0, Math.min(column, board.getColumns() - visibleColumns));
+
+    for (int r = topRow; r < topRow + visibleRows; r++)
+    {
+      for (int c = leftColumn; c < leftColumn + visibleColumns; c++)
+        drawSquare(r, c);
+    }
+  }
+
+  /**
+   * Draws the new piece and moves the last-move mark to it
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    int previousRow = lastRow;
+    int previousColumn = lastColumn;
+    lastRow = row;
+    lastColumn = column;
+
+    if (previousRow >= 0)
+      drawSquare(previousRow, previousColumn);
+
+    drawSquare(row, column);
+  }
+
+  /**
+   * Draws the square empty again; the last-move mark goes away if it was on that square
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color that was there
+   */
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    if (row == lastRow && column == lastColumn)
+    {
+      lastRow = -1;
+      lastColumn = -1;
+    }
+
+    drawSquare(row, column);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Draws one square from its tile, if it is in view
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private void drawSquare(int row, int column)
+  {
+    if (row < topRow || row >= topRow + visibleRows || column < leftColumn || column >= leftColumn + visibleColumns)
+      return;
+
+    int marked = (row == lastRow && column == lastColumn) ? 1 : 0;
+    graphics.drawImage(tiles[board.get(row, column)][marked], (column - leftColumn) * cellSize, (row - topRow) * cellSize);
+  }
+
+  /**
+   * Draws one tile the way a square button used to look: the board color inside a one-pixel edge,
+   * a round piece inside a three-pixel edge, and a small red dot for the last move
+   * @param emptyBoard the look of an empty square
+   * @param piece the look of the piece, or null for an empty square
+   * @param marked true to add the last-move mark
+   */
+  private Image drawTile(BackgroundFill emptyBoard, BackgroundFill piece, boolean marked)
+  {
+    Canvas tile = new Canvas(cellSize, cellSize);
+    GraphicsContext tileGraphics = tile.getGraphicsContext2D();
+
+    tileGraphics.setFill(Color.WHITE);
+    tileGraphics.fillRect(0, 0, cellSize, cellSize);
+    tileGraphics.setFill(emptyBoard.getFill());
+    tileGraphics.fillRect(1, 1, cellSize - 2, cellSize - 2);
+
+    if (piece != null)
+    {
+      tileGraphics.setFill(piece.getFill());
+      tileGraphics.fillOval(3, 3, cellSize - 6, cellSize - 6);
+    }
+
+    if (marked)
+    {
+      tileGraphics.setFill(Color.RED);
+      tileGraphics.fillOval(cellSize / 2 - 3, cellSize / 2 - 3, 6, 6);
+    }
+
+    SnapshotParameters parameters = new SnapshotParameters();
+    parameters.setFill(Color.TRANSPARENT);
+    return tile.snapshot(parameters, null);
+  }
+
+  /**
+   * Scrolls the view with the mouse wheel; shift (or a sideways wheel) scrolls the columns
+   * @param e the scroll event
+   */
+  private void handleScroll(ScrollEvent e)
+  {
+    double delta = (e.getDeltaX() != 0) ? e.getDeltaX() : e.getDeltaY();
+    int squares = (int)Math.signum(delta) * Math.max(1, (int)Math.abs(delta / cellSize));
+
+    if (e.isShiftDown() || e.getDeltaX() != 0)
+      scrollTo(topRow, leftColumn - squares);
+
+    else
+      scrollTo(topRow - squares, leftColumn);
+  }
+
+  /**
+   * Scrolls the view one square with the arrow keys
+   * @param e the key event
+   */
+  private void handleKey(KeyEvent e)
+  {
+    switch (e.getCode())
+    {
+      case UP:
+        scrollTo(topRow - 1, leftColumn);
+        break;
+
+      case DOWN:
+        scrollTo(topRow + 1, leftColumn);
+        break;
+
+      case LEFT:
+        scrollTo(topRow, leftColumn - 1);
+        break;
+
+      case RIGHT:
+        scrollTo(topRow, leftColumn + 1);
+        break;
+
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/**
+ * This interface represents something that keeps its own state in step with a Board
+ * Listeners are told about every piece put on or taken off the board, right after the bitboards change,
+ * so that counters can be updated for just the square that moved instead of rescanning the board
+ */
+
+public interface BoardListener
+{
+  /**
+   * Called after a piece is put on the board
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  void stonePlaced(int row, int column, int color);
+  
+  /**
+   * Called after a piece is taken off the board
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece that was taken off
+   */
+  void stoneRemoved(int row, int column, int color);
+}
@@ -0,0 +1,244 @@
+import java.util.Arrays;
+
+/**
+ * This class represents the empty squares within a radius of some piece, kept up to date as pieces come and go
+ * Every square counts the pieces within radius squares of it (in a square around it, as the engines' neighbourhood
+ * checks did), and the empty squares with a count above zero are the candidates, kept in a bit set
+ * A piece put down or taken off only touches the (2 * radius + 1)^2 counts around it, and the candidates are walked in
+ * row-major order with next, which skips 64 empty words at a time through a summary bit set and never allocates
+ * Note: Works on dense boards, which number their squares
+ */
+
+public class CandidateMoves implements BoardListener
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board being watched */
+  private final Board board;
+
+  /** Represents the number of pieces within radius squares of every square, including the square itself */
+  private final int[] counts;
+
+  /** Represents the candidates, one bit per square */
+  private final long[] bits;
+
+  /** Represents the words of bits that are not zero, one bit per word */
+  private final long[] summary;
+
+  /** Represents the distance from a piece within which empty squares are candidates */
+  private int radius;
+
+  /** Represents the number of candidates */
+  private int size = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a candidate set and starts watching a board; pieces already on it are counted
+   * @param board the board to watch
+   * @param radius the distance from a piece within which empty squares are candidates, at least 1
+   */
+  public CandidateMoves(Board board, int radius)
+  {
+    if (board.isSparse())
+      throw new IllegalArgumentException("Candidate moves need a dense board");
+
+    int squares = board.getRows() * board.getColumns();
+    this.board = board;
+    counts = new int[squares];
+    bits = new long[(squares + 63) >>> 6];
+    summary = new long[(bits.length + 63) >>> 6];
+    setRadius(radius);
+    board.addListener(this);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the distance from a piece within which empty squares are candidates
+   */
+  public int getRadius()
+  {
+    return radius;
+  }
+
+  /**
+   * Gets the number of candidates
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Determines whether a square is a candidate
+   * @param square the square, numbered row * columns + column
+   */
+  public boolean contains(int square)
+  {
+    return (bits[square >>> 6] & (1L << square)) != 0;
+  }
+
+  /** ==================================== SETTER METHODS ==================================== */
+
+  /**
+   * Changes the radius and counts every piece on the board again
+   * @param radius the distance from a piece within which empty squares are candidates, at least 1
+   */
+  public void setRadius(int radius)
+  {
+    if (radius < 1)
+      throw new IllegalArgumentException("Radius must be at least 1: " + radius);
+
+    this.radius = radius;
+    Arrays.fill(counts, 0);
+    Arrays.fill(bits, 0);
+    Arrays.fill(summary, 0);
+    size = 0;
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < board.getColumns(); column++)
+      {
+        if (!board.isEmpty(row, column))
+          stonePlaced(row, column, board.get(row, column));
+      }
+    }
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the first candidate after a square in row-major order, or -1 if there is none
+   * Start with -1: for (int square = candidates.next(-1); square >= 0; square = candidates.next(square))
+   * @param square the square to search after, numbered row * columns + column, or -1 to start
+   */
+  public int next(int square)
+  {
+    int from = square + 1;
+
+    if (from >= counts.length)
+      return -1;
+
+    int word = from >>> 6;
+    long rest = bits[word] & (-1L << from);
+
+    if (rest != 0)
+      return (word << 6) + Long.numberOfTrailingZeros(rest);
+
+    /** The summary finds the next word with a candidate without reading the empty ones */
+    word++;
+    int group = word >>> 6;
+
+    if (group >= summary.length)
+      return -1;
+
+    long words = summary[group] & (-1L << word);
+
+    while (words == 0)
+    {
+      if (++group == summary.length)
+        return -1;
+
+      words = summary[group];
+    }
+
+    word = (group << 6) + Long.numberOfTrailingZeros(words);
+    return (word << 6) + Long.numberOfTrailingZeros(bits[word]);
+  }
+
+  /**
+   * Counts the new piece around its square; the squares it brings within reach become candidates and its own square
+   * stops being one
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    int numColumn = board.getColumns();
+    int lastRow = Math.min(board.getRows() - 1, row + radius);
+    int firstColumn = Math.max(0, column - radius);
+    int lastColumn = Math.min(numColumn - 1, column + radius);
+
+    for (int r = Math.max(0, row - radius); r <= lastRow; r++)
+    {
+      for (int c = firstColumn; c <= lastColumn; c++)
+      {
+        int square = r * numColumn + c;
+
+        if (counts[square]++ == 0 && board.isEmpty(r, c))
+          add(square);
+      }
+    }
+
+    discard(row * numColumn + column);
+  }
+
+  /**
+   * Uncounts the piece around its square; the squares out of every piece's reach stop being candidates and its own
+   * square becomes one if another piece is near
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece that was taken off
+   */
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    int numColumn = board.getColumns();
+    int lastRow = Math.min(board.getRows() - 1, row + radius);
+    int firstColumn = Math.max(0, column - radius);
+    int lastColumn = Math.min(numColumn - 1, column + radius);
+
+    for (int r = Math.max(0, row - radius); r <= lastRow; r++)
+    {
+      for (int c = firstColumn; c <= lastColumn; c++)
+      {
+        int square = r * numColumn + c;
+
+        if (--counts[square] == 0)
+          discard(square);
+      }
+    }
+
+    if (counts[row * numColumn + column] > 0)
+      add(row * numColumn + column);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Makes a square a candidate
+   * @param square the square
+   */
+  private void add(int square)
+  {
+    int word = square >>> 6;
+
+    if ((bits[word] & (1L << square)) == 0)
+    {
+      bits[word] |= 1L << square;
+      summary[word >>> 6] |= 1L << word;
+      size++;
+    }
+  }
+
+  /**
+   * Makes a square no longer a candidate
+   * @param square the square
+   */
+  private void discard(int square)
+  {
+    int word = square >>> 6;
+
+    if ((bits[word] & (1L << square)) != 0)
+    {
+      bits[word] &= ~(1L << square);
+      size--;
+
+      if (bits[word] == 0)
+        summary[word >>> 6] &= ~(1L << word);
+    }
+  }
+}
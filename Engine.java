@@ -0,0 +1,46 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This interface represents a computer player that picks a move for a position within a time budget
+ */
+
+public interface Engine
+{
+  /**
+   * Searches for the best move for one player
+   * @param position the position to search, which is not changed
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   */
+  SearchResult search(Board position, int color, long millis);
+
+  /**
+   * Searches for the best move for one player until the time runs out or a stop signal owned by the caller is raised
+   * Note: The engine never clears the signal, so a signal raised before the search starts is not lost
+   * @param position the position to search, which is not changed
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   * @param stopSignal the stop request to watch
+   */
+  SearchResult search(Board position, int color, long millis, AtomicBoolean stopSignal);
+
+  /**
+   * Asks a running search to stop as soon as possible
+   * Note: Safe to call from any thread
+   */
+  void stop();
+
+  /**
+   * Sets what is told how each search is going, or null for nothing
+   * Note: Only call between searches
+   * @param listener the listener, or null
+   */
+  void setListener(SearchListener listener);
+
+  /**
+   * Sets whether a search counts as a move chosen in Metrics, with its time and depth; ponder searches do not
+   * Note: Only call between searches
+   * @param moveMetrics true to count every search as a move
+   */
+  void setMoveMetrics(boolean moveMetrics);
+}
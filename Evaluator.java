@@ -0,0 +1,162 @@
+/**
+ * This class represents a static evaluation of a board
+ * Every stretch of numWin squares on a row, column or diagonal that holds pieces of only one color scores for that
+ * color, and the score grows quickly with the number of pieces in the stretch
+ */
+
+public class Evaluator
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /**
+   * Represents the most a stretch is worth by default: a five-piece stretch, so numWin 5 keeps its weights, while
+   * with a bigger numWin it takes more than 15 of the strongest stretches to reach SearchEngine.WIN / 2
+   */
+  public static final int MAX_WEIGHT = 1 << 15;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the score of a stretch, indexed by the number of pieces in it */
+  private final int[] weights;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an evaluator with the default weights (each extra piece in a stretch is worth 8 times more)
+   * @param numWin number of pieces to be together that you can win
+   */
+  public Evaluator(int numWin)
+  {
+    this(numWin, defaultWeights(numWin));
+  }
+
+  /**
+   * Creates an evaluator with custom weights
+   * @param numWin number of pieces to be together that you can win
+   * @param weights the score of a stretch, indexed by the number of pieces in it (numWin + 1 values)
+   */
+  public Evaluator(int numWin, int[] weights)
+  {
+    if (weights.length != numWin + 1)
+      throw new IllegalArgumentException("Expected " + (numWin + 1) + " weights, got " + weights.length);
+
+    this.numWin = numWin;
+    this.weights = weights.clone();
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets a copy of the weights, indexed by the number of pieces in a stretch
+   */
+  public int[] getWeights()
+  {
+    return weights.clone();
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the score of a board for one player: positive is good for that player
+   * @param board the game board
+   * @param color the player to score for
+   */
+  public int evaluate(Board board, int color)
+  {
+    int numRow = board.getRows();
+    int numColumn = board.getColumns();
+    int score = 0;
+
+    for (int row = 0; row < numRow; row++)
+    {
+      score += evaluateLine(board, row, 0, Board.HORIZONTAL);
+      score += evaluateLine(board, row, 0, Board.DIAGONAL);
+      score += evaluateLine(board, row, numColumn - 1, Board.ANTI_DIAGONAL);
+    }
+
+    for (int column = 0; column < numColumn; column++)
+    {
+      score += evaluateLine(board, 0, column, Board.VERTICAL);
+
+      if (column > 0)
+        score += evaluateLine(board, 0, column, Board.DIAGONAL);
+
+      if (column < numColumn - 1)
+        score += evaluateLine(board, 0, column, Board.ANTI_DIAGONAL);
+    }
+
+    return (color == Board.BLACK) ? score : -score;
+  }
+
+  /**
+   * Returns the default weights: 0 for an empty stretch, then 8, 64, 512 and so on up to MAX_WEIGHT
+   * @param numWin number of pieces to be together that you can win
+   */
+  public static int[] defaultWeights(int numWin)
+  {
+    int[] weights = new int[numWin + 1];
+
+    for (int pieces = 1; pieces <= numWin; pieces++)
+      weights[pieces] = (int)Math.min(MAX_WEIGHT, 1L << (3 * pieces));
+
+    return weights;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns black's score minus white's score for every stretch of one line
+   * @param board the game board
+   * @param row the row of the first square of the line
+   * @param column the column of the first square of the line
+   * @param direction the line direction
+   */
+  private int evaluateLine(Board board, int row, int column, int direction)
+  {
+    int rowStep = Board.ROW_STEP[direction];
+    int columnStep = Board.COLUMN_STEP[direction];
+    int blackCount = 0;
+    int whiteCount = 0;
+    int score = 0;
+
+    for (int length = 0; board.isOnBoard(row, column); length++)
+    {
+      int color = board.get(row, column);
+
+      if (color == Board.BLACK)
+        blackCount++;
+
+      else if (color == Board.WHITE)
+        whiteCount++;
+
+      /** Drops the square that just left the stretch */
+      if (length >= numWin)
+      {
+        int old = board.get(row - numWin * rowStep, column - numWin * columnStep);
+
+        if (old == Board.BLACK)
+          blackCount--;
+
+        else if (old == Board.WHITE)
+          whiteCount--;
+      }
+
+      if (length >= numWin - 1)
+      {
+        if (whiteCount == 0)
+          score += weights[blackCount];
+
+        else if (blackCount == 0)
+          score -= weights[whiteCount];
+      }
+
+      row += rowStep;
+      column += columnStep;
+    }
+
+    return score;
+  }
+}
@@ -0,0 +1,376 @@
+/**
+ * This class represents the forbidden-move rules (Four-Four and Three-Three, or the corresponding numbers, and for
+ * Renju the overline) of a rule set on a board
+ * Every check reads one RuleSet table entry per direction, so whether a move is legal costs a few array reads
+ * A move that makes exactly numWin in a row is never forbidden
+ * Under Renju an open three only counts if one of the squares that turn it into a straight four is not forbidden
+ * itself, with the three's move already on the board; those squares are checked the same way, up to
+ * MAX_THREE_DEPTH moves deep, on windows with the supposed moves added rather than on the board
+ * Note: The supposed moves are kept in the instance, so only one thread may use it, as with its board
+ */
+
+public class ForbiddenMoves
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents how many supposed moves deep a Renju three is checked; deeper threes are taken as real */
+  private static final int MAX_THREE_DEPTH = 3;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board being checked */
+  private final Board board;
+
+  /** Represents the rule set */
+  private final RuleSet rules;
+
+  /** Represents the line patterns for numWin */
+  private final PatternTable patterns;
+
+  /** Represents the rows of the supposed moves of the Renju three check under way, one per level */
+  private final int[] supposedRows = new int[MAX_THREE_DEPTH + 1];
+
+  /** Represents the columns of the supposed moves, matching supposedRows */
+  private final int[] supposedColumns = new int[MAX_THREE_DEPTH + 1];
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates this program's own forbidden-move rules (RuleSet.DEFAULT) for a board
+   * @param board the game board
+   * @param numWin number of pieces to be together that you can win
+   */
+  public ForbiddenMoves(Board board, int numWin)
+  {
+    this(board, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates the forbidden-move rules of a rule set for a board
+   * @param board the game board
+   * @param rules the rule set
+   */
+  public ForbiddenMoves(Board board, RuleSet rules)
+  {
+    this.board = board;
+    this.rules = rules;
+    this.patterns = rules.getPatterns();
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the line patterns used by the checks
+   */
+  public PatternTable getPatterns()
+  {
+    return patterns;
+  }
+
+  /**
+   * Gets the rule set
+   */
+  public RuleSet getRules()
+  {
+    return rules;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the line type a move would make in one direction (see PatternTable)
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   * @param direction the line direction
+   */
+  public int lineType(int row, int column, int color, int direction)
+  {
+    return patterns.lookup(board, row, column, color, direction);
+  }
+
+  /**
+   * Returns what a move does on one line under the rule set: RuleSet.WINS, FIVE, OVERLINE and OPEN_THREE bits and
+   * the number of fours (see RuleSet.fours)
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   * @param direction the line direction
+   */
+  public int lineFlags(int row, int column, int color, int direction)
+  {
+    return lineFlags(row, column, color, direction, 0);
+  }
+
+  /**
+   * Determines whether a move makes exactly numWin in a row
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isFive(int row, int column, int color)
+  {
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      if (lineType(row, column, color, direction) == PatternTable.FIVE)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Determines whether a move wins under the rule set
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isWin(int row, int column, int color)
+  {
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      if ((lineFlags(row, column, color, direction, 0) & RuleSet.WINS) != 0)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Determine whether the move violates the Four-Four rule (or corresponding number)
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isAgainstFourFour(int row, int column, int color)
+  {
+    if (!rules.hasForbiddenMoves(color))
+      return false;
+
+    int fours = 0;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int flags = lineFlags(row, column, color, direction, 0);
+
+      if ((flags & RuleSet.FIVE) != 0)
+        return false;
+
+      fours += RuleSet.fours(flags);
+    }
+
+    return fours >= 2;
+  }
+
+  /**
+   * Determine whether the move violates the Three-Three rule (or corresponding number)
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isAgainstThreeThree(int row, int column, int color)
+  {
+    if (!rules.hasForbiddenMoves(color))
+      return false;
+
+    int threes = 0;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int flags = lineFlags(row, column, color, direction, 0);
+
+      if ((flags & RuleSet.FIVE) != 0)
+        return false;
+
+      if ((flags & RuleSet.OPEN_THREE) != 0)
+        threes++;
+    }
+
+    return threes >= 2 && (!rules.checksThrees() || countThrees(row, column, color, 0) >= 2);
+  }
+
+  /**
+   * Determines whether the move makes an overline the rule set forbids
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isAgainstOverline(int row, int column, int color)
+  {
+    if (!rules.forbidsOverline(color))
+      return false;
+
+    boolean overline = false;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int flags = lineFlags(row, column, color, direction, 0);
+
+      if ((flags & RuleSet.FIVE) != 0)
+        return false;
+
+      overline |= (flags & RuleSet.OVERLINE) != 0;
+    }
+
+    return overline;
+  }
+
+  /**
+   * Determines whether a move on an empty square is forbidden by any rule
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   */
+  public boolean isForbidden(int row, int column, int color)
+  {
+    return rules.hasForbiddenMoves(color) && isForbidden(row, column, color, 0);
+  }
+
+  /**
+   * Determines whether a move that makes the given number of fours and open threes (and no five) is forbidden
+   * Note: This lets callers that already looked up the line types skip a second lookup
+   * @param fours the number of fours the move makes
+   * @param openThrees the number of open threes the move makes
+   */
+  public static boolean breaksRules(int fours, int openThrees)
+  {
+    return fours >= 2 || openThrees >= 2;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Determines whether a move is forbidden with some supposed moves of the same color on the board
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   * @param depth the number of threes being checked that led here, which is also the number of supposed moves
+   */
+  private boolean isForbidden(int row, int column, int color, int depth)
+  {
+    int fours = 0;
+    int threes = 0;
+    boolean overline = false;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int flags = lineFlags(row, column, color, direction, depth);
+
+      if ((flags & RuleSet.FIVE) != 0)
+        return false;
+
+      fours += RuleSet.fours(flags);
+      overline |= (flags & RuleSet.OVERLINE) != 0;
+
+      if ((flags & RuleSet.OPEN_THREE) != 0)
+        threes++;
+    }
+
+    /** Only a move that two threes would make forbidden needs its threes checked */
+    if (rules.checksThrees() && threes >= 2 && fours < 2 && !(overline && rules.forbidsOverline(color)))
+      threes = countThrees(row, column, color, depth);
+
+    return rules.isForbidden(color, fours, threes, overline);
+  }
+
+  /**
+   * Returns the number of open threes a move makes that count under Renju: those that a move that is not forbidden
+   * turns into a straight four; past MAX_THREE_DEPTH every open three counts
+   * The move is supposed at index depth of supposedRows and supposedColumns while the squares that turn its threes
+   * into fours are checked, so deeper levels only overwrite the entries after it
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   * @param depth the number of threes being checked that led here, which is also the number of supposed moves
+   */
+  private int countThrees(int row, int column, int color, int depth)
+  {
+    int radius = patterns.getRadius();
+    int threes = 0;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      long own = window(row, column, color, direction, depth);
+      long blocked = board.window(Board.opponent(color), direction, row, column, radius)
+                       | board.outside(direction, row, column, radius);
+
+      if ((rules.lineFlags(own, blocked, color) & RuleSet.OPEN_THREE) == 0)
+        continue;
+
+      if (depth >= MAX_THREE_DEPTH)
+      {
+        threes++;
+        continue;
+      }
+
+      long empty = ~(own | blocked | (1L << radius)) & ((1L << (2 * radius + 1)) - 1);
+
+      for (long squares = empty; squares != 0; squares &= squares - 1)
+      {
+        long square = Long.lowestOneBit(squares);
+
+        if (patterns.lookup(own | square, blocked) != PatternTable.OPEN_FOUR)
+          continue;
+
+        int step = Long.numberOfTrailingZeros(square) - radius;
+        supposedRows[depth] = row;
+        supposedColumns[depth] = column;
+
+        if (!isForbidden(row + step * Board.ROW_STEP[direction], column + step * Board.COLUMN_STEP[direction], color,
+                         depth + 1))
+        {
+          threes++;
+          break;
+        }
+      }
+    }
+
+    return threes;
+  }
+
+  /**
+   * Returns what a move does on one line under the rule set, with some supposed moves of the same color on the board
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   * @param color the will-be-put piece's color
+   * @param direction the line direction
+   * @param supposed the number of supposed moves, the first entries of supposedRows and supposedColumns
+   */
+  private int lineFlags(int row, int column, int color, int direction, int supposed)
+  {
+    int radius = patterns.getRadius();
+    long own = window(row, column, color, direction, supposed);
+    long blocked = board.window(Board.opponent(color), direction, row, column, radius)
+                     | board.outside(direction, row, column, radius);
+
+    return rules.lineFlags(own, blocked, color);
+  }
+
+  /**
+   * Returns the window of a color's pieces around a square (see Board.window), with the supposed moves that lie on
+   * the line added
+   * @param row the centre square's row number
+   * @param column the centre square's column number
+   * @param color the color
+   * @param direction the line direction
+   * @param supposed the number of supposed moves, the first entries of supposedRows and supposedColumns
+   */
+  private long window(int row, int column, int color, int direction, int supposed)
+  {
+    int radius = patterns.getRadius();
+    long own = board.window(color, direction, row, column, radius);
+
+    for (int i = 0; i < supposed; i++)
+    {
+      int rowOffset = supposedRows[i] - row;
+      int columnOffset = supposedColumns[i] - column;
+      int step = (Board.ROW_STEP[direction] != 0) ? rowOffset * Board.ROW_STEP[direction] : columnOffset;
+
+      if (step != 0 && Math.abs(step) <= radius && rowOffset == step * Board.ROW_STEP[direction]
+            && columnOffset == step * Board.COLUMN_STEP[direction])
+        own |= 1L << (radius + step);
+    }
+
+    return own;
+  }
+}
@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+/**
+ * This class represents a game in progress: the board, whose turn it is, and the moves played, which can be taken back
+ * and played again
+ * make and unmake put a piece on and take it off the board, so everything that listens to the board (the win detector,
+ * hashes, the canvas) follows incrementally; no board is ever copied and nothing is allocated per move
+ * A move taken back with unmake stays on the stack until a different move is made, so it can be redone
+ */
+
+public class Game
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board the game is played on */
+  private final Board board;
+
+  /** Represents the win detector following the board */
+  private final WinDetector winDetector;
+
+  /** Represents the row of every move, oldest first */
+  private int[] moveRows = new int[256];
+
+  /** Represents the column of every move, oldest first */
+  private int[] moveColumns = new int[256];
+
+  /** Represents the number of moves on the board */
+  private int moveCount = 0;
+
+  /** Represents the number of moves on the stack, including the ones taken back that can be redone */
+  private int redoCount = 0;
+
+  /** Represents the color to move */
+  private int toMove;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a game on a board, starting from whatever is on it
+   * @param board the board
+   * @param winDetector the win detector following the board
+   * @param toMove the color to move first, BLACK or WHITE
+   */
+  public Game(Board board, WinDetector winDetector, int toMove)
+  {
+    this.board = board;
+    this.winDetector = winDetector;
+    this.toMove = toMove;
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the board the game is played on
+   */
+  public Board getBoard()
+  {
+    return board;
+  }
+
+  /**
+   * Gets the color to move, BLACK or WHITE
+   */
+  public int getToMove()
+  {
+    return toMove;
+  }
+
+  /**
+   * Determines whether it is black's turn
+   */
+  public boolean isBlackTurn()
+  {
+    return toMove == Board.BLACK;
+  }
+
+  /**
+   * Determines whether the last move won
+   */
+  public boolean hasWinner()
+  {
+    return winDetector.hasWinner();
+  }
+
+  /**
+   * Gets the number of moves made since the game (or the last reset) started
+   */
+  public int getMoveCount()
+  {
+    return moveCount;
+  }
+
+  /**
+   * Gets the row of a move
+   * @param index the move's number, from 0 for the first move
+   */
+  public int getMoveRow(int index)
+  {
+    return moveRows[index];
+  }
+
+  /**
+   * Gets the column of a move
+   * @param index the move's number, from 0 for the first move
+   */
+  public int getMoveColumn(int index)
+  {
+    return moveColumns[index];
+  }
+
+  /**
+   * Determines whether there is a move to take back
+   */
+  public boolean canUndo()
+  {
+    return moveCount > 0;
+  }
+
+  /**
+   * Determines whether there is a move taken back that can be played again
+   */
+  public boolean canRedo()
+  {
+    return redoCount > moveCount;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Puts the next piece on an empty square and passes the turn; the moves that could be redone are forgotten
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public void make(int row, int column)
+  {
+    if (moveCount == moveRows.length)
+    {
+      moveRows = Arrays.copyOf(moveRows, moveCount * 2);
+      moveColumns = Arrays.copyOf(moveColumns, moveCount * 2);
+    }
+
+    board.place(row, column, toMove);
+    moveRows[moveCount] = row;
+    moveColumns[moveCount] = column;
+    moveCount++;
+    redoCount = moveCount;
+    toMove = Board.opponent(toMove);
+  }
+
+  /**
+   * Takes the last move back and gives the turn back; the move can be redone until another move is made
+   */
+  public void unmake()
+  {
+    if (moveCount == 0)
+      throw new IllegalStateException("No move to take back");
+
+    moveCount--;
+    board.remove(moveRows[moveCount], moveColumns[moveCount]);
+    toMove = Board.opponent(toMove);
+  }
+
+  /**
+   * Plays the last move taken back again
+   */
+  public void redo()
+  {
+    if (!canRedo())
+      throw new IllegalStateException("No move to play again");
+
+    board.place(moveRows[moveCount], moveColumns[moveCount], toMove);
+    moveCount++;
+    toMove = Board.opponent(toMove);
+  }
+
+  /**
+   * Forgets the moves without touching the board, so that the game goes on from the position as it is
+   * @param toMove the color to move, BLACK or WHITE
+   */
+  public void reset(int toMove)
+  {
+    moveCount = 0;
+    redoCount = 0;
+    this.toMove = toMove;
+  }
+}
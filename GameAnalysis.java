@@ -0,0 +1,668 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the offline analysis of a game record file (see GameRecords): every game is replayed and its
+ * moves are annotated with blunders, missed forced wins, forbidden moves and broken records
+ * One thread streams the games from disk, a fixed number of workers replay them in parallel, each with its own board,
+ * win detector, forbidden-move rules and threat solver for the rule set in the file's header, and the calling thread writes the annotations in game order
+ * The queues between them are bounded and the games in flight are capped, so memory stays flat on any archive
+ * Every CHECKPOINT_GAMES games, and with every progress report, the output is flushed and a checkpoint file records
+ * how far it got; a run that finds a checkpoint cuts the output back to it and carries on from there
+ *
+ * Annotations, one per line: game number (from 0), move number (from 0), kind, square in text notation
+ *   blunder: after the move the opponent has a win by continuous fours, and the mover had none of their own
+ *   missed-win: the mover had a win by continuous fours but the move makes neither five nor four
+ *   forbidden: the move is forbidden by the file's rule set (see RuleSet), e.g. two fours or two open threes
+ *   illegal: the move is off the board, on a piece, or comes after the game was won
+ *   wrong-result: the recorded result is not the one the moves give (move number is the number of moves)
+ *
+ * Usage: GameAnalysis records output [--threads=n] [--vcf-nodes=n] [--cache=file] [--cache-mb=n] [--metrics[=ms]]
+ *          [--metrics-json]
+ */
+
+public class GameAnalysis
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the kinds of annotation, in the order they are counted */
+  public static final String[] KINDS = {"blunder", "missed-win", "forbidden", "illegal", "wrong-result"};
+
+  /** Represents the index of blunder in KINDS */
+  private static final int BLUNDER = 0;
+
+  /** Represents the index of missed-win in KINDS */
+  private static final int MISSED_WIN = 1;
+
+  /** Represents the index of forbidden in KINDS */
+  private static final int FORBIDDEN = 2;
+
+  /** Represents the index of illegal in KINDS */
+  private static final int ILLEGAL = 3;
+
+  /** Represents the index of wrong-result in KINDS */
+  private static final int WRONG_RESULT = 4;
+
+  /** Represents the number of games written between checkpoints */
+  private static final int CHECKPOINT_GAMES = 10000;
+
+  /** Represents the key mixed into a position's hash for the position cache, so solver and search results never meet */
+  private static final long VCF_KEY = 0x5643465345415243L;
+
+  /** Represents the time between progress reports in nanoseconds */
+  private static final long REPORT_NANOS = 10000000000L;
+
+  /** Represents the task that tells a worker there are no more games */
+  private static final Task END = new Task(-1);
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the number of worker threads */
+  private final int threads;
+
+  /** Represents the most positions the threat solver may visit per analysed position */
+  private long vcfNodes = 1000;
+
+  /** Represents the position cache file that keeps threat-solver results across runs, or null */
+  private Path cacheFile = null;
+
+  /** Represents the size in megabytes of a new position cache file */
+  private long cacheMegabytes = 256;
+
+  /** Represents the number of positions replayed in this run */
+  private final AtomicLong positions = new AtomicLong();
+
+  /** Represents the number of annotations of each kind written in this run */
+  private final long[] kindCounts = new long[KINDS.length];
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an analysis that replays games on a number of threads
+   * @param threads the number of worker threads, at least 1
+   */
+  public GameAnalysis(int threads)
+  {
+    this.threads = Math.max(1, threads);
+  }
+
+  /** ==================================== SETTER METHODS ==================================== */
+
+  /**
+   * Sets the most positions the threat solver may visit when it looks for a win in one position
+   * @param vcfNodes the most positions, at least 1
+   */
+  public void setVcfNodes(long vcfNodes)
+  {
+    this.vcfNodes = Math.max(1, vcfNodes);
+  }
+
+  /**
+   * Sets a position cache file in which threat-solver results are kept, so a later run over the same positions
+   * (or another run at the same time) does not solve them again; it is created if it does not exist
+   * @param path the cache file, made for the board size and rule set of the records, or null for none
+   * @param megabytes the size of a new cache file
+   */
+  public void setCache(Path path, long megabytes)
+  {
+    this.cacheFile = path;
+    this.cacheMegabytes = megabytes;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Analyses every game of a record file and writes the annotations, carrying on from a checkpoint if there is one
+   * Prints the progress every 10 seconds and a summary at the end
+   * @param input the record file
+   * @param output the annotation file; its checkpoint is the same name with ".checkpoint" added
+   */
+  public void run(Path input, Path output) throws IOException, InterruptedException
+  {
+    Path checkpoint = Paths.get(output.toString() + ".checkpoint");
+    long[] resume = readCheckpoint(checkpoint, output);
+    long start = System.nanoTime();
+    int capacity = 4 * threads;
+
+    BlockingQueue<Task> work = new ArrayBlockingQueue<Task>(capacity);
+    BlockingQueue<Task> done = new ArrayBlockingQueue<Task>(capacity);
+    Semaphore inFlight = new Semaphore(2 * capacity);
+    AtomicLong readCount = new AtomicLong(-1);
+    ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+
+    try (GameRecordReader reader = GameRecordReader.open(input);
+         BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.US_ASCII, StandardOpenOption.CREATE,
+                                                         StandardOpenOption.APPEND))
+    {
+      int numRow = reader.getRows();
+      RuleSet rules = RuleSet.get(reader.getRules(), reader.getNumWin());
+      PositionCache cache = (cacheFile == null) ? null
+        : PositionCache.open(cacheFile, reader.getRows(), reader.getColumns(), reader.getNumWin(), reader.getRules(),
+                             cacheMegabytes);
+      Future<?> reading = pool.submit(() -> readGames(reader, resume[0], work, inFlight, readCount));
+      Future<?>[] workers = new Future<?>[threads];
+
+      for (int i = 0; i < threads; i++)
+        workers[i] = pool.submit(() -> analyseGames(reader.getRows(), reader.getColumns(), rules, cache, work, done));
+
+      /** Games finish out of order; they wait here until every game before them is written */
+      HashMap<Long, Task> finished = new HashMap<Long, Task>();
+      long next = resume[0];
+      long bytes = resume[1];
+      long lastReport = start;
+
+      while (readCount.get() < 0 || next < readCount.get())
+      {
+        Task task = done.poll(100, TimeUnit.MILLISECONDS);
+
+        if (task == null)
+        {
+          if (reading.isDone() && readCount.get() < 0)
+            reading.get();
+
+          continue;
+        }
+
+        if (task.failure != null)
+          throw new IOException("Game " + task.index + " could not be analysed", task.failure);
+
+        finished.put(task.index, task);
+
+        for (task = finished.remove(next); task != null; task = finished.remove(next))
+        {
+          bytes += write(writer, task, numRow);
+          next++;
+          inFlight.release();
+
+          if ((next - resume[0]) % CHECKPOINT_GAMES == 0)
+          {
+            writer.flush();
+            writeCheckpoint(checkpoint, next, bytes);
+          }
+        }
+
+        if (System.nanoTime() - lastReport > REPORT_NANOS)
+        {
+          lastReport = System.nanoTime();
+          writer.flush();
+          writeCheckpoint(checkpoint, next, bytes);
+          report(next, next - resume[0], start);
+        }
+      }
+
+      for (int i = 0; i < threads; i++)
+        work.put(END);
+
+      for (Future<?> worker : workers)
+        worker.get();
+
+      writer.flush();
+      writeCheckpoint(checkpoint, next, bytes);
+      report(next, next - resume[0], start);
+
+      for (int kind = 0; kind < KINDS.length; kind++)
+        System.out.println(KINDS[kind] + ": " + kindCounts[kind]);
+
+      if (cache != null)
+      {
+        cache.force();
+        System.out.println("position cache hit rate: " + String.format("%.1f%%", 100 * cache.getHitRate()));
+      }
+    }
+
+    catch (ExecutionException e)
+    {
+      throw new IOException("Analysis failed: " + e.getCause().getMessage(), e.getCause());
+    }
+
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Analyses a record file from the command line
+   * @param args the record file, the annotation file, and optionally --threads=n, --vcf-nodes=n, --cache=file (with
+   * --cache-mb=n for a new one) and the options of Metrics.configure
+   */
+  public static void main(String[] args)
+  {
+    int threads = Runtime.getRuntime().availableProcessors();
+    long vcfNodes = -1;
+    String cacheFile = null;
+    long cacheMegabytes = 256;
+    java.util.ArrayList<String> files = new java.util.ArrayList<String>();
+
+    for (String arg : args)
+    {
+      if (arg.startsWith("--threads="))
+        threads = Integer.parseInt(arg.substring("--threads=".length()));
+
+      else if (arg.startsWith("--vcf-nodes="))
+        vcfNodes = Long.parseLong(arg.substring("--vcf-nodes=".length()));
+
+      else if (arg.startsWith("--metrics"))
+        Metrics.configure(arg);
+
+      else if (arg.startsWith("--cache="))
+        cacheFile = arg.substring("--cache=".length());
+
+      else if (arg.startsWith("--cache-mb="))
+        cacheMegabytes = Long.parseLong(arg.substring("--cache-mb=".length()));
+
+      else
+        files.add(arg);
+    }
+
+    if (files.size() != 2)
+    {
+      System.out.println("Usage: GameAnalysis records output [--threads=n] [--vcf-nodes=n] [--cache=file] [--cache-mb=n]"
+                           + " [--metrics[=ms]] [--metrics-json]");
+      return;
+    }
+
+    GameAnalysis analysis = new GameAnalysis(threads);
+
+    if (vcfNodes > 0)
+      analysis.setVcfNodes(vcfNodes);
+
+    if (cacheFile != null)
+      analysis.setCache(Paths.get(cacheFile), cacheMegabytes);
+
+    try
+    {
+      analysis.run(Paths.get(files.get(0)), Paths.get(files.get(1)));
+    }
+
+    catch (IOException e)
+    {
+      System.out.println("Failed: " + e.getMessage());
+    }
+
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Streams the games into the work queue, skipping the ones already analysed, and leaves the number of games read
+   * in readCount at the end
+   * @param reader the record file
+   * @param skip the number of games already analysed
+   * @param work the work queue
+   * @param inFlight the permits of the games read but not written yet
+   * @param readCount where the number of games read is left
+   */
+  private Void readGames(GameRecordReader reader, long skip, BlockingQueue<Task> work, Semaphore inFlight,
+                         AtomicLong readCount) throws IOException, InterruptedException
+  {
+    long index = 0;
+
+    while (reader.next())
+    {
+      if (index >= skip)
+      {
+        inFlight.acquire();
+        Task task = new Task(index);
+        task.load(reader);
+        work.put(task);
+      }
+
+      index++;
+    }
+
+    readCount.set(Math.max(index, skip));
+    return null;
+  }
+
+  /**
+   * Takes games from the work queue until END and passes them on analysed
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set
+   * @param cache the position cache shared by the workers, or null
+   * @param work the work queue
+   * @param done the queue of analysed games
+   */
+  private Void analyseGames(int rows, int columns, RuleSet rules, PositionCache cache, BlockingQueue<Task> work,
+                            BlockingQueue<Task> done)
+    throws InterruptedException
+  {
+    Board board = new Board(rows, columns);
+    WinDetector winDetector = new WinDetector(board, rules);
+    ForbiddenMoves forbiddenMoves = new ForbiddenMoves(board, rules);
+    ThreatSolver solver = new ThreatSolver(rows, columns, rules);
+    Zobrist zobrist = new Zobrist(board);
+
+    for (Task task = work.take(); task != END; task = work.take())
+    {
+      try
+      {
+        analyse(task, board, winDetector, forbiddenMoves, solver, zobrist, cache);
+      }
+
+      catch (RuntimeException e)
+      {
+        task.failure = e;
+      }
+
+      done.put(task);
+    }
+
+    return null;
+  }
+
+  /**
+   * Replays one game on an empty board, annotates it and takes its pieces off again
+   * @param task the game
+   * @param board the worker's board, empty
+   * @param winDetector the win detector following the board
+   * @param forbiddenMoves the forbidden-move rules on the board
+   * @param solver the worker's threat solver
+   * @param zobrist the hash following the board
+   * @param cache the position cache, or null
+   */
+  private void analyse(Task task, Board board, WinDetector winDetector, ForbiddenMoves forbiddenMoves,
+                       ThreatSolver solver, Zobrist zobrist, PositionCache cache)
+  {
+    int placed = 0;
+    int winner = Board.EMPTY;
+    boolean hadWin = false;
+
+    try
+    {
+      for (int ply = 0; ply < task.length; ply++)
+      {
+        int row = task.rows[ply];
+        int column = task.columns[ply];
+        int color = (ply % 2 == 0) ? Board.BLACK : Board.WHITE;
+
+        if (winner != Board.EMPTY || !board.isOnBoard(row, column) || !board.isEmpty(row, column))
+        {
+          task.annotate(ply, ILLEGAL, row, column);
+          break;
+        }
+
+        /** The previous move was a blunder if it handed the mover a forced win the previous mover did not have */
+        boolean hasWin = hasVcf(board, color, solver, zobrist, cache);
+
+        if (hasWin && !hadWin && ply > 0)
+          task.annotate(ply - 1, BLUNDER, task.rows[ply - 1], task.columns[ply - 1]);
+
+        if (forbiddenMoves.isForbidden(row, column, color))
+          task.annotate(ply, FORBIDDEN, row, column);
+
+        if (hasWin && !makesFour(forbiddenMoves, row, column, color))
+          task.annotate(ply, MISSED_WIN, row, column);
+
+        board.place(row, column, color);
+        placed++;
+        positions.incrementAndGet();
+        hadWin = hasWin;
+
+        if (winDetector.hasWinner())
+          winner = color;
+      }
+
+      /** The last move can be a blunder too, unless it ended the game */
+      if (winner == Board.EMPTY && placed == task.length && placed > 0)
+      {
+        int next = (placed % 2 == 0) ? Board.BLACK : Board.WHITE;
+
+        if (!hadWin && hasVcf(board, next, solver, zobrist, cache))
+          task.annotate(placed - 1, BLUNDER, task.rows[placed - 1], task.columns[placed - 1]);
+      }
+
+      if (task.result != GameRecords.UNFINISHED && task.result != winner)
+        task.annotate(task.length, WRONG_RESULT, -1, -1);
+    }
+
+    finally
+    {
+      for (int ply = placed - 1; ply >= 0; ply--)
+        board.remove(task.rows[ply], task.columns[ply]);
+    }
+  }
+
+  /**
+   * Determines whether a player has a win by continuous fours, from the position cache if an earlier solve with at
+   * least the same node budget (to the nearest power of two) is there, or else from the solver, whose result is
+   * then kept: a win or a proof that there is none holds for any budget, and a search that ran out only for as large
+   * a budget
+   * @param board the position
+   * @param color the player to move and win
+   * @param solver the threat solver
+   * @param zobrist the hash following the board
+   * @param cache the position cache, or null
+   */
+  private boolean hasVcf(Board board, int color, ThreatSolver solver, Zobrist zobrist, PositionCache cache)
+  {
+    if (cache == null)
+      return solver.solveVcf(board, color, vcfNodes, Long.MAX_VALUE / 1000000L) != null;
+
+    long key = zobrist.getHash() ^ (color == Board.WHITE ? Zobrist.WHITE_TO_MOVE : 0L) ^ VCF_KEY;
+    int budget = 64 - Long.numberOfLeadingZeros(vcfNodes);
+    long cached = cache.probe(key);
+
+    if (cached != 0 && (PositionCache.isProven(cached) || TranspositionTable.depth(cached) >= budget))
+      return TranspositionTable.score(cached) > 0;
+
+    int[] win = solver.solveVcf(board, color, vcfNodes, Long.MAX_VALUE / 1000000L);
+
+    if (win != null)
+      cache.store(key, win[0], SearchEngine.WIN - win.length, budget, TranspositionTable.EXACT, true);
+
+    else
+      cache.store(key, -1, 0, budget, TranspositionTable.EXACT, solver.getStatus() == ThreatSolver.NO_WIN);
+
+    return win != null;
+  }
+
+  /**
+   * Determines whether a move makes five or at least one four
+   * @param forbiddenMoves the rules, which look the line types up
+   * @param row the move's row number
+   * @param column the move's column number
+   * @param color the mover's color
+   */
+  private static boolean makesFour(ForbiddenMoves forbiddenMoves, int row, int column, int color)
+  {
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int type = forbiddenMoves.lineType(row, column, color, direction);
+
+      if (type == PatternTable.FIVE || PatternTable.fourCount(type) > 0)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Writes the annotations of a game and returns the number of bytes written
+   * @param writer the annotation file
+   * @param task the analysed game
+   * @param rows the number of rows of the board
+   */
+  private long write(BufferedWriter writer, Task task, int rows) throws IOException
+  {
+    long bytes = 0;
+
+    for (int i = 0; i < task.annotationCount; i++)
+    {
+      int ply = task.annotations[4 * i];
+      int kind = task.annotations[4 * i + 1];
+      int row = task.annotations[4 * i + 2];
+      int column = task.annotations[4 * i + 3];
+      String line = task.index + " " + ply + " " + KINDS[kind] + " "
+                      + ((row >= 0) ? GameRecords.toText(row, column, rows) : "-");
+
+      writer.write(line);
+      writer.newLine();
+      bytes += line.length() + System.lineSeparator().length();
+      kindCounts[kind]++;
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Prints the games done and the positions per second of this run
+   * @param games the games written, including the ones before the checkpoint
+   * @param runGames the games written in this run
+   * @param start the time the run started (System.nanoTime)
+   */
+  private void report(long games, long runGames, long start)
+  {
+    double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    System.out.println(games + " games (" + runGames + " this run), " + positions.get() + " positions in "
+                         + String.format("%.1f", seconds) + "s, "
+                         + String.format("%.0f", positions.get() / seconds) + " positions/sec");
+  }
+
+  /**
+   * Reads a checkpoint and cuts the output back to it, returning {games done, output bytes}, or {0, 0} without one
+   * @param checkpoint the checkpoint file
+   * @param output the annotation file
+   */
+  private static long[] readCheckpoint(Path checkpoint, Path output) throws IOException
+  {
+    if (!Files.exists(checkpoint))
+    {
+      Files.deleteIfExists(output);
+      return new long[] {0, 0};
+    }
+
+    String[] fields = new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim().split(" ");
+    long games;
+    long bytes;
+
+    try
+    {
+      games = Long.parseLong(fields[0].substring("games=".length()));
+      bytes = Long.parseLong(fields[1].substring("bytes=".length()));
+    }
+
+    catch (RuntimeException e)
+    {
+      throw new IOException("Unreadable checkpoint: " + checkpoint, e);
+    }
+
+    try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+    {
+      if (channel.size() < bytes)
+        throw new IOException(output + " is shorter than its checkpoint says");
+
+      channel.truncate(bytes);
+    }
+
+    System.out.println("Carrying on after game " + games);
+    return new long[] {games, bytes};
+  }
+
+  /**
+   * Writes a checkpoint next to the target and then moves it into place, so a crash never leaves half of one
+   * @param checkpoint the checkpoint file
+   * @param games the games written
+   * @param bytes the bytes in the output file
+   */
+  private static void writeCheckpoint(Path checkpoint, long games, long bytes) throws IOException
+  {
+    Path temporary = Paths.get(checkpoint.toString() + ".tmp");
+    Files.write(temporary, ("games=" + games + " bytes=" + bytes + "\n").getBytes(StandardCharsets.US_ASCII));
+    Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * A game on its way through the pipeline: its moves, then its annotations
+   */
+  private static final class Task
+  {
+    /** Represents the game's number in the file */
+    final long index;
+
+    /** Represents the rows of the moves */
+    int[] rows;
+
+    /** Represents the columns of the moves */
+    int[] columns;
+
+    /** Represents the number of moves */
+    int length;
+
+    /** Represents the recorded result */
+    int result;
+
+    /** Represents the annotations, four ints each: move number, kind, row and column */
+    int[] annotations = new int[0];
+
+    /** Represents the number of annotations */
+    int annotationCount = 0;
+
+    /** Represents what went wrong if the game could not be analysed */
+    RuntimeException failure;
+
+    /**
+     * Creates a task for a game
+     * @param index the game's number in the file
+     */
+    Task(long index)
+    {
+      this.index = index;
+    }
+
+    /**
+     * Copies the current game of a reader
+     * @param reader the reader
+     */
+    void load(GameRecordReader reader)
+    {
+      length = reader.getMoveCount();
+      result = reader.getResult();
+      rows = java.util.Arrays.copyOf(reader.getMoveRows(), length);
+      columns = java.util.Arrays.copyOf(reader.getMoveColumns(), length);
+    }
+
+    /**
+     * Adds an annotation
+     * @param ply the move number
+     * @param kind the index of the kind in KINDS
+     * @param row the move's row number, or -1
+     * @param column the move's column number, or -1
+     */
+    void annotate(int ply, int kind, int row, int column)
+    {
+      if (4 * annotationCount == annotations.length)
+        annotations = java.util.Arrays.copyOf(annotations, Math.max(16, annotations.length * 2));
+
+      annotations[4 * annotationCount] = ply;
+      annotations[4 * annotationCount + 1] = kind;
+      annotations[4 * annotationCount + 2] = row;
+      annotations[4 * annotationCount + 3] = column;
+      annotationCount++;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class represents a stream of the games in a record file (see GameRecords), read one at a time
+ * The file is memory-mapped a window at a time and games are decoded straight from the mapping into arrays that are
+ * reused from game to game, so a file of any size is scanned without copying it or holding it in memory
+ */
+
+public class GameRecordReader implements AutoCloseable
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the size of a mapped window in bytes */
+  private static final int WINDOW_BYTES = 1 << 26;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the file */
+  private final FileChannel channel;
+
+  /** Represents the size of the file in bytes, read when it was opened */
+  private final long fileSize;
+
+  /** Represents the mapped window */
+  private ByteBuffer window;
+
+  /** Represents the offset in the file of the window's first byte */
+  private long windowStart;
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set */
+  private final int rules;
+
+  /** Represents the rows of the current game's moves */
+  private int[] moveRows = new int[256];
+
+  /** Represents the columns of the current game's moves */
+  private int[] moveColumns = new int[256];
+
+  /** Represents the number of moves of the current game */
+  private int moveCount = 0;
+
+  /** Represents the result of the current game */
+  private int result = GameRecords.UNFINISHED;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a reader on an open file and reads its header
+   * @param channel the file
+   * @param source the file name, used in error messages
+   */
+  private GameRecordReader(FileChannel channel, String source) throws IOException
+  {
+    this.channel = channel;
+    fileSize = channel.size();
+
+    if (fileSize < GameRecords.HEADER_BYTES)
+      throw new IOException("Not a game record file: " + source);
+
+    map(0, GameRecords.HEADER_BYTES);
+
+    if (window.getInt(0) != GameRecords.MAGIC)
+      throw new IOException("Not a game record file: " + source);
+
+    if (window.getInt(4) != GameRecords.VERSION)
+      throw new IOException("Unsupported game record version " + window.getInt(4) + ": " + source);
+
+    numRow = window.getInt(8);
+    numColumn = window.getInt(12);
+    numWin = window.getInt(16);
+    rules = window.getInt(20);
+    window.position(GameRecords.HEADER_BYTES);
+  }
+
+  /**
+   * Opens a record file for reading
+   * @param path the file
+   */
+  public static GameRecordReader open(Path path) throws IOException
+  {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+    try
+    {
+      return new GameRecordReader(channel, path.toString());
+    }
+
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of rows of the board
+   */
+  public int getRows()
+  {
+    return numRow;
+  }
+
+  /**
+   * Gets the number of columns of the board
+   */
+  public int getColumns()
+  {
+    return numColumn;
+  }
+
+  /**
+   * Gets the number of pieces to be together that you can win
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the rule set, for example GameRecords.RULES_DEFAULT
+   */
+  public int getRules()
+  {
+    return rules;
+  }
+
+  /**
+   * Gets the number of moves of the current game
+   */
+  public int getMoveCount()
+  {
+    return moveCount;
+  }
+
+  /**
+   * Gets the rows of the current game's moves; only the first getMoveCount are the game's, and the array is reused
+   * by the next game
+   */
+  public int[] getMoveRows()
+  {
+    return moveRows;
+  }
+
+  /**
+   * Gets the columns of the current game's moves; only the first getMoveCount are the game's, and the array is reused
+   * by the next game
+   */
+  public int[] getMoveColumns()
+  {
+    return moveColumns;
+  }
+
+  /**
+   * Gets the result of the current game: EMPTY for a draw, BLACK, WHITE or GameRecords.UNFINISHED
+   */
+  public int getResult()
+  {
+    return result;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Moves to the next game and decodes it; returns false at the end of the file
+   */
+  public boolean next() throws IOException
+  {
+    long start = windowStart + window.position();
+
+    if (start >= fileSize)
+      return false;
+
+    /** The window moves on when the next game might not fit in what is left of it */
+    if (window.remaining() < GameRecords.MAX_VARINT_BYTES && windowStart + window.limit() < fileSize)
+      map(start, GameRecords.MAX_VARINT_BYTES);
+
+    try
+    {
+      long length = GameRecords.getVarint(window);
+
+      /** A game running past the window is read again from a window that starts with it */
+      if (length > window.remaining())
+      {
+        if (windowStart + window.limit() >= fileSize)
+          throw new IOException("Truncated game at byte " + start);
+
+        map(start, GameRecords.MAX_VARINT_BYTES + length);
+        length = GameRecords.getVarint(window);
+
+        if (length > window.remaining())
+          throw new IOException("Truncated game at byte " + start);
+      }
+
+      int end = window.position() + (int)length;
+      decode();
+
+      if (window.position() != end)
+        throw new IOException("Corrupt game at byte " + start);
+
+      return true;
+    }
+
+    catch (BufferUnderflowException | IllegalArgumentException e)
+    {
+      throw new IOException("Corrupt game at byte " + start, e);
+    }
+  }
+
+  /**
+   * Closes the file; the arrays of the last game stay readable
+   */
+  @Override
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Decodes the result and moves of a game from the window, which is positioned just after the game's length
+   */
+  private void decode()
+  {
+    result = window.get();
+    long count = GameRecords.getVarint(window);
+
+    if (result < Board.EMPTY || result > GameRecords.UNFINISHED || count > window.remaining())
+      throw new IllegalArgumentException("Bad result or move count");
+
+    moveCount = (int)count;
+
+    if (moveCount > moveRows.length)
+    {
+      moveRows = Arrays.copyOf(moveRows, Math.max(moveCount, moveRows.length * 2));
+      moveColumns = Arrays.copyOf(moveColumns, moveRows.length);
+    }
+
+    int lastRow = numRow / 2;
+    int lastColumn = numColumn / 2;
+
+    for (int i = 0; i < moveCount; i++)
+    {
+      long code = GameRecords.getVarint(window);
+      lastRow += GameRecords.decodeRowDelta(code);
+      lastColumn += GameRecords.decodeColumnDelta(code);
+      if (lastRow < 0 || lastRow >= numRow || lastColumn < 0 || lastColumn >= numColumn)
+        throw new IllegalArgumentException("Move off the board");
+
+      moveRows[i] = lastRow;
+      moveColumns[i] = lastColumn;
+    }
+  }
+
+  /**
+   * Maps a window of the file starting at an offset, at least the given size if the file is that long
+   * @param offset the offset in the file
+   * @param minimum the fewest bytes the window should hold
+   */
+  private void map(long offset, long minimum) throws IOException
+  {
+    long size = Math.min(Math.max(WINDOW_BYTES, minimum), fileSize - offset);
+
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("Game too large to map at byte " + offset);
+
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    windowStart = offset;
+  }
+}
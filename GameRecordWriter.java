@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class represents a stream of games appended to a record file (see GameRecords)
+ * Games are coded into a direct buffer and written out when it fills, so millions of games can be written without
+ * holding them in memory; a file that already holds games is appended to, after checking its header
+ * Note: Only one writer may append to a file at a time
+ */
+
+public class GameRecordWriter implements AutoCloseable
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the size of the output buffer in bytes */
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the file */
+  private final FileChannel channel;
+
+  /** Represents the games not written out yet */
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+  /** Represents the game being coded, before its length is known */
+  private ByteBuffer record = ByteBuffer.allocate(1024);
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents the number of games written by this writer */
+  private long gameCount = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a writer on an open file positioned at its end
+   * @param channel the file
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  private GameRecordWriter(FileChannel channel, int rows, int columns)
+  {
+    this.channel = channel;
+    this.numRow = rows;
+    this.numColumn = columns;
+  }
+
+  /**
+   * Opens a record file for appending, creating it with a header if it is empty or missing
+   * @param path the file
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param rules the rule set, for example GameRecords.RULES_DEFAULT
+   */
+  public static GameRecordWriter open(Path path, int rows, int columns, int numWin, int rules) throws IOException
+  {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(GameRecords.HEADER_BYTES);
+
+      if (channel.size() == 0)
+      {
+        header.putInt(GameRecords.MAGIC).putInt(GameRecords.VERSION).putInt(rows).putInt(columns).putInt(numWin)
+              .putInt(rules).flip();
+
+        while (header.hasRemaining())
+          channel.write(header);
+      }
+
+      else
+      {
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+          continue;
+
+        header.flip();
+
+        if (header.remaining() < GameRecords.HEADER_BYTES || header.getInt(0) != GameRecords.MAGIC)
+          throw new IOException("Not a game record file: " + path);
+
+        if (header.getInt(8) != rows || header.getInt(12) != columns || header.getInt(16) != numWin
+              || header.getInt(20) != rules)
+          throw new IOException("Games in " + path + " are for " + header.getInt(8) + "x" + header.getInt(12)
+                                  + " with " + header.getInt(16) + " to win and rules " + header.getInt(20));
+      }
+
+      channel.position(channel.size());
+      return new GameRecordWriter(channel, rows, columns);
+    }
+
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of games written by this writer
+   */
+  public long getGameCount()
+  {
+    return gameCount;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Appends a game
+   * @param moveRows the rows of the moves, black's first
+   * @param moveColumns the columns of the moves
+   * @param length the number of moves
+   * @param result EMPTY for a draw, BLACK, WHITE or GameRecords.UNFINISHED
+   */
+  public void write(int[] moveRows, int[] moveColumns, int length, int result) throws IOException
+  {
+    if (result < Board.EMPTY || result > GameRecords.UNFINISHED)
+      throw new IllegalArgumentException("Not a result: " + result);
+
+    int needed = 1 + GameRecords.MAX_VARINT_BYTES * (length + 1);
+
+    if (record.capacity() < needed)
+      record = ByteBuffer.allocate(Math.max(needed, record.capacity() * 2));
+
+    record.clear();
+    record.put((byte)result);
+    GameRecords.putVarint(record, length);
+
+    int lastRow = numRow / 2;
+    int lastColumn = numColumn / 2;
+
+    for (int i = 0; i < length; i++)
+    {
+      GameRecords.putVarint(record, GameRecords.encodeMove(moveRows[i] - lastRow, moveColumns[i] - lastColumn));
+      lastRow = moveRows[i];
+      lastColumn = moveColumns[i];
+    }
+
+    record.flip();
+
+    if (buffer.remaining() < GameRecords.MAX_VARINT_BYTES + record.remaining())
+      flush();
+
+    GameRecords.putVarint(buffer, record.remaining());
+
+    /** A game too big for the buffer goes straight to the file */
+    if (buffer.remaining() < record.remaining())
+    {
+      flush();
+
+      while (record.hasRemaining())
+        channel.write(record);
+    }
+
+    else
+      buffer.put(record);
+
+    gameCount++;
+  }
+
+  /**
+   * Appends the moves of a game, oldest first
+   * @param game the game
+   * @param result EMPTY for a draw, BLACK, WHITE or GameRecords.UNFINISHED
+   */
+  public void write(Game game, int result) throws IOException
+  {
+    int length = game.getMoveCount();
+    int[] moveRows = new int[length];
+    int[] moveColumns = new int[length];
+
+    for (int i = 0; i < length; i++)
+    {
+      moveRows[i] = game.getMoveRow(i);
+      moveColumns[i] = game.getMoveColumn(i);
+    }
+
+    write(moveRows, moveColumns, length, result);
+  }
+
+  /**
+   * Writes out the games still in the buffer
+   */
+  public void flush() throws IOException
+  {
+    buffer.flip();
+
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+
+    buffer.clear();
+  }
+
+  /**
+   * Writes out the games still in the buffer and closes the file
+   */
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      flush();
+    }
+
+    finally
+    {
+      channel.close();
+    }
+  }
+}
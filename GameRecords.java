@@ -0,0 +1,384 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * This class represents the game-record file format, its varint coding and the text notation used by other tools
+ *
+ * File: a HEADER_BYTES header (MAGIC, VERSION, rows, columns, numWin and the rule set, all ints), then one record per
+ * game: the record's length in bytes after the length itself (varint), the result (one byte: EMPTY for a draw, BLACK,
+ * WHITE or UNFINISHED), the number of moves (varint), and every move as a varint
+ * A move is stored as its distance from the move before (from the centre for the first move): the row and column
+ * differences are zigzag-coded and their bits interleaved, so any move within 3 squares of the last one takes one byte
+ * Black always moves first
+ *
+ * Text notation: one game per line, moves such as "h8" (column letters from the left: a to z, then aa, ab and so on;
+ * row numbers from the bottom, starting at 1) separated by spaces, then the result: "1-0" (black won), "0-1" (white
+ * won), "1/2-1/2" (draw) or "*" (unfinished); lines starting with "#" are comments
+ *
+ * Usage: GameRecords export records text | import text records [rows columns numWin] | stats records
+ */
+
+public final class GameRecords
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the first four bytes of a record file, "GMKR" */
+  public static final int MAGIC = 0x474D4B52;
+
+  /** Represents the version of the file layout */
+  public static final int VERSION = 1;
+
+  /** Represents the size of the header in bytes */
+  public static final int HEADER_BYTES = 24;
+
+  /** Represents the longest varint in bytes */
+  public static final int MAX_VARINT_BYTES = 10;
+
+  /** Represents the result of a game that was not finished */
+  public static final int UNFINISHED = 3;
+
+  /** Represents this program's rules (RuleSet.DEFAULT); other rule sets are stored by their RuleSet id */
+  public static final int RULES_DEFAULT = RuleSet.DEFAULT;
+
+  /** Represents the results in text notation, indexed by result */
+  private static final String[] RESULTS = {"1/2-1/2", "1-0", "0-1", "*"};
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Nothing to create: the class only holds the format
+   */
+  private GameRecords()
+  {
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Writes a value as a varint: 7 bits per byte, low bits first, the top bit set on every byte but the last
+   * @param buffer the buffer to write to
+   * @param value the value, read as unsigned
+   */
+  public static void putVarint(ByteBuffer buffer, long value)
+  {
+    while ((value & ~0x7FL) != 0)
+    {
+      buffer.put((byte)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    buffer.put((byte)value);
+  }
+
+  /**
+   * Reads a varint written by putVarint
+   * @param buffer the buffer to read from
+   */
+  public static long getVarint(ByteBuffer buffer)
+  {
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      byte next = buffer.get();
+      value |= (long)(next & 0x7F) << shift;
+
+      if (next >= 0)
+        return value;
+    }
+
+    throw new IllegalArgumentException("Varint longer than " + MAX_VARINT_BYTES + " bytes");
+  }
+
+  /**
+   * Returns the code of a move: the zigzag-coded row and column distances from the move before, bits interleaved
+   * @param rowDelta the row distance
+   * @param columnDelta the column distance
+   */
+  public static long encodeMove(int rowDelta, int columnDelta)
+  {
+    return spread((rowDelta << 1) ^ (rowDelta >> 31)) | (spread((columnDelta << 1) ^ (columnDelta >> 31)) << 1);
+  }
+
+  /**
+   * Returns the row distance of a move code
+   * @param code the move code
+   */
+  public static int decodeRowDelta(long code)
+  {
+    int zigzag = compact(code);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  /**
+   * Returns the column distance of a move code
+   * @param code the move code
+   */
+  public static int decodeColumnDelta(long code)
+  {
+    int zigzag = compact(code >>> 1);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  /**
+   * Returns a square in text notation, for example "h8" for the centre of a 15x15 board
+   * @param row the square's row number (from the top)
+   * @param column the square's column number
+   * @param rows the number of rows of the board
+   */
+  public static String toText(int row, int column, int rows)
+  {
+    StringBuilder letters = new StringBuilder();
+
+    for (int rest = column + 1; rest > 0; rest = (rest - 1) / 26)
+      letters.append((char)('a' + (rest - 1) % 26));
+
+    return letters.reverse().toString() + (rows - row);
+  }
+
+  /**
+   * Returns a game in text notation: the moves, then the result
+   * @param moveRows the rows of the moves
+   * @param moveColumns the columns of the moves
+   * @param length the number of moves
+   * @param result EMPTY for a draw, BLACK, WHITE or UNFINISHED
+   * @param rows the number of rows of the board
+   */
+  public static String toText(int[] moveRows, int[] moveColumns, int length, int result, int rows)
+  {
+    StringBuilder text = new StringBuilder();
+
+    for (int i = 0; i < length; i++)
+      text.append(toText(moveRows[i], moveColumns[i], rows)).append(' ');
+
+    return text.append(RESULTS[result]).toString();
+  }
+
+  /**
+   * Reads a square in text notation and returns it as row * columns + column
+   * @param text the square, for example "h8"
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static long parseSquare(String text, int rows, int columns)
+  {
+    int letters = 0;
+    long column = 0;
+
+    while (letters < text.length() && text.charAt(letters) >= 'a' && text.charAt(letters) <= 'z')
+      column = column * 26 + (text.charAt(letters++) - 'a' + 1);
+
+    if (letters == 0 || letters == text.length())
+      throw new IllegalArgumentException("Not a square: " + text);
+
+    long row = rows - Long.parseLong(text.substring(letters));
+    column--;
+
+    if (row < 0 || row >= rows || column >= columns)
+      throw new IllegalArgumentException("Square off the board: " + text);
+
+    return row * columns + column;
+  }
+
+  /**
+   * Returns the result written at the end of a game in text notation: EMPTY, BLACK, WHITE or UNFINISHED
+   * @param text the result, for example "1-0"
+   */
+  public static int parseResult(String text)
+  {
+    int result = Arrays.asList(RESULTS).indexOf(text);
+
+    if (result < 0)
+      throw new IllegalArgumentException("Not a result: " + text);
+
+    return result;
+  }
+
+  /**
+   * Converts between record files and text notation, or prints what a record file holds and how fast it was read
+   * @param args export records text, import text records [rows columns numWin], or stats records
+   */
+  public static void main(String[] args)
+  {
+    try
+    {
+      if (args.length == 3 && args[0].equals("export"))
+        export(args[1], args[2]);
+
+      else if ((args.length == 3 || args.length == 6) && args[0].equals("import"))
+      {
+        int rows = (args.length == 6) ? Integer.parseInt(args[3]) : 15;
+        int columns = (args.length == 6) ? Integer.parseInt(args[4]) : 15;
+        int numWin = (args.length == 6) ? Integer.parseInt(args[5]) : 5;
+        importText(args[1], args[2], rows, columns, numWin);
+      }
+
+      else if (args.length == 2 && args[0].equals("stats"))
+        stats(args[1]);
+
+      else
+        System.out.println("Usage: GameRecords export records text | import text records [rows columns numWin]"
+                             + " | stats records");
+    }
+
+    catch (IOException | IllegalArgumentException e)
+    {
+      System.out.println("Failed: " + e.getMessage());
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Writes every game of a record file in text notation, after a comment line giving the board
+   * @param records the record file
+   * @param text the text file
+   */
+  private static void export(String records, String text) throws IOException
+  {
+    try (GameRecordReader reader = GameRecordReader.open(Paths.get(records));
+         BufferedWriter writer = Files.newBufferedWriter(Paths.get(text), StandardCharsets.US_ASCII))
+    {
+      writer.write("# " + reader.getRows() + " " + reader.getColumns() + " " + reader.getNumWin() + " rules="
+                     + reader.getRules());
+      writer.newLine();
+
+      while (reader.next())
+      {
+        writer.write(toText(reader.getMoveRows(), reader.getMoveColumns(), reader.getMoveCount(), reader.getResult(),
+                            reader.getRows()));
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Appends every game of a text file to a record file; a "# rows columns numWin" comment line overrides the size
+   * @param text the text file
+   * @param records the record file
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   */
+  private static void importText(String text, String records, int rows, int columns, int numWin) throws IOException
+  {
+    int games = 0;
+    GameRecordWriter writer = null;
+
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(text), StandardCharsets.US_ASCII))
+    {
+      int[] moveRows = new int[64];
+      int[] moveColumns = new int[64];
+
+      for (String line = reader.readLine(); line != null; line = reader.readLine())
+      {
+        String[] fields = line.trim().split("\\s+");
+
+        if (line.startsWith("#") && writer == null && fields.length >= 4)
+        {
+          rows = Integer.parseInt(fields[1]);
+          columns = Integer.parseInt(fields[2]);
+          numWin = Integer.parseInt(fields[3]);
+        }
+
+        if (line.startsWith("#") || fields[0].isEmpty())
+          continue;
+
+        if (writer == null)
+          writer = GameRecordWriter.open(Paths.get(records), rows, columns, numWin, RULES_DEFAULT);
+
+        /** The result is optional */
+        boolean hasResult = Arrays.asList(RESULTS).contains(fields[fields.length - 1]);
+        int length = hasResult ? fields.length - 1 : fields.length;
+
+        if (length > moveRows.length)
+        {
+          moveRows = Arrays.copyOf(moveRows, length);
+          moveColumns = Arrays.copyOf(moveColumns, length);
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+          long square = parseSquare(fields[i], rows, columns);
+          moveRows[i] = (int)(square / columns);
+          moveColumns[i] = (int)(square % columns);
+        }
+
+        writer.write(moveRows, moveColumns, length, hasResult ? parseResult(fields[length]) : UNFINISHED);
+        games++;
+      }
+    }
+
+    finally
+    {
+      if (writer != null)
+        writer.close();
+    }
+
+    System.out.println(games + " games imported into " + records);
+  }
+
+  /**
+   * Reads a whole record file and prints the number of games, moves and results, and the reading speed
+   * @param records the record file
+   */
+  private static void stats(String records) throws IOException
+  {
+    long start = System.nanoTime();
+    long games = 0;
+    long moves = 0;
+    long[] results = new long[4];
+
+    try (GameRecordReader reader = GameRecordReader.open(Paths.get(records)))
+    {
+      while (reader.next())
+      {
+        games++;
+        moves += reader.getMoveCount();
+        results[reader.getResult()]++;
+      }
+
+      double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+      System.out.println(reader.getRows() + "x" + reader.getColumns() + ", " + reader.getNumWin() + " to win, rules "
+                           + reader.getRules());
+      System.out.println(games + " games, " + moves + " moves: black " + results[Board.BLACK] + ", white "
+                           + results[Board.WHITE] + ", draws " + results[Board.EMPTY] + ", unfinished "
+                           + results[UNFINISHED]);
+      System.out.println(String.format("%.0f games/sec", games / seconds));
+    }
+  }
+
+  /**
+   * Spreads the 32 bits of a value over the even bits of a long
+   * @param value the value
+   */
+  private static long spread(int value)
+  {
+    long bits = value & 0xFFFFFFFFL;
+    bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+    bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+    bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+    bits = (bits | (bits << 2)) & 0x3333333333333333L;
+    return (bits | (bits << 1)) & 0x5555555555555555L;
+  }
+
+  /**
+   * Gathers the even bits of a long into an int, undoing spread
+   * @param code the long
+   */
+  private static int compact(long code)
+  {
+    long bits = code & 0x5555555555555555L;
+    bits = (bits | (bits >>> 1)) & 0x3333333333333333L;
+    bits = (bits | (bits >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+    bits = (bits | (bits >>> 4)) & 0x00FF00FF00FF00FFL;
+    bits = (bits | (bits >>> 8)) & 0x0000FFFF0000FFFFL;
+    return (int)(bits | (bits >>> 16));
+  }
+}
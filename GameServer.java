@@ -0,0 +1,1007 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a server hosting many games at once over plain TCP, one line per message
+ * A few event loops, each a thread with its own NIO selector, do all the work: every connection belongs to one loop,
+ * and so does every game (chosen by its name), so a game's session is only ever touched by its loop's thread and
+ * nothing needs a lock. A command for a game on another loop, and a reply to a connection on another loop, are handed
+ * over through that loop's task queue. Computer moves are searched on a separate pool, on a copy of the board
+ *
+ * Client commands (a game is any name without spaces, chosen by the clients; the size is rows columns numWin):
+ *   JOIN game [size]     join a game against another client, creating it if needed; the first to join plays black
+ *   ENGINE game [size]   start a game as black against the computer
+ *   MOVE game row column
+ *   LEAVE game
+ * Server messages:
+ *   JOINED game BLACK|WHITE, START game, MOVED game row column BLACK|WHITE, OVER game BLACK|WHITE|DRAW|LEFT,
+ *   ERROR game reason
+ *
+ * Every game is played under the server's rule set (see RuleSet)
+ *
+ * Usage: GameServer [--port=n] [--threads=n] [--engine-threads=n] [--engine-millis=n] [--rules=name]
+ * GameServerLoad drives it with thousands of simulated games and reports the move latencies
+ */
+
+public class GameServer implements AutoCloseable
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the port the server listens on by default */
+  public static final int DEFAULT_PORT = 7777;
+
+  /** Represents the board size of a game created without one */
+  private static final int[] DEFAULT_SIZE = {15, 15, 5};
+
+  /** Represents the largest number of rows or columns a game may have */
+  private static final int MAX_SIZE = 100;
+
+  /** Represents the longest command line accepted, in bytes */
+  private static final int MAX_LINE = 256;
+
+  /** Represents the most output a connection may leave unread before it is dropped, in bytes */
+  private static final int MAX_OUTPUT = 1 << 20;
+
+  /** Represents the memory of each computer player's transposition table in megabytes */
+  private static final int ENGINE_TABLE_MEGABYTES = 4;
+
+  /** Represents the names of the colors and results, indexed by EMPTY, BLACK and WHITE */
+  private static final String[] COLOR_NAMES = {"DRAW", "BLACK", "WHITE"};
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the listening socket */
+  private final ServerSocketChannel server;
+
+  /** Represents the event loops */
+  private final EventLoop[] loops;
+
+  /** Represents the threads searching the computer's moves */
+  private final ExecutorService enginePool;
+
+  /** Represents the computer players of each engine thread, by board size and rule set */
+  private final ThreadLocal<HashMap<String, SearchEngine>> engines = ThreadLocal.withInitial(HashMap::new);
+
+  /** Represents the time budget of a computer move in milliseconds */
+  private final long engineMillis;
+
+  /** Represents the id of the rule set every game is played under, for example RuleSet.RENJU */
+  private final int rules;
+
+  /** Represents the thread accepting connections */
+  private final Thread acceptor;
+
+  /** Represents the number of open connections */
+  private final AtomicLong connections = new AtomicLong();
+
+  /** Represents the number of games in progress */
+  private final AtomicLong games = new AtomicLong();
+
+  /** Represents the number of moves played */
+  private final AtomicLong moves = new AtomicLong();
+
+  /** Represents whether the server was closed */
+  private volatile boolean closed = false;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a server listening on an address; it serves nothing until start is called
+   * @param address the address, port 0 for any free port
+   * @param threads the number of event loops, at least 1
+   * @param engineThreads the number of threads searching the computer's moves, at least 1
+   * @param engineMillis the time budget of a computer move in milliseconds
+   */
+  public GameServer(InetSocketAddress address, int threads, int engineThreads, long engineMillis) throws IOException
+  {
+    this(address, threads, engineThreads, engineMillis, RuleSet.DEFAULT);
+  }
+
+  /**
+   * Creates a server listening on an address whose games are played under a rule set
+   * @param address the address, port 0 for any free port
+   * @param threads the number of event loops, at least 1
+   * @param engineThreads the number of threads searching the computer's moves, at least 1
+   * @param engineMillis the time budget of a computer move in milliseconds
+   * @param rules the id of the rule set, for example RuleSet.RENJU
+   */
+  public GameServer(InetSocketAddress address, int threads, int engineThreads, long engineMillis, int rules)
+    throws IOException
+  {
+    server = ServerSocketChannel.open();
+    server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    server.bind(address, 4096);
+    loops = new EventLoop[Math.max(1, threads)];
+
+    for (int i = 0; i < loops.length; i++)
+      loops[i] = new EventLoop(i);
+
+    enginePool = Executors.newFixedThreadPool(Math.max(1, engineThreads), task ->
+    {
+      Thread thread = new Thread(task, "game-engine");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    this.engineMillis = engineMillis;
+    this.rules = rules;
+    acceptor = new Thread(this::acceptConnections, "game-acceptor");
+    acceptor.setDaemon(true);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the port the server listens on
+   */
+  public int getPort()
+  {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Gets the number of open connections
+   */
+  public long getConnections()
+  {
+    return connections.get();
+  }
+
+  /**
+   * Gets the number of games in progress
+   */
+  public long getGames()
+  {
+    return games.get();
+  }
+
+  /**
+   * Gets the number of moves played since the server started
+   */
+  public long getMoves()
+  {
+    return moves.get();
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Starts the event loops and accepting connections
+   */
+  public void start()
+  {
+    for (EventLoop loop : loops)
+      loop.thread.start();
+
+    acceptor.start();
+  }
+
+  /**
+   * Stops accepting, closes every connection and stops the threads
+   */
+  @Override
+  public void close() throws IOException
+  {
+    closed = true;
+    server.close();
+
+    /** Each loop closes its own selector and connections, so none is closed under a loop still using it */
+    for (EventLoop loop : loops)
+      loop.selector.wakeup();
+
+    enginePool.shutdownNow();
+  }
+
+  /**
+   * Runs a server until the process is stopped, printing its load every 10 seconds
+   * @param args optionally --port=n, --threads=n, --engine-threads=n, --engine-millis=n, --rules=name and the
+   * options of Metrics.configure
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    int port = DEFAULT_PORT;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int engineThreads = 1;
+    long engineMillis = 100;
+    int rules = RuleSet.DEFAULT;
+
+    for (String arg : args)
+    {
+      if (arg.startsWith("--port="))
+        port = Integer.parseInt(arg.substring("--port=".length()));
+
+      else if (arg.startsWith("--threads="))
+        threads = Integer.parseInt(arg.substring("--threads=".length()));
+
+      else if (arg.startsWith("--engine-threads="))
+        engineThreads = Integer.parseInt(arg.substring("--engine-threads=".length()));
+
+      else if (arg.startsWith("--engine-millis="))
+        engineMillis = Long.parseLong(arg.substring("--engine-millis=".length()));
+
+      else if (arg.startsWith("--rules="))
+      {
+        try
+        {
+          rules = RuleSet.forName(arg.substring("--rules=".length()), DEFAULT_SIZE[2]).getId();
+        }
+
+        catch (IllegalArgumentException e)
+        {
+          System.out.println(e.getMessage());
+          return;
+        }
+      }
+
+      else if (arg.startsWith("--metrics"))
+        Metrics.configure(arg);
+    }
+
+    GameServer gameServer = new GameServer(new InetSocketAddress(port), threads, engineThreads, engineMillis, rules);
+    gameServer.start();
+    System.out.println("Serving " + RuleSet.NAMES[rules] + " games on port " + gameServer.getPort() + " with "
+                         + threads + " event loops");
+
+    while (true)
+    {
+      Thread.sleep(10000);
+      System.out.println(gameServer.getConnections() + " connections, " + gameServer.getGames() + " games, "
+                           + gameServer.getMoves() + " moves");
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Accepts connections until the server closes and hands them to the event loops in turn
+   */
+  private void acceptConnections()
+  {
+    int next = 0;
+
+    while (!closed)
+    {
+      try
+      {
+        SocketChannel channel = server.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        EventLoop loop = loops[next++ % loops.length];
+        loop.execute(() -> loop.register(channel));
+      }
+
+      catch (IOException e)
+      {
+        if (!closed)
+          System.out.println("Could not accept a connection: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Returns the event loop a game belongs to
+   * @param game the game's name
+   */
+  private EventLoop loopFor(String game)
+  {
+    return loops[Math.floorMod(game.hashCode(), loops.length)];
+  }
+
+  /**
+   * Parses the optional size of a JOIN or ENGINE command: {rows, columns, numWin}, or null if it is not valid
+   * @param words the command's words
+   */
+  private static int[] parseSize(String[] words)
+  {
+    if (words.length == 2)
+      return DEFAULT_SIZE;
+
+    if (words.length != 5)
+      return null;
+
+    int rows = Integer.parseInt(words[2]);
+    int columns = Integer.parseInt(words[3]);
+    int numWin = Integer.parseInt(words[4]);
+
+    if (rows < 1 || columns < 1 || rows > MAX_SIZE || columns > MAX_SIZE || numWin < 2
+          || numWin > Math.max(rows, columns) || numWin > PatternTable.MAX_WIN)
+      return null;
+
+    return new int[] {rows, columns, numWin};
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * A thread with a selector, owning its connections and its games
+   */
+  private final class EventLoop implements Runnable
+  {
+    /** Represents the thread running the loop */
+    final Thread thread;
+
+    /** Represents the selector of the loop's connections */
+    final Selector selector;
+
+    /** Represents the work handed over by other threads */
+    final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /** Represents whether the selector was already woken up for the queued tasks */
+    final AtomicBoolean woken = new AtomicBoolean();
+
+    /** Represents the games of this loop, by name */
+    final HashMap<String, Table> tables = new HashMap<String, Table>();
+
+    /** Represents the connections with output to write out before the next select */
+    final ArrayList<Connection> dirty = new ArrayList<Connection>();
+
+    /** Represents the buffer every connection of the loop reads into */
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1 << 16);
+
+    /**
+     * Creates an event loop; its thread is started by GameServer.start
+     * @param index the loop's number, used in the thread name
+     */
+    EventLoop(int index) throws IOException
+    {
+      selector = Selector.open();
+      thread = new Thread(this, "game-loop-" + index);
+      thread.setDaemon(true);
+    }
+
+    /**
+     * Runs a task on this loop: now if called from the loop's thread, otherwise as soon as the loop wakes up
+     * @param task the task
+     */
+    void execute(Runnable task)
+    {
+      if (Thread.currentThread() == thread)
+      {
+        task.run();
+        return;
+      }
+
+      tasks.add(task);
+
+      /** One wake-up is enough for any number of tasks queued before the loop gets to them */
+      if (woken.compareAndSet(false, true))
+        selector.wakeup();
+    }
+
+    /**
+     * Selects and serves until the selector is closed
+     */
+    @Override
+    public void run()
+    {
+      try
+      {
+        while (!closed)
+        {
+          selector.select();
+          woken.set(false);
+
+          for (Runnable task = tasks.poll(); task != null; task = tasks.poll())
+            task.run();
+
+          Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+          while (selected.hasNext())
+          {
+            SelectionKey key = selected.next();
+            selected.remove();
+            Connection connection = (Connection)key.attachment();
+
+            if (key.isValid() && key.isReadable())
+              connection.read();
+
+            if (key.isValid() && key.isWritable())
+              connection.flush();
+          }
+
+          for (Connection connection : dirty)
+            connection.flush();
+
+          dirty.clear();
+        }
+      }
+
+      catch (IOException e)
+      {
+        System.out.println("Event loop stopped: " + e.getMessage());
+      }
+
+      for (SelectionKey key : selector.keys())
+        ((Connection)key.attachment()).close();
+
+      try
+      {
+        selector.close();
+      }
+
+      catch (IOException e)
+      {
+        System.out.println("Could not close an event loop: " + e.getMessage());
+      }
+    }
+
+    /**
+     * Starts serving a new connection
+     * @param channel the connection's channel, non-blocking
+     */
+    void register(SocketChannel channel)
+    {
+      try
+      {
+        Connection connection = new Connection(this, channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.incrementAndGet();
+      }
+
+      catch (IOException e)
+      {
+        try
+        {
+          channel.close();
+        }
+
+        catch (IOException ignored)
+        {
+          /** Nothing more to do for a connection that could not be set up */
+        }
+      }
+    }
+
+    /**
+     * Joins a connection to a game, creating the game if needed; runs on the game's loop
+     * @param name the game's name
+     * @param player the connection
+     * @param size {rows, columns, numWin}
+     * @param computer whether the game is against the computer
+     */
+    void join(String name, Connection player, int[] size, boolean computer)
+    {
+      Table table = tables.get(name);
+
+      if (table == null)
+      {
+        table = new Table(name, new GameSession(size[0], size[1], RuleSet.get(rules, size[2])), player, computer);
+        tables.put(name, table);
+        games.incrementAndGet();
+        send(player, "JOINED " + name + " BLACK");
+
+        if (computer)
+          send(player, "START " + name);
+
+        return;
+      }
+
+      if (computer || table.computer || table.white != null)
+      {
+        end(player, name, "ERROR " + name + " full");
+        return;
+      }
+
+      Board board = table.session.getBoard();
+
+      if (size != DEFAULT_SIZE && (board.getRows() != size[0] || board.getColumns() != size[1]
+                                    || table.session.getNumWin() != size[2]))
+      {
+        end(player, name, "ERROR " + name + " size");
+        return;
+      }
+
+      table.white = player;
+      send(player, "JOINED " + name + " WHITE");
+      table.broadcast("START " + name);
+    }
+
+    /**
+     * Plays a client's move in a game; runs on the game's loop
+     * @param name the game's name
+     * @param player the connection
+     * @param row the square's row number
+     * @param column the square's column number
+     */
+    void move(String name, Connection player, int row, int column)
+    {
+      Table table = tables.get(name);
+
+      if (table == null || (player != table.black && player != table.white))
+      {
+        send(player, "ERROR " + name + " no-game");
+        return;
+      }
+
+      if (!table.computer && table.white == null)
+      {
+        send(player, "ERROR " + name + " not-started");
+        return;
+      }
+
+      /** Someone playing both sides on one connection moves for whoever is to move */
+      int color = table.session.getToMove();
+
+      if (table.black != table.white)
+        color = (player == table.black) ? Board.BLACK : Board.WHITE;
+
+      int outcome = table.session.play(row, column, color);
+
+      if (outcome != GameSession.OK)
+      {
+        send(player, "ERROR " + name + " " + GameSession.getReason(outcome));
+        return;
+      }
+
+      played(table, row, column, color);
+    }
+
+    /**
+     * Takes a connection out of a game, which ends it; runs on the game's loop
+     * @param name the game's name
+     * @param player the connection
+     */
+    void leave(String name, Connection player)
+    {
+      Table table = tables.get(name);
+
+      if (table == null || (player != table.black && player != table.white))
+        return;
+
+      table.session.abandon();
+      remove(table);
+      table.finish("OVER " + name + " LEFT");
+    }
+
+    /**
+     * Tells the players about a move, ends the game if it is over, and starts the computer's move if it is next
+     * @param table the game
+     * @param row the move's row number
+     * @param column the move's column number
+     * @param color the mover's color
+     */
+    void played(Table table, int row, int column, int color)
+    {
+      moves.incrementAndGet();
+      table.broadcast("MOVED " + table.name + " " + row + " " + column + " " + COLOR_NAMES[color]);
+
+      if (table.session.isOver())
+      {
+        remove(table);
+        table.finish("OVER " + table.name + " " + COLOR_NAMES[table.session.getWinner()]);
+      }
+
+      else if (table.computer && table.session.getToMove() == Board.WHITE)
+      {
+        Board position = table.session.snapshot();
+        enginePool.execute(() -> searchMove(table, position));
+      }
+    }
+
+    /**
+     * Searches the computer's move on an engine thread and hands it back to the game's loop
+     * @param table the game
+     * @param position a copy of the game's board
+     */
+    void searchMove(Table table, Board position)
+    {
+      RuleSet rules = table.session.getRules();
+      String key = position.getRows() + "x" + position.getColumns() + "x" + rules.getNumWin() + "x" + rules.getId();
+      SearchEngine engine = engines.get().get(key);
+
+      if (engine == null)
+      {
+        engine = new SearchEngine(position.getRows(), position.getColumns(), rules, ENGINE_TABLE_MEGABYTES);
+        engines.get().put(key, engine);
+      }
+
+      SearchResult result = engine.search(position, Board.WHITE, engineMillis);
+      execute(() -> computerMoved(table, result));
+    }
+
+    /**
+     * Plays the computer's move if its game is still going; runs on the game's loop
+     * @param table the game
+     * @param result the search result
+     */
+    void computerMoved(Table table, SearchResult result)
+    {
+      if (tables.get(table.name) != table || table.session.isOver())
+        return;
+
+      GameSession session = table.session;
+      int row = result.getRow();
+      int column = result.getColumn();
+
+      /** A move the rules refuse is replaced by the first one they allow */
+      if (!result.hasMove() || session.check(row, column, Board.WHITE) != GameSession.OK)
+      {
+        Board board = session.getBoard();
+        row = -1;
+
+        for (int square = 0; square < board.getRows() * board.getColumns() && row < 0; square++)
+        {
+          if (session.check(square / board.getColumns(), square % board.getColumns(), Board.WHITE) == GameSession.OK)
+          {
+            row = square / board.getColumns();
+            column = square % board.getColumns();
+          }
+        }
+
+        if (row < 0)
+        {
+          session.abandon();
+          remove(table);
+          table.finish("OVER " + table.name + " DRAW");
+          return;
+        }
+      }
+
+      session.play(row, column, Board.WHITE);
+      played(table, row, column, Board.WHITE);
+    }
+
+    /**
+     * Forgets a finished game
+     * @param table the game
+     */
+    void remove(Table table)
+    {
+      tables.remove(table.name);
+      games.decrementAndGet();
+    }
+  }
+
+  /**
+   * Sends a line to a connection from any loop, through the connection's own loop
+   * @param connection the connection
+   * @param line the line, without the line end
+   */
+  private static void send(Connection connection, String line)
+  {
+    connection.loop.execute(() -> connection.send(line));
+  }
+
+  /**
+   * Sends a line to a connection that is no longer in a game, and forgets the game on the connection's side
+   * @param connection the connection
+   * @param name the game's name
+   * @param line the line, without the line end
+   */
+  private static void end(Connection connection, String name, String line)
+  {
+    connection.loop.execute(() ->
+    {
+      connection.games.remove(name);
+      connection.send(line);
+    });
+  }
+
+  /**
+   * A game and its players; only touched by the game's loop
+   */
+  private static final class Table
+  {
+    /** Represents the game's name */
+    final String name;
+
+    /** Represents the game */
+    final GameSession session;
+
+    /** Represents the connection playing black */
+    final Connection black;
+
+    /** Represents the connection playing white, or null if it is the computer or nobody yet */
+    Connection white;
+
+    /** Represents whether white is the computer */
+    final boolean computer;
+
+    /**
+     * Creates a game with its first player, black
+     * @param name the game's name
+     * @param session the game
+     * @param black the connection playing black
+     * @param computer whether white is the computer
+     */
+    Table(String name, GameSession session, Connection black, boolean computer)
+    {
+      this.name = name;
+      this.session = session;
+      this.black = black;
+      this.computer = computer;
+    }
+
+    /**
+     * Sends a line to both players, once to a connection playing both
+     * @param line the line
+     */
+    void broadcast(String line)
+    {
+      send(black, line);
+
+      if (white != null && white != black)
+        send(white, line);
+    }
+
+    /**
+     * Sends the last line of the game to both players
+     * @param line the line
+     */
+    void finish(String line)
+    {
+      end(black, name, line);
+
+      if (white != null && white != black)
+        end(white, name, line);
+    }
+  }
+
+  /**
+   * A client connection; only touched by its loop
+   */
+  private final class Connection
+  {
+    /** Represents the loop serving the connection */
+    final EventLoop loop;
+
+    /** Represents the socket */
+    final SocketChannel channel;
+
+    /** Represents the connection's registration with the loop's selector */
+    SelectionKey key;
+
+    /** Represents the start of a line that has not ended yet */
+    final byte[] line = new byte[MAX_LINE];
+
+    /** Represents the number of bytes in line */
+    int lineLength = 0;
+
+    /** Represents the output not written out yet, ready to be written to */
+    ByteBuffer output = ByteBuffer.allocate(256);
+
+    /** Represents whether the connection is in its loop's dirty list */
+    boolean dirty = false;
+
+    /** Represents the games the connection is in, so it can leave them when it closes */
+    final HashSet<String> games = new HashSet<String>();
+
+    /**
+     * Creates a connection
+     * @param loop the loop serving it
+     * @param channel the socket
+     */
+    Connection(EventLoop loop, SocketChannel channel)
+    {
+      this.loop = loop;
+      this.channel = channel;
+    }
+
+    /**
+     * Reads what has arrived and handles every complete line
+     */
+    void read()
+    {
+      ByteBuffer buffer = loop.readBuffer;
+      buffer.clear();
+      int count;
+
+      try
+      {
+        count = channel.read(buffer);
+      }
+
+      catch (IOException e)
+      {
+        count = -1;
+      }
+
+      if (count < 0)
+      {
+        close();
+        return;
+      }
+
+      buffer.flip();
+
+      while (buffer.hasRemaining())
+      {
+        byte b = buffer.get();
+
+        if (b == '\n')
+        {
+          handle(new String(line, 0, lineLength, java.nio.charset.StandardCharsets.US_ASCII).trim());
+          lineLength = 0;
+
+          if (!channel.isOpen())
+            return;
+        }
+
+        else if (lineLength < MAX_LINE)
+          line[lineLength++] = b;
+
+        else
+        {
+          send("ERROR - line-too-long");
+          flush();
+          close();
+          return;
+        }
+      }
+    }
+
+    /**
+     * Handles one command line
+     * @param text the line
+     */
+    void handle(String text)
+    {
+      String[] words = text.split(" +");
+
+      if (words.length < 2)
+      {
+        if (!text.isEmpty())
+          send("ERROR - bad-command");
+
+        return;
+      }
+
+      String command = words[0].toUpperCase();
+      String name = words[1];
+      EventLoop gameLoop = loopFor(name);
+
+      try
+      {
+        switch (command)
+        {
+          case "JOIN":
+          case "ENGINE":
+            int[] size = parseSize(words);
+
+            if (size == null)
+              send("ERROR " + name + " bad-size");
+
+            else
+            {
+              games.add(name);
+              gameLoop.execute(() -> gameLoop.join(name, this, size, command.equals("ENGINE")));
+            }
+
+            break;
+
+          case "MOVE":
+            if (words.length != 4)
+              throw new NumberFormatException();
+
+            int row = Integer.parseInt(words[2]);
+            int column = Integer.parseInt(words[3]);
+            gameLoop.execute(() -> gameLoop.move(name, this, row, column));
+            break;
+
+          case "LEAVE":
+            games.remove(name);
+            gameLoop.execute(() -> gameLoop.leave(name, this));
+            break;
+
+          default:
+            send("ERROR " + name + " bad-command");
+        }
+      }
+
+      catch (NumberFormatException e)
+      {
+        send("ERROR " + name + " bad-command");
+      }
+    }
+
+    /**
+     * Queues a line to be written out after this round of the loop
+     * @param text the line, without the line end
+     */
+    void send(String text)
+    {
+      if (!channel.isOpen())
+        return;
+
+      if (output.remaining() < text.length() + 1)
+      {
+        if (output.position() + text.length() + 1 > MAX_OUTPUT)
+        {
+          close();
+          return;
+        }
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + text.length() + 1));
+        output.flip();
+        bigger.put(output);
+        output = bigger;
+      }
+
+      for (int i = 0; i < text.length(); i++)
+        output.put((byte)text.charAt(i));
+
+      output.put((byte)'\n');
+
+      if (!dirty)
+      {
+        dirty = true;
+        loop.dirty.add(this);
+      }
+    }
+
+    /**
+     * Writes out as much output as the socket takes, and waits for it to take more if anything is left
+     */
+    void flush()
+    {
+      dirty = false;
+
+      if (!channel.isOpen() || output.position() == 0)
+        return;
+
+      output.flip();
+
+      try
+      {
+        channel.write(output);
+      }
+
+      catch (IOException e)
+      {
+        close();
+        return;
+      }
+
+      output.compact();
+      key.interestOps((output.position() > 0) ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the connection and leaves its games
+     */
+    void close()
+    {
+      if (!channel.isOpen())
+        return;
+
+      key.cancel();
+
+      try
+      {
+        channel.close();
+      }
+
+      catch (IOException e)
+      {
+        /** The connection is gone either way */
+      }
+
+      connections.decrementAndGet();
+
+      /** Leaving a game on this loop ends it at once, which takes it out of games, so they are copied first */
+      String[] names = games.toArray(new String[0]);
+      games.clear();
+
+      for (String name : names)
+      {
+        EventLoop gameLoop = loopFor(name);
+        gameLoop.execute(() -> gameLoop.leave(name, this));
+      }
+    }
+  }
+}
@@ -0,0 +1,547 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * This class represents a load generator for GameServer: thousands of simulated two-player games, all in progress at
+ * once, with random moves after a random think time
+ * All games are played by one thread over a fixed number of connections, each connection holding one seat of many
+ * games, the two seats of a game always on different connections. A finished game is joined again at once, so the
+ * number of games in progress stays the same
+ * The latency of a move is the time from sending MOVE to getting the server's MOVED back on the same connection;
+ * the percentiles are printed at the end, leaving out the first seconds while the games start
+ *
+ * Usage: GameServerLoad [--games=n] [--connections=n] [--think=ms] [--seconds=n] [--warmup=n] [--threads=n]
+ *                       [--connect=host:port]
+ * Without --connect a server with --threads event loops is started in this JVM on a free port
+ */
+
+public class GameServerLoad
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the size of the boards played on */
+  private static final int SIZE = 15;
+
+  /** Represents the number of pieces to be together to win */
+  private static final int NUM_WIN = 5;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the number of games in progress at once */
+  private final int gameCount;
+
+  /** Represents the average think time before a move in milliseconds */
+  private final long thinkMillis;
+
+  /** Represents the games */
+  private final SimulatedGame[] games;
+
+  /** Represents the connections */
+  private final Client[] clients;
+
+  /** Represents the moves and joins to send, ordered by when: {time, game, seat, game generation} */
+  private final PriorityQueue<long[]> due = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0]));
+
+  /** Represents the random numbers of the moves and think times */
+  private final SplittableRandom random = new SplittableRandom(1);
+
+  /** Represents the move latencies measured after the warm-up, in microseconds */
+  private int[] latencies = new int[1 << 16];
+
+  /** Represents the number of latencies measured */
+  private int latencyCount = 0;
+
+  /** Represents whether latencies are being measured */
+  private boolean measuring = false;
+
+  /** Represents the number of moves played */
+  private long moveCount = 0;
+
+  /** Represents the number of games finished */
+  private long finishedCount = 0;
+
+  /** Represents the number of moves the server refused */
+  private long refusedCount = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Connects to a server and sets up the games
+   * @param address the server's address
+   * @param gameCount the number of games in progress at once
+   * @param connectionCount the number of connections, at least 2
+   * @param thinkMillis the average think time before a move in milliseconds
+   */
+  public GameServerLoad(InetSocketAddress address, int gameCount, int connectionCount, long thinkMillis)
+    throws IOException
+  {
+    this.gameCount = gameCount;
+    this.thinkMillis = thinkMillis;
+    games = new SimulatedGame[gameCount];
+    clients = new Client[Math.max(2, connectionCount)];
+
+    for (int i = 0; i < clients.length; i++)
+      clients[i] = new Client(i, address);
+
+    for (int i = 0; i < gameCount; i++)
+      games[i] = new SimulatedGame(i, clients[i % clients.length], clients[(i + 1) % clients.length]);
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Plays for a while and prints the moves per second and the latency percentiles
+   * @param seconds how long to play
+   * @param warmupSeconds how long to play before measuring
+   */
+  public void run(long seconds, long warmupSeconds) throws IOException
+  {
+    Selector selector = Selector.open();
+
+    for (Client client : clients)
+    {
+      client.channel.configureBlocking(false);
+      client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+    }
+
+    for (SimulatedGame game : games)
+      game.join();
+
+    long start = System.nanoTime();
+    long measureStart = start + warmupSeconds * 1000000000L;
+    long end = start + seconds * 1000000000L;
+    long movesAtMeasureStart = 0;
+
+    for (long now = start; now < end; now = System.nanoTime())
+    {
+      if (!measuring && now >= measureStart)
+      {
+        measuring = true;
+        movesAtMeasureStart = moveCount;
+      }
+
+      long wait = due.isEmpty() ? 100 : Math.max(0, (due.peek()[0] - now) / 1000000L);
+
+      if (wait > 0)
+        selector.select(Math.min(wait, 100));
+
+      else
+        selector.selectNow();
+
+      Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+      while (selected.hasNext())
+      {
+        SelectionKey key = selected.next();
+        selected.remove();
+
+        if (key.isReadable())
+          ((Client)key.attachment()).read();
+
+        if (key.isValid() && key.isWritable())
+          ((Client)key.attachment()).flush();
+      }
+
+      now = System.nanoTime();
+
+      while (!due.isEmpty() && due.peek()[0] <= now)
+      {
+        long[] event = due.poll();
+        SimulatedGame game = games[(int)event[1]];
+
+        /** A move still waiting when its game ended is dropped */
+        if (event[3] == game.generation)
+          game.moveOrJoin((int)event[2]);
+      }
+
+      for (Client client : clients)
+        client.flush();
+    }
+
+    double measuredSeconds = Math.max(1e-9, (end - measureStart) / 1e9);
+    int[] sorted = Arrays.copyOf(latencies, latencyCount);
+    Arrays.sort(sorted);
+
+    System.out.println(gameCount + " games in progress on " + clients.length + " connections, think time "
+                         + thinkMillis + " ms");
+    System.out.println(moveCount + " moves, " + finishedCount + " games finished, " + refusedCount + " moves refused, "
+                         + String.format("%.0f", (moveCount - movesAtMeasureStart) / measuredSeconds)
+                         + " moves/sec measured");
+    System.out.println("move latency (microseconds): p50 " + percentile(sorted, 0.5) + ", p90 "
+                         + percentile(sorted, 0.9) + ", p99 " + percentile(sorted, 0.99) + ", p99.9 "
+                         + percentile(sorted, 0.999) + ", max " + percentile(sorted, 1.0) + " (" + sorted.length
+                         + " samples)");
+
+    for (Client client : clients)
+      client.channel.close();
+
+    selector.close();
+  }
+
+  /**
+   * Runs a load test against a server in this JVM or elsewhere
+   * @param args optionally --games=n, --connections=n, --think=ms, --seconds=n, --warmup=n, --threads=n and
+   * --connect=host:port
+   */
+  public static void main(String[] args) throws IOException
+  {
+    int gameCount = 10000;
+    int connectionCount = 200;
+    long thinkMillis = 1000;
+    long seconds = 30;
+    long warmupSeconds = 5;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String connect = null;
+
+    for (String arg : args)
+    {
+      String value = arg.substring(arg.indexOf('=') + 1);
+
+      if (arg.startsWith("--games="))
+        gameCount = Integer.parseInt(value);
+
+      else if (arg.startsWith("--connections="))
+        connectionCount = Integer.parseInt(value);
+
+      else if (arg.startsWith("--think="))
+        thinkMillis = Long.parseLong(value);
+
+      else if (arg.startsWith("--seconds="))
+        seconds = Long.parseLong(value);
+
+      else if (arg.startsWith("--warmup="))
+        warmupSeconds = Long.parseLong(value);
+
+      else if (arg.startsWith("--threads="))
+        threads = Integer.parseInt(value);
+
+      else if (arg.startsWith("--connect="))
+        connect = value;
+    }
+
+    GameServer server = null;
+    InetSocketAddress address;
+
+    if (connect == null)
+    {
+      server = new GameServer(new InetSocketAddress("127.0.0.1", 0), threads, 1, 100);
+      server.start();
+      address = new InetSocketAddress("127.0.0.1", server.getPort());
+    }
+
+    else
+      address = new InetSocketAddress(connect.substring(0, connect.lastIndexOf(':')),
+                                      Integer.parseInt(connect.substring(connect.lastIndexOf(':') + 1)));
+
+    try
+    {
+      new GameServerLoad(address, gameCount, connectionCount, thinkMillis).run(seconds, warmupSeconds);
+
+      if (server != null)
+        System.out.println("server: " + server.getConnections() + " connections, " + server.getGames()
+                             + " games in progress, " + server.getMoves() + " moves");
+    }
+
+    finally
+    {
+      if (server != null)
+        server.close();
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns a percentile of sorted numbers, or 0 if there are none
+   * @param sorted the numbers, smallest first
+   * @param fraction the percentile as a fraction, 1.0 for the largest
+   */
+  private static int percentile(int[] sorted, double fraction)
+  {
+    if (sorted.length == 0)
+      return 0;
+
+    return sorted[(int)Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+  }
+
+  /**
+   * Schedules a seat's next move, or its next join, after a random think time
+   * @param game the game's number
+   * @param seat the seat, 0 or 1
+   */
+  private void schedule(int game, int seat)
+  {
+    long think = (thinkMillis > 0) ? random.nextLong(2 * thinkMillis) : 0;
+    due.add(new long[] {System.nanoTime() + think * 1000000L, game, seat, games[game].generation});
+  }
+
+  /**
+   * Handles a line from the server
+   * @param client the connection it came on
+   * @param line the line
+   */
+  private void handle(Client client, String line)
+  {
+    String[] words = line.split(" ");
+
+    if (words.length < 2 || words[1].length() < 2 || words[1].charAt(0) != 'g')
+      return;
+
+    SimulatedGame game = games[Integer.parseInt(words[1].substring(1))];
+    int seat = (game.seats[0] == client) ? 0 : 1;
+
+    switch (words[0])
+    {
+      case "JOINED":
+        game.colors[seat] = words[2].equals("BLACK") ? Board.BLACK : Board.WHITE;
+        break;
+
+      case "START":
+        if (game.colors[seat] == Board.BLACK)
+          schedule(game.index, seat);
+
+        break;
+
+      case "MOVED":
+        int square = Integer.parseInt(words[2]) * SIZE + Integer.parseInt(words[3]);
+        int color = words[4].equals("BLACK") ? Board.BLACK : Board.WHITE;
+        game.taken[square] = true;
+
+        if (color == game.colors[seat])
+        {
+          moveCount++;
+
+          if (measuring)
+            record((System.nanoTime() - game.sentNanos) / 1000L);
+        }
+
+        else
+          schedule(game.index, seat);
+
+        break;
+
+      case "OVER":
+        /** The game starts again once both seats have heard it is over */
+        if (++game.overCount == 2)
+        {
+          finishedCount++;
+          game.reset();
+          schedule(game.index, 0);
+          schedule(game.index, 1);
+        }
+
+        break;
+
+      case "ERROR":
+        refusedCount++;
+
+        /** A random move can land on a forbidden square; anything else refused is a bug worth seeing */
+        if (words.length > 2 && words[2].equals("forbidden"))
+          game.moveOrJoin(seat);
+
+        else
+          System.out.println("Refused: " + line);
+
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Records a latency
+   * @param micros the latency in microseconds
+   */
+  private void record(long micros)
+  {
+    if (latencyCount == latencies.length)
+      latencies = Arrays.copyOf(latencies, latencyCount * 2);
+
+    latencies[latencyCount++] = (int)Math.min(Integer.MAX_VALUE, micros);
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * One simulated game, seen from both seats
+   */
+  private final class SimulatedGame
+  {
+    /** Represents the game's number; its name is "g" and the number */
+    final int index;
+
+    /** Represents the connection of each seat */
+    final Client[] seats;
+
+    /** Represents the color of each seat, EMPTY until the server says */
+    final int[] colors = new int[2];
+
+    /** Represents the squares taken */
+    final boolean[] taken = new boolean[SIZE * SIZE];
+
+    /** Represents the time the last move was sent (System.nanoTime) */
+    long sentNanos;
+
+    /** Represents the number of seats that heard the game is over */
+    int overCount = 0;
+
+    /** Represents the number of times the game has started again */
+    long generation = 0;
+
+    /** Represents whether each seat still has to join */
+    final boolean[] joining = {true, true};
+
+    /**
+     * Creates a game between two connections
+     * @param index the game's number
+     * @param first the first seat's connection
+     * @param second the second seat's connection
+     */
+    SimulatedGame(int index, Client first, Client second)
+    {
+      this.index = index;
+      this.seats = new Client[] {first, second};
+    }
+
+    /**
+     * Sends both seats' joins, the first seat first
+     */
+    void join()
+    {
+      moveOrJoin(0);
+      moveOrJoin(1);
+    }
+
+    /**
+     * Clears the game for the next one
+     */
+    void reset()
+    {
+      Arrays.fill(taken, false);
+      Arrays.fill(colors, Board.EMPTY);
+      overCount = 0;
+      generation++;
+      joining[0] = true;
+      joining[1] = true;
+    }
+
+    /**
+     * Joins the game for a seat that has not, or plays a random free square for it
+     * @param seat the seat, 0 or 1
+     */
+    void moveOrJoin(int seat)
+    {
+      if (joining[seat])
+      {
+        joining[seat] = false;
+        seats[seat].send("JOIN g" + index + " " + SIZE + " " + SIZE + " " + NUM_WIN);
+        return;
+      }
+
+      int square = random.nextInt(SIZE * SIZE);
+
+      for (int tries = 0; taken[square] && tries < SIZE * SIZE; tries++)
+        square = (square + 1) % (SIZE * SIZE);
+
+      sentNanos = System.nanoTime();
+      seats[seat].send("MOVE g" + index + " " + (square / SIZE) + " " + (square % SIZE));
+    }
+  }
+
+  /**
+   * One connection to the server
+   */
+  private final class Client
+  {
+    /** Represents the socket */
+    final SocketChannel channel;
+
+    /** Represents the socket's registration with the selector */
+    SelectionKey key;
+
+    /** Represents the input read but not handled yet */
+    final ByteBuffer input = ByteBuffer.allocate(1 << 16);
+
+    /** Represents the output not written out yet */
+    ByteBuffer output = ByteBuffer.allocate(1 << 12);
+
+    /**
+     * Connects to the server
+     * @param index the connection's number
+     * @param address the server's address
+     */
+    Client(int index, InetSocketAddress address) throws IOException
+    {
+      channel = SocketChannel.open(address);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Reads what has arrived and handles every complete line
+     */
+    void read() throws IOException
+    {
+      if (channel.read(input) < 0)
+        throw new IOException("The server closed a connection");
+
+      input.flip();
+      int lineStart = 0;
+
+      for (int i = input.position(); i < input.limit(); i++)
+      {
+        if (input.get(i) == '\n')
+        {
+          byte[] bytes = new byte[i - lineStart];
+          input.get(lineStart, bytes);
+          handle(this, new String(bytes, StandardCharsets.US_ASCII));
+          lineStart = i + 1;
+        }
+      }
+
+      input.position(lineStart);
+      input.compact();
+    }
+
+    /**
+     * Queues a line
+     * @param line the line, without the line end
+     */
+    void send(String line)
+    {
+      if (output.remaining() < line.length() + 1)
+      {
+        ByteBuffer bigger = ByteBuffer.allocate(output.capacity() * 2 + line.length());
+        output.flip();
+        bigger.put(output);
+        output = bigger;
+      }
+
+      output.put(line.getBytes(StandardCharsets.US_ASCII)).put((byte)'\n');
+    }
+
+    /**
+     * Writes out as much output as the socket takes
+     */
+    void flush() throws IOException
+    {
+      if (output.position() == 0)
+        return;
+
+      output.flip();
+      channel.write(output);
+      output.compact();
+      key.interestOps((output.position() > 0) ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+  }
+}
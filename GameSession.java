@@ -0,0 +1,234 @@
+/**
+ * This class represents everything one game needs apart from its players: the board, the rules and the moves played
+ * Unlike the Gomoku window, which keeps its game in static fields, any number of sessions can live in one JVM
+ * A session is not thread-safe; it belongs to one thread at a time (GameServer keeps each on one event loop)
+ * Moves are checked with the same rules as a click in the window: the square must be empty, the game not over, and the
+ * move must not be forbidden by the session's rule set (by default, two fours or two open threes, unless it makes five)
+ */
+
+public class GameSession
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents a move that was played */
+  public static final int OK = 0;
+
+  /** Represents a move after the game ended */
+  public static final int GAME_OVER = 1;
+
+  /** Represents a move by the color not to move */
+  public static final int NOT_YOUR_TURN = 2;
+
+  /** Represents a move off the board */
+  public static final int OFF_BOARD = 3;
+
+  /** Represents a move on a piece */
+  public static final int OCCUPIED = 4;
+
+  /** Represents a move the rule set forbids, e.g. by the Four-Four or Three-Three rule */
+  public static final int FORBIDDEN = 5;
+
+  /** Represents the reason for every outcome, indexed by the outcome */
+  private static final String[] REASONS = {"ok", "game-over", "not-your-turn", "off-board", "occupied", "forbidden"};
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board */
+  private final Board board;
+
+  /** Represents the win detector following the board */
+  private final WinDetector winDetector;
+
+  /** Represents the forbidden-move rules on the board */
+  private final ForbiddenMoves forbiddenMoves;
+
+  /** Represents the moves played */
+  private final Game game;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set */
+  private final RuleSet rules;
+
+  /** Represents whether the game has ended, by a win or a full board */
+  private boolean over = false;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a game under this program's own rules on an empty board, black to move
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   */
+  public GameSession(int rows, int columns, int numWin)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates a game under a rule set on an empty board, black to move
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set
+   */
+  public GameSession(int rows, int columns, RuleSet rules)
+  {
+    this.board = Board.create(rows, columns);
+    this.winDetector = new WinDetector(board, rules);
+    this.winDetector.setTimed(true);
+    this.forbiddenMoves = new ForbiddenMoves(board, rules);
+    this.game = new Game(board, winDetector, Board.BLACK);
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the board; it must not be changed except through play
+   */
+  public Board getBoard()
+  {
+    return board;
+  }
+
+  /**
+   * Gets the moves played
+   */
+  public Game getGame()
+  {
+    return game;
+  }
+
+  /**
+   * Gets the number of pieces to be together that you can win
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the rule set
+   */
+  public RuleSet getRules()
+  {
+    return rules;
+  }
+
+  /**
+   * Gets the color to move, BLACK or WHITE
+   */
+  public int getToMove()
+  {
+    return game.getToMove();
+  }
+
+  /**
+   * Determines whether the game has ended
+   */
+  public boolean isOver()
+  {
+    return over;
+  }
+
+  /**
+   * Gets the winner: BLACK, WHITE, or EMPTY while the game goes on or if it was drawn
+   */
+  public int getWinner()
+  {
+    return winDetector.getWinner();
+  }
+
+  /**
+   * Gets the reason for an outcome of play, for example "occupied"
+   * @param outcome the outcome
+   */
+  public static String getReason(int outcome)
+  {
+    return REASONS[outcome];
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns whether a move may be played: OK or the reason it may not (see the constants)
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the player moving
+   */
+  public int check(int row, int column, int color)
+  {
+    if (over)
+      return GAME_OVER;
+
+    if (color != game.getToMove())
+      return NOT_YOUR_TURN;
+
+    if (!board.isOnBoard(row, column))
+      return OFF_BOARD;
+
+    if (!board.isEmpty(row, column))
+      return OCCUPIED;
+
+    if (forbiddenMoves.isForbidden(row, column, color))
+      return FORBIDDEN;
+
+    return OK;
+  }
+
+  /**
+   * Plays a move if it may be played and returns OK, or returns the reason it may not; the game ends when the move
+   * wins or fills the board
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the player moving
+   */
+  public int play(int row, int column, int color)
+  {
+    Metrics.MoveEvent event = new Metrics.MoveEvent();
+    event.begin();
+    long rulesStart = Metrics.now();
+    int outcome = check(row, column, color);
+    Metrics.RULES.recordSince(rulesStart);
+
+    if (outcome != OK)
+    {
+      Metrics.commit(event, "session", row, column, false, false);
+      return outcome;
+    }
+
+    game.make(row, column);
+    boolean won = winDetector.hasWinner();
+    over = won || (long)board.getStoneCount() == (long)board.getRows() * board.getColumns();
+    Metrics.commit(event, "session", row, column, true, won);
+    return OK;
+  }
+
+  /**
+   * Ends the game without a winner, for example when a player leaves
+   */
+  public void abandon()
+  {
+    over = true;
+  }
+
+  /**
+   * Returns a copy of the board that another thread may read while this session goes on
+   */
+  public Board snapshot()
+  {
+    Board copy = Board.create(board.getRows(), board.getColumns());
+
+    for (int i = 0; i < game.getMoveCount(); i++)
+    {
+      int row = game.getMoveRow(i);
+      int column = game.getMoveColumn(i);
+      copy.place(row, column, board.get(row, column));
+    }
+
+    return copy;
+  }
+}
@@ -0,0 +1,566 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class represents the computer player as a Gomocup (Piskvork) protocol engine on standard input and output
+ * It is a separate entry point from Gomoku so that tournament managers start it without loading any JavaFX class;
+ * the search engine is only built on START, when the board size is known, and the first move on an empty board is
+ * the centre without searching
+ * Commands: START n, RECTSTART w,h, RESTART, BEGIN, TURN x,y, BOARD ... DONE, TAKEBACK x,y, INFO key value, ABOUT, END
+ * Coordinates are x = column and y = row, from 0; the player who moves first plays black
+ * Each move uses the time INFO timeout_turn allows, cut down to a share of INFO time_left in a timed match, less a
+ * safety margin for the JVM and the pipe
+ *
+ * INFO rule picks the rule set the search plays by: freestyle (0), exactly five (1), Renju (4) or Caro (8); a new
+ * rule set rebuilds the engine
+ *
+ * START also runs a short warm-up search, so the first timed move does not pay for class loading and a cold JIT
+ *
+ * Usage: java -cp classes GomocupEngine [--threads=n] [--book=file]
+ * Class-data sharing needs the classes in a jar: run one short game with -XX:ArchiveClassesAtExit=gomocup.jsa, then
+ * start with -XX:SharedArchiveFile=gomocup.jsa
+ */
+
+public class GomocupEngine
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the number of pieces to be together to win in Gomocup */
+  private static final int NUM_WIN = 5;
+
+  /** Represents the largest board the protocol engine accepts */
+  private static final int MAX_SIZE = 100;
+
+  /** Represents the time per move in milliseconds when the manager gives none */
+  private static final long DEFAULT_TURN_MILLIS = 5000;
+
+  /** Represents the number of moves the time left in a match is shared between */
+  private static final long MOVES_TO_GO = 20;
+
+  /** Represents the least time in milliseconds kept back from every move for the JVM and the pipe */
+  private static final long SAFETY_MILLIS = 30;
+
+  /** Represents the time budget in milliseconds of the warm-up search run on START */
+  private static final long WARMUP_MILLIS = 50;
+
+  /** Represents the memory in megabytes of the transposition table when the manager gives no limit */
+  private static final int DEFAULT_TABLE_MEGABYTES = 64;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents where the answers go */
+  private final PrintStream out;
+
+  /** Represents the number of search threads */
+  private final int threads;
+
+  /** Represents the opening book file, or null */
+  private final String bookFile;
+
+  /** Represents the board, or null before START */
+  private Board board;
+
+  /** Represents the search engine, or null before START */
+  private ParallelSearch engine;
+
+  /** Represents the opening book, or null if there is none for this board */
+  private OpeningBook book;
+
+  /** Represents the rule set INFO rule chose; freestyle until then, as the protocol says */
+  private RuleSet rules = RuleSet.get(RuleSet.FREESTYLE, NUM_WIN);
+
+  /** Represents the color this engine plays; the player who moves first is black */
+  private int ownColor = Board.BLACK;
+
+  /** Represents the time per move in milliseconds, 0 meaning as fast as possible */
+  private long turnMillis = DEFAULT_TURN_MILLIS;
+
+  /** Represents the time for the whole match in milliseconds, 0 meaning no limit */
+  private long matchMillis = 0;
+
+  /** Represents the time left in the match in milliseconds */
+  private long leftMillis = Long.MAX_VALUE;
+
+  /** Represents the memory limit in bytes, 0 meaning no limit */
+  private long maxMemory = 0;
+
+  /** Represents the stones of a BOARD command while it is being read, as {column, row, field} triples, or null */
+  private java.util.ArrayList<int[]> boardStones = null;
+
+  /** Represents the time the command being answered arrived (System.nanoTime) */
+  private long receivedNanos;
+
+  /** Represents whether END was received */
+  private boolean ended = false;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an engine that answers on a stream
+   * @param out where the answers go
+   * @param threads the number of search threads, at least 1
+   * @param bookFile the opening book file, or null
+   */
+  public GomocupEngine(PrintStream out, int threads, String bookFile)
+  {
+    this.out = out;
+    this.threads = Math.max(1, threads);
+    this.bookFile = bookFile;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Answers commands from a reader until END or the end of the input
+   * @param in the commands, one per line
+   */
+  public void run(BufferedReader in) throws IOException
+  {
+    while (!ended)
+    {
+      String line = in.readLine();
+
+      if (line == null)
+        break;
+
+      handle(line.trim());
+      out.flush();
+    }
+
+    if (engine != null)
+      engine.shutdown();
+  }
+
+  /**
+   * Answers one command
+   * @param line the command line, without surrounding spaces
+   */
+  public void handle(String line)
+  {
+    receivedNanos = System.nanoTime();
+
+    if (line.isEmpty())
+      return;
+
+    if (boardStones != null)
+    {
+      readBoardLine(line);
+      return;
+    }
+
+    int space = line.indexOf(' ');
+    String command = ((space < 0) ? line : line.substring(0, space)).toUpperCase();
+    String argument = (space < 0) ? "" : line.substring(space + 1).trim();
+
+    try
+    {
+      switch (command)
+      {
+        case "START":
+          start(Integer.parseInt(argument), Integer.parseInt(argument));
+          break;
+
+        case "RECTSTART":
+          String[] size = argument.split(",");
+          start(Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()));
+          break;
+
+        case "RESTART":
+          requireBoard();
+          board.clear();
+          out.println("OK");
+          break;
+
+        case "BEGIN":
+          requireBoard();
+          ownColor = (board.getStoneCount() % 2 == 0) ? Board.BLACK : Board.WHITE;
+          playMove();
+          break;
+
+        case "TURN":
+          requireBoard();
+          int[] square = parseSquare(argument);
+
+          if (!board.isEmpty(square[1], square[0]))
+            throw new IllegalArgumentException("Square taken: " + argument);
+
+          ownColor = (board.getStoneCount() % 2 == 0) ? Board.WHITE : Board.BLACK;
+          board.place(square[1], square[0], Board.opponent(ownColor));
+          playMove();
+          break;
+
+        case "BOARD":
+          requireBoard();
+          boardStones = new java.util.ArrayList<int[]>();
+          break;
+
+        case "TAKEBACK":
+          requireBoard();
+          int[] taken = parseSquare(argument);
+
+          if (board.isEmpty(taken[1], taken[0]))
+            throw new IllegalArgumentException("No stone at " + argument);
+
+          board.remove(taken[1], taken[0]);
+          out.println("OK");
+          break;
+
+        case "INFO":
+          info(argument);
+          break;
+
+        case "ABOUT":
+          out.println("name=\"Gomoku\", version=\"1.0\", country=\"\"");
+          break;
+
+        case "END":
+          ended = true;
+          break;
+
+        default:
+          out.println("UNKNOWN " + command);
+      }
+    }
+
+    catch (IllegalArgumentException | IndexOutOfBoundsException e)
+    {
+      out.println("ERROR " + command + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Runs the protocol engine on standard input and output
+   * @param args optionally --threads=n, --book=file and the options of Metrics.configure, which report on standard
+   * error
+   */
+  public static void main(String[] args) throws IOException
+  {
+    int threads = 1;
+    String bookFile = null;
+
+    for (String arg : args)
+    {
+      if (arg.startsWith("--threads="))
+        threads = Integer.parseInt(arg.substring("--threads=".length()));
+
+      else if (arg.startsWith("--book="))
+        bookFile = arg.substring("--book=".length());
+
+      else if (arg.startsWith("--metrics"))
+        Metrics.configure(arg);
+    }
+
+    PrintStream out = new PrintStream(new java.io.FileOutputStream(java.io.FileDescriptor.out), false, "US-ASCII");
+    GomocupEngine engine = new GomocupEngine(out, threads, bookFile);
+    engine.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)));
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Sets up an empty board and an engine for it, keeping the engine if the size has not changed
+   * @param columns the number of columns (the protocol's width)
+   * @param rows the number of rows (the protocol's height)
+   */
+  private void start(int columns, int rows)
+  {
+    if (rows < NUM_WIN || columns < NUM_WIN || rows > MAX_SIZE || columns > MAX_SIZE)
+    {
+      out.println("ERROR unsupported size " + columns + "x" + rows);
+      return;
+    }
+
+    if (board == null || board.getRows() != rows || board.getColumns() != columns)
+    {
+      board = new Board(rows, columns);
+      newEngine();
+      book = openBook(rows, columns);
+      warmUp();
+    }
+
+    else
+      board.clear();
+
+    out.println("OK");
+  }
+
+  /**
+   * Searches the position, plays the move on the board and answers with it
+   */
+  private void playMove()
+  {
+    /** A book from games under other rules than the manager's is not played from */
+    int move = (book != null && book.getRules() == rules) ? book.lookup(board, ownColor) : -1;
+    int numColumn = board.getColumns();
+
+    /** The centre needs no search, and the first answer is what managers time most strictly */
+    if (board.getStoneCount() == 0)
+      move = (board.getRows() / 2) * numColumn + numColumn / 2;
+
+    if (move < 0)
+    {
+      SearchResult result = engine.search(board, ownColor, moveMillis());
+
+      if (!result.hasMove())
+      {
+        out.println("ERROR no move left");
+        return;
+      }
+
+      move = result.getRow() * numColumn + result.getColumn();
+      out.println("MESSAGE " + describe(result));
+    }
+
+    board.place(move / numColumn, move % numColumn, ownColor);
+    out.println(squareText(move));
+  }
+
+  /**
+   * Replaces the search engine with one for the board's size and the current rule set
+   */
+  private void newEngine()
+  {
+    if (engine != null)
+      engine.shutdown();
+
+    /** The old table is let go before the new one is made, so that both never have to fit in max_memory */
+    engine = null;
+    engine = new ParallelSearch(board.getRows(), board.getColumns(), rules, tableMegabytes(), threads);
+  }
+
+  /**
+   * Returns the rule set id for the protocol's INFO rule bits: 1 exactly five, 4 Renju, 8 Caro, none freestyle
+   * @param rule the bits; 2 (a continuous game) does not change the rules of a move
+   */
+  private static int ruleSetId(int rule)
+  {
+    if ((rule & 4) != 0)
+      return RuleSet.RENJU;
+
+    else if ((rule & 8) != 0)
+      return RuleSet.CARO;
+
+    else if ((rule & 1) != 0)
+      return RuleSet.STANDARD;
+
+    else
+      return RuleSet.FREESTYLE;
+  }
+
+  /**
+   * Returns the time budget of the next move in milliseconds, less the time since the command arrived
+   */
+  private long moveMillis()
+  {
+    long millis = (turnMillis > 0) ? turnMillis : 1;
+
+    if (matchMillis > 0 && leftMillis != Long.MAX_VALUE)
+      millis = Math.min(millis, leftMillis / MOVES_TO_GO);
+
+    millis -= Math.max(SAFETY_MILLIS, millis / 10) + (System.nanoTime() - receivedNanos) / 1000000L;
+    return Math.max(1, millis);
+  }
+
+  /**
+   * Runs a short search on a scratch board, so that the classes the first real move needs are loaded and the JIT
+   * has seen the search before the clock runs; START is answered after it, while the manager is not timing a move
+   */
+  private void warmUp()
+  {
+    Board scratch = new Board(board.getRows(), board.getColumns());
+    int row = board.getRows() / 2;
+    int column = board.getColumns() / 2;
+    scratch.place(row, column, Board.BLACK);
+    scratch.place(row + 1, column + 1, Board.WHITE);
+
+    SearchResult result = engine.search(scratch, Board.BLACK, WARMUP_MILLIS);
+    int move = result.getRow() * board.getColumns() + result.getColumn();
+    out.println("MESSAGE warm-up " + squareText(move) + " " + describe(result));
+    engine.getTable().clear();
+  }
+
+  /**
+   * Returns the protocol's "x,y" for a square
+   * @param move the square number (row * columns + column)
+   */
+  private String squareText(int move)
+  {
+    int numColumn = board.getColumns();
+    return (move % numColumn) + "," + (move / numColumn);
+  }
+
+  /**
+   * Returns the depth, nodes, score and time of a search for a MESSAGE line
+   * @param result the search result
+   */
+  private static String describe(SearchResult result)
+  {
+    return "depth " + result.getDepth() + " nodes " + result.getNodes() + " score " + result.getScore() + " time "
+             + result.getMillis() + "ms";
+  }
+
+  /**
+   * Stores one INFO setting; unknown keys are ignored, as the protocol asks
+   * @param argument the key and the value
+   */
+  private void info(String argument)
+  {
+    String[] fields = argument.split("\\s+");
+
+    if (fields.length < 2)
+      return;
+
+    switch (fields[0].toLowerCase())
+    {
+      case "timeout_turn":
+        turnMillis = Long.parseLong(fields[1]);
+        break;
+
+      case "timeout_match":
+        matchMillis = Long.parseLong(fields[1]);
+        break;
+
+      case "time_left":
+        leftMillis = Long.parseLong(fields[1]);
+        break;
+
+      case "max_memory":
+        maxMemory = Long.parseLong(fields[1]);
+        break;
+
+      case "rule":
+        rules = RuleSet.get(ruleSetId(Integer.parseInt(fields[1])), NUM_WIN);
+
+        /** Managers send the rule after START, so the engine of the board is rebuilt for it */
+        if (engine != null && engine.getRules() != rules)
+          newEngine();
+
+        if (book != null && book.getRules() != rules)
+          out.println("MESSAGE the opening book is for " + book.getRules().getName() + " rules");
+
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Reads one line of a BOARD command: a stone "x,y,field" (1 own, 2 opponent) or DONE, which plays a move
+   * @param line the line
+   */
+  private void readBoardLine(String line)
+  {
+    if (!line.equalsIgnoreCase("DONE"))
+    {
+      try
+      {
+        String[] fields = line.split(",");
+        int[] square = parseSquare(fields[0] + "," + fields[1]);
+        int field = Integer.parseInt(fields[2].trim());
+
+        if (field != 1 && field != 2)
+          throw new IllegalArgumentException("Unsupported field " + field);
+
+        boardStones.add(new int[] {square[0], square[1], field});
+      }
+
+      catch (IllegalArgumentException | IndexOutOfBoundsException e)
+      {
+        out.println("ERROR BOARD: " + e.getMessage());
+      }
+
+      return;
+    }
+
+    java.util.ArrayList<int[]> stones = boardStones;
+    boardStones = null;
+    int own = 0;
+
+    for (int[] stone : stones)
+      own += (stone[2] == 1) ? 1 : 0;
+
+    /** With as many stones as the opponent this engine moved first, and was black */
+    ownColor = (own * 2 == stones.size()) ? Board.BLACK : Board.WHITE;
+    board.clear();
+
+    for (int[] stone : stones)
+    {
+      if (board.isEmpty(stone[1], stone[0]))
+        board.place(stone[1], stone[0], (stone[2] == 1) ? ownColor : Board.opponent(ownColor));
+    }
+
+    playMove();
+  }
+
+  /**
+   * Returns {x, y} of a square "x,y" on the board
+   * @param text the square
+   */
+  private int[] parseSquare(String text)
+  {
+    String[] fields = text.split(",");
+
+    if (fields.length != 2)
+      throw new IllegalArgumentException("Not a square: " + text);
+
+    int x = Integer.parseInt(fields[0].trim());
+    int y = Integer.parseInt(fields[1].trim());
+
+    if (!board.isOnBoard(y, x))
+      throw new IllegalArgumentException("Off the board: " + text);
+
+    return new int[] {x, y};
+  }
+
+  /**
+   * Throws if START has not been received
+   */
+  private void requireBoard()
+  {
+    if (board == null)
+      throw new IllegalArgumentException("START first");
+  }
+
+  /**
+   * Returns the memory of the transposition table: a quarter of the memory limit, if there is one, up to the default
+   */
+  private int tableMegabytes()
+  {
+    if (maxMemory <= 0)
+      return DEFAULT_TABLE_MEGABYTES;
+
+    return (int)Math.max(1, Math.min(DEFAULT_TABLE_MEGABYTES, maxMemory / 4 / (1 << 20)));
+  }
+
+  /**
+   * Opens the opening book for a board, or returns null if there is none or it is for another board
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  private OpeningBook openBook(int rows, int columns)
+  {
+    if (bookFile == null)
+      return null;
+
+    try
+    {
+      OpeningBook opened = OpeningBook.open(java.nio.file.Paths.get(bookFile));
+
+      if (opened.getRows() == rows && opened.getColumns() == columns && opened.getNumWin() == NUM_WIN)
+        return opened;
+
+      out.println("MESSAGE the opening book is for " + opened.getRows() + "x" + opened.getColumns());
+    }
+
+    catch (IOException e)
+    {
+      out.println("MESSAGE could not open the opening book: " + e.getMessage());
+    }
+
+    return null;
+  }
+}
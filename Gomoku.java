@@ -3,9 +3,10 @@ import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.control.Button;
+import javafx.scene.control.ToolBar;
+import javafx.scene.control.Label;
 import javafx.event.EventHandler;
-import javafx.event.ActionEvent;
-import javafx.scene.layout.GridPane;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.Background;
 import javafx.scene.paint.Color;
@@ -24,8 +25,17 @@ public class Gomoku extends Application
 {
   /** ==================================== FIELDS ==================================== */
   
-  /** Represents the entire gameBoard */
-  private static Button[][] gameBoard;
+  /** Represents the pieces on the gameBoard, kept apart from the display so that rule checks never touch JavaFX */
+  private static Board board;
+  
+  /** Represents the win detector watching the board, so that only the lines through the last piece are checked */
+  private static WinDetector winDetector;
+  
+  /** Represents the moves played, which can be taken back and played again */
+  private static Game game;
+  
+  /** Represents the Four-Four and Three-Three rules, checked with precomputed line patterns */
+  private static ForbiddenMoves forbiddenMoves;
   
   /** Represents the number of rows of the gameBoard */
   private static int numRow = 0;
@@ -57,8 +67,65 @@ public class Gomoku extends Application
   /** Represents if a winner has occuered yet */
   private static boolean hasWinner = false;
   
-  /**Stores the grid pane of the application */
-  private GridPane pane = new GridPane();
+  /** Represents the canvas the gameBoard is drawn on */
+  private BoardCanvas boardCanvas;
+  
+  /** Represents the color the computer plays, or EMPTY if both players are human */
+  private static int computerColor = Board.EMPTY;
+  
+  /** Represents the computer's time budget per move in milliseconds */
+  private static long computerTime = 1000;
+  
+  /** Represents the number of threads the computer searches with, or 0 if not given */
+  private static int computerThreads = 0;
+  
+  /** Represents if the computer uses Monte Carlo Tree Search instead of alpha-beta */
+  private static boolean computerMcts = false;
+  
+  /** Represents the largest board (in squares) the computer plays on, since its engines copy every square */
+  private static final long MAX_COMPUTER_SQUARES = 1L << 22;
+  
+  /** Represents if the game is played on an effectively unbounded sparse board */
+  private static boolean infiniteBoard = false;
+  
+  /** Represents the number of headless computer-against-computer games to play instead of opening the window */
+  private static int selfPlayGames = 0;
+  
+  /** Represents the engine descriptions used for black and white in headless games */
+  private static String[] selfPlayEngines = {"alphabeta:2", "alphabeta:2"};
+  
+  /** Represents the file headless games are written to */
+  private static String selfPlayOutput = "selfplay.txt";
+  
+  /** Represents the search engine playing for the computer */
+  private static Engine engine;
+  
+  /** Represents the engine's own thread, which thinks and ponders so the window never waits for a search */
+  private static BackgroundSearch thinker;
+  
+  /** Represents the line under the buttons that shows how the computer's search is going */
+  private static Label status;
+  
+  /** Represents the opening book file the computer plays from before it searches, or null */
+  private static String bookFile = null;
+  
+  /** Represents the opening book the computer plays from, or null */
+  private static OpeningBook book;
+  
+  /** Represents the network file the alpha-beta search scores positions with, or null for the pattern weights */
+  private static String networkFile = null;
+  
+  /** Represents the position cache file the alpha-beta search keeps its results in across runs, or null */
+  private static String cacheFile = null;
+  
+  /** Represents the file finished games are appended to, or null */
+  private static String recordFile = null;
+  
+  /** Represents the name of the rule set given with --rules */
+  private static String rulesName = RuleSet.NAMES[RuleSet.DEFAULT];
+  
+  /** Represents the rule set the game is played under */
+  private static RuleSet rules;
   
   /** ==================================== GETTER/SETTER METHODS ==================================== */
   /**
@@ -78,6 +145,22 @@ public class Gomoku extends Application
     this.isBlackTurn = isBlackTurn;
   }
   
+  /**
+   * Gets the pieces on the gameBoard
+   */
+  public static Board getBoard()
+  {
+    return board;
+  }
+  
+  /**
+   * Gets the win detector watching the gameBoard
+   */
+  public static WinDetector getWinDetector()
+  {
+    return winDetector;
+  }
+  
   /**
    * Gets the value of emptyBoard
    */
@@ -138,19 +221,24 @@ public class Gomoku extends Application
   public void start(Stage primaryStage)
   { 
     /**
-     * Creates a gameBoard so that the location of a button in the array corresponds to its location in the display grid
-     * Also defines the actions for the buttons
+     * Draws the gameBoard on one canvas, which repaints the squares the board reports as changed
+     * Also defines the action for a click on a square
      */
-    for(int row = 0; row < gameBoard.length; row++)
-    {
-      for(int column = 0; column < gameBoard[row].length; column++)
-      {
-        gameBoard[row][column] = new Button();
-        this.setButtonBlank(gameBoard[row][column]);
-        pane.add(gameBoard[row][column], column, row);
-        gameBoard[row][column].setOnAction(new ClickBlank());
-      }
-    }
+    boardCanvas = new BoardCanvas(board, 25.0, getEmptyBoard(), getBlackPiece(), getWhitePiece());
+    boardCanvas.getCanvas().setOnMouseClicked(new ClickBlank());
+    
+    /** Undo and Redo take back and replay moves, two at a time against the computer so that it stays your turn */
+    Button undo = new Button("Undo");
+    undo.setOnAction(e -> undoMove());
+    Button redo = new Button("Redo");
+    redo.setOnAction(e -> redoMove());
+    Button newGame = new Button("New game");
+    newGame.setOnAction(e -> newGame());
+    status = new Label("");
+    
+    BorderPane pane = new BorderPane();
+    pane.setTop(new ToolBar(undo, redo, newGame, status));
+    pane.setCenter(boardCanvas.getCanvas());
     
     /** Sets the panel on the scene */
     Scene scene = new Scene(pane);
@@ -160,6 +248,78 @@ public class Gomoku extends Application
     
     /** Shows the stage */
     primaryStage.show();
+    
+    /** Lets the computer open the game if it plays black */
+    if (computerColor != Board.EMPTY && (long)numRow * numColumn > MAX_COMPUTER_SQUARES)
+    {
+      System.out.println("The computer only plays on boards of up to " + MAX_COMPUTER_SQUARES + " squares");
+      computerColor = Board.EMPTY;
+    }
+    
+    else if (computerColor != Board.EMPTY)
+    {
+      if (computerMcts)
+        engine = new MctsEngine(numRow, numColumn, rules, Math.max(1, computerThreads));
+      
+      else
+      {
+        ParallelSearch search = new ParallelSearch(numRow, numColumn, rules, 64, Math.max(1, computerThreads));
+        engine = search;
+        
+        if (networkFile != null)
+        {
+          try
+          {
+            search.setNetwork(NeuralNetwork.load(java.nio.file.Paths.get(networkFile)));
+          }
+          
+          catch (java.io.IOException | IllegalArgumentException e)
+          {
+            System.out.println("Could not use the network, so the pattern weights are used: " + e.getMessage());
+          }
+        }
+        
+        if (cacheFile != null)
+        {
+          try
+          {
+            search.setCache(PositionCache.open(java.nio.file.Paths.get(cacheFile), numRow, numColumn, numWin,
+                                               rules.getId(), 256));
+          }
+          
+          catch (java.io.IOException | IllegalArgumentException e)
+          {
+            System.out.println("Could not open the position cache: " + e.getMessage());
+          }
+        }
+      }
+      
+      thinker = new BackgroundSearch(engine, Platform::runLater);
+      
+      if (bookFile != null)
+      {
+        try
+        {
+          book = OpeningBook.open(java.nio.file.Paths.get(bookFile));
+          
+          if (book.getRows() != numRow || book.getColumns() != numColumn || book.getRules() != rules)
+          {
+            System.out.println("The opening book is for " + book.getRows() + "x" + book.getColumns() + " with "
+                                 + book.getNumWin() + " to win under " + book.getRules().getName()
+                                 + " rules, so it is not used");
+            book = null;
+          }
+        }
+        
+        catch (java.io.IOException e)
+        {
+          System.out.println("Could not open the opening book: " + e.getMessage());
+        }
+      }
+      
+      if (isComputerTurn())
+        playComputerMove();
+    }
   }
   /** ==================================== HELPER METHODS ==================================== */
   
@@ -236,75 +396,33 @@ public class Gomoku extends Application
    * @param column the column the first piece is at
    * @param direction the direction to check
    */
-  public int numberInLine(Region[][] board, int row, int column, String direction)
+  public int numberInLine(Board board, int row, int column, String direction)
   { 
-    int count = 1;
-    
     if (direction.equals("right"))
-    {
-      while(column + count < numColumn && !isBlank(board[row][column + count]) && hasSameColor(board[row][column], board[row][column + count]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.HORIZONTAL, true);
     
     if (direction.equals("left"))
-    {
-      while(column - count >= 0 && !isBlank(board[row][column - count]) && hasSameColor(board[row][column], board[row][column - count]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.HORIZONTAL, false);
     
     if (direction.equals("down"))
-    {
-      while(row + count < numRow && !isBlank(board[row + count][column]) && hasSameColor(board[row][column], board[row + count][column]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.VERTICAL, true);
     
     if (direction.equals("up"))
-    {
-      while(row - count >= 0 && !isBlank(board[row - count][column]) && hasSameColor(board[row][column], board[row - count][column]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.VERTICAL, false);
     
     if (direction.equals("left up corner"))
-    {
-      while(row - count >= 0 && column - count >= 0 && !isBlank(board[row - count][column - count]) && hasSameColor(board[row][column], board[row - count][column - count]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.DIAGONAL, false);
+    
+    if (direction.equals("right down corner"))
+      return board.countRun(row, column, Board.DIAGONAL, true);
     
     if (direction.equals("right up corner"))
-    {
-      while(row - count >= 0 && column + count < numColumn && !isBlank(board[row - count][column + count]) && hasSameColor(board[row][column], board[row - count][column + count]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.ANTI_DIAGONAL, false);
     
     if (direction.equals("left down corner"))
-    {
-      while(row + count < numRow && column - count >= 0 && !isBlank(board[row + count][column - count]) && hasSameColor(board[row][column], board[row + count][column - count]))
-      {
-        count++;
-      }
-    }
-    
-    if (direction.equals("right down corner"))
-    {
-      while(row + count < numRow && column + count < numColumn && !isBlank(board[row + count][column + count]) && hasSameColor(board[row][column], board[row + count][column + count]))
-      {
-        count++;
-      }
-    }
+      return board.countRun(row, column, Board.ANTI_DIAGONAL, true);
     
-    return count;
+    return 1;
   }
   
   /**
@@ -314,16 +432,16 @@ public class Gomoku extends Application
    */
   public boolean checkWin(int row, int column)
   {
-    if(numberInLine(gameBoard, row, column, "left") + numberInLine(gameBoard, row, column, "right") - 1 > numWin || numberInLine(gameBoard, row, column, "up") + 
-       numberInLine(gameBoard, row, column, "down") - 1 > numWin || numberInLine(gameBoard, row, column, "left up corner") + 
-       numberInLine(gameBoard, row, column, "right down corner") - 1 > numWin || numberInLine(gameBoard, row, column, "right up corner") 
-         + numberInLine(gameBoard, row, column, "left down corner") - 1 > numWin)  
+    if(numberInLine(board, row, column, "left") + numberInLine(board, row, column, "right") - 1 > numWin || numberInLine(board, row, column, "up") + 
+       numberInLine(board, row, column, "down") - 1 > numWin || numberInLine(board, row, column, "left up corner") + 
+       numberInLine(board, row, column, "right down corner") - 1 > numWin || numberInLine(board, row, column, "right up corner") 
+         + numberInLine(board, row, column, "left down corner") - 1 > numWin)  
       return false;
     
-    else if(numberInLine(gameBoard, row, column, "left") == numWin || numberInLine(gameBoard, row, column, "right") == numWin || numberInLine(gameBoard, row, column, "up") == numWin 
-              || numberInLine(gameBoard, row, column, "down") == numWin || numberInLine(gameBoard, row, column, "left up corner") == numWin
-              || numberInLine(gameBoard, row, column, "right up corner") == numWin || numberInLine(gameBoard, row, column, "left down corner") == numWin
-              || numberInLine(gameBoard, row, column, "right down corner") == numWin)
+    else if(numberInLine(board, row, column, "left") == numWin || numberInLine(board, row, column, "right") == numWin || numberInLine(board, row, column, "up") == numWin 
+              || numberInLine(board, row, column, "down") == numWin || numberInLine(board, row, column, "left up corner") == numWin
+              || numberInLine(board, row, column, "right up corner") == numWin || numberInLine(board, row, column, "left down corner") == numWin
+              || numberInLine(board, row, column, "right down corner") == numWin)
       return true;
     
     else
@@ -337,14 +455,14 @@ public class Gomoku extends Application
    * @param column the column the first piece is at
    * @param direction the direction to check
    */
-  public boolean isOpen(Region[][] board, int row, int column, String direction)
+  public boolean isOpen(Board board, int row, int column, String direction)
   {
     if(direction.equals("left"))
     {
       if (column - numberInLine(board, row, column, "left") < 0)
         return false;
       
-      else if (!isBlank(board[row][column - numberInLine(board, row, column, "left")]))
+      else if (!board.isEmpty(row, column - numberInLine(board, row, column, "left")))
         return false;
     }
     
@@ -353,7 +471,7 @@ public class Gomoku extends Application
       if (column + numberInLine(board, row, column, "right") >= numColumn)
         return false;
       
-      else if (!isBlank(board[row][column + numberInLine(board, row, column, "right")]))
+      else if (!board.isEmpty(row, column + numberInLine(board, row, column, "right")))
         return false; 
     }
     
@@ -362,7 +480,7 @@ public class Gomoku extends Application
       if (row - numberInLine(board, row, column, "up") < 0)
         return false;
       
-      else if (!isBlank(board[row - numberInLine(board, row, column, "up")][column]))
+      else if (!board.isEmpty(row - numberInLine(board, row, column, "up"), column))
         return false;
     }
     
@@ -371,7 +489,7 @@ public class Gomoku extends Application
       if (row + numberInLine(board, row, column, "down") >= numRow)
         return false;
       
-      else if (!isBlank(board[row + numberInLine(board, row, column, "down")][column]))
+      else if (!board.isEmpty(row + numberInLine(board, row, column, "down"), column))
         return false;
     }
     
@@ -380,7 +498,7 @@ public class Gomoku extends Application
       if (column - numberInLine(board, row, column, "left up corner") < 0 || row - numberInLine(board, row, column, "left up corner") < 0 )
         return false;
       
-      else if (!isBlank(board[row - numberInLine(board, row, column, "left up corner")][column - numberInLine(board, row, column, "left up corner")]))
+      else if (!board.isEmpty(row - numberInLine(board, row, column, "left up corner"), column - numberInLine(board, row, column, "left up corner")))
         return false;
     }
     
@@ -389,7 +507,7 @@ public class Gomoku extends Application
       if (column + numberInLine(board, row, column, "right up corner") >= numColumn || row - numberInLine(board, row, column, "right up corner") < 0 )
         return false;
       
-      else if (!isBlank(board[row - numberInLine(board, row, column, "right up corner")][column + numberInLine(board, row, column, "right up corner")]))
+      else if (!board.isEmpty(row - numberInLine(board, row, column, "right up corner"), column + numberInLine(board, row, column, "right up corner")))
         return false;
     }
     
@@ -398,7 +516,7 @@ public class Gomoku extends Application
       if (column - numberInLine(board, row, column, "left down corner") < 0 || row + numberInLine(board, row, column, "left down corner") >= numRow )
         return false;
       
-      else if (!isBlank(board[row + numberInLine(board, row, column, "left down corner")][column - numberInLine(board, row, column, "left down corner")]))
+      else if (!board.isEmpty(row + numberInLine(board, row, column, "left down corner"), column - numberInLine(board, row, column, "left down corner")))
         return false;
     }
     
@@ -407,13 +525,203 @@ public class Gomoku extends Application
       if (column + numberInLine(board, row, column, "right down corner") >= numColumn || row + numberInLine(board, row, column, "right down corner") >= numRow )
         return false;
       
-      else if (!isBlank(board[row + numberInLine(board, row, column, "right down corner")][column + numberInLine(board, row, column, "right down corner")]))
+      else if (!board.isEmpty(row + numberInLine(board, row, column, "right down corner"), column + numberInLine(board, row, column, "right down corner")))
         return false;
     }
     
     return true;
   }
   
+  /**
+   * Puts the next piece on a square, updates the turn and checks whether the piece wins
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  public void playMove(int row, int column)
+  {
+    /** The canvas listens to the board, so making the move also draws it */
+    game.make(row, column);
+    setIsBlackTurn(game.isBlackTurn());
+    
+    if (!hasWinner && winDetector.hasWinner())
+    {
+      if (winDetector.getWinner() == Board.BLACK)
+        System.out.println("BLACK WINS!");
+      
+      else
+        System.out.println("WHITE WINS!");
+      
+      hasWinner = true;
+      
+      if (recordFile != null)
+        saveGame(winDetector.getWinner());
+    }
+  }
+  
+  /**
+   * Appends the game so far to the record file given with --record
+   * @param result the winner, EMPTY for a draw, or GameRecords.UNFINISHED
+   */
+  public void saveGame(int result)
+  {
+    try (GameRecordWriter writer = GameRecordWriter.open(java.nio.file.Paths.get(recordFile), numRow, numColumn, numWin,
+                                                         rules.getId()))
+    {
+      writer.write(game, result);
+    }
+    
+    catch (java.io.IOException e)
+    {
+      System.out.println("Could not save the game: " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Takes back the last move; against the computer, also takes back the move before it so that it is your turn again
+   */
+  public void undoMove()
+  {
+    cancelComputer();
+    
+    /** The turn is updated after every step, since the second step depends on whose turn the first one left */
+    if (game.canUndo())
+    {
+      game.unmake();
+      setIsBlackTurn(game.isBlackTurn());
+    }
+    
+    if (isComputerTurn() && game.canUndo())
+    {
+      game.unmake();
+      setIsBlackTurn(game.isBlackTurn());
+    }
+    
+    hasWinner = game.hasWinner();
+    
+    /** Taking back the computer's opening move leaves it to move again */
+    if (isComputerTurn())
+      playComputerMove();
+  }
+  
+  /**
+   * Plays the last move taken back again; against the computer, also its answer if that was taken back too
+   */
+  public void redoMove()
+  {
+    cancelComputer();
+    
+    /** The turn is updated after every step, since the second step depends on whose turn the first one left */
+    if (game.canRedo())
+    {
+      game.redo();
+      setIsBlackTurn(game.isBlackTurn());
+    }
+    
+    if (isComputerTurn() && game.canRedo())
+    {
+      game.redo();
+      setIsBlackTurn(game.isBlackTurn());
+    }
+    
+    hasWinner = game.hasWinner();
+    
+    /** Redoing a move without the computer's answer leaves it to move */
+    if (!hasWinner && isComputerTurn())
+      playComputerMove();
+  }
+  
+  /**
+   * Takes back every move and starts again from the empty board
+   */
+  public void newGame()
+  {
+    cancelComputer();
+    
+    while (game.canUndo())
+      game.unmake();
+    
+    game.reset(Board.BLACK);
+    setIsBlackTurn(true);
+    hasWinner = false;
+    
+    if (isComputerTurn())
+      playComputerMove();
+  }
+  
+  /**
+   * Stops the computer thinking or pondering at once; whatever it was searching is thrown away
+   */
+  public void cancelComputer()
+  {
+    if (thinker != null)
+      thinker.cancel();
+    
+    if (status != null)
+      status.setText("");
+  }
+  
+  /**
+   * Determines whether the computer plays the next piece
+   */
+  public boolean isComputerTurn()
+  {
+    return computerColor == (isBlackTurn ? Board.BLACK : Board.WHITE);
+  }
+  
+  /**
+   * Lets the search engine choose the computer's move on its own thread; computerMoved plays it when it is found
+   * Note: A move from the opening book (--book) is played at once instead when the book knows the position and the
+   * rules allow the move
+   */
+  public void playComputerMove()
+  {
+    /** Known openings are played from the book without searching */
+    int bookMove = (book != null) ? book.lookup(board, computerColor) : -1;
+    
+    if (bookMove >= 0)
+    {
+      System.out.println("Computer: book move " + bookMove / numColumn + "," + bookMove % numColumn);
+      playMove(bookMove / numColumn, bookMove % numColumn);
+      return;
+    }
+    
+    status.setText("Thinking");
+    thinker.think(BackgroundSearch.snapshot(game), computerColor, computerTime, this::computerMoved, this::showProgress);
+  }
+  
+  /**
+   * Plays the move the computer found, prints how the search went, then ponders while the player thinks
+   * @param result the computer's search result
+   */
+  public void computerMoved(SearchResult result)
+  {
+    System.out.println("Computer: " + result);
+    status.setText("");
+    
+    if (result.hasMove())
+      playMove(result.getRow(), result.getColumn());
+    
+    if (!hasWinner && !isComputerTurn())
+      thinker.ponder(BackgroundSearch.snapshot(game), Board.opponent(computerColor), this::showProgress);
+  }
+  
+  /**
+   * Shows a finished depth of the computer's search: the depth, the speed and the line it expects
+   * @param progress the best move and score so far
+   * @param line the expected line, starting with the best move
+   */
+  public void showProgress(SearchResult progress, int[] line)
+  {
+    StringBuilder text = new StringBuilder(thinker.isThinking() ? "Thinking" : "Pondering");
+    text.append(": depth ").append(progress.getDepth());
+    text.append(", ").append(progress.getNodesPerSecond()).append(" nodes/s,");
+    
+    for (int move : line)
+      text.append(' ').append(move / numColumn).append(',').append(move % numColumn);
+    
+    status.setText(text.toString());
+  }
+  
   /**
    * Determine if the select piece has the same color as the will-put-down piece
    * @param row select piece's row number
@@ -421,8 +729,7 @@ public class Gomoku extends Application
    */
   public boolean isSameColorAsTurn(int row, int column)
   {
-    if ((isBlackTurn && gameBoard[row][column].getBackground().equals(new Background(getEmptyBoard(), blackPiece))) || 
-        (!isBlackTurn && gameBoard[row][column].getBackground().equals(new Background(getEmptyBoard(), whitePiece))))
+    if ((isBlackTurn && board.get(row, column) == Board.BLACK) || (!isBlackTurn && board.get(row, column) == Board.WHITE))
       return true;
     
     else
@@ -431,6 +738,7 @@ public class Gomoku extends Application
   
   /**
    * Helper method for Four-Four and Three-Three
+   * Note: isAgainstFourFour and isAgainstThreeThree now use ForbiddenMoves, which also finds broken patterns such as X_XX
    * @param row the will-be-put piece's row number
    * @param column the will-be-put piece's column number
    * @param ruleNumber the rule's number (e.g. Four-Four = number win - 1)
@@ -439,28 +747,28 @@ public class Gomoku extends Application
   {
     int count = 0;
     
-    if (column - 1 >= 0 && isSameColorAsTurn(row, column - 1) && numberInLine(gameBoard, row, column - 1, "left") == ruleNumber)
+    if (column - 1 >= 0 && isSameColorAsTurn(row, column - 1) && numberInLine(board, row, column - 1, "left") == ruleNumber)
       count++;
     
-    if (column + 1 < numColumn && isSameColorAsTurn(row, column + 1) && numberInLine(gameBoard, row, column + 1, "right") == ruleNumber)
+    if (column + 1 < numColumn && isSameColorAsTurn(row, column + 1) && numberInLine(board, row, column + 1, "right") == ruleNumber)
       count++;
     
-    if (row - 1 >= 0 && isSameColorAsTurn(row - 1, column) && numberInLine(gameBoard, row - 1, column, "up") == ruleNumber)
+    if (row - 1 >= 0 && isSameColorAsTurn(row - 1, column) && numberInLine(board, row - 1, column, "up") == ruleNumber)
       count++;
     
-    if (row + 1 < numRow && isSameColorAsTurn(row + 1, column) &&  numberInLine(gameBoard, row + 1, column, "down") == ruleNumber)
+    if (row + 1 < numRow && isSameColorAsTurn(row + 1, column) &&  numberInLine(board, row + 1, column, "down") == ruleNumber)
       count++;
     
-    if (column - 1 >= 0 && row - 1 >= 0 && isSameColorAsTurn(row - 1, column - 1) && numberInLine(gameBoard, row - 1, column - 1, "left up corner") == ruleNumber)
+    if (column - 1 >= 0 && row - 1 >= 0 && isSameColorAsTurn(row - 1, column - 1) && numberInLine(board, row - 1, column - 1, "left up corner") == ruleNumber)
       count++;
     
-    if (column - 1 >= 0 && row + 1 < numRow && isSameColorAsTurn(row + 1, column - 1) && numberInLine(gameBoard, row + 1, column - 1, "left down corner") == ruleNumber)
+    if (column - 1 >= 0 && row + 1 < numRow && isSameColorAsTurn(row + 1, column - 1) && numberInLine(board, row + 1, column - 1, "left down corner") == ruleNumber)
       count++;
     
-    if (column + 1 < numColumn && row - 1 >= 0 && isSameColorAsTurn(row - 1, column + 1) && numberInLine(gameBoard, row - 1, column + 1, "right up corner") == ruleNumber)
+    if (column + 1 < numColumn && row - 1 >= 0 && isSameColorAsTurn(row - 1, column + 1) && numberInLine(board, row - 1, column + 1, "right up corner") == ruleNumber)
       count++;
     
-    if (column + 1 < numColumn && row + 1 < numRow && isSameColorAsTurn(row + 1, column + 1) && numberInLine(gameBoard, row + 1, column + 1, "right down corner") == ruleNumber)
+    if (column + 1 < numColumn && row + 1 < numRow && isSameColorAsTurn(row + 1, column + 1) && numberInLine(board, row + 1, column + 1, "right down corner") == ruleNumber)
       count++;
     
     if (count >= 2)
@@ -479,11 +787,7 @@ public class Gomoku extends Application
    */
   public boolean isAgainstFourFour(int row, int column)
   {
-    if(isAgainstHelper(row, column, numWin - 1))
-      return true;
-    
-    else
-      return false;
+    return forbiddenMoves.isAgainstFourFour(row, column, isBlackTurn ? Board.BLACK : Board.WHITE);
   }
   
   /**
@@ -493,82 +797,59 @@ public class Gomoku extends Application
    */
   public boolean isAgainstThreeThree(int row, int column)
   {
-    int count = 0;
-    
-    if(column - 1 >= 0 && !isBlank(gameBoard[row][column - 1]) && isOpen(gameBoard, row, column - 1, "left"))
-      count++;
-    
-    if(column + 1 < numColumn && !isBlank(gameBoard[row][column + 1]) && isOpen(gameBoard, row, column + 1, "right"))
-      count++;
-    
-    if(row - 1 >= 0 && !isBlank(gameBoard[row - 1][column]) && isOpen(gameBoard, row - 1, column, "up"))
-      count++;
-    
-    if(row + 1 < numRow && !isBlank(gameBoard[row + 1][column]) && isOpen(gameBoard, row + 1, column, "down"))
-      count++;
-    
-    if(column - 1 >= 0 && row - 1 >= 0 && !isBlank(gameBoard[row - 1][column - 1]) && isOpen(gameBoard, row - 1, column - 1, "left up corner"))
-      count++;
-    
-    if(column - 1 >= 0 && row + 1 < numRow && !isBlank(gameBoard[row + 1][column - 1]) && isOpen(gameBoard, row + 1, column - 1, "left down corner"))
-      count++;
-    
-    if(row - 1 >= 0 && column + 1 < numColumn && !isBlank(gameBoard[row - 1][column + 1]) &&isOpen(gameBoard, row - 1, column + 1, "right up corner"))
-      count++;
-    
-    if(row + 1 < numRow && column + 1 < numColumn && !isBlank(gameBoard[row + 1][column + 1]) && isOpen(gameBoard, row + 1, column + 1, "right down corner"))
-      count++;
-    
-    if(isAgainstHelper(row, column, numWin - 2) && count >= 2)
-    {
-      return true;
-    }
-    
-    else
-      return false;
+    return forbiddenMoves.isAgainstThreeThree(row, column, isBlackTurn ? Board.BLACK : Board.WHITE);
+  }
+  
+  /**
+   * Determine whether the move makes an overline the rule set forbids (black's, under Renju)
+   * @param row the will-be-put piece's row number
+   * @param column the will-be-put piece's column number
+   */
+  public boolean isAgainstOverline(int row, int column)
+  {
+    return forbiddenMoves.isAgainstOverline(row, column, isBlackTurn ? Board.BLACK : Board.WHITE);
   }
   
   /** ==================================== NESTED CLASSES ==================================== */
   /**
-   * A button click event that adds a piece on to the board if that spot is blank
+   * A mouse click event that adds a piece on to the board if the clicked spot is blank
    */
-  public class ClickBlank implements EventHandler<ActionEvent>
+  public class ClickBlank implements EventHandler<MouseEvent>
   {
     @Override
-    public void handle(ActionEvent e)
+    public void handle(MouseEvent e)
     {
-      Button clicked = (Button)e.getSource();
+      long start = Metrics.now();
+      Metrics.MoveEvent event = new Metrics.MoveEvent();
+      event.begin();
+      int clickedRow = boardCanvas.rowAt(e.getY());
+      int clickedColumn = boardCanvas.columnAt(e.getX());
+      
+      boolean allowed = false;
       
-      if (!hasWinner && isBlank(clicked) && !isAgainstFourFour(pane.getRowIndex(clicked), pane.getColumnIndex(clicked)) 
-            && !isAgainstThreeThree(pane.getRowIndex(clicked), pane.getColumnIndex(clicked)))
+      /** While the computer thinks the board is not yours to play on; such clicks are still counted */
+      if (clickedRow >= 0 && clickedColumn >= 0 && !isComputerTurn())
       {
-        if(nextPiece() == 0)
-          clicked.setBackground(new Background(getEmptyBoard(), blackPiece));
-        
-        else
-          clicked.setBackground(new Background(getEmptyBoard(), whitePiece));
+        long rulesStart = Metrics.now();
+        allowed = !hasWinner && board.isEmpty(clickedRow, clickedColumn)
+                    && !isAgainstFourFour(clickedRow, clickedColumn)
+                    && !isAgainstThreeThree(clickedRow, clickedColumn)
+                    && !isAgainstOverline(clickedRow, clickedColumn);
+        Metrics.RULES.recordSince(rulesStart);
       }
       
-      for (int row = 0; !hasWinner && row < numRow; row ++)
+      if (allowed)
       {
-        for (int column = 0; !hasWinner && column < numColumn; column ++)
-        {
-          if(checkWin(row, column))
-          {
-            if(gameBoard[row][column].getBackground().equals(new Background(getEmptyBoard(), blackPiece)))
-            {
-              System.out.println("BLACK WINS!");
-              hasWinner = true;
-            }
-            
-            else if (gameBoard[row][column].getBackground().equals(new Background(getEmptyBoard(), whitePiece)))
-            {
-              System.out.println("WHITE WINS!");
-              hasWinner = true;
-            }
-          }
-        }
-      } 
+        /** The ponder search has done its work by filling the engine's table, so it is stopped before the move */
+        cancelComputer();
+        playMove(clickedRow, clickedColumn);
+        
+        if (!hasWinner && isComputerTurn())
+          playComputerMove();
+      }
+      
+      Metrics.CLICK.recordSince(start);
+      Metrics.commit(event, "click", clickedRow, clickedColumn, allowed, hasWinner);
     }
   }
   
@@ -579,15 +860,124 @@ public class Gomoku extends Application
    */
   public static void setGomoku(int rows, int columns)
   {
-    gameBoard = new Button[rows][columns];
+    rules = RuleSet.forName(rulesName, numWin);
+    board = Board.create(rows, columns);
+    winDetector = new WinDetector(board, rules);
+    winDetector.setTimed(true);
+    game = new Game(board, winDetector, Board.BLACK);
+    forbiddenMoves = new ForbiddenMoves(board, rules);
     numRow = rows;
     numColumn = columns;
   }
   
+  /**
+   * Reads the options (arguments starting with "--") and returns the other arguments
+   * --ai=black or --ai=white lets the computer play that color, --ai-time=milliseconds sets its time per move
+   * --threads=n sets the number of threads it searches with and --engine=mcts or --engine=alphabeta picks its search
+   * --selfplay=n plays n headless games instead (on every core unless --threads is given) between --black=engine
+   * and --white=engine (see SelfPlay.setEngines), written to --out=file
+   * --infinite plays on an effectively unbounded board that only stores the pieces played
+   * --book=file lets the computer play the openings in a book built by OpeningBookBuilder
+   * --record=file appends every finished game to a game record file (see GameRecords)
+   * --rules=name plays under a rule set: default, freestyle, standard, renju or caro (see RuleSet)
+   * --network=file lets the alpha-beta search score positions with a network (see NeuralNetwork)
+   * --cache=file keeps the alpha-beta search's results in a position cache file across runs (see PositionCache)
+   * --metrics, --metrics=milliseconds and --metrics-json report latency and search counters (see Metrics.configure)
+   * @param args the program arguments
+   */
+  public static String[] parseOptions(String[] args)
+  {
+    java.util.ArrayList<String> numbers = new java.util.ArrayList<String>();
+    
+    for (String arg : args)
+    {
+      if (arg.startsWith("--ai="))
+        computerColor = arg.substring("--ai=".length()).equalsIgnoreCase("black") ? Board.BLACK : Board.WHITE;
+      
+      else if (arg.startsWith("--ai-time="))
+        computerTime = Long.parseLong(arg.substring("--ai-time=".length()));
+      
+      else if (arg.startsWith("--threads="))
+        computerThreads = Math.max(1, Integer.parseInt(arg.substring("--threads=".length())));
+      
+      else if (arg.startsWith("--engine="))
+        computerMcts = arg.substring("--engine=".length()).equalsIgnoreCase("mcts");
+      
+      else if (arg.equals("--infinite"))
+        infiniteBoard = true;
+      
+      else if (arg.startsWith("--selfplay="))
+        selfPlayGames = Integer.parseInt(arg.substring("--selfplay=".length()));
+      
+      else if (arg.startsWith("--black="))
+        selfPlayEngines[0] = arg.substring("--black=".length());
+      
+      else if (arg.startsWith("--white="))
+        selfPlayEngines[1] = arg.substring("--white=".length());
+      
+      else if (arg.startsWith("--out="))
+        selfPlayOutput = arg.substring("--out=".length());
+      
+      else if (arg.startsWith("--book="))
+        bookFile = arg.substring("--book=".length());
+      
+      else if (arg.startsWith("--record="))
+        recordFile = arg.substring("--record=".length());
+      
+      else if (arg.startsWith("--rules="))
+        rulesName = arg.substring("--rules=".length());
+      
+      else if (arg.startsWith("--network="))
+        networkFile = arg.substring("--network=".length());
+      
+      else if (arg.startsWith("--metrics"))
+        Metrics.configure(arg);
+      
+      else if (arg.startsWith("--cache="))
+        cacheFile = arg.substring("--cache=".length());
+      
+      else
+        numbers.add(arg);
+    }
+    
+    return numbers.toArray(new String[0]);
+  }
+  
+  /**
+   * Plays the headless games asked for on the command line
+   */
+  public static void playSelfPlay()
+  {
+    int rows = (numRow > 0) ? numRow : 19;
+    int columns = (numColumn > 0) ? numColumn : 19;
+    int threads = (computerThreads > 0) ? computerThreads : Runtime.getRuntime().availableProcessors();
+    
+    if ((long)rows * columns > MAX_COMPUTER_SQUARES)
+    {
+      System.out.println("The computer only plays on boards of up to " + MAX_COMPUTER_SQUARES + " squares");
+      return;
+    }
+    
+    try
+    {
+      SelfPlay selfPlay = new SelfPlay(rows, columns, RuleSet.forName(rulesName, numWin));
+      selfPlay.setEngines(selfPlayEngines[0], selfPlayEngines[1]);
+      selfPlay.setMoveMillis(computerTime);
+      selfPlay.run(selfPlayGames, threads, selfPlayOutput);
+    }
+    
+    catch (IllegalArgumentException | java.io.IOException e)
+    {
+      System.out.println("Self-play failed: " + e.getMessage());
+    }
+  }
+  
   public static void main(String[] args)
   {
     try
     {
+      args = parseOptions(args);
+      
       if (args.length == 0)
       {
         setGomoku(19, 19);
@@ -611,6 +1001,9 @@ public class Gomoku extends Application
       
       else
         System.out.println("Please input maximum three integers");
+      
+      if (infiniteBoard)
+        setGomoku(SparseBoard.INFINITE, SparseBoard.INFINITE);
     }
     
     catch (NumberFormatException e)
@@ -618,6 +1011,22 @@ public class Gomoku extends Application
       System.out.println("Please input integers only");
     }
     
+    /** A misspelled --rules or a numWin the line patterns cannot hold */
+    catch (IllegalArgumentException e)
+    {
+      System.out.println(e.getMessage());
+      System.out.println("--rules must be one of " + String.join(", ", RuleSet.NAMES) + " and numWin from 1 to "
+                           + PatternTable.MAX_WIN);
+      return;
+    }
+    
+    /** Headless games never start the JavaFX application */
+    if (selfPlayGames > 0)
+    {
+      playSelfPlay();
+      return;
+    }
+    
     Application.launch(args);
   }
 }
\ No newline at end of file
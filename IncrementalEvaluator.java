@@ -0,0 +1,277 @@
+import java.util.Random;
+
+/**
+ * This class represents the static evaluation of Evaluator kept up to date as pieces come and go
+ * Every line (row, column and both diagonals) keeps its own score; a piece only changes the numWin stretches through it
+ * on each of its four lines, which are read as bit masks from the board, so a move costs a few dozen bit operations
+ * and the total is always ready
+ * Note: Works on dense boards, which number their lines; the weights are the same as Evaluator's
+ */
+
+public class IncrementalEvaluator implements BoardListener
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board being watched */
+  private final Board board;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the score of a stretch, indexed by the number of pieces in it */
+  private final int[] weights;
+
+  /** Represents black's score minus white's score on every line, indexed by direction and line number */
+  private final int[][] lineScore = new int[Board.DIRECTIONS][];
+
+  /** Represents black's score minus white's score on the whole board */
+  private int total = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an evaluator with the default weights (see Evaluator.defaultWeights) and starts watching a board
+   * @param board the board to watch
+   * @param numWin number of pieces to be together that you can win
+   */
+  public IncrementalEvaluator(Board board, int numWin)
+  {
+    this(board, numWin, Evaluator.defaultWeights(numWin));
+  }
+
+  /**
+   * Creates an evaluator with custom weights and starts watching a board; pieces already on it are scored
+   * @param board the board to watch
+   * @param numWin number of pieces to be together that you can win, at most 32
+   * @param weights the score of a stretch, indexed by the number of pieces in it (numWin + 1 values)
+   */
+  public IncrementalEvaluator(Board board, int numWin, int[] weights)
+  {
+    if (board.isSparse())
+      throw new IllegalArgumentException("Incremental evaluation needs a dense board");
+
+    if (weights.length != numWin + 1)
+      throw new IllegalArgumentException("Expected " + (numWin + 1) + " weights, got " + weights.length);
+
+    if (numWin > 32)
+      throw new IllegalArgumentException("Incremental evaluation reads at most 32 in a row: " + numWin);
+
+    this.board = board;
+    this.numWin = numWin;
+    this.weights = weights.clone();
+
+    int numRow = board.getRows();
+    int numColumn = board.getColumns();
+    lineScore[Board.HORIZONTAL] = new int[numRow];
+    lineScore[Board.VERTICAL] = new int[numColumn];
+    lineScore[Board.DIAGONAL] = new int[numRow + numColumn - 1];
+    lineScore[Board.ANTI_DIAGONAL] = new int[numRow + numColumn - 1];
+
+    /** Every stretch is scored once, through the square it starts on */
+    for (int row = 0; row < numRow; row++)
+    {
+      for (int column = 0; column < numColumn; column++)
+      {
+        for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+        {
+          int endRow = row + (numWin - 1) * Board.ROW_STEP[direction];
+          int endColumn = column + (numWin - 1) * Board.COLUMN_STEP[direction];
+
+          if (board.isOnBoard(endRow, endColumn))
+          {
+            long black = board.window(Board.BLACK, direction, row, column, numWin - 1) >>> (numWin - 1);
+            long white = board.window(Board.WHITE, direction, row, column, numWin - 1) >>> (numWin - 1);
+            int score = stretchScore(Long.bitCount(black), Long.bitCount(white));
+            lineScore[direction][lineIndex(direction, row, column)] += score;
+            total += score;
+          }
+        }
+      }
+    }
+
+    board.addListener(this);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Returns the score of the board for one player: positive is good for that player
+   * Note: Equal to Evaluator.evaluate with the same weights
+   * @param color the player to score for
+   */
+  public int getScore(int color)
+  {
+    return (color == Board.BLACK) ? total : -total;
+  }
+
+  /**
+   * Returns black's score minus white's score on one line
+   * @param direction the line direction
+   * @param line the line number: the row, the column, row - column + columns - 1, or row + column
+   */
+  public int getLineScore(int direction, int line)
+  {
+    return lineScore[direction][line];
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Rescores the stretches through the new piece
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    update(row, column, color);
+  }
+
+  /**
+   * Rescores the stretches through the square the piece left
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece that was taken off
+   */
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    update(row, column, color);
+  }
+
+  /**
+   * Checks the incremental score against a full rescan by Evaluator over random games with pieces taken back,
+   * and prints the number of positions checked and the number that disagreed
+   * @param args optionally the number of games (default 200) and the board size (default 15)
+   */
+  public static void main(String[] args)
+  {
+    int games = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    int size = (args.length > 1) ? Integer.parseInt(args[1]) : 15;
+    Random random = new Random(1);
+    long checked = 0;
+    long wrong = 0;
+
+    for (int game = 0; game < games; game++)
+    {
+      int numWin = 3 + game % 4;
+      int[] weights = (game % 2 == 0) ? Evaluator.defaultWeights(numWin) : new int[numWin + 1];
+
+      for (int i = 0; i < weights.length && game % 2 == 1; i++)
+        weights[i] = random.nextInt(1000) - 100;
+
+      Board board = new Board(size, size);
+      Evaluator full = new Evaluator(numWin, weights);
+      IncrementalEvaluator incremental = new IncrementalEvaluator(board, numWin, weights);
+      int color = Board.BLACK;
+
+      for (int move = 0; move < size * size / 2; move++)
+      {
+        int row = random.nextInt(size);
+        int column = random.nextInt(size);
+
+        if (board.isEmpty(row, column))
+        {
+          board.place(row, column, color);
+          color = Board.opponent(color);
+        }
+
+        else if (random.nextInt(3) == 0)
+          board.remove(row, column);
+
+        checked++;
+
+        if (incremental.getScore(Board.BLACK) != full.evaluate(board, Board.BLACK))
+          wrong++;
+      }
+
+      /** A second evaluator started mid-game must agree too */
+      if (new IncrementalEvaluator(board, numWin, weights).getScore(Board.WHITE) != full.evaluate(board, Board.WHITE))
+        wrong++;
+    }
+
+    System.out.println(checked + " positions checked, " + wrong + " wrong");
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Adds the change in score of the stretches through a square to its four lines and to the total
+   * The board already shows the change when the listener is called, so the position before it is made by flipping
+   * the square's bit
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece put down or taken off
+   */
+  private void update(int row, int column, int color)
+  {
+    int radius = numWin - 1;
+    long stretch = (1L << numWin) - 1;
+    long centre = 1L << radius;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      long black = board.window(Board.BLACK, direction, row, column, radius);
+      long white = board.window(Board.WHITE, direction, row, column, radius);
+      long outside = board.outside(direction, row, column, radius);
+      long blackBefore = (color == Board.BLACK) ? black ^ centre : black;
+      long whiteBefore = (color == Board.WHITE) ? white ^ centre : white;
+      int change = 0;
+
+      for (int start = 0; start <= radius; start++)
+      {
+        long mask = stretch << start;
+
+        if ((outside & mask) != 0)
+          continue;
+
+        change += stretchScore(Long.bitCount(black & mask), Long.bitCount(white & mask))
+                    - stretchScore(Long.bitCount(blackBefore & mask), Long.bitCount(whiteBefore & mask));
+      }
+
+      lineScore[direction][lineIndex(direction, row, column)] += change;
+      total += change;
+    }
+  }
+
+  /**
+   * Returns black's score minus white's score for one stretch, as Evaluator scores it
+   * @param blackCount the number of black pieces in the stretch
+   * @param whiteCount the number of white pieces in the stretch
+   */
+  private int stretchScore(int blackCount, int whiteCount)
+  {
+    if (whiteCount == 0)
+      return weights[blackCount];
+
+    else if (blackCount == 0)
+      return -weights[whiteCount];
+
+    return 0;
+  }
+
+  /**
+   * Returns the number of the line through a square
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int lineIndex(int direction, int row, int column)
+  {
+    switch (direction)
+    {
+      case Board.HORIZONTAL:
+        return row;
+
+      case Board.VERTICAL:
+        return column;
+
+      case Board.DIAGONAL:
+        return row - column + board.getColumns() - 1;
+
+      default:
+        return row + column;
+    }
+  }
+}
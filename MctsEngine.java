@@ -0,0 +1,995 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a Monte Carlo Tree Search player (UCT with pattern-biased playouts)
+ * Playouts run at the same time on a work-stealing pool, one worker per thread, each with its own headless board
+ * The tree has no global lock: visit and value counters are atomic, a virtual loss steers other threads away from
+ * a path that is being played out, and a node's children are built by whichever thread wins a compare-and-set
+ * Only squares near existing pieces are tried, so the tree stays small on huge boards; the workers' boards store only
+ * their pieces on boards too big to store every square (see Board.create), and a search copies just the pieces
+ * Note: Moves are numbered row * columns + column, so the board may have at most Integer.MAX_VALUE squares
+ */
+
+public class MctsEngine implements Engine
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the UCT exploration constant */
+  private static final double EXPLORATION = 0.8;
+
+  /** Represents how far (in squares) from a piece a tree move can be */
+  private static final int RADIUS = 2;
+
+  /** Represents the number of visits a node needs before its children are built */
+  private static final int EXPAND_VISITS = 2;
+
+  /** Represents the longest playout; a longer game counts as a draw */
+  private static final int MAX_PLAYOUT = 160;
+
+  /** Represents the time between two progress reports to the listener, in nanoseconds */
+  private static final long PROGRESS_NANOS = 250000000L;
+
+  /** Represents the number of squares a playout move is picked from */
+  private static final int PLAYOUT_SAMPLES = 3;
+
+  /** Represents the playout and ordering weight of each line type made by the mover, indexed by PatternTable type */
+  private static final int[] ATTACK = {1, 6, 40, 60, 400, 400, 10000, 0};
+
+  /** Represents the playout and ordering weight of each line type the move stops the opponent from making */
+  private static final int[] DEFENCE = {0, 3, 20, 30, 200, 200, 5000, 0};
+
+  /** Represents the radius of the row windows the position's pieces are read with, the most Board.window reads */
+  private static final int SCAN_RADIUS = 31;
+
+  /** Represents how many playouts a worker plays between two looks at the other workers' counts */
+  private static final int PLAYOUT_BATCH = 16;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set the engine plays by */
+  private final RuleSet rules;
+
+  /** Represents the pool the playouts run on */
+  private final ForkJoinPool pool;
+
+  /** Represents the playout workers, one per thread */
+  private final Worker[] workers;
+
+  /** Represents the pieces of the position being searched, as square numbers, for the workers to copy */
+  private int[] rootSquares = new int[64];
+
+  /** Represents the colors of those pieces */
+  private int[] rootColors = new int[64];
+
+  /** Represents the number of pieces of the position being searched */
+  private int rootCount;
+
+  /** Represents the most playouts per search */
+  private long maxPlayouts = Long.MAX_VALUE;
+
+  /** Represents the share of the root visits the best move needs to stop early, or more than 1 to never stop early */
+  private double convergence = 2.0;
+
+  /** Represents if the current search should stop */
+  private final AtomicBoolean stopSignal = new AtomicBoolean();
+
+  /** Represents a request from another thread to stop the current search */
+  private volatile boolean stopRequested;
+
+  /** Represents what is told about the most visited move while the search runs, or null */
+  private SearchListener listener;
+
+  /** Represents if a search counts as a move chosen in Metrics */
+  private boolean moveMetrics = true;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an engine for one board size that plays by this program's own rules (RuleSet.DEFAULT)
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param threads the number of threads running playouts, at least 1
+   */
+  public MctsEngine(int rows, int columns, int numWin, int threads)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin), threads);
+  }
+
+  /**
+   * Creates an engine for one board size and rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set, which also gives the number of pieces to be together that you can win
+   * @param threads the number of threads running playouts, at least 1
+   */
+  public MctsEngine(int rows, int columns, RuleSet rules, int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("Need at least one playout thread: " + threads);
+
+    if ((long)rows * columns > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("The squares of a " + rows + "x" + columns + " board cannot be numbered");
+
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+    pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false);
+    workers = new Worker[threads];
+
+    for (int i = 0; i < threads; i++)
+      workers[i] = new Worker(rows, columns, 0x5DEECE66DL * (i + 1));
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Sets the most playouts per search
+   * @param maxPlayouts the playout limit, or Long.MAX_VALUE for none
+   */
+  public void setMaxPlayouts(long maxPlayouts)
+  {
+    this.maxPlayouts = Math.max(1, maxPlayouts);
+  }
+
+  /**
+   * Sets the share of the root visits the best move needs for the search to stop before its time is up
+   * @param convergence a share from 0.5 to 1, or anything above 1 to always use the full time
+   */
+  public void setConvergence(double convergence)
+  {
+    this.convergence = convergence;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Runs playouts until the time, the playout limit or convergence stops the search, and returns the most visited move
+   * @param position the position to search, which is not changed while the search runs
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis)
+  {
+    return search(position, color, millis, new AtomicBoolean());
+  }
+
+  /**
+   * Runs playouts until the time, the playout limit, convergence or the caller's stop signal stops the search
+   * @param position the position to search, which is not changed while the search runs
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   * @param callerStop the stop request to watch
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis, AtomicBoolean callerStop)
+  {
+    long start = System.nanoTime();
+    long deadline = start + millis * 1000000L;
+    int numColumn = position.getColumns();
+    Metrics.SearchEvent event = new Metrics.SearchEvent();
+    event.begin();
+
+    Node root = new Node(-1, Board.opponent(color), 0);
+    listStones(position);
+    workers[0].copyPosition();
+    workers[0].expand(root, color);
+    Node[] children = root.children;
+    for (Worker worker : workers)
+    {
+      worker.deepest = 1;
+      worker.playouts = 0;
+    }
+
+    /** With one sensible move (a five, or the only block of the opponent's five) there is nothing to search */
+    if (children.length > 1)
+    {
+      stopSignal.set(false);
+      stopRequested = false;
+
+      Future<?>[] running = new Future<?>[workers.length];
+
+      for (int i = 0; i < workers.length; i++)
+      {
+        Worker worker = workers[i];
+        running[i] = pool.submit(() -> worker.run(root, color));
+      }
+
+      long nextProgress = start + PROGRESS_NANOS;
+
+      while (!callerStop.get() && !shouldStop(root, deadline))
+      {
+        if (listener != null && System.nanoTime() >= nextProgress)
+        {
+          nextProgress += PROGRESS_NANOS;
+          listener.searchProgress(result(root, numColumn, start), new int[] {mostVisited(root).move});
+        }
+
+        try
+        {
+          Thread.sleep(1);
+        }
+
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+
+      stopSignal.set(true);
+
+      for (Future<?> future : running)
+      {
+        try
+        {
+          future.get();
+        }
+
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+
+        catch (ExecutionException e)
+        {
+          throw new IllegalStateException("Playout worker failed", e.getCause());
+        }
+      }
+    }
+
+    /** A position with no move left ends here too, so that Metrics counts every search */
+    long elapsed = (System.nanoTime() - start) / 1000000L;
+    SearchResult result = (children.length == 0) ? new SearchResult(-1, -1, 0, 0, 0, elapsed)
+                                                 : result(root, numColumn, start);
+
+    /** The listener hears the final move as well, including a move found without playouts */
+    if (listener != null && result.hasMove())
+      listener.searchProgress(result, new int[] {result.getRow() * numColumn + result.getColumn()});
+
+    Metrics.recordSearch(result.getNodes(), 0, 0, 0, 0);
+    if (moveMetrics)
+      Metrics.recordMove(System.nanoTime() - start, result.getDepth());
+
+    Metrics.commit(event, "mcts", result, 0, 0);
+    return result;
+  }
+
+  /**
+   * Sets what is told about the most visited move about every PROGRESS_NANOS while a search runs
+   * @param listener the listener, or null
+   */
+  @Override
+  public void setListener(SearchListener listener)
+  {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets whether a search counts as a move chosen in Metrics
+   * @param moveMetrics true to count every search as a move
+   */
+  @Override
+  public void setMoveMetrics(boolean moveMetrics)
+  {
+    this.moveMetrics = moveMetrics;
+  }
+
+  /**
+   * Asks the running search to stop as soon as possible
+   */
+  @Override
+  public void stop()
+  {
+    stopRequested = true;
+  }
+
+  /**
+   * Stops the playout threads; the engine cannot be used afterwards
+   */
+  public void shutdown()
+  {
+    pool.shutdownNow();
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Lists the pieces of a position in rootSquares and rootColors, reading each row 63 squares at a time and stopping
+   * once every piece is found
+   * @param position the position to search
+   */
+  private void listStones(Board position)
+  {
+    Board board = workers[0].board;
+
+    if (position.getRows() != board.getRows() || position.getColumns() != board.getColumns())
+      throw new IllegalArgumentException("Engine was created for a " + board.getRows() + "x" + board.getColumns() + " board");
+
+    int numColumn = position.getColumns();
+    int pieces = position.getStoneCount();
+    rootCount = 0;
+
+    for (int row = 0; row < position.getRows() && rootCount < pieces; row++)
+    {
+      for (int first = 0; first < numColumn; first += 2 * SCAN_RADIUS + 1)
+      {
+        int centre = Math.min(first + SCAN_RADIUS, numColumn - 1);
+        long occupied = position.window(Board.BLACK, Board.HORIZONTAL, row, centre, SCAN_RADIUS)
+                          | position.window(Board.WHITE, Board.HORIZONTAL, row, centre, SCAN_RADIUS);
+
+        for (; occupied != 0; occupied &= occupied - 1)
+        {
+          int column = centre + Long.numberOfTrailingZeros(occupied) - SCAN_RADIUS;
+
+          /** The last window of a row is moved back onto the board, so it may repeat squares already read */
+          if (column < first)
+            continue;
+
+          if (rootCount == rootSquares.length)
+          {
+            rootSquares = Arrays.copyOf(rootSquares, rootCount * 2);
+            rootColors = Arrays.copyOf(rootColors, rootCount * 2);
+          }
+
+          rootSquares[rootCount] = row * numColumn + column;
+          rootColors[rootCount] = position.get(row, column);
+          rootCount++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Describes the most visited move so far as a search result
+   * @param root the root of the tree
+   * @param numColumn the number of columns of the board
+   * @param start the time (System.nanoTime) at which the search started
+   */
+  private SearchResult result(Node root, int numColumn, long start)
+  {
+    Node best = mostVisited(root);
+    int depth = 0;
+
+    for (Worker worker : workers)
+      depth = Math.max(depth, worker.deepest);
+
+    long elapsed = (System.nanoTime() - start) / 1000000L;
+    int visits = best.visits.get();
+    int score = (visits == 0) ? 0 : (int)(1000 * best.value.get() / (2L * visits)) - 500;
+
+    return new SearchResult(best.move / numColumn, best.move % numColumn, score, depth, playoutCount(), elapsed);
+  }
+
+  /**
+   * Determines whether the search should stop: time is up, enough playouts, a stop request, or convergence
+   * @param root the root of the tree
+   * @param deadline the time (System.nanoTime) at which the search must stop
+   */
+  private boolean shouldStop(Node root, long deadline)
+  {
+    if (stopRequested || System.nanoTime() > deadline || playoutCount() >= maxPlayouts)
+      return true;
+
+    int total = root.visits.get();
+
+    if (convergence > 1.0 || total < 1000)
+      return false;
+
+    return mostVisited(root).visits.get() >= convergence * total;
+  }
+
+  /**
+   * Returns the number of playouts the workers have finished in the current search
+   */
+  private long playoutCount()
+  {
+    long count = 0;
+
+    for (Worker worker : workers)
+      count += worker.playouts;
+
+    return count;
+  }
+
+  /**
+   * Returns the child of a node with the most visits
+   * @param node the node
+   */
+  private static Node mostVisited(Node node)
+  {
+    Node best = node.children[0];
+
+    for (Node child : node.children)
+    {
+      if (child.visits.get() > best.visits.get())
+        best = child;
+    }
+
+    return best;
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * A node of the search tree: a move, the color that played it, and atomic statistics
+   */
+  private static final class Node
+  {
+    /** Represents the move that leads to this node, or -1 for the root */
+    final int move;
+
+    /** Represents the color that played the move */
+    final int mover;
+
+    /** Represents the number of moves from the root */
+    final int depth;
+
+    /** Represents the number of finished playouts through this node */
+    final AtomicInteger visits = new AtomicInteger();
+
+    /** Represents the results of those playouts for the mover, in half points (win 2, draw 1, loss 0) */
+    final AtomicLong value = new AtomicLong();
+
+    /** Represents the playouts through this node that are still running, counted as losses until they finish */
+    final AtomicInteger virtualLoss = new AtomicInteger();
+
+    /** Represents if a thread has started building the children */
+    final AtomicBoolean expanding = new AtomicBoolean();
+
+    /** Represents the children, or null until they are built */
+    volatile Node[] children;
+
+    /**
+     * Creates a node
+     * @param move the move that leads to this node
+     * @param mover the color that played the move
+     * @param depth the number of moves from the root
+     */
+    Node(int move, int mover, int depth)
+    {
+      this.move = move;
+      this.mover = mover;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * A playout worker with its own board, so that threads never share mutable game state
+   */
+  private final class Worker
+  {
+    /** Represents the worker's board */
+    final Board board;
+
+    /** Represents the win detector following the worker's board */
+    final WinDetector winDetector;
+
+    /** Represents the forbidden-move rules and winning lines on the worker's board */
+    final ForbiddenMoves forbiddenMoves;
+
+    /** Represents the empty squares within RADIUS of a piece, or null on a board that only stores its pieces */
+    final CandidateMoves nearby;
+
+    /** Represents the line patterns for numWin */
+    final PatternTable patterns;
+
+    /** Represents the worker's random numbers */
+    final SplittableRandom random;
+
+    /** Represents every piece on the board, in the order they were put down */
+    int[] stones = new int[64];
+
+    /** Represents the nodes of the current path from the root */
+    final Node[] path = new Node[MAX_PLAYOUT + 2];
+
+    /** Represents the candidate moves while children are built */
+    int[] candidates = new int[64];
+
+    /** Represents the ordering scores of the candidates */
+    int[] scores = new int[64];
+
+    /** Represents the number of pieces that were on the board before the playout */
+    int rootStones;
+
+    /** Represents the number of pieces on the board now */
+    int stoneCount;
+
+    /** Represents the deepest tree node reached by this worker */
+    int deepest;
+
+    /** Represents the number of playouts this worker finished in the current search; only the worker adds to it */
+    volatile long playouts;
+
+    /**
+     * Creates a worker
+     * @param rows the number of rows of the board
+     * @param columns the number of columns of the board
+     * @param seed the seed of the worker's random numbers
+     */
+    Worker(int rows, int columns, long seed)
+    {
+      board = Board.create(rows, columns);
+      winDetector = new WinDetector(board, rules);
+      forbiddenMoves = new ForbiddenMoves(board, rules);
+      nearby = board.isSparse() ? null : new CandidateMoves(board, RADIUS);
+      patterns = rules.getPatterns();
+      random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Copies the position and runs playouts until the search stops
+     * @param root the root of the tree
+     * @param color the color to move at the root
+     */
+    void run(Node root, int color)
+    {
+      copyPosition();
+
+      while (!stopSignal.get())
+      {
+        playout(root, color);
+        playouts++;
+
+        /** The worker's own count is checked every time, the sum over all workers once a batch */
+        if (playouts >= maxPlayouts || (playouts % PLAYOUT_BATCH == 0 && playoutCount() >= maxPlayouts))
+          stopSignal.set(true);
+      }
+    }
+
+    /**
+     * Makes the worker's board match the position being searched (see listStones): the pieces of the last position
+     * are taken off and the new ones put down, so the work grows with the pieces rather than the board
+     */
+    void copyPosition()
+    {
+      int numColumn = board.getColumns();
+
+      while (stoneCount > 0)
+      {
+        int square = stones[--stoneCount];
+        board.remove(square / numColumn, square % numColumn);
+      }
+
+      for (int i = 0; i < rootCount; i++)
+      {
+        board.place(rootSquares[i] / numColumn, rootSquares[i] % numColumn, rootColors[i]);
+        addStone(rootSquares[i]);
+      }
+
+      rootStones = stoneCount;
+      winDetector.clearWinner();
+    }
+
+    /**
+     * Walks down the tree, builds children where needed, plays the game out and records the result on the path
+     * @param root the root of the tree
+     * @param rootColor the color to move at the root
+     */
+    void playout(Node root, int rootColor)
+    {
+      Node node = root;
+      int color = rootColor;
+      int length = 0;
+      int winner = Board.EMPTY;
+      boolean over = false;
+      path[length++] = root;
+
+      /** Selection: follow the best UCT child, adding a virtual loss on the way */
+      while (node.children != null && !over && length < path.length - 1)
+      {
+        if (node.children.length == 0)
+        {
+          over = true;
+          break;
+        }
+
+        node = select(node);
+        node.virtualLoss.incrementAndGet();
+        path[length++] = node;
+        over = play(node.move, color);
+
+        if (over)
+          winner = color;
+
+        color = Board.opponent(color);
+      }
+
+      /** Expansion: the first thread to get here builds the children and steps into one of them */
+      if (!over && node.children == null && node.visits.get() >= EXPAND_VISITS && node.expanding.compareAndSet(false, true))
+      {
+        expand(node, color);
+
+        if (node.children.length > 0)
+        {
+          node = node.children[random.nextInt(node.children.length)];
+          node.virtualLoss.incrementAndGet();
+          path[length++] = node;
+          over = play(node.move, color);
+
+          if (over)
+            winner = color;
+
+          color = Board.opponent(color);
+        }
+      }
+
+      deepest = Math.max(deepest, node.depth);
+
+      if (!over)
+        winner = playOut(color);
+
+      /** Backpropagation: every node on the path counts the result for its mover */
+      for (int i = 0; i < length; i++)
+      {
+        Node visited = path[i];
+
+        if (winner == visited.mover)
+          visited.value.addAndGet(2);
+
+        else if (winner == Board.EMPTY)
+          visited.value.addAndGet(1);
+
+        visited.visits.incrementAndGet();
+
+        if (i > 0)
+          visited.virtualLoss.decrementAndGet();
+      }
+
+      while (stoneCount > rootStones)
+      {
+        int square = stones[--stoneCount];
+        board.remove(square / board.getColumns(), square % board.getColumns());
+      }
+    }
+
+    /**
+     * Returns the child with the best UCT value, counting running playouts as losses
+     * @param node the parent node
+     */
+    Node select(Node node)
+    {
+      Node[] children = node.children;
+      double logParent = Math.log(node.visits.get() + 1);
+      Node best = children[0];
+      double bestValue = Double.NEGATIVE_INFINITY;
+
+      for (Node child : children)
+      {
+        int visits = child.visits.get() + child.virtualLoss.get();
+
+        /** Children are built best-first, so the first unvisited one is the most promising */
+        if (visits == 0)
+          return child;
+
+        double value = child.value.get() / (2.0 * visits) + EXPLORATION * Math.sqrt(logParent / visits);
+
+        if (value > bestValue)
+        {
+          bestValue = value;
+          best = child;
+        }
+      }
+
+      return best;
+    }
+
+    /**
+     * Builds the children of a node: the legal moves near existing pieces, best first
+     * A five is the only child if there is one, and so are the blocks when the opponent threatens five
+     * @param node the node
+     * @param color the color to move at the node
+     */
+    void expand(Node node, int color)
+    {
+      int numRow = board.getRows();
+      int numColumn = board.getColumns();
+      int count = 0;
+
+      if (stoneCount == 0)
+      {
+        node.children = new Node[] {new Node((numRow / 2) * numColumn + numColumn / 2, color, node.depth + 1)};
+        return;
+      }
+
+      int opponent = Board.opponent(color);
+      int required = 0;
+      int found = listMoves();
+
+      /** Kept moves overwrite listed ones already looked at, since count never passes i */
+      for (int i = 0; i < found; i++)
+      {
+        int row = candidates[i] / numColumn;
+        int column = candidates[i] % numColumn;
+        int score = moveScore(row, column, color);
+
+        if (score < 0)
+          continue;
+
+        /** A five beats everything, a block of the opponent's five beats everything else */
+        int level = forbiddenMoves.isWin(row, column, color) ? 2 : (blocksFive(row, column, opponent) ? 1 : 0);
+
+        if (level < required)
+          continue;
+
+        if (level > required)
+        {
+          required = level;
+          count = 0;
+        }
+
+        candidates[count] = candidates[i];
+        scores[count] = score;
+        count++;
+      }
+
+      /** Any one five wins, so there is no need to look at the others */
+      if (required == 2)
+        count = 1;
+
+      Node[] children = new Node[count];
+
+      for (int i = 0; i < count; i++)
+      {
+        int best = i;
+
+        for (int j = i + 1; j < count; j++)
+        {
+          if (scores[j] > scores[best])
+            best = j;
+        }
+
+        int move = candidates[best];
+        candidates[best] = candidates[i];
+        scores[best] = scores[i];
+        children[i] = new Node(move, color, node.depth + 1);
+      }
+
+      node.children = children;
+    }
+
+    /**
+     * Lists the empty squares within RADIUS of a piece in candidates, in row-major order, and returns how many there are
+     * Note: A board that only stores its pieces has no candidate set, so the squares around every piece are listed
+     * and the ones two pieces share dropped
+     */
+    int listMoves()
+    {
+      int numColumn = board.getColumns();
+      int count = 0;
+
+      if (nearby != null)
+      {
+        for (int square = nearby.next(-1); square >= 0; square = nearby.next(square))
+          count = addCandidate(count, square);
+
+        return count;
+      }
+
+      for (int i = 0; i < stoneCount; i++)
+      {
+        int stoneRow = stones[i] / numColumn;
+        int stoneColumn = stones[i] % numColumn;
+
+        for (int row = stoneRow - RADIUS; row <= stoneRow + RADIUS; row++)
+        {
+          for (int column = stoneColumn - RADIUS; column <= stoneColumn + RADIUS; column++)
+          {
+            if (board.isOnBoard(row, column) && board.isEmpty(row, column))
+              count = addCandidate(count, row * numColumn + column);
+          }
+        }
+      }
+
+      Arrays.sort(candidates, 0, count);
+      int distinct = 0;
+
+      for (int i = 0; i < count; i++)
+      {
+        if (distinct == 0 || candidates[i] != candidates[distinct - 1])
+          candidates[distinct++] = candidates[i];
+      }
+
+      return distinct;
+    }
+
+    /**
+     * Adds a square to candidates, growing it and scores together, and returns the new count
+     * @param count the number of candidates so far
+     * @param square the square number
+     */
+    int addCandidate(int count, int square)
+    {
+      if (count == candidates.length)
+      {
+        candidates = Arrays.copyOf(candidates, count * 2);
+        scores = Arrays.copyOf(scores, count * 2);
+      }
+
+      candidates[count] = square;
+      return count + 1;
+    }
+
+    /**
+     * Plays the game out with pattern-biased moves and returns the winner, or EMPTY for a draw
+     * @param color the color to move
+     */
+    int playOut(int color)
+    {
+      for (int move = 0; move < MAX_PLAYOUT; move++)
+      {
+        int square = playoutMove(color);
+
+        if (square < 0)
+          return Board.EMPTY;
+
+        if (play(square, color))
+          return color;
+
+        color = Board.opponent(color);
+      }
+
+      return Board.EMPTY;
+    }
+
+    /**
+     * Picks a playout move: a five if the last own move set one up, a block if the opponent's last move threatens five,
+     * and otherwise the best of a few random legal squares next to recent pieces
+     * Returns -1 if no square could be found
+     * @param color the color to move
+     */
+    int playoutMove(int color)
+    {
+      if (stoneCount >= 2)
+      {
+        int five = fiveSquare(stones[stoneCount - 2], color);
+
+        if (five < 0)
+          five = fiveSquare(stones[stoneCount - 1], Board.opponent(color));
+
+        if (five >= 0)
+          return five;
+      }
+
+      int numColumn = board.getColumns();
+      int best = -1;
+      int bestScore = -1;
+      int found = 0;
+
+      for (int tries = 0; tries < 8 * PLAYOUT_SAMPLES && found < PLAYOUT_SAMPLES; tries++)
+      {
+        int recent = Math.min(stoneCount, 6);
+        int stone = stones[stoneCount - 1 - random.nextInt(recent)];
+        int row = stone / numColumn + random.nextInt(2 * RADIUS + 1) - RADIUS;
+        int column = stone % numColumn + random.nextInt(2 * RADIUS + 1) - RADIUS;
+
+        if (!board.isOnBoard(row, column) || !board.isEmpty(row, column))
+          continue;
+
+        int score = moveScore(row, column, color);
+
+        if (score < 0)
+          continue;
+
+        found++;
+
+        if (score > bestScore)
+        {
+          bestScore = score;
+          best = row * numColumn + column;
+        }
+      }
+
+      return best;
+    }
+
+    /**
+     * Returns an empty square on a line through a piece where a color would make five, or -1 if there is none
+     * @param stone the square number of the piece
+     * @param color the color making five
+     */
+    int fiveSquare(int stone, int color)
+    {
+      int numColumn = board.getColumns();
+
+      for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+      {
+        for (int step = 1 - numWin; step < numWin; step++)
+        {
+          int row = stone / numColumn + step * Board.ROW_STEP[direction];
+          int column = stone % numColumn + step * Board.COLUMN_STEP[direction];
+
+          if (board.isOnBoard(row, column) && board.isEmpty(row, column)
+              && (forbiddenMoves.lineFlags(row, column, color, direction) & RuleSet.WINS) != 0)
+            return row * numColumn + column;
+        }
+      }
+
+      return -1;
+    }
+
+    /**
+     * Puts a piece down and records it; returns true if it wins
+     * @param square the square number
+     * @param color the color to play
+     */
+    boolean play(int square, int color)
+    {
+      board.place(square / board.getColumns(), square % board.getColumns(), color);
+      addStone(square);
+      return winDetector.hasWinner();
+    }
+
+    /**
+     * Records a piece put down in stones, growing it when it is full
+     * @param square the square number
+     */
+    void addStone(int square)
+    {
+      if (stoneCount == stones.length)
+        stones = Arrays.copyOf(stones, stoneCount * 2);
+
+      stones[stoneCount++] = square;
+    }
+
+    /**
+     * Returns the pattern score of a move (threats made plus threats stopped), or -1 if it is forbidden
+     * @param row the square's row number
+     * @param column the square's column number
+     * @param color the color to move
+     */
+    int moveScore(int row, int column, int color)
+    {
+      int opponent = Board.opponent(color);
+      int score = 0;
+      int fours = 0;
+      int openThrees = 0;
+      boolean five = false;
+      boolean overline = false;
+
+      for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+      {
+        int attack = patterns.lookup(board, row, column, color, direction);
+        score += ATTACK[attack] + DEFENCE[patterns.lookup(board, row, column, opponent, direction)];
+        fours += PatternTable.fourCount(attack);
+
+        if (attack == PatternTable.OPEN_THREE)
+          openThrees++;
+
+        if (attack == PatternTable.FIVE)
+          five = true;
+
+        if (attack == PatternTable.OVERLINE)
+          overline = true;
+      }
+
+      /** Only the few moves the line types cannot clear get the full check */
+      if (!five && rules.hasForbiddenMoves(color) && (ForbiddenMoves.breaksRules(fours, openThrees) || overline)
+            && forbiddenMoves.isForbidden(row, column, color))
+        return -1;
+
+      return score;
+    }
+
+    /**
+     * Determines whether a square is where the opponent would make a winning line
+     * @param row the square's row number
+     * @param column the square's column number
+     * @param opponent the opponent's color
+     */
+    boolean blocksFive(int row, int column, int opponent)
+    {
+      return forbiddenMoves.isWin(row, column, opponent);
+    }
+  }
+}
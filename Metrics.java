@@ -0,0 +1,634 @@
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * This class represents the counters and latency histograms of move handling and engine search
+ * Histograms count nanoseconds in power-of-two buckets and every count is a LongAdder, which stripes itself across
+ * threads under contention, so recording never takes a lock and threads rarely touch the same cache line
+ * Everything is off until setEnabled or configure turns it on; while off, now() returns 0 and every record method
+ * returns after reading one flag, so the instrumented code pays a branch and nothing else
+ * The engines count nodes, table hits and cutoffs in plain fields of their own and add them here once per search
+ * The same numbers reach Java Flight Recorder: every move handled and every search is a JFR event whenever a recording
+ * asks for them (see MoveEvent and SearchEvent), and while metrics are on the totals are a periodic event too
+ * Note: Headless modes take --metrics, --metrics=milliseconds and --metrics-json (see configure); reports go to
+ * standard error, so they never mix with a protocol on standard output
+ */
+
+public class Metrics
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the number of histogram buckets: bucket b counts values with b significant bits */
+  private static final int BUCKETS = 65;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents if metrics are recorded */
+  private static volatile boolean enabled = false;
+
+  /** Represents the time to handle a click on the board, from the click to the computer's search being started */
+  public static final Histogram CLICK = new Histogram("click");
+
+  /** Represents the time to check a move against the rules */
+  public static final Histogram RULES = new Histogram("rules");
+
+  /** Represents the time to check whether a move of a played game won, as the win detector takes the piece in */
+  public static final Histogram WIN = new Histogram("win");
+
+  /** Represents the time an engine took to choose a move */
+  public static final Histogram TIME_TO_MOVE = new Histogram("timeToMove");
+
+  /** Represents the number of moves chosen by an engine */
+  private static final LongAdder moves = new LongAdder();
+
+  /** Represents the sum of the depths reached by the moves chosen */
+  private static final LongAdder depthSum = new LongAdder();
+
+  /** Represents the deepest depth reached */
+  private static final LongAccumulator depthMax = new LongAccumulator(Math::max, 0);
+
+  /** Represents the positions searched, by every thread (playouts for Monte Carlo tree search) */
+  private static final LongAdder nodes = new LongAdder();
+
+  /** Represents the transposition table lookups */
+  private static final LongAdder tableProbes = new LongAdder();
+
+  /** Represents the transposition table lookups that found the position */
+  private static final LongAdder tableHits = new LongAdder();
+
+  /** Represents the positions whose moves were searched */
+  private static final LongAdder expanded = new LongAdder();
+
+  /** Represents the positions whose search stopped early at a beta cutoff */
+  private static final LongAdder cutoffs = new LongAdder();
+
+  /** Represents if reports are written as JSON instead of text */
+  private static boolean json = false;
+
+  /** Represents the thread writing periodic reports, or null if there are none */
+  private static ScheduledExecutorService dumper;
+
+  /** Represents if the report at exit and the periodic JFR event have been set up */
+  private static boolean installed = false;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Metrics are static; there are no instances
+   */
+  private Metrics()
+  {
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Determines whether metrics are recorded
+   */
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Turns recording on or off; counts already recorded are kept
+   * @param on true to record
+   */
+  public static void setEnabled(boolean on)
+  {
+    enabled = on;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the time (System.nanoTime) to hand to Histogram.recordSince, or 0 while metrics are off
+   */
+  public static long now()
+  {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Adds the work of one search on one thread
+   * @param searched the positions searched
+   * @param probes the transposition table lookups
+   * @param hits the lookups that found the position
+   * @param expandedPositions the positions whose moves were searched
+   * @param cutoffPositions the positions whose search stopped at a beta cutoff
+   */
+  public static void recordSearch(long searched, long probes, long hits, long expandedPositions, long cutoffPositions)
+  {
+    if (!enabled)
+      return;
+
+    nodes.add(searched);
+    tableProbes.add(probes);
+    tableHits.add(hits);
+    expanded.add(expandedPositions);
+    cutoffs.add(cutoffPositions);
+  }
+
+  /**
+   * Adds one move chosen by an engine
+   * @param nanos the time taken to choose it
+   * @param depth the depth reached
+   */
+  public static void recordMove(long nanos, int depth)
+  {
+    if (!enabled)
+      return;
+
+    moves.increment();
+    depthSum.add(depth);
+    depthMax.accumulate(depth);
+    TIME_TO_MOVE.record(nanos);
+  }
+
+  /**
+   * Fills in and commits a move event if a JFR recording wants it
+   * @param event the event, begun when the move started being handled
+   * @param source where the move came from: "click" or "session"
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param allowed true if the move was played
+   * @param won true if the game has a winner afterwards
+   */
+  public static void commit(MoveEvent event, String source, int row, int column, boolean allowed, boolean won)
+  {
+    event.end();
+
+    if (!event.shouldCommit())
+      return;
+
+    event.source = source;
+    event.row = row;
+    event.column = column;
+    event.allowed = allowed;
+    event.won = won;
+    event.commit();
+  }
+
+  /**
+   * Fills in and commits a search event if a JFR recording wants it
+   * @param event the event, begun when the search started
+   * @param engine the engine's name
+   * @param result the search's result
+   * @param hits the transposition table lookups that found the position
+   * @param cutoffPositions the positions whose search stopped at a beta cutoff
+   */
+  public static void commit(SearchEvent event, String engine, SearchResult result, long hits, long cutoffPositions)
+  {
+    event.end();
+
+    if (!event.shouldCommit())
+      return;
+
+    event.engine = engine;
+    event.depth = result.getDepth();
+    event.score = result.getScore();
+    event.nodes = result.getNodes();
+    event.tableHits = hits;
+    event.cutoffs = cutoffPositions;
+    event.commit();
+  }
+
+  /**
+   * Reads a --metrics option and turns recording on:
+   * --metrics reports once at exit, --metrics=milliseconds also every so many milliseconds, and --metrics-json
+   * writes the reports as JSON
+   * @param option the option
+   */
+  public static synchronized void configure(String option)
+  {
+    if (option.equals("--metrics-json"))
+      json = true;
+
+    else if (option.startsWith("--metrics="))
+    {
+      long millis = Long.parseLong(option.substring("--metrics=".length()));
+
+      if (millis <= 0)
+        throw new IllegalArgumentException("The metrics period must be positive: " + millis);
+
+      if (dumper != null)
+        dumper.shutdownNow();
+
+      dumper = Executors.newSingleThreadScheduledExecutor(task ->
+      {
+        Thread thread = new Thread(task, "metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+      });
+      dumper.scheduleAtFixedRate(() -> System.err.println(report(json)), millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    else if (!option.equals("--metrics"))
+      throw new IllegalArgumentException("Unknown metrics option: " + option);
+
+    enabled = true;
+
+    if (!installed)
+    {
+      installed = true;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(report(json)), "metrics-exit"));
+      FlightRecorder.addPeriodicEvent(TotalsEvent.class, Metrics::commitTotals);
+    }
+  }
+
+  /**
+   * Clears every count
+   */
+  public static void reset()
+  {
+    for (Histogram histogram : new Histogram[] {CLICK, RULES, WIN, TIME_TO_MOVE})
+      histogram.reset();
+
+    moves.reset();
+    depthSum.reset();
+    depthMax.reset();
+    nodes.reset();
+    tableProbes.reset();
+    tableHits.reset();
+    expanded.reset();
+    cutoffs.reset();
+  }
+
+  /**
+   * Returns a report of everything recorded so far
+   * Note: Counts taken while other threads record are each exact but not all from the same instant
+   * @param asJson true for one line of JSON, false for text
+   */
+  public static String report(boolean asJson)
+  {
+    Histogram[] histograms = {CLICK, RULES, WIN, TIME_TO_MOVE};
+    long moveCount = moves.sum();
+    long searched = nodes.sum();
+    long moveNanos = TIME_TO_MOVE.sum.sum();
+    long nodesPerSecond = (moveNanos == 0) ? 0 : (long)(searched * 1e9 / moveNanos);
+    double hitRate = ratio(tableHits.sum(), tableProbes.sum());
+    double cutoffRate = ratio(cutoffs.sum(), expanded.sum());
+    double meanDepth = ratio(depthSum.sum(), moveCount);
+    StringBuilder report = new StringBuilder();
+
+    if (asJson)
+    {
+      report.append("{\"time\":").append(System.currentTimeMillis());
+
+      for (Histogram histogram : histograms)
+        report.append(",\"").append(histogram.name).append("\":").append(histogram.toJson());
+
+      report.append(String.format(Locale.ROOT, ",\"search\":{\"moves\":%d,\"nodes\":%d,\"nodesPerSecond\":%d,"
+                                    + "\"tableHitRate\":%.4f,\"cutoffRate\":%.4f,\"meanDepth\":%.2f,\"maxDepth\":%d}}",
+                                  moveCount, searched, nodesPerSecond, hitRate, cutoffRate, meanDepth, depthMax.get()));
+    }
+
+    else
+    {
+      report.append("metrics");
+
+      for (Histogram histogram : histograms)
+        report.append(System.lineSeparator()).append("  ").append(histogram);
+
+      report.append(System.lineSeparator());
+      report.append(String.format(Locale.ROOT, "  search: %d moves, %d nodes, %d nodes/s, table hit rate %.1f%%, "
+                                    + "cutoff rate %.1f%%, depth mean %.2f max %d",
+                                  moveCount, searched, nodesPerSecond, 100 * hitRate, 100 * cutoffRate, meanDepth,
+                                  depthMax.get()));
+    }
+
+    return report.toString();
+  }
+
+  /**
+   * Measures what recording costs: a timed call with metrics off and on, on one thread and on four at once
+   * @param args not used
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    for (int round = 0; round < 3; round++)
+    {
+      for (boolean on : new boolean[] {false, true})
+      {
+        setEnabled(on);
+        reset();
+
+        for (int threads = 1; threads <= 4; threads *= 4)
+        {
+          long operations = 2000000;
+          Thread[] running = new Thread[threads];
+          long start = System.nanoTime();
+
+          for (int i = 0; i < threads; i++)
+          {
+            running[i] = new Thread(() ->
+            {
+              for (long n = 0; n < operations; n++)
+              {
+                long since = now();
+                RULES.recordSince(since);
+                recordSearch(1, 1, 1, 0, 0);
+              }
+            });
+            running[i].start();
+          }
+
+          for (Thread thread : running)
+            thread.join();
+
+          long elapsed = System.nanoTime() - start;
+          System.out.println(String.format(Locale.ROOT, "metrics %s, %d thread%s: %.1f ns per timed call, "
+                                             + "%d recorded", on ? "on" : "off", threads, (threads == 1) ? "" : "s",
+                                           (double)elapsed / (operations * threads), RULES.count()));
+        }
+      }
+    }
+
+    System.out.println(report(false));
+    System.out.println(report(true));
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns a part over a whole, or 0 if the whole is 0
+   * @param part the part
+   * @param whole the whole
+   */
+  private static double ratio(long part, long whole)
+  {
+    return (whole == 0) ? 0 : (double)part / whole;
+  }
+
+  /**
+   * Commits the periodic JFR event with the totals so far; called by the recorder
+   */
+  private static void commitTotals()
+  {
+    TotalsEvent event = new TotalsEvent();
+    event.moves = moves.sum();
+    event.nodes = nodes.sum();
+    event.tableHitRate = ratio(tableHits.sum(), tableProbes.sum());
+    event.cutoffRate = ratio(cutoffs.sum(), expanded.sum());
+    event.clickP99 = CLICK.percentile(0.99);
+    event.rulesP99 = RULES.percentile(0.99);
+    event.winP99 = WIN.percentile(0.99);
+    event.timeToMoveP99 = TIME_TO_MOVE.percentile(0.99);
+    event.commit();
+  }
+
+  /** ==================================== NESTED CLASSES ==================================== */
+
+  /**
+   * A latency histogram in power-of-two buckets of nanoseconds; percentiles are read as the top of their bucket,
+   * so they are within a factor of two, while the count, mean and maximum are exact
+   */
+  public static class Histogram
+  {
+    /** Represents the name used in reports */
+    private final String name;
+
+    /** Represents the counts, indexed by the number of significant bits of the value */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /** Represents the sum of the values */
+    private final LongAdder sum = new LongAdder();
+
+    /** Represents the largest value */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram
+     * @param name the name used in reports
+     */
+    private Histogram(String name)
+    {
+      this.name = name;
+
+      for (int i = 0; i < BUCKETS; i++)
+        buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records the time since a start taken with Metrics.now(), if metrics are on
+     * @param start the start, from Metrics.now()
+     */
+    public void recordSince(long start)
+    {
+      if (enabled)
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records one value
+     * @param nanos the value in nanoseconds
+     */
+    public void record(long nanos)
+    {
+      long value = Math.max(0, nanos);
+      buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of values recorded
+     */
+    public long count()
+    {
+      long count = 0;
+
+      for (LongAdder bucket : buckets)
+        count += bucket.sum();
+
+      return count;
+    }
+
+    /**
+     * Returns the top of the bucket holding a percentile, or 0 if nothing was recorded
+     * @param fraction the percentile as a fraction, e.g. 0.99
+     */
+    public long percentile(double fraction)
+    {
+      long[] counts = new long[BUCKETS];
+      long count = 0;
+
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        counts[i] = buckets[i].sum();
+        count += counts[i];
+      }
+
+      long rank = (long)Math.ceil(fraction * count);
+      long seen = 0;
+
+      for (int i = 0; i < BUCKETS && count > 0; i++)
+      {
+        seen += counts[i];
+
+        if (seen >= rank)
+          return Math.min(max.get(), (i == 64) ? Long.MAX_VALUE : (1L << i) - 1);
+      }
+
+      return 0;
+    }
+
+    /**
+     * Clears the histogram
+     */
+    private void reset()
+    {
+      for (LongAdder bucket : buckets)
+        bucket.reset();
+
+      sum.reset();
+      max.reset();
+    }
+
+    /**
+     * Returns the histogram as a JSON object
+     */
+    private String toJson()
+    {
+      long count = count();
+      return String.format(Locale.ROOT, "{\"count\":%d,\"meanNanos\":%d,\"p50Nanos\":%d,\"p99Nanos\":%d,\"maxNanos\":%d}",
+                           count, (count == 0) ? 0 : sum.sum() / count, percentile(0.5), percentile(0.99), max.get());
+    }
+
+    /**
+     * Returns the histogram as a line of text, in microseconds
+     */
+    @Override
+    public String toString()
+    {
+      long count = count();
+      return String.format(Locale.ROOT, "%s: %d, mean %.1f us, p50 <= %.1f us, p99 <= %.1f us, max %.1f us", name,
+                           count, (count == 0) ? 0 : sum.sum() / 1000.0 / count, percentile(0.5) / 1000.0,
+                           percentile(0.99) / 1000.0, max.get() / 1000.0);
+    }
+  }
+
+  /**
+   * The JFR event of one move handled: a click on the board or a move sent to a game session
+   */
+  @Name("gomoku.Move")
+  @Label("Move")
+  @Category("Gomoku")
+  @Description("A move handled, with the time taken to check it, play it and check for a winner")
+  public static class MoveEvent extends Event
+  {
+    /** Represents where the move came from */
+    @Label("Source")
+    String source;
+
+    /** Represents the square's row number */
+    @Label("Row")
+    int row;
+
+    /** Represents the square's column number */
+    @Label("Column")
+    int column;
+
+    /** Represents if the move was played */
+    @Label("Allowed")
+    boolean allowed;
+
+    /** Represents if the game has a winner afterwards */
+    @Label("Won")
+    boolean won;
+  }
+
+  /**
+   * The JFR event of one search on one thread
+   */
+  @Name("gomoku.Search")
+  @Label("Search")
+  @Category("Gomoku")
+  @Description("One engine search on one thread; its duration is the time to move")
+  public static class SearchEvent extends Event
+  {
+    /** Represents the engine's name */
+    @Label("Engine")
+    String engine;
+
+    /** Represents the depth reached */
+    @Label("Depth")
+    int depth;
+
+    /** Represents the score of the move */
+    @Label("Score")
+    int score;
+
+    /** Represents the positions searched (playouts for Monte Carlo tree search) */
+    @Label("Nodes")
+    long nodes;
+
+    /** Represents the transposition table lookups that found the position */
+    @Label("Table Hits")
+    long tableHits;
+
+    /** Represents the positions whose search stopped at a beta cutoff */
+    @Label("Cutoffs")
+    long cutoffs;
+  }
+
+  /**
+   * The periodic JFR event with the totals so far, while metrics are on
+   */
+  @Name("gomoku.Metrics")
+  @Label("Metrics")
+  @Category("Gomoku")
+  @Description("Move handling latency and engine search totals since the start")
+  @Period("1 s")
+  public static class TotalsEvent extends Event
+  {
+    /** Represents the moves chosen by an engine */
+    @Label("Moves")
+    long moves;
+
+    /** Represents the positions searched */
+    @Label("Nodes")
+    long nodes;
+
+    /** Represents the transposition table hit rate */
+    @Label("Table Hit Rate")
+    double tableHitRate;
+
+    /** Represents the beta cutoff rate */
+    @Label("Cutoff Rate")
+    double cutoffRate;
+
+    /** Represents the 99th percentile of the click time */
+    @Label("Click p99")
+    @Timespan
+    long clickP99;
+
+    /** Represents the 99th percentile of the rule check time */
+    @Label("Rules p99")
+    @Timespan
+    long rulesP99;
+
+    /** Represents the 99th percentile of the win check time */
+    @Label("Win p99")
+    @Timespan
+    long winP99;
+
+    /** Represents the 99th percentile of the time to move */
+    @Label("Time to Move p99")
+    @Timespan
+    long timeToMoveP99;
+  }
+}
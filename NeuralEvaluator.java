@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * This class represents the score of a NeuralNetwork kept ready as pieces come and go
+ * The first layer is the only one that sees the whole board, so it is kept as two accumulators, one per point of
+ * view: a piece adds its weights to both and taking it back subtracts them, which is a few hundred additions instead
+ * of a pass over every square; the small layers after it are run with int arithmetic when a score is asked for
+ * Nothing is allocated after the evaluator is created; the loops run over plain arrays with no branches inside,
+ * so the JIT compiles them to SIMD instructions where the CPU has them
+ * Note: Only one thread may use an evaluator; the board must have the size the network was trained for
+ */
+
+public class NeuralEvaluator implements BoardListener
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the network */
+  private final NeuralNetwork network;
+
+  /** Represents the number of columns of the board */
+  private final int numColumn;
+
+  /** Represents the size of each accumulator */
+  private final int hidden1;
+
+  /** Represents the size of the second layer */
+  private final int hidden2;
+
+  /** Represents the first-layer weights of the network */
+  private final short[] inputWeights;
+
+  /** Represents the second-layer weights of the network */
+  private final short[] hiddenWeights;
+
+  /** Represents the accumulators, indexed by the color whose point of view they are (BLACK or WHITE) */
+  private final short[][] accumulators = new short[3][];
+
+  /** Represents the second-layer sums of the score being computed */
+  private final int[] sums;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an evaluator and starts watching a board; pieces already on it are added up
+   * @param board the board to watch
+   * @param network the network
+   */
+  public NeuralEvaluator(Board board, NeuralNetwork network)
+  {
+    if (board.getRows() != network.getRows() || board.getColumns() != network.getColumns())
+      throw new IllegalArgumentException("The network is for a " + network.getRows() + "x" + network.getColumns()
+                                           + " board, not " + board.getRows() + "x" + board.getColumns());
+
+    this.network = network;
+    this.numColumn = board.getColumns();
+    this.hidden1 = network.getHidden1();
+    this.hidden2 = network.getHidden2();
+    this.inputWeights = network.getInputWeights();
+    this.hiddenWeights = network.getHiddenWeights();
+    this.sums = new int[hidden2];
+    accumulators[Board.BLACK] = network.getInputBiases().clone();
+    accumulators[Board.WHITE] = network.getInputBiases().clone();
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < numColumn; column++)
+      {
+        if (!board.isEmpty(row, column))
+          stonePlaced(row, column, board.get(row, column));
+      }
+    }
+
+    board.addListener(this);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Returns the score of the board for one player, in the units of Evaluator's score: positive is good for that
+   * player, who is taken to be the one to move
+   * @param color the player to score for
+   */
+  public int getScore(int color)
+  {
+    short[] own = accumulators[color];
+    short[] other = accumulators[Board.opponent(color)];
+    System.arraycopy(network.getHiddenBiases(), 0, sums, 0, hidden2);
+    addInputs(own, 0);
+    addInputs(other, hidden1 * hidden2);
+
+    short[] outputWeights = network.getOutputWeights();
+    long output = network.getOutputBias();
+
+    for (int j = 0; j < hidden2; j++)
+    {
+      /** Round the sum back to ACTIVATION_ONE units, then clip it to 0..1 */
+      int activation = Math.max(0, Math.min(NeuralNetwork.ACTIVATION_ONE,
+                                            (sums[j] + NeuralNetwork.WEIGHT_ONE / 2) >> NeuralNetwork.WEIGHT_SHIFT));
+      output += activation * outputWeights[j];
+    }
+
+    return (int)(output * network.getOutputScale() / (NeuralNetwork.ACTIVATION_ONE * NeuralNetwork.WEIGHT_ONE));
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Adds the piece's weights to both accumulators
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    int square = row * numColumn + column;
+    add(accumulators[Board.BLACK], network.feature(Board.BLACK, color, square) * hidden1, 1);
+    add(accumulators[Board.WHITE], network.feature(Board.WHITE, color, square) * hidden1, 1);
+  }
+
+  /**
+   * Subtracts the piece's weights from both accumulators
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece that was taken off
+   */
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    int square = row * numColumn + column;
+    add(accumulators[Board.BLACK], network.feature(Board.BLACK, color, square) * hidden1, -1);
+    add(accumulators[Board.WHITE], network.feature(Board.WHITE, color, square) * hidden1, -1);
+  }
+
+  /**
+   * Checks the integer scores against NeuralNetwork.referenceScore over random games with pieces taken back, then
+   * times evaluations and accumulator updates
+   * @param args optionally a network file (default: a random 15x15 network with layers 128 and 32), then the number
+   * of games (default 100)
+   */
+  public static void main(String[] args) throws IOException
+  {
+    NeuralNetwork network = (args.length > 0) ? NeuralNetwork.load(Paths.get(args[0]))
+                                              : NeuralNetwork.random(15, 15, 128, 32, 1);
+    int games = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+    int numRow = network.getRows();
+    int numColumn = network.getColumns();
+
+    /** Each hidden2 activation is rounded by at most half a step, and the output is truncated once */
+    double tolerance = 1;
+
+    for (short weight : network.getOutputWeights())
+      tolerance += 0.5 * Math.abs(weight) * network.getOutputScale()
+                     / (NeuralNetwork.ACTIVATION_ONE * NeuralNetwork.WEIGHT_ONE);
+
+    Random random = new Random(1);
+    long checked = 0;
+    long wrong = 0;
+    double worst = 0;
+
+    for (int game = 0; game < games; game++)
+    {
+      Board board = new Board(numRow, numColumn);
+      NeuralEvaluator evaluator = new NeuralEvaluator(board, network);
+      int color = Board.BLACK;
+
+      for (int move = 0; move < numRow * numColumn / 2; move++)
+      {
+        int row = random.nextInt(numRow);
+        int column = random.nextInt(numColumn);
+
+        if (board.isEmpty(row, column))
+        {
+          board.place(row, column, color);
+          color = Board.opponent(color);
+        }
+
+        else if (random.nextInt(3) == 0)
+          board.remove(row, column);
+
+        checked++;
+        double error = Math.abs(evaluator.getScore(color) - network.referenceScore(board, color));
+        worst = Math.max(worst, error);
+
+        if (error > tolerance)
+          wrong++;
+      }
+
+      /** A second evaluator started mid-game must agree too */
+      if (new NeuralEvaluator(board, network).getScore(color) != evaluator.getScore(color))
+        wrong++;
+    }
+
+    System.out.println(checked + " positions checked, " + wrong + " wrong, worst error " + String.format("%.2f", worst)
+                         + " (tolerance " + String.format("%.2f", tolerance) + ")");
+
+    Board board = new Board(numRow, numColumn);
+    NeuralEvaluator evaluator = new NeuralEvaluator(board, network);
+
+    for (int i = 0; i < numRow * numColumn / 4; i++)
+    {
+      int row = random.nextInt(numRow);
+      int column = random.nextInt(numColumn);
+
+      if (board.isEmpty(row, column))
+        board.place(row, column, (i % 2 == 0) ? Board.BLACK : Board.WHITE);
+    }
+
+    int row = 0;
+    int column = 0;
+
+    while (!board.isEmpty(row, column))
+    {
+      column = (column + 1) % numColumn;
+      row += (column == 0) ? 1 : 0;
+    }
+
+    for (int round = 0; round < 5; round++)
+    {
+      long sink = 0;
+      long start = System.nanoTime();
+      int evaluations = 0;
+
+      while (System.nanoTime() - start < 500000000L)
+      {
+        for (int i = 0; i < 1000; i++)
+          sink += evaluator.getScore((i & 1) + 1);
+
+        evaluations += 1000;
+      }
+
+      long evaluationNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      int updates = 0;
+
+      while (System.nanoTime() - start < 500000000L)
+      {
+        for (int i = 0; i < 1000; i++)
+        {
+          board.place(row, column, Board.BLACK);
+          board.remove(row, column);
+        }
+
+        updates += 2000;
+      }
+
+      long updateNanos = System.nanoTime() - start;
+      System.out.println(numRow + "x" + numColumn + " " + network.getHidden1() + "/" + network.getHidden2() + ": "
+                           + evaluations * 1000000000L / evaluationNanos + " evaluations/s, "
+                           + updates * 1000000000L / updateNanos + " updates/s (" + (sink & 1) + ")");
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Adds or subtracts one feature's weights to an accumulator
+   * @param accumulator the accumulator
+   * @param offset where the feature's weights start in inputWeights
+   * @param sign 1 to add, -1 to subtract
+   */
+  private void add(short[] accumulator, int offset, int sign)
+  {
+    for (int i = 0; i < hidden1; i++)
+      accumulator[i] = (short)(accumulator[i] + sign * inputWeights[offset + i]);
+  }
+
+  /**
+   * Adds one accumulator's clipped activations times their second-layer weights to sums; inputs at 0, which are
+   * common after the clip, are skipped
+   * @param accumulator the accumulator
+   * @param offset where the accumulator's weights start in hiddenWeights
+   */
+  private void addInputs(short[] accumulator, int offset)
+  {
+    for (int i = 0; i < hidden1; i++)
+    {
+      int activation = Math.max(0, Math.min(NeuralNetwork.ACTIVATION_ONE, accumulator[i]));
+
+      if (activation == 0)
+        continue;
+
+      int base = offset + i * hidden2;
+
+      for (int j = 0; j < hidden2; j++)
+        sums[j] += activation * hiddenWeights[base + j];
+    }
+  }
+}
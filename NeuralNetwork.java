@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * This class represents a small quantized neural network that scores a position, in the style of NNUE
+ * The inputs are one feature per square for the pieces of one color and one per square for the other's, seen from a
+ * point of view: a piece of the viewing color is "own", any other is "other", so every position has two sets of
+ * inputs, one for each color
+ * Layers: inputs -> hidden1 (the accumulator, int16, one per point of view) -> clipped ReLU -> hidden2 (int32
+ * sums over both accumulators, the mover's first) -> clipped ReLU -> one output
+ * Activations are clipped to 0..ACTIVATION_ONE, which stands for 1.0; the second-layer and output weights are scaled
+ * by WEIGHT_ONE; the output, in units of ACTIVATION_ONE * WEIGHT_ONE, is multiplied by outputScale and divided back,
+ * so 1.0 out of the network is outputScale points of Evaluator's score
+ * Networks are trained elsewhere and saved in this layout; random writes an untrained one of any shape for checking
+ * the plumbing and timing it
+ *
+ * File: a HEADER_BYTES header (MAGIC, VERSION, rows, columns, hidden1, hidden2 and outputScale, all ints), then
+ * the first-layer weights (shorts, hidden1 per feature, own features first), the first-layer biases (hidden1
+ * shorts), the second-layer weights (shorts, hidden2 per accumulator input, the mover's inputs first), the
+ * second-layer biases (hidden2 ints), the output weights (hidden2 shorts) and the output bias (an int), big-endian
+ *
+ * Usage: java NeuralNetwork random file rows columns [hidden1 hidden2 seed]
+ */
+
+public class NeuralNetwork
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the first four bytes of a network file, "GNNW" */
+  public static final int MAGIC = 0x474e4e57;
+
+  /** Represents the version of the file layout */
+  public static final int VERSION = 1;
+
+  /** Represents the size of the header in bytes */
+  public static final int HEADER_BYTES = 28;
+
+  /** Represents 1.0 for an activation; accumulators and hidden sums are clipped to 0..ACTIVATION_ONE */
+  public static final int ACTIVATION_ONE = 64;
+
+  /** Represents 1.0 for a second-layer or output weight */
+  public static final int WEIGHT_ONE = 64;
+
+  /** Represents the shift that divides by WEIGHT_ONE */
+  public static final int WEIGHT_SHIFT = 6;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the number of rows of the board the network was trained for */
+  private final int numRow;
+
+  /** Represents the number of columns of the board the network was trained for */
+  private final int numColumn;
+
+  /** Represents the size of each accumulator */
+  private final int hidden1;
+
+  /** Represents the size of the second layer */
+  private final int hidden2;
+
+  /** Represents the points of Evaluator's score that an output of 1.0 stands for */
+  private final int outputScale;
+
+  /** Represents the first-layer weights, hidden1 per feature; feature square is own, squares + square is other */
+  private final short[] inputWeights;
+
+  /** Represents the first-layer biases, which every accumulator starts from */
+  private final short[] inputBiases;
+
+  /** Represents the second-layer weights, hidden2 per input: the mover's accumulator, then the opponent's */
+  private final short[] hiddenWeights;
+
+  /** Represents the second-layer biases, in units of ACTIVATION_ONE * WEIGHT_ONE */
+  private final int[] hiddenBiases;
+
+  /** Represents the output weights */
+  private final short[] outputWeights;
+
+  /** Represents the output bias, in units of ACTIVATION_ONE * WEIGHT_ONE */
+  private final int outputBias;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a network from its weights, which are kept, not copied
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param hidden1 the size of each accumulator
+   * @param hidden2 the size of the second layer
+   * @param outputScale the points of Evaluator's score an output of 1.0 stands for
+   * @param inputWeights the first-layer weights
+   * @param inputBiases the first-layer biases
+   * @param hiddenWeights the second-layer weights
+   * @param hiddenBiases the second-layer biases
+   * @param outputWeights the output weights
+   * @param outputBias the output bias
+   */
+  private NeuralNetwork(int rows, int columns, int hidden1, int hidden2, int outputScale, short[] inputWeights,
+                        short[] inputBiases, short[] hiddenWeights, int[] hiddenBiases, short[] outputWeights,
+                        int outputBias)
+  {
+    this.numRow = rows;
+    this.numColumn = columns;
+    this.hidden1 = hidden1;
+    this.hidden2 = hidden2;
+    this.outputScale = outputScale;
+    this.inputWeights = inputWeights;
+    this.inputBiases = inputBiases;
+    this.hiddenWeights = hiddenWeights;
+    this.hiddenBiases = hiddenBiases;
+    this.outputWeights = outputWeights;
+    this.outputBias = outputBias;
+  }
+
+  /**
+   * Reads a network file
+   * @param path the file
+   */
+  public static NeuralNetwork load(Path path) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Not a network file: " + path);
+
+      ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+      {
+      }
+
+      buffer.flip();
+
+      if (buffer.getInt() != MAGIC)
+        throw new IOException("Not a network file: " + path);
+
+      int version = buffer.getInt();
+
+      if (version != VERSION)
+        throw new IOException("Unsupported network version " + version + ": " + path);
+
+      int rows = buffer.getInt();
+      int columns = buffer.getInt();
+      int hidden1 = buffer.getInt();
+      int hidden2 = buffer.getInt();
+      int outputScale = buffer.getInt();
+
+      if (rows < 1 || columns < 1 || hidden1 < 1 || hidden2 < 1
+            || (long)rows * columns * hidden1 * 2 > Integer.MAX_VALUE / 2 || hidden1 * (long)hidden2 > 1 << 24)
+        throw new IOException("Bad network shape " + rows + "x" + columns + " " + hidden1 + " " + hidden2 + ": " + path);
+
+      if (buffer.capacity() != fileBytes(rows, columns, hidden1, hidden2))
+        throw new IOException("Truncated network file: " + path);
+
+      short[] inputWeights = new short[2 * rows * columns * hidden1];
+      short[] inputBiases = new short[hidden1];
+      short[] hiddenWeights = new short[2 * hidden1 * hidden2];
+      int[] hiddenBiases = new int[hidden2];
+      short[] outputWeights = new short[hidden2];
+
+      buffer.asShortBuffer().get(inputWeights).get(inputBiases).get(hiddenWeights);
+      buffer.position(buffer.position() + 2 * (inputWeights.length + inputBiases.length + hiddenWeights.length));
+      buffer.asIntBuffer().get(hiddenBiases);
+      buffer.position(buffer.position() + 4 * hiddenBiases.length);
+      buffer.asShortBuffer().get(outputWeights);
+      buffer.position(buffer.position() + 2 * outputWeights.length);
+
+      return new NeuralNetwork(rows, columns, hidden1, hidden2, outputScale, inputWeights, inputBiases, hiddenWeights,
+                               hiddenBiases, outputWeights, buffer.getInt());
+    }
+  }
+
+  /**
+   * Creates an untrained network with small random weights, for checking and timing the evaluator
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param hidden1 the size of each accumulator
+   * @param hidden2 the size of the second layer
+   * @param seed the random seed
+   */
+  public static NeuralNetwork random(int rows, int columns, int hidden1, int hidden2, long seed)
+  {
+    SplittableRandom random = new SplittableRandom(seed);
+    short[] inputWeights = new short[2 * rows * columns * hidden1];
+    short[] inputBiases = new short[hidden1];
+    short[] hiddenWeights = new short[2 * hidden1 * hidden2];
+    int[] hiddenBiases = new int[hidden2];
+    short[] outputWeights = new short[hidden2];
+
+    for (int i = 0; i < inputWeights.length; i++)
+      inputWeights[i] = (short)random.nextInt(-8, 9);
+
+    for (int i = 0; i < inputBiases.length; i++)
+      inputBiases[i] = (short)random.nextInt(0, ACTIVATION_ONE / 2);
+
+    for (int i = 0; i < hiddenWeights.length; i++)
+      hiddenWeights[i] = (short)random.nextInt(-WEIGHT_ONE / 4, WEIGHT_ONE / 4 + 1);
+
+    for (int i = 0; i < hiddenBiases.length; i++)
+      hiddenBiases[i] = random.nextInt(-ACTIVATION_ONE * WEIGHT_ONE, ACTIVATION_ONE * WEIGHT_ONE + 1);
+
+    for (int i = 0; i < outputWeights.length; i++)
+      outputWeights[i] = (short)random.nextInt(-WEIGHT_ONE, WEIGHT_ONE + 1);
+
+    return new NeuralNetwork(rows, columns, hidden1, hidden2, 1000, inputWeights, inputBiases, hiddenWeights,
+                             hiddenBiases, outputWeights, 0);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of rows of the board the network was trained for
+   */
+  public int getRows()
+  {
+    return numRow;
+  }
+
+  /**
+   * Gets the number of columns of the board the network was trained for
+   */
+  public int getColumns()
+  {
+    return numColumn;
+  }
+
+  /**
+   * Gets the size of each accumulator
+   */
+  public int getHidden1()
+  {
+    return hidden1;
+  }
+
+  /**
+   * Gets the size of the second layer
+   */
+  public int getHidden2()
+  {
+    return hidden2;
+  }
+
+  /**
+   * Gets the points of Evaluator's score that an output of 1.0 stands for
+   */
+  public int getOutputScale()
+  {
+    return outputScale;
+  }
+
+  /**
+   * Gets the first-layer weights, hidden1 per feature (see feature); they must not be changed
+   */
+  public short[] getInputWeights()
+  {
+    return inputWeights;
+  }
+
+  /**
+   * Gets the first-layer biases; they must not be changed
+   */
+  public short[] getInputBiases()
+  {
+    return inputBiases;
+  }
+
+  /**
+   * Gets the second-layer weights, hidden2 per accumulator input; they must not be changed
+   */
+  public short[] getHiddenWeights()
+  {
+    return hiddenWeights;
+  }
+
+  /**
+   * Gets the second-layer biases; they must not be changed
+   */
+  public int[] getHiddenBiases()
+  {
+    return hiddenBiases;
+  }
+
+  /**
+   * Gets the output weights; they must not be changed
+   */
+  public short[] getOutputWeights()
+  {
+    return outputWeights;
+  }
+
+  /**
+   * Gets the output bias
+   */
+  public int getOutputBias()
+  {
+    return outputBias;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the feature of a piece seen from a point of view
+   * @param view the color whose point of view it is
+   * @param color the piece's color
+   * @param square the piece's square (row * columns + column)
+   */
+  public int feature(int view, int color, int square)
+  {
+    return (color == view) ? square : numRow * numColumn + square;
+  }
+
+  /**
+   * Writes the network to a file
+   * @param path the file
+   */
+  public void save(Path path) throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(fileBytes(numRow, numColumn, hidden1, hidden2));
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(numRow).putInt(numColumn).putInt(hidden1).putInt(hidden2)
+          .putInt(outputScale);
+
+    for (short weight : inputWeights)
+      buffer.putShort(weight);
+
+    for (short bias : inputBiases)
+      buffer.putShort(bias);
+
+    for (short weight : hiddenWeights)
+      buffer.putShort(weight);
+
+    for (int bias : hiddenBiases)
+      buffer.putInt(bias);
+
+    for (short weight : outputWeights)
+      buffer.putShort(weight);
+
+    buffer.putInt(outputBias).flip();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
+  }
+
+  /**
+   * Scores a position for one player the slow, exact way: from scratch, in floating point, on the weights turned
+   * back into real numbers; NeuralEvaluator must agree with it up to the rounding of its integer layers
+   * @param board the position
+   * @param color the player to score for
+   */
+  public double referenceScore(Board board, int color)
+  {
+    double[][] accumulators = new double[3][hidden1];
+
+    for (int view = Board.BLACK; view <= Board.WHITE; view++)
+    {
+      for (int i = 0; i < hidden1; i++)
+        accumulators[view][i] = inputBiases[i] / (double)ACTIVATION_ONE;
+
+      for (int row = 0; row < numRow; row++)
+      {
+        for (int column = 0; column < numColumn; column++)
+        {
+          if (board.isEmpty(row, column))
+            continue;
+
+          int feature = feature(view, board.get(row, column), row * numColumn + column);
+
+          for (int i = 0; i < hidden1; i++)
+            accumulators[view][i] += inputWeights[feature * hidden1 + i] / (double)ACTIVATION_ONE;
+        }
+      }
+    }
+
+    double[] inputs = new double[2 * hidden1];
+
+    for (int i = 0; i < hidden1; i++)
+    {
+      inputs[i] = clip(accumulators[color][i]);
+      inputs[hidden1 + i] = clip(accumulators[Board.opponent(color)][i]);
+    }
+
+    double output = outputBias / (double)(ACTIVATION_ONE * WEIGHT_ONE);
+
+    for (int j = 0; j < hidden2; j++)
+    {
+      double sum = hiddenBiases[j] / (double)(ACTIVATION_ONE * WEIGHT_ONE);
+
+      for (int i = 0; i < inputs.length; i++)
+        sum += inputs[i] * hiddenWeights[i * hidden2 + j] / WEIGHT_ONE;
+
+      output += clip(sum) * outputWeights[j] / WEIGHT_ONE;
+    }
+
+    return output * outputScale;
+  }
+
+  /**
+   * Writes an untrained network with random weights
+   * @param args random, the file, rows and columns, then optionally hidden1 (default 128), hidden2 (default 32) and
+   * the seed (default 1)
+   */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 4 || !args[0].equals("random"))
+    {
+      System.out.println("Usage: NeuralNetwork random file rows columns [hidden1 hidden2 seed]");
+      return;
+    }
+
+    int hidden1 = (args.length > 4) ? Integer.parseInt(args[4]) : 128;
+    int hidden2 = (args.length > 5) ? Integer.parseInt(args[5]) : 32;
+    long seed = (args.length > 6) ? Long.parseLong(args[6]) : 1;
+    NeuralNetwork network = random(Integer.parseInt(args[2]), Integer.parseInt(args[3]), hidden1, hidden2, seed);
+    network.save(Paths.get(args[1]));
+    System.out.println("Wrote a " + network.getRows() + "x" + network.getColumns() + " network with layers " + hidden1
+                         + " and " + hidden2 + " to " + args[1]);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns the size of a network file in bytes
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param hidden1 the size of each accumulator
+   * @param hidden2 the size of the second layer
+   */
+  private static int fileBytes(int rows, int columns, int hidden1, int hidden2)
+  {
+    return HEADER_BYTES + 2 * (2 * rows * columns * hidden1 + hidden1 + 2 * hidden1 * hidden2) + 4 * hidden2
+             + 2 * hidden2 + 4;
+  }
+
+  /**
+   * Clips an activation to 0..1
+   * @param value the activation
+   */
+  private static double clip(double value)
+  {
+    return Math.max(0.0, Math.min(1.0, value));
+  }
+}
@@ -0,0 +1,399 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class represents an opening book: the moves tried from early positions and how they scored, read straight from
+ * a memory-mapped file, so that even a large book opens at once and takes no heap
+ * Positions are keyed by their Zobrist hash under the board symmetry that makes it smallest (8 symmetries on a square
+ * board, 4 otherwise), and moves are stored in that same orientation, so mirrored and rotated openings share entries
+ *
+ * File: a HEADER_BYTES header (MAGIC, VERSION, rows, columns, numWin, the rule set id, the most pieces a booked
+ * position has, and the number of records as a long), then RECORD_BYTES records sorted by key and then move: the key (long), the move as a
+ * square number (int), the games that played it (int) and the half-points they scored for the mover (int)
+ * A book only holds games played under its rule set, and lookup never answers with a move those rules forbid
+ * Note: OpeningBookBuilder writes books; one file can hold up to about 100 million records
+ */
+
+public class OpeningBook
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the first four bytes of a book file, "GMKB" */
+  public static final int MAGIC = 0x474D4B42;
+
+  /** Represents the version of the file layout; version 1 books had no rule set */
+  public static final int VERSION = 2;
+
+  /** Represents the size of the header in bytes */
+  public static final int HEADER_BYTES = 36;
+
+  /** Represents the size of one record in bytes */
+  public static final int RECORD_BYTES = 20;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the mapped file */
+  private final ByteBuffer buffer;
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set the book's games were played under */
+  private final RuleSet rules;
+
+  /** Represents the most pieces a position in the book has */
+  private final int maxStones;
+
+  /** Represents the number of records */
+  private final int size;
+
+  /** Represents the fewest games a move needs before lookup plays it */
+  private int minGames = 1;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a book over a buffer holding a whole book file
+   * @param buffer the book file's bytes
+   * @param source the file name, used in error messages
+   */
+  private OpeningBook(ByteBuffer buffer, String source) throws IOException
+  {
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+      throw new IOException("Not an opening book: " + source);
+
+    if (buffer.getInt(4) != VERSION)
+      throw new IOException("Unsupported opening book version " + buffer.getInt(4) + ": " + source);
+
+    long records = buffer.getLong(28);
+
+    if (records < 0 || HEADER_BYTES + records * RECORD_BYTES != buffer.capacity())
+      throw new IOException("Truncated opening book: " + source);
+
+    this.buffer = buffer;
+    numRow = buffer.getInt(8);
+    numColumn = buffer.getInt(12);
+    numWin = buffer.getInt(16);
+    maxStones = buffer.getInt(24);
+    size = (int)records;
+
+    try
+    {
+      rules = RuleSet.get(buffer.getInt(20), numWin);
+    }
+
+    catch (IllegalArgumentException e)
+    {
+      throw new IOException("Damaged opening book: " + e.getMessage() + ": " + source);
+    }
+  }
+
+  /**
+   * Opens a book file by mapping it into memory; the file is not read until positions are looked up
+   * @param path the book file
+   */
+  public static OpeningBook open(Path path) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Opening book too large to map: " + path);
+
+      /** The mapping stays valid after the channel is closed */
+      return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+    }
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of rows of the board the book was built for
+   */
+  public int getRows()
+  {
+    return numRow;
+  }
+
+  /**
+   * Gets the number of columns of the board the book was built for
+   */
+  public int getColumns()
+  {
+    return numColumn;
+  }
+
+  /**
+   * Gets the number of pieces to be together that you can win in the book's games
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the rule set the book's games were played under
+   */
+  public RuleSet getRules()
+  {
+    return rules;
+  }
+
+  /**
+   * Gets the most pieces a position in the book has
+   */
+  public int getMaxStones()
+  {
+    return maxStones;
+  }
+
+  /**
+   * Gets the number of records: one per position and move
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Sets the fewest games a move needs before lookup plays it, so that moves seen once are not trusted
+   * @param minGames the fewest games, at least 1
+   */
+  public void setMinGames(int minGames)
+  {
+    this.minGames = Math.max(1, minGames);
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the book move for a position as a square number (row * columns + column), or -1 if the book has none
+   * The move chosen is the one that scored best, counting a draw as half a win and giving every move one extra
+   * drawn game so that a move with few games is not trusted too much; moves the book's rules forbid are passed over
+   * @param board the position, which must have the book's size
+   * @param color the color to move
+   */
+  public int lookup(Board board, int color)
+  {
+    if (board.getRows() != numRow || board.getColumns() != numColumn || board.getStoneCount() > maxStones
+          || board.isSparse())
+      return -1;
+
+    int[] squares = new int[board.getStoneCount()];
+    int[] colors = new int[squares.length];
+    int count = 0;
+
+    for (int row = 0; row < numRow && count < squares.length; row++)
+    {
+      for (int column = 0; column < numColumn; column++)
+      {
+        if (!board.isEmpty(row, column))
+        {
+          squares[count] = row * numColumn + column;
+          colors[count++] = board.get(row, column);
+        }
+      }
+    }
+
+    int symmetry = canonicalSymmetry(squares, colors, count, color, numRow, numColumn);
+    long key = hash(squares, colors, count, color, symmetry, numRow, numColumn);
+    ForbiddenMoves forbiddenMoves = rules.hasForbiddenMoves(color) ? new ForbiddenMoves(board, rules) : null;
+    int best = -1;
+    long bestGames = 0;
+    long bestPoints = 0;
+
+    for (int i = firstRecord(key); i < size && keyAt(i) == key; i++)
+    {
+      long games = gamesAt(i);
+      long points = pointsAt(i);
+
+      /** (points + 1) / (games + 1) in half-points, compared by cross-multiplying */
+      if (games >= minGames && (best < 0 || (points + 1) * (bestGames + 1) > (bestPoints + 1) * (games + 1)))
+      {
+        int move = transform(moveAt(i), inverse(symmetry), numRow, numColumn);
+
+        /** Only a move that may be played right now is good enough to replace the best one so far */
+        if (board.isEmpty(move / numColumn, move % numColumn)
+              && (forbiddenMoves == null || !forbiddenMoves.isForbidden(move / numColumn, move % numColumn, color)))
+        {
+          best = move;
+          bestGames = games;
+          bestPoints = points;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Returns the number of symmetries of a board: 8 if it is square, otherwise the 4 that keep rows as rows
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static int symmetries(int rows, int columns)
+  {
+    return (rows == columns) ? 8 : 4;
+  }
+
+  /**
+   * Returns a square moved by one of the board symmetries
+   * 0 is the identity, 1 to 3 mirror the columns, the rows or both, and 4 to 7 (square boards only) swap rows with
+   * columns first
+   * @param square the square number (row * columns + column)
+   * @param symmetry the symmetry, from 0 to symmetries - 1
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static int transform(int square, int symmetry, int rows, int columns)
+  {
+    int row = square / columns;
+    int column = square % columns;
+
+    if (symmetry >= 4)
+    {
+      int swap = row;
+      row = column;
+      column = swap;
+    }
+
+    if ((symmetry & 1) != 0)
+      column = columns - 1 - column;
+
+    if ((symmetry & 2) != 0)
+      row = rows - 1 - row;
+
+    return row * columns + column;
+  }
+
+  /**
+   * Returns the symmetry that undoes another one
+   * @param symmetry the symmetry, from 0 to 7
+   */
+  public static int inverse(int symmetry)
+  {
+    /** Swapping then mirroring columns (5) is undone by mirroring rows then swapping (6), and the other way round */
+    if (symmetry == 5 || symmetry == 6)
+      return 11 - symmetry;
+
+    return symmetry;
+  }
+
+  /**
+   * Returns the symmetry under which a position has its smallest hash, the first one if several tie
+   * @param squares the squares of the pieces
+   * @param colors the colors of the pieces
+   * @param count the number of pieces
+   * @param color the color to move
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static int canonicalSymmetry(int[] squares, int[] colors, int count, int color, int rows, int columns)
+  {
+    int best = 0;
+    long bestKey = hash(squares, colors, count, color, 0, rows, columns);
+
+    for (int symmetry = 1; symmetry < symmetries(rows, columns); symmetry++)
+    {
+      long key = hash(squares, colors, count, color, symmetry, rows, columns);
+
+      if (key < bestKey)
+      {
+        best = symmetry;
+        bestKey = key;
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Returns the Zobrist hash (see Zobrist) of a position moved by a symmetry, with the side to move
+   * @param squares the squares of the pieces
+   * @param colors the colors of the pieces
+   * @param count the number of pieces
+   * @param color the color to move
+   * @param symmetry the symmetry
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   */
+  public static long hash(int[] squares, int[] colors, int count, int color, int symmetry, int rows, int columns)
+  {
+    long key = (color == Board.WHITE) ? Zobrist.WHITE_TO_MOVE : 0L;
+
+    for (int i = 0; i < count; i++)
+      key ^= Zobrist.key(transform(squares[i], symmetry, rows, columns), colors[i]);
+
+    return key;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns the index of the first record with a key, or of the first record after it if there is none
+   * @param key the key
+   */
+  private int firstRecord(long key)
+  {
+    int low = 0;
+    int high = size;
+
+    while (low < high)
+    {
+      int middle = (low + high) >>> 1;
+
+      if (keyAt(middle) < key)
+        low = middle + 1;
+
+      else
+        high = middle;
+    }
+
+    return low;
+  }
+
+  /**
+   * Returns the key of a record
+   * Note: The record getters are also used by OpeningBookBuilder to extend a book
+   * @param index the record's index
+   */
+  long keyAt(int index)
+  {
+    return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES);
+  }
+
+  /**
+   * Returns the move of a record, in the canonical orientation
+   * @param index the record's index
+   */
+  int moveAt(int index)
+  {
+    return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES + 8);
+  }
+
+  /**
+   * Returns the number of games of a record
+   * @param index the record's index
+   */
+  int gamesAt(int index)
+  {
+    return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES + 12);
+  }
+
+  /**
+   * Returns the half-points the mover scored in a record's games
+   * @param index the record's index
+   */
+  int pointsAt(int index)
+  {
+    return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES + 16);
+  }
+}
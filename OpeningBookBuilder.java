@@ -0,0 +1,398 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class represents the tool that builds an opening book (see OpeningBook) from finished games
+ * Every position of a game with at most maxStones pieces adds one game to the move played from it, and 2, 1 or 0
+ * half-points for a win, a draw or a loss of the player who moved; moves that were picked at random to vary the games
+ * are skipped, but the positions after them are booked. An existing book can be read in first and extended
+ * Usage: OpeningBookBuilder book-file [--max-stones=n] self-play-file...
+ * The games are the output of SelfPlay (Gomoku --selfplay), all for one board and rule set; files without a rule set
+ * in their header were played under the default rules. If the book file exists it is extended, and it is replaced
+ * only once the new book is written
+ */
+
+public class OpeningBookBuilder
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set the games were played under */
+  private final RuleSet rules;
+
+  /** Represents the most pieces a booked position has */
+  private int maxStones = 12;
+
+  /** Represents the statistics {games, half-points} of every move, by position key and canonical move */
+  private final HashMap<Long, HashMap<Integer, int[]>> positions = new HashMap<Long, HashMap<Integer, int[]>>();
+
+  /** Represents the number of records (position and move pairs) */
+  private int records = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an empty book for one board size
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   */
+  public OpeningBookBuilder(int rows, int columns, int numWin)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates an empty book for one board size and rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set the games were played under
+   */
+  public OpeningBookBuilder(int rows, int columns, RuleSet rules)
+  {
+    this.numRow = rows;
+    this.numColumn = columns;
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Sets the most pieces a booked position has; games are only read that far
+   * @param maxStones the most pieces, at least 0
+   */
+  public void setMaxStones(int maxStones)
+  {
+    this.maxStones = Math.max(0, maxStones);
+  }
+
+  /**
+   * Gets the number of records (position and move pairs) so far
+   */
+  public int size()
+  {
+    return records;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Adds the opening of a finished game, black moving first
+   * @param moves the moves as square numbers (row * columns + column)
+   * @param length the number of moves
+   * @param randomMoves the number of moves at the start that were picked at random, which are not booked
+   * @param winner the color that won, or EMPTY for a draw
+   */
+  public void addGame(int[] moves, int length, int randomMoves, int winner)
+  {
+    int[] squares = new int[Math.min(length, maxStones + 1)];
+    int[] colors = new int[squares.length];
+
+    for (int ply = 0; ply < squares.length; ply++)
+    {
+      int color = (ply % 2 == 0) ? Board.BLACK : Board.WHITE;
+      int symmetry = OpeningBook.canonicalSymmetry(squares, colors, ply, color, numRow, numColumn);
+      long key = OpeningBook.hash(squares, colors, ply, color, symmetry, numRow, numColumn);
+      int move = OpeningBook.transform(moves[ply], symmetry, numRow, numColumn);
+      int points = (winner == color) ? 2 : ((winner == Board.EMPTY) ? 1 : 0);
+
+      if (ply >= randomMoves)
+        add(key, move, 1, points);
+
+      squares[ply] = moves[ply];
+      colors[ply] = color;
+    }
+  }
+
+  /**
+   * Adds every record of an existing book
+   * @param book the book, which must be for the same board, numWin and rule set
+   */
+  public void addBook(OpeningBook book)
+  {
+    if (book.getRows() != numRow || book.getColumns() != numColumn || book.getRules() != rules)
+      throw new IllegalArgumentException("Book is for " + book.getRows() + "x" + book.getColumns() + " with "
+                                           + book.getNumWin() + " to win under " + book.getRules().getName()
+                                           + " rules");
+
+    maxStones = Math.max(maxStones, book.getMaxStones());
+
+    for (int i = 0; i < book.size(); i++)
+      add(book.keyAt(i), book.moveAt(i), book.gamesAt(i), book.pointsAt(i));
+  }
+
+  /**
+   * Adds every game of a SelfPlay output file and returns the number of games read
+   * @param path the file
+   */
+  public int addSelfPlay(Path path) throws IOException
+  {
+    int games = 0;
+    int randomMoves = 0;
+    int[] moves = new int[numRow * numColumn];
+
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII))
+    {
+      for (String line = reader.readLine(); line != null; line = reader.readLine())
+      {
+        String[] fields = line.trim().split(" ");
+
+        /**
+         * The header gives the board and rule set, which must match, and the random moves:
+         * "# rows columns numWin rules=name ... opening=n"
+         */
+        if (line.startsWith("#"))
+        {
+          if (fields.length < 4 || Integer.parseInt(fields[1]) != numRow || Integer.parseInt(fields[2]) != numColumn
+                || Integer.parseInt(fields[3]) != numWin || headerRules(fields) != rules)
+            throw new IOException("Games in " + path + " are not for " + numRow + "x" + numColumn + " with "
+                                    + numWin + " to win under " + rules.getName() + " rules");
+
+          for (String field : fields)
+          {
+            if (field.startsWith("opening="))
+              randomMoves = Integer.parseInt(field.substring("opening=".length()));
+          }
+
+          continue;
+        }
+
+        if (fields.length < 5)
+          continue;
+
+        String[] squares = fields[4].split("\\.");
+
+        for (int i = 0; i < squares.length; i++)
+          moves[i] = Integer.parseInt(squares[i], 36);
+
+        addGame(moves, squares.length, randomMoves, "DBW".indexOf(fields[1].charAt(0)));
+        games++;
+      }
+    }
+
+    catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+    {
+      throw new IOException("Malformed game in " + path + ": " + e.getMessage(), e);
+    }
+
+    return games;
+  }
+
+  /**
+   * Writes the book, sorted by key and then move, to a file next to the target and then moves it into place
+   * @param path the book file
+   */
+  public void write(Path path) throws IOException
+  {
+    if (records > (Integer.MAX_VALUE - OpeningBook.HEADER_BYTES) / OpeningBook.RECORD_BYTES)
+      throw new IOException("Too many records for one book: " + records);
+
+    long[] keys = new long[positions.size()];
+    int count = 0;
+
+    for (long key : positions.keySet())
+      keys[count++] = key;
+
+    Arrays.sort(keys);
+
+    Path temporary = Paths.get(path.toString() + ".tmp");
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(numRow).putInt(numColumn).putInt(numWin)
+          .putInt(rules.getId()).putInt(maxStones).putLong(records);
+
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      for (long key : keys)
+      {
+        HashMap<Integer, int[]> moves = positions.get(key);
+        int[] squares = new int[moves.size()];
+        int index = 0;
+
+        for (int move : moves.keySet())
+          squares[index++] = move;
+
+        Arrays.sort(squares);
+
+        for (int move : squares)
+        {
+          if (buffer.remaining() < OpeningBook.RECORD_BYTES)
+            drain(buffer, channel);
+
+          int[] stats = moves.get(move);
+          buffer.putLong(key).putInt(move).putInt(stats[0]).putInt(stats[1]);
+        }
+      }
+
+      drain(buffer, channel);
+    }
+
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Builds or extends a book from SelfPlay output files and prints its size
+   * @param args the book file, optionally --max-stones=n, and the self-play files
+   */
+  public static void main(String[] args)
+  {
+    if (args.length < 2)
+    {
+      System.out.println("Usage: OpeningBookBuilder book-file [--max-stones=n] self-play-file...");
+      return;
+    }
+
+    try
+    {
+      Path bookPath = Paths.get(args[0]);
+      OpeningBook old = Files.exists(bookPath) ? OpeningBook.open(bookPath) : null;
+      OpeningBookBuilder builder = null;
+      int maxStones = -1;
+      int games = 0;
+
+      for (int i = 1; i < args.length; i++)
+      {
+        if (args[i].startsWith("--max-stones="))
+        {
+          maxStones = Integer.parseInt(args[i].substring("--max-stones=".length()));
+          continue;
+        }
+
+        Path gamesPath = Paths.get(args[i]);
+
+        /** The board comes from the old book, or else from the first file's header */
+        if (builder == null)
+        {
+          if (old != null)
+            builder = new OpeningBookBuilder(old.getRows(), old.getColumns(), old.getRules());
+
+          else
+            builder = readHeader(gamesPath);
+
+          if (maxStones >= 0)
+            builder.setMaxStones(maxStones);
+
+          if (old != null)
+            builder.addBook(old);
+        }
+
+        games += builder.addSelfPlay(gamesPath);
+      }
+
+      if (builder == null)
+      {
+        System.out.println("No self-play files given");
+        return;
+      }
+
+      builder.write(bookPath);
+      System.out.println(games + " games added, " + builder.size() + " records in " + bookPath);
+    }
+
+    catch (IOException | IllegalArgumentException e)
+    {
+      System.out.println("Could not build the book: " + e.getMessage());
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Adds games to a move from a position
+   * @param key the position key
+   * @param move the move, in the canonical orientation
+   * @param games the number of games
+   * @param points the half-points the mover scored in them
+   */
+  private void add(long key, int move, int games, int points)
+  {
+    HashMap<Integer, int[]> moves = positions.get(key);
+
+    if (moves == null)
+    {
+      moves = new HashMap<Integer, int[]>();
+      positions.put(key, moves);
+    }
+
+    int[] stats = moves.get(move);
+
+    if (stats == null)
+    {
+      stats = new int[2];
+      moves.put(move, stats);
+      records++;
+    }
+
+    stats[0] += games;
+    stats[1] += points;
+  }
+
+  /**
+   * Writes out what a buffer holds and empties it
+   * @param buffer the buffer
+   * @param channel the file
+   */
+  private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException
+  {
+    buffer.flip();
+
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+
+    buffer.clear();
+  }
+
+  /**
+   * Returns an empty builder for the board and rule set in the header of a SelfPlay output file
+   * @param path the file
+   */
+  private static OpeningBookBuilder readHeader(Path path) throws IOException
+  {
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII))
+    {
+      String line = reader.readLine();
+      String[] fields = (line == null) ? new String[0] : line.split(" ");
+
+      if (fields.length < 4 || !fields[0].equals("#"))
+        throw new IOException("No self-play header in " + path);
+
+      return new OpeningBookBuilder(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), headerRules(fields));
+    }
+  }
+
+  /**
+   * Returns the rule set named by the "rules=" field of a SelfPlay header, or the default rules if it has none
+   * @param fields the header's fields, numWin being the fourth
+   */
+  private static RuleSet headerRules(String[] fields)
+  {
+    int numWin = Integer.parseInt(fields[3]);
+
+    for (String field : fields)
+    {
+      if (field.startsWith("rules="))
+        return RuleSet.forName(field.substring("rules=".length()), numWin);
+    }
+
+    return RuleSet.get(RuleSet.DEFAULT, numWin);
+  }
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents a multi-core search using Lazy SMP
+ * Every thread runs its own SearchEngine on its own board and all of them share one lock-free transposition table;
+ * helper threads start one depth apart so that they fill the table with results the main thread can reuse
+ * With one thread the search runs in the caller's thread and gives the same move as a plain SearchEngine
+ */
+
+public class ParallelSearch implements Engine
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the engines, one per thread; engine 0 runs in the caller's thread and gives the result */
+  private final SearchEngine[] engines;
+
+  /** Represents the transposition table shared by every engine */
+  private final TranspositionTable table;
+
+  /** Represents the threads running the helper engines, or null if there is only one thread */
+  private final ExecutorService helpers;
+
+  /** Represents the stop signal of the current search */
+  private volatile AtomicBoolean stopSignal = new AtomicBoolean();
+
+  /** Represents if a search counts as a move chosen in Metrics */
+  private boolean moveMetrics = true;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a parallel search for one board size that plays by this program's own rules (RuleSet.DEFAULT)
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param tableMegabytes the memory used by the shared transposition table
+   * @param threads the number of search threads, at least 1
+   */
+  public ParallelSearch(int rows, int columns, int numWin, int tableMegabytes, int threads)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin), tableMegabytes, threads);
+  }
+
+  /**
+   * Creates a parallel search for one board size and rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set, which also gives the number of pieces to be together that you can win
+   * @param tableMegabytes the memory used by the shared transposition table
+   * @param threads the number of search threads, at least 1
+   */
+  public ParallelSearch(int rows, int columns, RuleSet rules, int tableMegabytes, int threads)
+  {
+    if (threads < 1)
+      throw new IllegalArgumentException("Need at least one search thread: " + threads);
+
+    table = new TranspositionTable(tableMegabytes);
+    engines = new SearchEngine[threads];
+
+    for (int i = 0; i < threads; i++)
+    {
+      engines[i] = new SearchEngine(rows, columns, rules, table);
+      engines[i].setFirstDepth(1 + (i & 1));
+      engines[i].setThreatCheck(i == 0);
+      engines[i].setMoveMetrics(false);
+    }
+
+    if (threads == 1)
+      helpers = null;
+
+    else
+    {
+      helpers = Executors.newFixedThreadPool(threads - 1, task ->
+      {
+        Thread thread = new Thread(task, "search-helper");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of search threads
+   */
+  public int getThreads()
+  {
+    return engines.length;
+  }
+
+  /**
+   * Gets the rule set the search plays by
+   */
+  public RuleSet getRules()
+  {
+    return engines[0].getRules();
+  }
+
+  /**
+   * Gets the transposition table shared by every thread
+   */
+  public TranspositionTable getTable()
+  {
+    return table;
+  }
+
+  /**
+   * Sets the deepest search to try on every thread
+   * @param maxDepth the deepest search, from 1 to SearchEngine.MAX_PLY - 1
+   */
+  public void setMaxDepth(int maxDepth)
+  {
+    for (SearchEngine engine : engines)
+      engine.setMaxDepth(maxDepth);
+  }
+
+  /**
+   * Sets a position cache kept on disk that every thread reads from and writes to, or null for none
+   * @param cache the cache, which must be for this board size and rule set, or null
+   */
+  public void setCache(PositionCache cache)
+  {
+    for (SearchEngine engine : engines)
+      engine.setCache(cache);
+  }
+
+  /**
+   * Sets a network to score positions with on every thread, or null to go back to the pattern weights
+   * @param network the network, which must be for this board size, or null
+   */
+  public void setNetwork(NeuralNetwork network)
+  {
+    for (SearchEngine engine : engines)
+      engine.setNetwork(network);
+
+    table.clear();
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Searches for the best move on every thread and returns the main thread's move, with the nodes of all threads
+   * @param position the position to search, which is not changed while the search runs
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis)
+  {
+    return search(position, color, millis, new AtomicBoolean());
+  }
+
+  /**
+   * Searches for the best move on every thread until the time runs out or the caller's stop signal is raised
+   * Note: The signal is raised at the end to stop the helpers, so it should not be shared with a later search
+   * @param position the position to search, which is not changed while the search runs
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   * @param signal the stop request to watch
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis, AtomicBoolean signal)
+  {
+    long start = System.nanoTime();
+    stopSignal = signal;
+    table.newSearch();
+
+    List<Future<SearchResult>> running = new ArrayList<Future<SearchResult>>();
+
+    for (int i = 1; i < engines.length; i++)
+    {
+      SearchEngine helper = engines[i];
+      running.add(helpers.submit(() -> helper.search(position, color, millis, signal)));
+    }
+
+    SearchResult main = engines[0].search(position, color, millis, signal);
+    long nodes = main.getNodes();
+
+    /** The helpers stop as soon as the main thread is done, and are waited for so the next search starts clean */
+    signal.set(true);
+
+    for (Future<SearchResult> helper : running)
+    {
+      try
+      {
+        nodes += helper.get().getNodes();
+      }
+
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      catch (ExecutionException e)
+      {
+        throw new IllegalStateException("Search helper failed", e.getCause());
+      }
+    }
+
+    if (moveMetrics)
+      Metrics.recordMove(System.nanoTime() - start, main.getDepth());
+
+    long elapsed = (System.nanoTime() - start) / 1000000L;
+    return new SearchResult(main.getRow(), main.getColumn(), main.getScore(), main.getDepth(), nodes, elapsed);
+  }
+
+  /**
+   * Asks every thread of the running search to stop as soon as possible
+   */
+  @Override
+  public void stop()
+  {
+    stopSignal.set(true);
+  }
+
+  /**
+   * Sets what is told about every depth the main thread finishes
+   * @param listener the listener, or null
+   */
+  @Override
+  public void setListener(SearchListener listener)
+  {
+    engines[0].setListener(listener);
+  }
+
+  /**
+   * Sets whether a search counts as a move chosen in Metrics; the threads' own searches never do
+   * @param moveMetrics true to count every search as a move
+   */
+  @Override
+  public void setMoveMetrics(boolean moveMetrics)
+  {
+    this.moveMetrics = moveMetrics;
+  }
+
+  /**
+   * Stops the helper threads; the search cannot be used afterwards
+   */
+  public void shutdown()
+  {
+    if (helpers != null)
+      helpers.shutdownNow();
+  }
+
+  /**
+   * Prints a scaling report: time to a fixed depth and nodes per second for 1, 2, 4, 8 and 16 threads
+   * on a fixed set of 19x19 positions
+   * @param args optionally the depth to search (default 5)
+   */
+  public static void main(String[] args)
+  {
+    int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+    String[] positions =
+    {
+      "9,9 8,10 10,10 8,8 8,9 10,8",
+      "9,9 9,10 10,9 8,9 10,10 10,11 11,11",
+      "9,9 10,10 9,11 9,10 8,10 11,10 7,9 8,11",
+      "9,9 8,8 10,8 10,10 9,7 9,10 8,9 11,9 7,10",
+      "9,9 9,8 8,10 10,8 8,8 7,9 10,10 11,11 7,7 6,6 10,9"
+    };
+    long baseMillis = 0;
+
+    System.out.println("depth " + depth + ", " + positions.length + " positions");
+
+    for (int threads = 1; threads <= 16; threads *= 2)
+    {
+      ParallelSearch search = new ParallelSearch(19, 19, 5, 64, threads);
+      search.setMaxDepth(depth);
+      long nodes = 0;
+      long millis = 0;
+
+      for (String moves : positions)
+      {
+        Board board = new Board(19, 19);
+        int color = Board.BLACK;
+
+        for (String move : moves.split(" "))
+        {
+          String[] square = move.split(",");
+          board.place(Integer.parseInt(square[0]), Integer.parseInt(square[1]), color);
+          color = Board.opponent(color);
+        }
+
+        search.getTable().clear();
+        SearchResult result = search.search(board, color, 600000);
+        nodes += result.getNodes();
+        millis += result.getMillis();
+      }
+
+      search.shutdown();
+
+      if (threads == 1)
+        baseMillis = millis;
+
+      System.out.println(threads + " threads: time to depth " + millis + "ms, nps " + nodes * 1000 / Math.max(1, millis)
+                           + ", speedup " + String.format("%.2f", (double)baseMillis / Math.max(1, millis)));
+    }
+  }
+}
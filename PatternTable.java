@@ -0,0 +1,378 @@
+import java.util.function.LongBinaryOperator;
+
+/**
+ * This class represents precomputed line patterns for one value of numWin
+ * The squares around a candidate move on one line are encoded as a base-3 number (empty, own piece, blocked),
+ * and that number indexes a table telling whether the move makes a five, an overline, a four or a three on that line
+ * Broken patterns such as X_XXX or X_XX are found the same way as solid ones
+ */
+
+public class PatternTable
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents a line with nothing worth noting */
+  public static final int NONE = 0;
+
+  /** Represents a three that can only become a blocked four */
+  public static final int THREE = 1;
+
+  /** Represents a three that can become an open (straight) four */
+  public static final int OPEN_THREE = 2;
+
+  /** Represents a four with one way to make five */
+  public static final int FOUR = 3;
+
+  /** Represents a four with two ways to make five, e.g. _XXXX_ */
+  public static final int OPEN_FOUR = 4;
+
+  /** Represents two separate fours on one line, e.g. XXX_X_XXX */
+  public static final int DOUBLE_FOUR = 5;
+
+  /** Represents exactly numWin pieces in a row */
+  public static final int FIVE = 6;
+
+  /** Represents more than numWin pieces in a row */
+  public static final int OVERLINE = 7;
+
+  /** Represents the largest numWin that is stored as a table; larger values are classified on the fly */
+  public static final int MAX_TABLE_WIN = 6;
+
+  /** Represents the largest numWin a window of a long can hold */
+  public static final int MAX_WIN = 31;
+
+  /** Represents the tables already built, indexed by numWin */
+  private static final PatternTable[] TABLES = new PatternTable[MAX_WIN + 1];
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the number of squares read on each side of the candidate move */
+  private final int radius;
+
+  /** Represents the base-3 value of every bit mask of one side of the window, so that a window is two array reads */
+  private final int[] ternary;
+
+  /** Represents the line type of every window, or null if numWin is too big to store */
+  private final byte[] types;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Builds the tables for one value of numWin
+   * @param numWin number of pieces to be together that you can win
+   */
+  private PatternTable(int numWin)
+  {
+    this.numWin = numWin;
+    this.radius = numWin;
+
+    if (numWin > MAX_TABLE_WIN)
+    {
+      ternary = null;
+      types = null;
+      return;
+    }
+
+    int cells = 2 * radius;
+    ternary = new int[1 << cells];
+
+    for (int mask = 1; mask < ternary.length; mask++)
+    {
+      int low = Integer.numberOfTrailingZeros(mask);
+      ternary[mask] = ternary[mask & (mask - 1)] + power(3, low);
+    }
+
+    types = new byte[power(3, cells)];
+
+    /** Every square is empty, own or blocked, so blocked only runs over the squares own leaves free */
+    for (int own = 0; own < ternary.length; own++)
+    {
+      int free = (ternary.length - 1) & ~own;
+      
+      for (int blocked = free; ; blocked = (blocked - 1) & free)
+      {
+        types[ternary[own] + 2 * ternary[blocked]] = (byte)classify(withCentre(own) | centreBit(), withCentre(blocked));
+        
+        if (blocked == 0)
+          break;
+      }
+    }
+  }
+
+  /**
+   * Returns the table for a value of numWin, building it the first time it is asked for
+   * @param numWin number of pieces to be together that you can win, from 1 to MAX_WIN
+   */
+  public static PatternTable forNumWin(int numWin)
+  {
+    if (numWin < 1 || numWin > MAX_WIN)
+      throw new IllegalArgumentException("numWin must be between 1 and " + MAX_WIN + ": " + numWin);
+
+    synchronized (TABLES)
+    {
+      if (TABLES[numWin] == null)
+        TABLES[numWin] = new PatternTable(numWin);
+
+      return TABLES[numWin];
+    }
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of pieces to be together that you can win
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the number of squares read on each side of the candidate move
+   */
+  public int getRadius()
+  {
+    return radius;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the line type made by putting a piece on the centre of a window
+   * Bit i of each mask stands for the square (i - radius) steps along the line; the centre bit is ignored
+   * @param own the squares holding the mover's pieces
+   * @param blocked the squares holding the opponent's pieces or off the board
+   */
+  public int lookup(long own, long blocked)
+  {
+    if (types == null)
+      return classify(own | centreBit(), blocked & ~centreBit());
+
+    return types[ternary[withoutCentre(own)] + 2 * ternary[withoutCentre(blocked)]];
+  }
+
+  /**
+   * Returns where a window is stored in this table, or -1 if numWin is too big to store (see tabulate)
+   * @param own the squares holding the mover's pieces; the centre bit is ignored
+   * @param blocked the squares holding the opponent's pieces or off the board
+   */
+  public int index(long own, long blocked)
+  {
+    if (types == null)
+      return -1;
+
+    return ternary[withoutCentre(own)] + 2 * ternary[withoutCentre(blocked)];
+  }
+
+  /**
+   * Builds a table indexed like this one (see index) from a function of the window, or returns null if numWin is
+   * too big to store; this is how a rule set turns its rules into one array read per line
+   * @param function gives the byte to store for a window; it is passed the mover's squares including the centre,
+   * and the blocked squares
+   */
+  public byte[] tabulate(LongBinaryOperator function)
+  {
+    if (types == null)
+      return null;
+
+    byte[] table = new byte[types.length];
+
+    for (int own = 0; own < ternary.length; own++)
+    {
+      int free = (ternary.length - 1) & ~own;
+
+      for (int blocked = free; ; blocked = (blocked - 1) & free)
+      {
+        table[ternary[own] + 2 * ternary[blocked]] = (byte)function.applyAsLong(withCentre(own) | centreBit(),
+                                                                                 withCentre(blocked));
+
+        if (blocked == 0)
+          break;
+      }
+    }
+
+    return table;
+  }
+
+  /**
+   * Returns the line type of the window around a square of the board, as if a piece of color were put there
+   * @param board the game board
+   * @param row the candidate square's row number
+   * @param column the candidate square's column number
+   * @param color the mover's color
+   * @param direction the line direction
+   */
+  public int lookup(Board board, int row, int column, int color, int direction)
+  {
+    long own = board.window(color, direction, row, column, radius);
+    long blocked = board.window(Board.opponent(color), direction, row, column, radius) | board.outside(direction, row, column, radius);
+
+    return lookup(own, blocked);
+  }
+
+  /**
+   * Returns the number of fours a line type counts as
+   * @param type the line type
+   */
+  public static int fourCount(int type)
+  {
+    if (type == FOUR || type == OPEN_FOUR)
+      return 1;
+
+    else if (type == DOUBLE_FOUR)
+      return 2;
+
+    else
+      return 0;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Works out the line type of a window with the centre already holding the mover's piece
+   * @param own the squares holding the mover's pieces, including the centre
+   * @param blocked the squares holding the opponent's pieces or off the board
+   */
+  private int classify(long own, long blocked)
+  {
+    int run = runThroughCentre(own);
+
+    if (run > numWin)
+      return OVERLINE;
+
+    if (run == numWin)
+      return FIVE;
+
+    int fours = fourType(own, blocked);
+
+    if (fours != NONE)
+      return fours;
+
+    /** A three needs numWin - 2 pieces within reach of the centre */
+    long reach = ((1L << (2 * numWin - 1)) - 1) << 1;
+
+    if (Long.bitCount(own & reach) < numWin - 2)
+      return NONE;
+
+    long empty = ~(own | blocked) & windowMask();
+    int best = NONE;
+
+    for (long squares = empty; squares != 0; squares &= squares - 1)
+    {
+      int type = fourType(own | Long.lowestOneBit(squares), blocked);
+
+      if (type == OPEN_FOUR)
+        return OPEN_THREE;
+
+      if (type != NONE)
+        best = THREE;
+    }
+
+    return best;
+  }
+
+  /**
+   * Works out whether a window makes a four, and which kind
+   * @param own the squares holding the mover's pieces, including the centre
+   * @param blocked the squares holding the opponent's pieces or off the board
+   */
+  private int fourType(long own, long blocked)
+  {
+    long empty = ~(own | blocked) & windowMask();
+    long fives = 0;
+
+    for (long squares = empty; squares != 0; squares &= squares - 1)
+    {
+      long square = Long.lowestOneBit(squares);
+
+      if (runThroughCentre(own | square) == numWin)
+        fives |= square;
+    }
+
+    if (fives == 0)
+      return NONE;
+
+    /** A straight four has its two ways to make five exactly numWin squares apart */
+    if ((fives & (fives >>> numWin)) != 0)
+      return OPEN_FOUR;
+
+    if (Long.bitCount(fives) >= 2)
+      return DOUBLE_FOUR;
+
+    return FOUR;
+  }
+
+  /**
+   * Returns the length of the run of pieces through the centre of a window
+   * A run that reaches the edge of the window is at least numWin + 1 long, so it is always an overline
+   * @param own the squares holding the mover's pieces, including the centre
+   */
+  private int runThroughCentre(long own)
+  {
+    int count = 1;
+
+    for (int bit = radius + 1; bit <= 2 * radius && (own & (1L << bit)) != 0; bit++)
+      count++;
+
+    for (int bit = radius - 1; bit >= 0 && (own & (1L << bit)) != 0; bit--)
+      count++;
+
+    return count;
+  }
+
+  /**
+   * Returns the bit of the centre square
+   */
+  private long centreBit()
+  {
+    return 1L << radius;
+  }
+
+  /**
+   * Returns a mask of every square in the window
+   */
+  private long windowMask()
+  {
+    return (1L << (2 * radius + 1)) - 1;
+  }
+
+  /**
+   * Turns a mask of the window squares other than the centre into a full window mask (with the centre clear)
+   * @param cells the mask of the 2 * radius squares other than the centre
+   */
+  private long withCentre(int cells)
+  {
+    long low = cells & ((1L << radius) - 1);
+    long high = ((long)cells >>> radius) << (radius + 1);
+    return low | high;
+  }
+
+  /**
+   * Turns a full window mask into a mask of the 2 * radius squares other than the centre
+   * @param window the full window mask
+   */
+  private int withoutCentre(long window)
+  {
+    long low = window & ((1L << radius) - 1);
+    long high = (window >>> (radius + 1)) << radius;
+    return (int)(low | high);
+  }
+
+  /**
+   * Returns base to the power of exponent
+   * @param base the base
+   * @param exponent the exponent
+   */
+  private static int power(int base, int exponent)
+  {
+    int result = 1;
+
+    for (int i = 0; i < exponent; i++)
+      result *= base;
+
+    return result;
+  }
+}
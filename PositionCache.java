@@ -0,0 +1,476 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents a position cache kept in a memory-mapped file, so that results survive from one run to the
+ * next and are shared by every thread and every process that opens the same file
+ * The file is a power of two number of BUCKET_BYTES buckets, one cache line each, of BUCKET_SLOTS slots; a position's
+ * hash picks its bucket, and entries are packed as in TranspositionTable, with the generation bits marking results
+ * that are proven (a win or a loss, good at any depth) instead of bounded by the depth searched
+ * A new result replaces the same position's result unless that one is proven or deeper, or else the slot of the
+ * bucket with the shallowest result, if that is no deeper than the new one: proven and deep results are the last to go
+ * As in TranspositionTable, every slot stores its key XORed with its data and nothing is locked: two threads or two
+ * processes writing a slot at once leave a slot that matches no key, which reads as a miss; slots are read and written
+ * as aligned longs in one access each, so a reader never sees half of a long
+ * The file is mapped in SEGMENT_BYTES pieces and only the pages used are read in, so a cache larger than memory
+ * works through the operating system's page cache; writes reach the disk when the system flushes them or on force
+ *
+ * File: a HEADER_BYTES header (MAGIC, VERSION, rows, columns, numWin and the rule set, all ints, then the number of
+ * buckets as a long, big-endian), then the buckets; each slot is the key XORed with the entry, then the entry, as
+ * little-endian longs
+ * Note: Zobrist numbers squares by the board's columns, so a file is made for one board size and rule set
+ */
+
+public class PositionCache
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the first four bytes of a cache file, "GMKC" */
+  public static final int MAGIC = 0x474D4B43;
+
+  /** Represents the version of the file layout; version 1 files may hold heuristic scores marked proven */
+  public static final int VERSION = 2;
+
+  /** Represents the size of the header in bytes, a cache line so that buckets stay aligned */
+  public static final int HEADER_BYTES = 64;
+
+  /** Represents the number of slots in a bucket */
+  public static final int BUCKET_SLOTS = 4;
+
+  /** Represents the size of a bucket in bytes */
+  public static final int BUCKET_BYTES = BUCKET_SLOTS * 16;
+
+  /** Represents the size of one mapping, which a ByteBuffer limits to under 2 GB */
+  private static final long SEGMENT_BYTES = 1L << 30;
+
+  /** Represents the number of buckets in one mapping, as a shift */
+  private static final int SEGMENT_SHIFT = 24;
+
+  /** Represents the generation bits of an entry that is proven */
+  private static final int PROVEN = 1;
+
+  /** Represents the access to the slots: one aligned little-endian long at a time, never torn */
+  private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the mapped buckets, SEGMENT_BYTES per mapping */
+  private final MappedByteBuffer[] segments;
+
+  /** Represents the mask turning a hash into a bucket number */
+  private final long bucketMask;
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set (see RuleSet) */
+  private final int rules;
+
+  /** Represents the number of probes since the cache was opened, striped so that threads do not share a line */
+  private final LongAdder probes = new LongAdder();
+
+  /** Represents the number of probes that found an entry since the cache was opened, striped likewise */
+  private final LongAdder hits = new LongAdder();
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a cache over mapped buckets
+   * @param segments the mapped buckets
+   * @param buckets the number of buckets, a power of two
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param rules the rule set
+   */
+  private PositionCache(MappedByteBuffer[] segments, long buckets, int rows, int columns, int numWin, int rules)
+  {
+    this.segments = segments;
+    this.bucketMask = buckets - 1;
+    this.numRow = rows;
+    this.numColumn = columns;
+    this.numWin = numWin;
+    this.rules = rules;
+  }
+
+  /**
+   * Opens a cache file, creating it if it does not exist; another process may have it open at the same time
+   * @param path the file
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param rules the rule set (see RuleSet)
+   * @param megabytes the size of a new file, rounded down to a power of two number of buckets; an existing file
+   * keeps its size
+   */
+  public static PositionCache open(Path path, int rows, int columns, int numWin, int rules, long megabytes)
+    throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE))
+    {
+      long buckets;
+
+      /** The lock only keeps two processes from creating the same file at once; using it needs none */
+      FileLock lock = channel.lock();
+
+      try
+      {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+        if (channel.size() == 0)
+        {
+          buckets = Long.highestOneBit(Math.max(1L, megabytes * 1024 * 1024 / BUCKET_BYTES));
+          header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns).putInt(numWin).putInt(rules)
+                .putLong(buckets).rewind();
+          channel.write(header, 0);
+
+          /** The file is extended by its last byte, so the buckets start out as a hole that reads as zeros */
+          channel.write(ByteBuffer.allocate(1), HEADER_BYTES + buckets * BUCKET_BYTES - 1);
+        }
+
+        else
+        {
+          while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+          {
+          }
+
+          header.flip();
+
+          if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+            throw new IOException("Not a position cache: " + path);
+
+          int version = header.getInt();
+
+          if (version != VERSION)
+            throw new IOException("Unsupported position cache version " + version + ": " + path);
+
+          int fileRows = header.getInt();
+          int fileColumns = header.getInt();
+          int fileNumWin = header.getInt();
+          int fileRules = header.getInt();
+          buckets = header.getLong();
+
+          if (fileRows != rows || fileColumns != columns || fileNumWin != numWin || fileRules != rules)
+            throw new IOException("The position cache is for " + fileRows + "x" + fileColumns + " with " + fileNumWin
+                                    + " to win under rule set " + fileRules + ", not " + rows + "x" + columns + " with "
+                                    + numWin + " under " + rules + ": " + path);
+
+          if (buckets < 1 || Long.bitCount(buckets) != 1 || channel.size() != HEADER_BYTES + buckets * BUCKET_BYTES)
+            throw new IOException("Damaged position cache: " + path);
+        }
+      }
+
+      finally
+      {
+        lock.release();
+      }
+
+      /** The mappings stay valid after the channel is closed */
+      long bytes = buckets * BUCKET_BYTES;
+      MappedByteBuffer[] segments = new MappedByteBuffer[(int)((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+
+      for (int i = 0; i < segments.length; i++)
+      {
+        long offset = i * SEGMENT_BYTES;
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + offset,
+                                  Math.min(SEGMENT_BYTES, bytes - offset));
+      }
+
+      return new PositionCache(segments, buckets, rows, columns, numWin, rules);
+    }
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of rows of the board the cache is for
+   */
+  public int getRows()
+  {
+    return numRow;
+  }
+
+  /**
+   * Gets the number of columns of the board the cache is for
+   */
+  public int getColumns()
+  {
+    return numColumn;
+  }
+
+  /**
+   * Gets the number of pieces to be together that you can win
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the rule set the cache is for
+   */
+  public int getRules()
+  {
+    return rules;
+  }
+
+  /**
+   * Gets the number of entries the cache can hold
+   */
+  public long getCapacity()
+  {
+    return (bucketMask + 1) * BUCKET_SLOTS;
+  }
+
+  /**
+   * Gets the share of probes since the cache was opened that found an entry, from 0 to 1
+   */
+  public double getHitRate()
+  {
+    long probed = probes.sum();
+    return probed == 0 ? 0.0 : (double)hits.sum() / probed;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the packed entry for a hash, or 0 if there is none; read it with TranspositionTable's methods and
+   * isProven
+   * @param key the position's hash
+   */
+  public long probe(long key)
+  {
+    long bucket = key & bucketMask;
+    ByteBuffer segment = segments[(int)(bucket >>> SEGMENT_SHIFT)];
+    int base = (int)(bucket & ((1 << SEGMENT_SHIFT) - 1)) * BUCKET_BYTES;
+    probes.increment();
+
+    for (int slot = base; slot < base + BUCKET_BYTES; slot += 16)
+    {
+      /** Reads the data once, so that the check and the result use the same value */
+      long entry = (long)SLOT.getOpaque(segment, slot + 8);
+
+      if (entry != 0 && ((long)SLOT.getOpaque(segment, slot) ^ entry) == key)
+      {
+        hits.increment();
+        return entry;
+      }
+    }
+
+    return 0L;
+  }
+
+  /**
+   * Stores a result, unless the bucket only holds results that are worth more
+   * @param key the position's hash
+   * @param move the best move found, or -1
+   * @param score the score, already adjusted so that win scores do not depend on the ply
+   * @param depth the depth searched, from 0 to 254
+   * @param flag EXACT, LOWER or UPPER (see TranspositionTable)
+   * @param proven true if the score is a proven win or loss, which holds at any depth
+   */
+  public void store(long key, int move, int score, int depth, int flag, boolean proven)
+  {
+    long bucket = key & bucketMask;
+    ByteBuffer segment = segments[(int)(bucket >>> SEGMENT_SHIFT)];
+    int base = (int)(bucket & ((1 << SEGMENT_SHIFT) - 1)) * BUCKET_BYTES;
+    long packed = TranspositionTable.pack(move, score, depth, flag, proven ? PROVEN : 0);
+    int worth = worth(packed);
+    int victim = -1;
+    int victimWorth = Integer.MAX_VALUE;
+
+    for (int slot = base; slot < base + BUCKET_BYTES; slot += 16)
+    {
+      long entry = (long)SLOT.getOpaque(segment, slot + 8);
+
+      if (entry != 0 && ((long)SLOT.getOpaque(segment, slot) ^ entry) == key)
+      {
+        victim = (worth >= worth(entry)) ? slot : -1;
+        victimWorth = -1;
+        break;
+      }
+
+      int slotWorth = (entry == 0) ? -1 : worth(entry);
+
+      if (slotWorth < victimWorth)
+      {
+        victim = slot;
+        victimWorth = slotWorth;
+      }
+    }
+
+    if (victim < 0 || victimWorth > worth)
+      return;
+
+    SLOT.setOpaque(segment, victim + 8, packed);
+    SLOT.setOpaque(segment, victim, key ^ packed);
+  }
+
+  /**
+   * Writes the changed pages to the disk now instead of when the system gets to them
+   */
+  public void force()
+  {
+    for (MappedByteBuffer segment : segments)
+      segment.force();
+  }
+
+  /**
+   * Determines whether a packed entry is a proven win or loss rather than a result bounded by its depth
+   * @param entry the packed entry
+   */
+  public static boolean isProven(long entry)
+  {
+    return TranspositionTable.generation(entry) == PROVEN;
+  }
+
+  /**
+   * Checks the cache: entries written by several threads at once are never read back wrong, a reopened file still
+   * has them, deep and proven entries outlast shallow ones, and a SearchEngine started fresh on a warm cache searches
+   * fewer nodes; then times probes
+   * @param args optionally the cache file to use (default: a temporary file, deleted afterwards) and its megabytes
+   * (default 16)
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    Path path = (args.length > 0) ? Paths.get(args[0]) : Files.createTempFile("positions", ".cache");
+    long megabytes = (args.length > 1) ? Long.parseLong(args[1]) : 16;
+
+    if (args.length == 0)
+      Files.delete(path);
+
+    try
+    {
+      PositionCache cache = open(path, 15, 15, 5, RuleSet.DEFAULT, megabytes);
+      System.out.println("cache " + path + ": " + cache.getCapacity() + " entries");
+
+      /** Every entry's move and score are derived from its key, so a wrong read shows as a mismatch */
+      int threads = 4;
+      long perThread = cache.getCapacity();
+      AtomicLong wrong = new AtomicLong();
+      AtomicLong found = new AtomicLong();
+      Thread[] running = new Thread[threads];
+
+      for (int i = 0; i < threads; i++)
+      {
+        long seed = i;
+        running[i] = new Thread(() ->
+        {
+          SplittableRandom random = new SplittableRandom(seed % 2);
+
+          for (long n = 0; n < perThread; n++)
+          {
+            long key = random.nextLong();
+
+            if (n % 2 == 0)
+              cache.store(key, (int)(key & 0xFFFF), (int)(key >> 48), (int)((key >>> 20) & 63), 0, false);
+
+            long entry = cache.probe(key);
+
+            if (entry != 0)
+            {
+              found.incrementAndGet();
+
+              if (TranspositionTable.move(entry) != (int)(key & 0xFFFF)
+                    || TranspositionTable.score(entry) != (int)(key >> 48))
+                wrong.incrementAndGet();
+            }
+          }
+        });
+        running[i].start();
+      }
+
+      for (Thread thread : running)
+        thread.join();
+
+      System.out.println(threads + " threads: " + threads * perThread + " probes, " + found.get() + " found, "
+                           + wrong.get() + " wrong");
+
+      /** A proven entry and a deep one survive a bucket's worth of shallow entries in the same bucket */
+      long bucketStep = cache.bucketMask + 1;
+      cache.store(12345, 1, 999990, 2, TranspositionTable.LOWER, true);
+      cache.store(12345 + bucketStep, 2, 50, 30, TranspositionTable.EXACT, false);
+
+      for (int i = 2; i < 2 + 2 * BUCKET_SLOTS; i++)
+        cache.store(12345 + i * bucketStep, 3, 0, 1, TranspositionTable.EXACT, false);
+
+      cache.force();
+      PositionCache reopened = open(path, 15, 15, 5, RuleSet.DEFAULT, 1);
+      long proven = reopened.probe(12345);
+      long deep = reopened.probe(12345 + bucketStep);
+      System.out.println("after reopening: proven entry " + (isProven(proven) && TranspositionTable.move(proven) == 1)
+                           + ", deep entry " + (TranspositionTable.depth(deep) == 30));
+
+      /** Two engines that share nothing but the file: the second one starts where the first left off */
+      Board board = new Board(15, 15);
+      int[][] moves = {{7, 7}, {7, 8}, {8, 8}, {6, 6}, {8, 7}, {8, 9}};
+
+      for (int i = 0; i < moves.length; i++)
+        board.place(moves[i][0], moves[i][1], (i % 2 == 0) ? Board.BLACK : Board.WHITE);
+
+      for (int run = 0; run < 2; run++)
+      {
+        SearchEngine engine = new SearchEngine(15, 15, 5, 16);
+        engine.setCache(reopened);
+        engine.setMaxDepth(6);
+        SearchResult result = engine.search(board, Board.BLACK, 600000);
+        System.out.println("engine run " + (run + 1) + ": move " + result.getRow() + "," + result.getColumn()
+                             + " score " + result.getScore() + ", " + result.getNodes() + " nodes, "
+                             + result.getMillis() + " ms");
+      }
+
+      for (int round = 0; round < 3; round++)
+      {
+        SplittableRandom random = new SplittableRandom(round);
+        long sink = 0;
+        int count = 2000000;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++)
+          sink += reopened.probe(random.nextLong());
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%.1f ns per probe (%d)", (double)elapsed / count, sink & 1));
+      }
+
+      System.out.println("hit rate " + String.format("%.3f", reopened.getHitRate()));
+    }
+
+    finally
+    {
+      if (args.length == 0)
+        Files.deleteIfExists(path);
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Returns how much an entry is worth keeping: its depth, or more than any depth if it is proven
+   * @param entry the packed entry
+   */
+  private static int worth(long entry)
+  {
+    return isProven(entry) ? 256 : TranspositionTable.depth(entry);
+  }
+}
@@ -0,0 +1,487 @@
+/**
+ * This class represents a rule set: which lines win and which moves are forbidden, for one value of numWin
+ *   default: exactly numWin in a row wins; no move of either color may make two fours or two open threes
+ *   freestyle: numWin or more in a row wins; nothing is forbidden
+ *   standard: exactly numWin in a row wins; nothing is forbidden
+ *   renju: black wins with exactly numWin and may not make an overline, two fours or two open threes, where a three
+ *          only counts if it can become a straight four by a move that is not forbidden itself; white wins with
+ *          numWin or more and nothing is forbidden
+ *   caro: exactly numWin in a row wins unless both of its ends are blocked (by the opponent or the edge of the board);
+ *         nothing is forbidden
+ * Every rule set is compiled into a table for each color, indexed like PatternTable, giving what a move does on one
+ * line, and a table of which runs win; so a move's legality is four array reads and a win is one, for every variant
+ * The only extra work is Renju's check of a black move that makes two open threes, which looks at the squares that
+ * would turn each three into a straight four
+ *
+ * Usage: java RuleSet [name...] runs the regression suite of known positions for the named rule sets, or all of them
+ */
+
+public class RuleSet
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents this program's own rules, the id GameRecords.RULES_DEFAULT stores */
+  public static final int DEFAULT = 0;
+
+  /** Represents freestyle: numWin or more wins */
+  public static final int FREESTYLE = 1;
+
+  /** Represents standard gomoku: exactly numWin wins */
+  public static final int STANDARD = 2;
+
+  /** Represents Renju: forbidden moves for black only */
+  public static final int RENJU = 3;
+
+  /** Represents Caro: a line blocked at both ends does not win */
+  public static final int CARO = 4;
+
+  /** Represents the name of every rule set, indexed by id */
+  public static final String[] NAMES = {"default", "freestyle", "standard", "renju", "caro"};
+
+  /** Represents a move that wins on the line */
+  public static final int WINS = 1;
+
+  /** Represents a move that makes exactly numWin on the line, which no rule set forbids */
+  public static final int FIVE = 2;
+
+  /** Represents a move that makes more than numWin on the line */
+  public static final int OVERLINE = 4;
+
+  /** Represents a move that makes an open three on the line (for Renju, before the straight four is checked) */
+  public static final int OPEN_THREE = 8;
+
+  /** Represents the shift of the number of fours the move makes on the line, 0 to 2 */
+  private static final int FOURS_SHIFT = 4;
+
+  /** Represents the rule sets already built, indexed by id and numWin */
+  private static final RuleSet[][] RULE_SETS = new RuleSet[NAMES.length][PatternTable.MAX_WIN + 1];
+
+  /**
+   * Represents the regression suite: rule set, stones, move and expected outcome (win, legal or forbidden) on a
+   * 15x15 board with five to win; stones and moves are x (black) or o (white) then row,column
+   */
+  private static final String[][] SUITE =
+  {
+    /** A five wins everywhere; an overline only where more than numWin wins */
+    {"default",   "x7,3 x7,4 x7,5 x7,6",                            "x7,7", "win"},
+    {"default",   "x7,3 x7,4 x7,5 x7,6 x7,8",                       "x7,7", "legal"},
+    {"default",   "x7,5 x7,6 x5,7 x6,7",                            "x7,7", "forbidden"},
+    {"default",   "o7,5 o7,6 o5,7 o6,7",                            "o7,7", "forbidden"},
+    {"default",   "x7,4 x7,5 x7,6 x4,7 x5,7 x6,7",                  "x7,7", "forbidden"},
+    {"default",   "x7,3 x7,4 x7,5 x7,9 x7,10 x7,11",                "x7,7", "forbidden"},
+    {"default",   "x7,4 x7,5 x7,6 x5,7 x6,7",                       "x7,7", "legal"},
+    {"default",   "x7,3 x7,4 x7,5 x7,6 x4,7 x5,7 x6,7 x4,4 x5,5 x6,6", "x7,7", "win"},
+
+    {"freestyle", "x7,3 x7,4 x7,5 x7,6",                            "x7,7", "win"},
+    {"freestyle", "x7,3 x7,4 x7,5 x7,6 x7,8",                       "x7,7", "win"},
+    {"freestyle", "o7,3 o7,4 o7,5 o7,6 o7,8 o7,9",                  "o7,7", "win"},
+    {"freestyle", "x7,5 x7,6 x5,7 x6,7",                            "x7,7", "legal"},
+    {"freestyle", "x7,4 x7,5 x7,6 x4,7 x5,7 x6,7",                  "x7,7", "legal"},
+
+    {"standard",  "x7,3 x7,4 x7,5 x7,6",                            "x7,7", "win"},
+    {"standard",  "x7,3 x7,4 x7,5 x7,6 x7,8",                       "x7,7", "legal"},
+    {"standard",  "o7,3 o7,4 o7,5 o7,6 o7,8",                       "o7,7", "legal"},
+    {"standard",  "x7,5 x7,6 x5,7 x6,7",                            "x7,7", "legal"},
+    {"standard",  "x7,3 x7,4 x7,5 x7,9 x7,10 x7,11",                "x7,7", "legal"},
+
+    /** Renju: black's overline, double four (also on one line) and double three are forbidden, white's are not */
+    {"renju",     "x7,3 x7,4 x7,5 x7,6",                            "x7,7", "win"},
+    {"renju",     "x7,3 x7,4 x7,5 x7,6 x7,8",                       "x7,7", "forbidden"},
+    {"renju",     "o7,3 o7,4 o7,5 o7,6 o7,8",                       "o7,7", "win"},
+    {"renju",     "x7,4 x7,5 x7,6 x4,7 x5,7 x6,7",                  "x7,7", "forbidden"},
+    {"renju",     "x7,3 x7,4 x7,5 x7,9 x7,10 x7,11",                "x7,7", "forbidden"},
+    {"renju",     "x7,5 x7,6 x5,7 x6,7",                            "x7,7", "forbidden"},
+    {"renju",     "o7,5 o7,6 o5,7 o6,7",                            "o7,7", "legal"},
+    {"renju",     "o7,4 o7,5 o7,6 o4,7 o5,7 o6,7",                  "o7,7", "legal"},
+    {"renju",     "x7,4 x7,5 x7,6 x5,7 x6,7",                       "x7,7", "legal"},
+    {"renju",     "x7,3 x7,4 x7,5 x7,6 x4,7 x5,7 x6,7 x4,4 x5,5 x6,6", "x7,7", "win"},
+
+    /** A three whose only straight fours would make an overline is no three */
+    {"renju",     "x7,2 x7,5 x7,6 x7,10 x5,7 x6,7",                 "x7,7", "legal"},
+
+    /** A three whose straight-four squares are both double fours is no three, so this is one three */
+    {"renju",     "x7,5 x7,6 x5,7 x6,7 x4,4 x5,4 x6,4 x4,8 x5,8 x6,8", "x7,7", "legal"},
+    {"default",   "x7,5 x7,6 x5,7 x6,7 x4,4 x5,4 x6,4 x4,8 x5,8 x6,8", "x7,7", "forbidden"},
+
+    /** Caro: a five blocked at both ends, by stones or the edge, does not win; an overline never does */
+    {"caro",      "x7,3 x7,4 x7,5 x7,6",                            "x7,7", "win"},
+    {"caro",      "o7,2 x7,3 x7,4 x7,5 x7,6",                       "x7,7", "win"},
+    {"caro",      "o7,2 x7,3 x7,4 x7,5 x7,6 o7,8",                  "x7,7", "legal"},
+    {"caro",      "x7,0 x7,1 x7,2 x7,3",                            "x7,4", "win"},
+    {"caro",      "x7,0 x7,1 x7,2 x7,3 o7,5",                       "x7,4", "legal"},
+    {"caro",      "x7,3 x7,4 x7,5 x7,6 x7,8",                       "x7,7", "legal"},
+    {"caro",      "x3,3 x4,4 x5,5 x6,6 o2,2 o8,8",                  "x7,7", "legal"},
+    {"caro",      "x7,5 x7,6 x5,7 x6,7",                            "x7,7", "legal"},
+  };
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the rule set's id, for example RENJU */
+  private final int id;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the line patterns for numWin */
+  private final PatternTable patterns;
+
+  /** Represents what a move does on one line for each color, indexed by color and PatternTable.index, or null */
+  private final byte[][] moves = new byte[3][];
+
+  /** Represents which runs win, indexed by runIndex */
+  private final boolean[] winningRuns;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Compiles a rule set
+   * @param id the rule set's id, for example RENJU
+   * @param numWin number of pieces to be together that you can win
+   */
+  private RuleSet(int id, int numWin)
+  {
+    this.id = id;
+    this.numWin = numWin;
+    this.patterns = PatternTable.forNumWin(numWin);
+
+    moves[Board.BLACK] = patterns.tabulate((own, blocked) -> classify(own, blocked, Board.BLACK));
+    moves[Board.WHITE] = (overlineWins(Board.BLACK) == overlineWins(Board.WHITE)) ? moves[Board.BLACK]
+                           : patterns.tabulate((own, blocked) -> classify(own, blocked, Board.WHITE));
+
+    winningRuns = new boolean[runIndex(Board.WHITE, numWin + 1, 2) + 1];
+
+    for (int color = Board.BLACK; color <= Board.WHITE; color++)
+    {
+      for (int length = numWin; length <= numWin + 1; length++)
+      {
+        for (int blockedEnds = 0; blockedEnds <= 2; blockedEnds++)
+          winningRuns[runIndex(color, length, blockedEnds)] = isWin(color, length, blockedEnds);
+      }
+    }
+  }
+
+  /**
+   * Returns a rule set, compiling it the first time it is asked for
+   * @param id the rule set's id, for example RENJU
+   * @param numWin number of pieces to be together that you can win, from 1 to PatternTable.MAX_WIN
+   */
+  public static RuleSet get(int id, int numWin)
+  {
+    if (id < 0 || id >= NAMES.length)
+      throw new IllegalArgumentException("Unknown rule set: " + id);
+
+    PatternTable.forNumWin(numWin);
+
+    synchronized (RULE_SETS)
+    {
+      if (RULE_SETS[id][numWin] == null)
+        RULE_SETS[id][numWin] = new RuleSet(id, numWin);
+
+      return RULE_SETS[id][numWin];
+    }
+  }
+
+  /**
+   * Returns a rule set by name, for example "renju"
+   * @param name the rule set's name, in any case
+   * @param numWin number of pieces to be together that you can win
+   */
+  public static RuleSet forName(String name, int numWin)
+  {
+    for (int id = 0; id < NAMES.length; id++)
+    {
+      if (NAMES[id].equalsIgnoreCase(name))
+        return get(id, numWin);
+    }
+
+    throw new IllegalArgumentException("Unknown rule set " + name + ", expected one of "
+                                         + String.join(", ", NAMES));
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the rule set's id, for example RENJU
+   */
+  public int getId()
+  {
+    return id;
+  }
+
+  /**
+   * Gets the rule set's name, for example "renju"
+   */
+  public String getName()
+  {
+    return NAMES[id];
+  }
+
+  /**
+   * Gets the number of pieces to be together that you can win
+   */
+  public int getNumWin()
+  {
+    return numWin;
+  }
+
+  /**
+   * Gets the line patterns for numWin
+   */
+  public PatternTable getPatterns()
+  {
+    return patterns;
+  }
+
+  /**
+   * Determines whether any move of a color can be forbidden
+   * @param color BLACK or WHITE
+   */
+  public boolean hasForbiddenMoves(int color)
+  {
+    return id == DEFAULT || (id == RENJU && color == Board.BLACK);
+  }
+
+  /**
+   * Determines whether a color may not make an overline
+   * @param color BLACK or WHITE
+   */
+  public boolean forbidsOverline(int color)
+  {
+    return id == RENJU && color == Board.BLACK;
+  }
+
+  /**
+   * Determines whether an open three only counts if a move that is not forbidden turns it into a straight four
+   */
+  public boolean checksThrees()
+  {
+    return id == RENJU;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns what a move does on one line: WINS, FIVE, OVERLINE and OPEN_THREE bits and the number of fours
+   * (see fours); one array read unless numWin is too big to store
+   * @param own the squares holding the mover's pieces; the centre is the move
+   * @param blocked the squares holding the opponent's pieces or off the board
+   * @param color the mover's color
+   */
+  public int lineFlags(long own, long blocked, int color)
+  {
+    int index = patterns.index(own, blocked);
+
+    if (index < 0)
+      return classify(own | (1L << patterns.getRadius()), blocked, color);
+
+    return moves[color][index];
+  }
+
+  /**
+   * Returns the number of fours in the flags of a line
+   * @param flags what the move does on the line (see lineFlags)
+   */
+  public static int fours(int flags)
+  {
+    return flags >>> FOURS_SHIFT;
+  }
+
+  /**
+   * Determines whether a run of pieces wins
+   * @param color the color of the pieces
+   * @param length the number of pieces in the run
+   * @param blockedEnds how many of the run's two ends are the opponent's pieces or off the board
+   */
+  public boolean isWinningRun(int color, int length, int blockedEnds)
+  {
+    return length >= numWin && winningRuns[runIndex(color, Math.min(length, numWin + 1), blockedEnds)];
+  }
+
+  /**
+   * Determines whether a move that makes no five, with the given lines, is forbidden
+   * @param color the mover's color
+   * @param fours the number of fours the move makes
+   * @param openThrees the number of open threes the move makes that count
+   * @param overline whether the move makes an overline
+   */
+  public boolean isForbidden(int color, int fours, int openThrees, boolean overline)
+  {
+    if (!hasForbiddenMoves(color))
+      return false;
+
+    return ForbiddenMoves.breaksRules(fours, openThrees) || (overline && forbidsOverline(color));
+  }
+
+  /**
+   * Runs the regression suite and prints every position that does not give the expected outcome
+   * Note: Exits with status 1 if any does
+   * @param args the names of the rule sets to check, or none for all
+   */
+  public static void main(String[] args)
+  {
+    java.util.List<String> names = java.util.Arrays.asList(args);
+    int checked = 0;
+    int failed = 0;
+
+    for (String[] position : SUITE)
+    {
+      if (!names.isEmpty() && !names.contains(position[0]))
+        continue;
+
+      String outcome = outcome(forName(position[0], 5), position[1], position[2]);
+      checked++;
+
+      if (!outcome.equals(position[3]))
+      {
+        failed++;
+        System.out.println("FAILED " + position[0] + ": " + position[1] + " then " + position[2] + " is " + outcome
+                             + ", expected " + position[3]);
+      }
+    }
+
+    System.out.println(checked + " positions, " + failed + " failed");
+
+    if (failed > 0)
+      System.exit(1);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Works out what a move does on one line, which is what the tables store
+   * @param own the squares holding the mover's pieces, including the centre
+   * @param blocked the squares holding the opponent's pieces or off the board
+   * @param color the mover's color
+   */
+  private int classify(long own, long blocked, int color)
+  {
+    int type = patterns.lookup(own, blocked);
+    int flags = PatternTable.fourCount(type) << FOURS_SHIFT;
+
+    if (type == PatternTable.OPEN_THREE)
+      flags |= OPEN_THREE;
+
+    if (type == PatternTable.FIVE)
+    {
+      int radius = patterns.getRadius();
+      int low = radius;
+      int high = radius;
+
+      while ((own & (1L << (low - 1))) != 0)
+        low--;
+
+      while ((own & (1L << (high + 1))) != 0)
+        high++;
+
+      /** A five never reaches the edge of the window, so both of its ends are in it */
+      int blockedEnds = (int)((blocked >>> (low - 1)) & 1) + (int)((blocked >>> (high + 1)) & 1);
+      flags |= FIVE;
+
+      if (isWin(color, numWin, blockedEnds))
+        flags |= WINS;
+    }
+
+    if (type == PatternTable.OVERLINE)
+    {
+      flags |= OVERLINE;
+
+      if (isWin(color, numWin + 1, 0))
+        flags |= WINS;
+    }
+
+    return flags;
+  }
+
+  /**
+   * Determines whether a run wins under the rules, which is what the run table stores
+   * @param color the color of the pieces
+   * @param length the number of pieces in the run, numWin or more
+   * @param blockedEnds how many of the run's two ends are blocked
+   */
+  private boolean isWin(int color, int length, int blockedEnds)
+  {
+    if (length > numWin)
+      return overlineWins(color);
+
+    return id != CARO || blockedEnds < 2;
+  }
+
+  /**
+   * Determines whether more than numWin in a row wins for a color
+   * @param color BLACK or WHITE
+   */
+  private boolean overlineWins(int color)
+  {
+    return id == FREESTYLE || (id == RENJU && color == Board.WHITE);
+  }
+
+  /**
+   * Returns where a run is stored in the run table
+   * @param color the color of the pieces
+   * @param length numWin, or numWin + 1 for any overline
+   * @param blockedEnds how many of the run's two ends are blocked
+   */
+  private int runIndex(int color, int length, int blockedEnds)
+  {
+    return (color * 2 + length - numWin) * 3 + blockedEnds;
+  }
+
+  /**
+   * Plays the stones of a regression position on an empty board and returns what the move does
+   * @param rules the rule set
+   * @param stones the stones, for example "x7,3 o7,4"
+   * @param move the move, for example "x7,7"
+   */
+  private static String outcome(RuleSet rules, String stones, String move)
+  {
+    Board board = new Board(15, 15);
+
+    for (String stone : stones.split("\\s+"))
+      board.place(row(stone), column(stone), color(stone));
+
+    ForbiddenMoves forbiddenMoves = new ForbiddenMoves(board, rules);
+    WinDetector winDetector = new WinDetector(board, rules);
+    int row = row(move);
+    int column = column(move);
+    int color = color(move);
+
+    if (forbiddenMoves.isForbidden(row, column, color))
+      return "forbidden";
+
+    boolean tableWin = forbiddenMoves.isWin(row, column, color);
+    board.place(row, column, color);
+
+    /** The line tables and the win detector's run table must agree */
+    if (tableWin != winDetector.hasWinner())
+      return "win-mismatch";
+
+    return tableWin ? "win" : "legal";
+  }
+
+  /**
+   * Returns the row of a stone such as "x7,3"
+   * @param stone the stone
+   */
+  private static int row(String stone)
+  {
+    return Integer.parseInt(stone.substring(1, stone.indexOf(',')));
+  }
+
+  /**
+   * Returns the column of a stone such as "x7,3"
+   * @param stone the stone
+   */
+  private static int column(String stone)
+  {
+    return Integer.parseInt(stone.substring(stone.indexOf(',') + 1));
+  }
+
+  /**
+   * Returns the color of a stone such as "x7,3": x is black and o is white
+   * @param stone the stone
+   */
+  private static int color(String stone)
+  {
+    return (stone.charAt(0) == 'x') ? Board.BLACK : Board.WHITE;
+  }
+}
@@ -0,0 +1,848 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents a computer opponent that searches for the best move within a time budget
+ * It uses negamax alpha-beta with iterative deepening, a Zobrist-hashed transposition table, and killer and
+ * history move ordering; only empty squares near existing pieces are tried, and forbidden moves never are
+ * Note: The engine searches its own copy of the board, so the game's board and its listeners are never touched
+ */
+
+public class SearchEngine implements Engine
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the score of a won position (minus the number of moves needed to win) */
+  public static final int WIN = 1000000;
+
+  /** Represents the deepest a search can go */
+  public static final int MAX_PLY = 64;
+
+  /** Represents a score bigger than any real score */
+  private static final int INFINITY = WIN + 1;
+
+  /** Represents how far (in squares) from a piece a move can be and still be tried, by default */
+  private static final int NEIGHBOURHOOD = 2;
+
+  /** Represents the ordering bonus of each line type made by the mover, indexed by PatternTable type */
+  private static final int[] ATTACK = {0, 20, 200, 300, 5000, 5000, 100000, 0};
+
+  /** Represents the ordering bonus of each line type the move stops the opponent from making */
+  private static final int[] DEFENCE = {0, 10, 100, 250, 2500, 2500, 50000, 0};
+
+  /** Represents the ordering bonus of the transposition table move */
+  private static final int TABLE_MOVE = 1 << 30;
+
+  /** Represents the ordering bonus of a killer move */
+  private static final int KILLER_MOVE = 1 << 20;
+
+  /** Represents the most positions the forced-win check before a search may visit */
+  private static final long THREAT_NODES = 20000;
+
+  /** Represents the shallowest depth whose results are read from and written to the position cache */
+  private static final int CACHE_DEPTH = 2;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the engine's own board */
+  private final Board board;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set the engine plays by */
+  private final RuleSet rules;
+
+  /** Represents the win detector following the engine's board */
+  private final WinDetector winDetector;
+
+  /** Represents the moves made on the engine's board during the search */
+  private final Game game;
+
+  /** Represents the forbidden-move rules on the engine's board */
+  private final ForbiddenMoves forbiddenMoves;
+
+  /** Represents the hash of the engine's board */
+  private final Zobrist zobrist;
+
+  /** Represents the static evaluation, kept up to date as the search makes and unmakes moves */
+  private final IncrementalEvaluator evaluator;
+
+  /** Represents the network evaluation used instead of evaluator, or null */
+  private NeuralEvaluator network;
+
+  /** Represents the empty squares near pieces, the only moves tried, kept up to date in the same way */
+  private final CandidateMoves candidates;
+
+  /** Represents the transposition table */
+  private final TranspositionTable table;
+
+  /** Represents the position cache kept on disk across runs, or null */
+  private PositionCache cache;
+
+  /** Represents the solver used to find forced wins by continuous fours before searching */
+  private final ThreatSolver threatSolver;
+
+  /** Represents if the forced-win check runs before every search */
+  private boolean threatCheck = true;
+
+  /** Represents what is told about every finished depth, or null */
+  private SearchListener listener;
+
+  /** Represents two killer moves per ply: quiet moves that caused a cutoff at the same ply */
+  private final int[][] killers = new int[MAX_PLY][2];
+
+  /** Represents how often every move of every color caused a cutoff, weighted by depth */
+  private final int[][] history;
+
+  /** Represents the candidate moves of every ply */
+  private final int[][] moves = new int[MAX_PLY][];
+
+  /** Represents the ordering score of the candidate moves of every ply */
+  private final int[][] moveScores = new int[MAX_PLY][];
+
+  /** Represents the deepest search to try */
+  private int maxDepth = MAX_PLY - 1;
+
+  /** Represents the time (System.nanoTime) at which the search must stop */
+  private long deadline;
+
+  /** Represents if the search ran out of time or was told to stop */
+  private boolean stopped;
+
+  /** Represents a request from another thread to stop a search started with the plain search method */
+  private final AtomicBoolean stopRequested = new AtomicBoolean();
+
+  /** Represents the stop request the current search is watching */
+  private AtomicBoolean stopSignal = stopRequested;
+
+  /** Represents the depth the iterative deepening starts at, so that parallel helpers search different depths */
+  private int firstDepth = 1;
+
+  /** Represents the number of positions visited by the current search */
+  private long nodes;
+
+  /** Represents the number of positions of the current search found in the transposition table */
+  private long tableHits;
+
+  /** Represents the number of positions of the current search whose moves were searched */
+  private long expanded;
+
+  /** Represents the number of positions of the current search cut off by a move that was too good */
+  private long cutoffs;
+
+  /** Represents if a search counts as a move chosen in Metrics (off for ponder searches and ParallelSearch threads) */
+  private boolean moveMetrics = true;
+
+  /** Represents the best move found at the root by the current iteration */
+  private int rootMove;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an engine for one board size that plays by this program's own rules (RuleSet.DEFAULT)
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   * @param tableMegabytes the memory used by the transposition table
+   */
+  public SearchEngine(int rows, int columns, int numWin, int tableMegabytes)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin), new TranspositionTable(tableMegabytes));
+  }
+
+  /**
+   * Creates an engine for one board size and rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set, which also gives the number of pieces to be together that you can win
+   * @param tableMegabytes the memory used by the transposition table
+   */
+  public SearchEngine(int rows, int columns, RuleSet rules, int tableMegabytes)
+  {
+    this(rows, columns, rules, new TranspositionTable(tableMegabytes));
+  }
+
+  /**
+   * Creates an engine for one board size and rule set that shares a transposition table with other engines
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set, which also gives the number of pieces to be together that you can win
+   * @param table the transposition table, which may be shared between threads
+   */
+  public SearchEngine(int rows, int columns, RuleSet rules, TranspositionTable table)
+  {
+    board = new Board(rows, columns);
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+    winDetector = new WinDetector(board, rules);
+    game = new Game(board, winDetector, Board.BLACK);
+    forbiddenMoves = new ForbiddenMoves(board, rules);
+    zobrist = new Zobrist(board);
+    evaluator = new IncrementalEvaluator(board, numWin);
+    candidates = new CandidateMoves(board, NEIGHBOURHOOD);
+    this.table = table;
+    threatSolver = new ThreatSolver(rows, columns, rules);
+    history = new int[3][rows * columns];
+
+    for (int ply = 0; ply < MAX_PLY; ply++)
+    {
+      moves[ply] = new int[64];
+      moveScores[ply] = new int[64];
+    }
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Gets the rule set the engine plays by
+   */
+  public RuleSet getRules()
+  {
+    return rules;
+  }
+
+  /**
+   * Gets the deepest search to try
+   */
+  public int getMaxDepth()
+  {
+    return maxDepth;
+  }
+
+  /**
+   * Sets the deepest search to try, so that a search can be limited by depth instead of time
+   * @param maxDepth the deepest search, from 1 to MAX_PLY - 1
+   */
+  public void setMaxDepth(int maxDepth)
+  {
+    this.maxDepth = Math.max(1, Math.min(MAX_PLY - 1, maxDepth));
+  }
+
+  /**
+   * Sets how far (in squares) from a piece a move can be and still be tried
+   * Note: 1 cuts the branching factor by about half but misses some moves that work from a distance
+   * @param neighbourhood the distance, at least 1
+   */
+  public void setNeighbourhood(int neighbourhood)
+  {
+    candidates.setRadius(neighbourhood);
+  }
+
+  /**
+   * Sets the depth the iterative deepening starts at
+   * Note: Parallel helper threads start at different depths so that they fill the shared table with different results
+   * @param firstDepth the first depth to search, from 1 to MAX_PLY - 1
+   */
+  public void setFirstDepth(int firstDepth)
+  {
+    this.firstDepth = Math.max(1, Math.min(MAX_PLY - 1, firstDepth));
+  }
+
+  /**
+   * Sets whether a search starts by looking for a forced win by continuous fours
+   * Note: Parallel helper threads turn it off, since the main thread already does it
+   * @param threatCheck true to look for a forced win first
+   */
+  public void setThreatCheck(boolean threatCheck)
+  {
+    this.threatCheck = threatCheck;
+  }
+
+  /**
+   * Sets whether a search counts as a move chosen in Metrics, with its time and depth; its work always counts
+   * Note: ParallelSearch turns it off on all its threads and counts the move once itself
+   * @param moveMetrics true to count every search as a move
+   */
+  @Override
+  public void setMoveMetrics(boolean moveMetrics)
+  {
+    this.moveMetrics = moveMetrics;
+  }
+
+  /**
+   * Sets a position cache to read results from and write them to, on top of the transposition table; only results of
+   * at least CACHE_DEPTH are kept there, so the file is not flooded with positions that are cheap to search again
+   * Note: The cache must be for this board size and the engine's rule set
+   * @param cache the cache, or null for none
+   */
+  public void setCache(PositionCache cache)
+  {
+    if (cache != null && (cache.getRows() != board.getRows() || cache.getColumns() != board.getColumns()
+                            || cache.getNumWin() != numWin || cache.getRules() != rules.getId()))
+      throw new IllegalArgumentException("The position cache is for another board size or rule set");
+
+    this.cache = cache;
+  }
+
+  /**
+   * Sets a network to score positions with instead of the pattern weights; scores the network gives are kept well
+   * clear of the scores of won positions
+   * Note: The transposition table keeps scores from the old evaluation, so it should be cleared after a change
+   * @param network the network, which must be for this board size, or null to go back to the pattern weights
+   */
+  public void setNetwork(NeuralNetwork network)
+  {
+    if (this.network != null)
+      board.removeListener(this.network);
+
+    this.network = (network == null) ? null : new NeuralEvaluator(board, network);
+  }
+
+  /**
+   * Sets what is told about every finished depth, with the expected line read from the transposition table
+   * @param listener the listener, or null
+   */
+  @Override
+  public void setListener(SearchListener listener)
+  {
+    this.listener = listener;
+  }
+
+  /**
+   * Gets the transposition table
+   */
+  public TranspositionTable getTable()
+  {
+    return table;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Searches for the best move for one player
+   * @param position the position to search, which is copied and not changed
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis)
+  {
+    table.newSearch();
+    stopRequested.set(false);
+    return search(position, color, millis, stopRequested);
+  }
+
+  /**
+   * Searches for the best move for one player until the time runs out or a shared stop signal is raised
+   * Note: The signal is never cleared here, so a signal raised before the search starts is not lost;
+   * the caller also calls newSearch on the table once per search, since several threads may share it
+   * @param position the position to search, which is copied and not changed
+   * @param color the color to move
+   * @param millis the time budget in milliseconds
+   * @param stopSignal the stop request to watch, e.g. one shared by all threads of a parallel search
+   */
+  @Override
+  public SearchResult search(Board position, int color, long millis, AtomicBoolean stopSignal)
+  {
+    long start = System.nanoTime();
+    Metrics.SearchEvent event = new Metrics.SearchEvent();
+    event.begin();
+    tableHits = 0;
+    expanded = 0;
+    cutoffs = 0;
+
+    copyPosition(position);
+
+    /** A forced win by continuous fours is found in milliseconds, long before the full-width search would */
+    if (threatCheck)
+    {
+      int[] win = threatSolver.solveVcf(position, color, THREAT_NODES, Math.max(1, millis / 10));
+
+      /** The solver's win is proven, so the cache keeps it for every later search of the position */
+      if (win != null && cache != null)
+        cache.store(zobrist.getHash() ^ (color == Board.WHITE ? Zobrist.WHITE_TO_MOVE : 0L), win[0],
+                    toTable(WIN - win.length, 0), Math.min(win.length, 254), TranspositionTable.LOWER, true);
+
+      if (win != null)
+      {
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        int numColumn = position.getColumns();
+        SearchResult result = new SearchResult(win[0] / numColumn, win[0] % numColumn, WIN - win.length, win.length,
+                                               threatSolver.getNodes(), elapsed);
+        Metrics.recordSearch(result.getNodes(), 0, 0, 0, 0);
+        return finish(result, start, event);
+      }
+    }
+
+    game.reset(color);
+
+    this.stopSignal = stopSignal;
+    deadline = start + millis * 1000000L;
+    stopped = false;
+    nodes = 0;
+
+    for (int ply = 0; ply < MAX_PLY; ply++)
+    {
+      killers[ply][0] = -1;
+      killers[ply][1] = -1;
+    }
+
+    for (int[] scores : history)
+      Arrays.fill(scores, 0);
+
+    int bestMove = -1;
+    int bestScore = 0;
+    int depthReached = 0;
+
+    for (int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth; depth++)
+    {
+      rootMove = -1;
+      int score = negamax(depth, 0, -INFINITY, INFINITY, color);
+
+      /** An unfinished iteration is only trusted for its move if nothing better is known */
+      if (stopped)
+      {
+        if (bestMove < 0)
+          bestMove = rootMove;
+
+        break;
+      }
+
+      bestMove = rootMove;
+      bestScore = score;
+      depthReached = depth;
+
+      if (listener != null && bestMove >= 0)
+      {
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        SearchResult progress = new SearchResult(bestMove / board.getColumns(), bestMove % board.getColumns(), score,
+                                                 depth, nodes, elapsed);
+        listener.searchProgress(progress, expectedLine(bestMove, color, depth));
+      }
+
+      if (Math.abs(score) >= WIN - MAX_PLY)
+        break;
+    }
+
+    if (bestMove < 0 && generateMoves(0, color, -1) > 0)
+      bestMove = moves[0][0];
+
+    long elapsed = (System.nanoTime() - start) / 1000000L;
+    int numColumn = board.getColumns();
+
+    Metrics.recordSearch(nodes, nodes, tableHits, expanded, cutoffs);
+
+    if (bestMove < 0)
+      return finish(new SearchResult(-1, -1, 0, depthReached, nodes, elapsed), start, event);
+
+    return finish(new SearchResult(bestMove / numColumn, bestMove % numColumn, bestScore, depthReached, nodes, elapsed),
+                  start, event);
+  }
+
+  /**
+   * Asks a running search started with search(position, color, millis) to stop as soon as possible
+   * Note: Safe to call from any thread
+   */
+  @Override
+  public void stop()
+  {
+    stopRequested.set(true);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Counts a finished search as a move in Metrics (unless setMoveMetrics turned that off), commits its JFR event
+   * and returns its result
+   * @param result the search's result
+   * @param start the time (System.nanoTime) the search started
+   * @param event the search's JFR event, begun when it started
+   */
+  private SearchResult finish(SearchResult result, long start, Metrics.SearchEvent event)
+  {
+    if (moveMetrics)
+      Metrics.recordMove(System.nanoTime() - start, result.getDepth());
+
+    Metrics.commit(event, "alphabeta", result, tableHits, cutoffs);
+    return result;
+  }
+
+  /**
+   * Searches a position and returns its score for the side to move
+   * @param depth the number of moves still to search
+   * @param ply the number of moves made since the root
+   * @param alpha the score the side to move is already sure of
+   * @param beta the score the opponent is already sure of
+   * @param color the color to move
+   */
+  private int negamax(int depth, int ply, int alpha, int beta, int color)
+  {
+    nodes++;
+
+    if ((nodes & 1023) == 0 && (stopSignal.get() || System.nanoTime() > deadline))
+      stopped = true;
+
+    if (stopped)
+      return 0;
+
+    long key = zobrist.getHash() ^ (color == Board.WHITE ? Zobrist.WHITE_TO_MOVE : 0L);
+    long entry = table.probe(key);
+    int tableMove = -1;
+
+    if (entry != 0)
+    {
+      tableHits++;
+      tableMove = TranspositionTable.move(entry);
+
+      if (ply > 0 && TranspositionTable.depth(entry) >= depth)
+      {
+        int score = fromTable(TranspositionTable.score(entry), ply);
+        int flag = TranspositionTable.flag(entry);
+
+        if (cutsOff(flag, score, alpha, beta))
+          return score;
+      }
+    }
+
+    /** The cache is read after the table, since it is slower; a proven win or loss holds at any depth */
+    if (cache != null && depth >= CACHE_DEPTH && (entry == 0 || TranspositionTable.depth(entry) < depth))
+    {
+      long cached = cache.probe(key);
+
+      if (cached != 0)
+      {
+        if (tableMove < 0)
+          tableMove = TranspositionTable.move(cached);
+
+        if (ply > 0 && (PositionCache.isProven(cached) || TranspositionTable.depth(cached) >= depth))
+        {
+          int score = fromTable(TranspositionTable.score(cached), ply);
+
+          if (cutsOff(TranspositionTable.flag(cached), score, alpha, beta))
+            return score;
+        }
+      }
+    }
+
+    /** A static score, from the network or the patterns, is kept well clear of the scores of won positions */
+    if (depth == 0 || ply >= MAX_PLY - 1)
+    {
+      int score = (network != null) ? network.getScore(color) : evaluator.getScore(color);
+      return Math.max(-WIN / 2, Math.min(WIN / 2, score));
+    }
+
+    int count = generateMoves(ply, color, tableMove);
+
+    if (count == 0)
+      return 0;
+
+    expanded++;
+    int numColumn = board.getColumns();
+    int[] list = moves[ply];
+    int[] scores = moveScores[ply];
+    int alphaStart = alpha;
+    int bestScore = -INFINITY;
+    int bestMove = -1;
+
+    for (int i = 0; i < count; i++)
+    {
+      pickNext(list, scores, i, count);
+      int move = list[i];
+      int row = move / numColumn;
+      int column = move % numColumn;
+      int score;
+
+      game.make(row, column);
+
+      if (game.hasWinner())
+        score = WIN - ply - 1;
+
+      else
+        score = -negamax(depth - 1, ply + 1, -beta, -alpha, Board.opponent(color));
+
+      game.unmake();
+
+      if (stopped)
+        return 0;
+
+      if (score > bestScore)
+      {
+        bestScore = score;
+        bestMove = move;
+
+        if (ply == 0)
+          rootMove = move;
+      }
+
+      if (score > alpha)
+        alpha = score;
+
+      if (alpha >= beta)
+      {
+        cutoffs++;
+
+        if (move != killers[ply][0])
+        {
+          killers[ply][1] = killers[ply][0];
+          killers[ply][0] = move;
+        }
+
+        history[color][move] += depth * depth;
+        break;
+      }
+    }
+
+    int flag = TranspositionTable.EXACT;
+
+    if (bestScore <= alphaStart)
+      flag = TranspositionTable.UPPER;
+
+    else if (bestScore >= beta)
+      flag = TranspositionTable.LOWER;
+
+    table.store(key, bestMove, toTable(bestScore, ply), depth, flag);
+
+    /**
+     * Static scores stop at WIN / 2, so a score in the win range comes from a five made in the tree (or a proven
+     * result read back): only such a score, on the side of the bound that holds, is marked proven
+     */
+    if (cache != null && depth >= CACHE_DEPTH)
+    {
+      boolean proven = (flag != TranspositionTable.UPPER && bestScore >= WIN - MAX_PLY)
+                         || (flag != TranspositionTable.LOWER && bestScore <= -WIN + MAX_PLY);
+      cache.store(key, bestMove, toTable(bestScore, ply), depth, flag, proven);
+    }
+
+    return bestScore;
+  }
+
+  /**
+   * Fills the move list of a ply with the legal moves near existing pieces and scores them for ordering
+   * Returns the number of moves
+   * @param ply the ply whose list is filled
+   * @param color the color to move
+   * @param tableMove the transposition table move, tried first, or -1
+   */
+  private int generateMoves(int ply, int color, int tableMove)
+  {
+    int numRow = board.getRows();
+    int numColumn = board.getColumns();
+    int count = 0;
+
+    /** On an empty board the only candidate is the centre */
+    if (board.getStoneCount() == 0)
+    {
+      moves[ply][0] = (numRow / 2) * numColumn + numColumn / 2;
+      moveScores[ply][0] = 0;
+      return 1;
+    }
+
+    for (int move = candidates.next(-1); move >= 0; move = candidates.next(move))
+    {
+      int score = orderScore(move / numColumn, move % numColumn, color);
+
+      if (score < 0)
+        continue;
+
+      if (move == tableMove)
+        score += TABLE_MOVE;
+
+      else if (move == killers[ply][0] || move == killers[ply][1])
+        score += KILLER_MOVE;
+
+      if (count == moves[ply].length)
+      {
+        moves[ply] = Arrays.copyOf(moves[ply], count * 2);
+        moveScores[ply] = Arrays.copyOf(moveScores[ply], count * 2);
+      }
+
+      moves[ply][count] = move;
+      moveScores[ply][count] = score;
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the ordering score of a move from the threats it makes and stops, or -1 if the move is forbidden
+   * @param row the move's row number
+   * @param column the move's column number
+   * @param color the color to move
+   */
+  private int orderScore(int row, int column, int color)
+  {
+    int opponent = Board.opponent(color);
+    int score = history[color][row * board.getColumns() + column];
+    int fours = 0;
+    int threes = 0;
+    boolean five = false;
+    boolean overline = false;
+    PatternTable patterns = forbiddenMoves.getPatterns();
+    int radius = patterns.getRadius();
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      /** The attack and the defence read the same three windows, with the colors swapped, so they are read once */
+      long own = board.window(color, direction, row, column, radius);
+      long other = board.window(opponent, direction, row, column, radius);
+      long outside = board.outside(direction, row, column, radius);
+      int attack = patterns.lookup(own, other | outside);
+      int defence = patterns.lookup(other, own | outside);
+
+      score += ATTACK[attack] + DEFENCE[defence];
+      fours += PatternTable.fourCount(attack);
+
+      if (attack == PatternTable.OPEN_THREE)
+        threes++;
+
+      if (attack == PatternTable.FIVE)
+        five = true;
+
+      if (attack == PatternTable.OVERLINE)
+        overline = true;
+    }
+
+    /** The line types already rule out most moves; only the few that might be forbidden get the full check */
+    if (!five && rules.hasForbiddenMoves(color) && (ForbiddenMoves.breaksRules(fours, threes) || overline)
+          && forbiddenMoves.isForbidden(row, column, color))
+      return -1;
+
+    return score;
+  }
+
+  /**
+   * Moves the best-scored remaining move to position index (one step of a selection sort)
+   * @param list the moves
+   * @param scores the ordering scores
+   * @param index the position to fill
+   * @param count the number of moves
+   */
+  private static void pickNext(int[] list, int[] scores, int index, int count)
+  {
+    int best = index;
+
+    for (int i = index + 1; i < count; i++)
+    {
+      if (scores[i] > scores[best])
+        best = i;
+    }
+
+    int move = list[index];
+    list[index] = list[best];
+    list[best] = move;
+
+    int score = scores[index];
+    scores[index] = scores[best];
+    scores[best] = score;
+  }
+
+  /**
+   * Makes the engine's board match a position, moving only the squares that differ
+   * @param position the position to copy
+   */
+  private void copyPosition(Board position)
+  {
+    if (position.getRows() != board.getRows() || position.getColumns() != board.getColumns())
+      throw new IllegalArgumentException("Engine was created for a " + board.getRows() + "x" + board.getColumns() + " board");
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < board.getColumns(); column++)
+      {
+        int color = position.get(row, column);
+
+        if (board.get(row, column) != color)
+        {
+          if (!board.isEmpty(row, column))
+            board.remove(row, column);
+
+          if (color != Board.EMPTY)
+            board.place(row, column, color);
+        }
+      }
+    }
+
+    winDetector.clearWinner();
+  }
+
+  /**
+   * Returns the moves the search expects from the root: the best move, then the table's best move of each position
+   * after it, for as many moves as were searched or until the table has no legal move
+   * @param bestMove the best move at the root
+   * @param color the color to move at the root
+   * @param depth the depth searched
+   */
+  private int[] expectedLine(int bestMove, int color, int depth)
+  {
+    int[] line = new int[depth];
+    int length = 0;
+    int numColumn = board.getColumns();
+
+    for (int move = bestMove; move >= 0 && length < depth; length++)
+    {
+      int row = move / numColumn;
+      int column = move % numColumn;
+
+      if (!board.isOnBoard(row, column) || !board.isEmpty(row, column))
+        break;
+
+      line[length] = move;
+      game.make(row, column);
+      color = Board.opponent(color);
+
+      if (game.hasWinner())
+      {
+        length++;
+        break;
+      }
+
+      long entry = table.probe(zobrist.getHash() ^ (color == Board.WHITE ? Zobrist.WHITE_TO_MOVE : 0L));
+      move = (entry != 0) ? TranspositionTable.move(entry) : -1;
+    }
+
+    for (int i = 0; i < length; i++)
+      game.unmake();
+
+    return Arrays.copyOf(line, length);
+  }
+
+  /**
+   * Turns a score into one stored in the table, so that a win is stored as "win in n moves from here"
+   * @param score the score
+   * @param ply the number of moves made since the root
+   */
+  private static int toTable(int score, int ply)
+  {
+    if (score >= WIN - MAX_PLY)
+      return score + ply;
+
+    else if (score <= -WIN + MAX_PLY)
+      return score - ply;
+
+    else
+      return score;
+  }
+
+  /**
+   * Determines whether a stored result settles a position without searching it
+   * @param flag the result's bound type: EXACT, LOWER or UPPER
+   * @param score the result's score at the current ply
+   * @param alpha the score the side to move is already sure of
+   * @param beta the score the opponent is already sure of
+   */
+  private static boolean cutsOff(int flag, int score, int alpha, int beta)
+  {
+    return flag == TranspositionTable.EXACT
+             || (flag == TranspositionTable.LOWER && score >= beta)
+             || (flag == TranspositionTable.UPPER && score <= alpha);
+  }
+
+  /**
+   * Turns a stored score back into a score at a given ply
+   * @param score the stored score
+   * @param ply the number of moves made since the root
+   */
+  private static int fromTable(int score, int ply)
+  {
+    if (score >= WIN - MAX_PLY)
+      return score - ply;
+
+    else if (score <= -WIN + MAX_PLY)
+      return score + ply;
+
+    else
+      return score;
+  }
+}
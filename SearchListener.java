@@ -0,0 +1,15 @@
+/**
+ * This interface represents something told how a search is going while it runs, for example to show the computer
+ * thinking
+ * Note: It is called on the searching thread, in the middle of the search, so it must return quickly
+ */
+
+public interface SearchListener
+{
+  /**
+   * Called when the search has something new to report, e.g. a finished depth
+   * @param progress the best move so far, with the depth, score, nodes and time so far
+   * @param line the expected moves from the position as square numbers (row * columns + column), best move first
+   */
+  void searchProgress(SearchResult progress, int[] line);
+}
@@ -0,0 +1,124 @@
+/**
+ * This class represents the outcome of one engine search
+ * Besides the move it keeps the numbers used to track strength and speed: depth reached, nodes and time
+ */
+
+public class SearchResult
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the row of the chosen move, or -1 if there was no legal move */
+  private final int row;
+
+  /** Represents the column of the chosen move, or -1 if there was no legal move */
+  private final int column;
+
+  /** Represents the score of the move for the side that plays it */
+  private final int score;
+
+  /** Represents the deepest search that was finished */
+  private final int depth;
+
+  /** Represents the number of positions visited */
+  private final long nodes;
+
+  /** Represents the time the search took in milliseconds */
+  private final long millis;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a search result
+   * @param row the row of the chosen move, or -1
+   * @param column the column of the chosen move, or -1
+   * @param score the score of the move
+   * @param depth the deepest search that was finished
+   * @param nodes the number of positions visited
+   * @param millis the time the search took in milliseconds
+   */
+  public SearchResult(int row, int column, int score, int depth, long nodes, long millis)
+  {
+    this.row = row;
+    this.column = column;
+    this.score = score;
+    this.depth = depth;
+    this.nodes = nodes;
+    this.millis = millis;
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the row of the chosen move, or -1 if there was no legal move
+   */
+  public int getRow()
+  {
+    return row;
+  }
+
+  /**
+   * Gets the column of the chosen move, or -1 if there was no legal move
+   */
+  public int getColumn()
+  {
+    return column;
+  }
+
+  /**
+   * Determines whether the search found a move
+   */
+  public boolean hasMove()
+  {
+    return row >= 0;
+  }
+
+  /**
+   * Gets the score of the move for the side that plays it
+   */
+  public int getScore()
+  {
+    return score;
+  }
+
+  /**
+   * Gets the deepest search that was finished
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
+
+  /**
+   * Gets the number of positions visited
+   */
+  public long getNodes()
+  {
+    return nodes;
+  }
+
+  /**
+   * Gets the time the search took in milliseconds
+   */
+  public long getMillis()
+  {
+    return millis;
+  }
+
+  /**
+   * Gets the number of positions visited per second
+   */
+  public long getNodesPerSecond()
+  {
+    return nodes * 1000 / Math.max(1, millis);
+  }
+
+  /**
+   * Returns a one-line report of the search
+   */
+  @Override
+  public String toString()
+  {
+    return "move " + row + "," + column + " score " + score + " depth " + depth + " nodes " + nodes
+      + " time " + millis + "ms nps " + getNodesPerSecond();
+  }
+}
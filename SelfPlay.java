@@ -0,0 +1,341 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a headless batch of computer-against-computer games
+ * Games are spread over a fixed number of threads; every thread owns its board and engines and plays whole games,
+ * so nothing is shared but the game counter and the output file
+ * Every game starts with a few random moves near the centre so that deterministic engines do not repeat one game
+ *
+ * Output: one header line starting with "#" (the board, numWin, the rule set, the engines and the number of random opening moves),
+ * then one line per finished game (in the order they finish):
+ * game number, winner (B, W or D for a draw), number of moves, average microseconds per engine move,
+ * and the moves as base-36 square numbers (row * columns + column) separated by "."
+ */
+
+public class SelfPlay
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of rows of the board */
+  private final int numRow;
+
+  /** Represents number of columns of the board */
+  private final int numColumn;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rules both engines play by and the games are judged by */
+  private final RuleSet rules;
+
+  /** Represents the engine description for black, for example "alphabeta:2" or "mcts:500" */
+  private String blackEngine = "alphabeta:2";
+
+  /** Represents the engine description for white */
+  private String whiteEngine = "alphabeta:2";
+
+  /** Represents the time budget per engine move in milliseconds */
+  private long moveMillis = 1000;
+
+  /** Represents the number of random moves each game starts with */
+  private int openingMoves = 2;
+
+  /** Represents the seed of the random openings */
+  private long seed = 1;
+
+  /** Represents the number of games finished so far, per result (EMPTY for draws, BLACK, WHITE) */
+  private final AtomicInteger[] results = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+
+  /** Represents the number of moves played so far by every game */
+  private final AtomicLong totalMoves = new AtomicLong();
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a batch for one board size
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   */
+  public SelfPlay(int rows, int columns, int numWin)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates a batch for one board size played under a rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set of every game
+   */
+  public SelfPlay(int rows, int columns, RuleSet rules)
+  {
+    this.numRow = rows;
+    this.numColumn = columns;
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Sets the engines of both colors
+   * "alphabeta[:depth]" is the alpha-beta search (searching two plies by default) and "mcts[:playouts]"
+   * the Monte Carlo Tree Search (with 200 playouts by default); both also stop when the move time is up
+   * @param black the engine description for black
+   * @param white the engine description for white
+   */
+  public void setEngines(String black, String white)
+  {
+    checkEngine(black);
+    checkEngine(white);
+    this.blackEngine = black;
+    this.whiteEngine = white;
+  }
+
+  /**
+   * Sets the time budget per engine move
+   * @param moveMillis the time in milliseconds
+   */
+  public void setMoveMillis(long moveMillis)
+  {
+    this.moveMillis = moveMillis;
+  }
+
+  /**
+   * Sets how each game starts
+   * @param openingMoves the number of random moves near the centre
+   * @param seed the seed of the random moves; the same seed gives the same openings
+   */
+  public void setOpening(int openingMoves, long seed)
+  {
+    this.openingMoves = openingMoves;
+    this.seed = seed;
+  }
+
+  /**
+   * Gets the number of finished games with a result
+   * @param winner BLACK, WHITE, or EMPTY for draws
+   */
+  public int getResults(int winner)
+  {
+    return results[winner].get();
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Plays a number of games and writes them to a file, then prints the score and games per second
+   * @param games the number of games
+   * @param threads the number of games played at the same time
+   * @param output the path of the output file
+   */
+  public void run(int games, int threads, String output) throws IOException
+  {
+    long start = System.nanoTime();
+    AtomicInteger nextGame = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+    try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.US_ASCII))
+    {
+      writer.write("# " + numRow + " " + numColumn + " " + numWin + " rules=" + rules.getName() + " black=" + blackEngine + " white=" + whiteEngine
+                     + " opening=" + openingMoves);
+      writer.newLine();
+
+      Future<?>[] running = new Future<?>[threads];
+
+      for (int i = 0; i < threads; i++)
+        running[i] = pool.submit(() -> playGames(games, nextGame, writer));
+
+      for (Future<?> future : running)
+      {
+        try
+        {
+          future.get();
+        }
+
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+
+        catch (ExecutionException e)
+        {
+          throw new IllegalStateException("Self-play thread failed", e.getCause());
+        }
+      }
+    }
+
+    finally
+    {
+      pool.shutdownNow();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(games + " games in " + String.format("%.2f", seconds) + "s, "
+                         + String.format("%.1f", games / seconds) + " games/sec, "
+                         + String.format("%.1f", (double)totalMoves.get() / games) + " moves/game");
+    System.out.println("black (" + blackEngine + ") " + getResults(Board.BLACK) + ", white (" + whiteEngine + ") "
+                         + getResults(Board.WHITE) + ", draws " + getResults(Board.EMPTY));
+  }
+
+  /**
+   * Plays games until the batch is done, with this thread's own board and engines
+   * @param games the number of games in the batch
+   * @param nextGame the number of the next game nobody has started
+   * @param writer where to write finished games
+   */
+  private void playGames(int games, AtomicInteger nextGame, BufferedWriter writer)
+  {
+    Board board = new Board(numRow, numColumn);
+    WinDetector winDetector = new WinDetector(board, rules);
+    Engine black = createEngine(blackEngine);
+    Engine white = createEngine(whiteEngine);
+    int[] moves = new int[numRow * numColumn];
+    StringBuilder line = new StringBuilder();
+
+    for (int game = nextGame.getAndIncrement(); game < games; game = nextGame.getAndIncrement())
+    {
+      int length = playOpening(board, new SplittableRandom(seed * 0x9E3779B97F4A7C15L + game), moves);
+      int color = (length % 2 == 0) ? Board.BLACK : Board.WHITE;
+      long engineNanos = 0;
+
+      while (!winDetector.hasWinner() && length < moves.length)
+      {
+        long moveStart = System.nanoTime();
+        SearchResult result = ((color == Board.BLACK) ? black : white).search(board, color, moveMillis);
+        engineNanos += System.nanoTime() - moveStart;
+
+        if (!result.hasMove())
+          break;
+
+        board.place(result.getRow(), result.getColumn(), color);
+        moves[length++] = result.getRow() * numColumn + result.getColumn();
+        color = Board.opponent(color);
+      }
+
+      int winner = winDetector.getWinner();
+      int engineMoves = Math.max(1, length - Math.min(length, openingMoves));
+      results[winner].incrementAndGet();
+      totalMoves.addAndGet(length);
+
+      line.setLength(0);
+      line.append(game).append(' ').append("DBW".charAt(winner)).append(' ').append(length).append(' ')
+          .append(engineNanos / 1000 / engineMoves).append(' ');
+
+      for (int i = 0; i < length; i++)
+      {
+        if (i > 0)
+          line.append('.');
+
+        line.append(Integer.toString(moves[i], 36));
+      }
+
+      /** Taking the pieces back one by one keeps the win detector in step with the board */
+      for (int i = length - 1; i >= 0; i--)
+        board.remove(moves[i] / numColumn, moves[i] % numColumn);
+
+      synchronized (writer)
+      {
+        try
+        {
+          writer.write(line.toString());
+          writer.newLine();
+        }
+
+        catch (IOException e)
+        {
+          throw new IllegalStateException("Could not write game " + game, e);
+        }
+      }
+    }
+
+    for (Engine engine : new Engine[] {black, white})
+    {
+      if (engine instanceof MctsEngine)
+        ((MctsEngine)engine).shutdown();
+    }
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Plays the random opening moves within two squares of the centre and returns how many were played
+   * @param board the empty board
+   * @param random the game's random numbers
+   * @param moves where to record the moves
+   */
+  private int playOpening(Board board, SplittableRandom random, int[] moves)
+  {
+    int length = 0;
+    int color = Board.BLACK;
+
+    for (int tries = 0; length < openingMoves && tries < 100; tries++)
+    {
+      int row = numRow / 2 + random.nextInt(5) - 2;
+      int column = numColumn / 2 + random.nextInt(5) - 2;
+
+      if (board.isOnBoard(row, column) && board.isEmpty(row, column))
+      {
+        board.place(row, column, color);
+        moves[length++] = row * numColumn + column;
+        color = Board.opponent(color);
+      }
+    }
+
+    return length;
+  }
+
+  /**
+   * Checks that an engine description names a known engine with a number after it, if any
+   * @param description the engine description
+   */
+  private static void checkEngine(String description)
+  {
+    String[] parts = description.split(":");
+
+    if ((!parts[0].equalsIgnoreCase("alphabeta") && !parts[0].equalsIgnoreCase("mcts")) || parts.length > 2)
+      throw new IllegalArgumentException("Unknown engine: " + description);
+
+    if (parts.length == 2)
+      Long.parseLong(parts[1]);
+  }
+
+  /**
+   * Creates a single-threaded engine from its description
+   * @param description "alphabeta[:depth]" or "mcts[:playouts]"
+   */
+  private Engine createEngine(String description)
+  {
+    String[] parts = description.split(":");
+    String name = parts[0].toLowerCase();
+
+    if (name.equals("alphabeta"))
+    {
+      SearchEngine engine = new SearchEngine(numRow, numColumn, rules, 4);
+      engine.setMaxDepth((parts.length > 1) ? Integer.parseInt(parts[1]) : 2);
+      return engine;
+    }
+
+    if (name.equals("mcts"))
+    {
+      MctsEngine engine = new MctsEngine(numRow, numColumn, rules, 1);
+      engine.setMaxPlayouts((parts.length > 1) ? Long.parseLong(parts[1]) : 200);
+      return engine;
+    }
+
+    throw new IllegalArgumentException("Unknown engine: " + description);
+  }
+}
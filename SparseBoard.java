@@ -0,0 +1,471 @@
+import java.util.Arrays;
+
+/**
+ * This class represents a board that only stores the parts of its lines that have pieces on them, so that its memory
+ * grows with the number of pieces played rather than with the board area
+ * As in Board, every row, column and diagonal is a run of bits, but a line is cut into 64-square chunks and a chunk
+ * (one 64-bit mask per color) is only allocated once a piece is put on it; chunks are found through an
+ * open-addressing map keyed by the packed direction, line and chunk number
+ * A window or a run never spans more than two chunks, so line reads cost one or two map probes more than on a dense board
+ * Note: With INFINITE rows and columns the board is, for a game, unbounded; square numbers (row * columns + column)
+ * do not fit in an int on such a board, so only code that works with rows and columns can use it
+ */
+
+public class SparseBoard extends Board
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the number of rows and columns of an "infinite" board */
+  public static final int INFINITE = 1 << 30;
+
+  /** Represents the largest number of squares Board.create stores densely */
+  public static final long DENSE_LIMIT = 1L << 16;
+
+  /** Represents an unused slot of the chunk map */
+  private static final long NO_KEY = -1L;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the packed key (direction, line, chunk number) of every slot of the map, or NO_KEY */
+  private long[] keys;
+
+  /** Represents the chunk number stored in every slot of the map */
+  private int[] slots;
+
+  /** Represents the black pieces of every chunk, one bit per square */
+  private long[] blackChunks;
+
+  /** Represents the white pieces of every chunk, one bit per square */
+  private long[] whiteChunks;
+
+  /** Represents the number of chunks allocated */
+  private int chunkCount;
+
+  /** Represents the key of the last chunk looked up in each direction */
+  private final long[] cachedKey = new long[DIRECTIONS];
+
+  /** Represents the number of the last chunk looked up in each direction, or -1 if it has not been allocated */
+  private final int[] cachedChunk = new int[DIRECTIONS];
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an empty sparse board
+   * @param rows the number of rows of the board, e.g. INFINITE
+   * @param columns the number of columns of the board, e.g. INFINITE
+   */
+  public SparseBoard(int rows, int columns)
+  {
+    super(rows, columns, false);
+    reset();
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Determines whether the board only stores its pieces, which it does
+   */
+  @Override
+  public boolean isSparse()
+  {
+    return true;
+  }
+
+  /**
+   * Gets the number of 64-square line chunks allocated so far
+   */
+  public int getChunkCount()
+  {
+    return chunkCount;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns what is on a square: EMPTY, BLACK or WHITE
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  @Override
+  public int get(int row, int column)
+  {
+    int chunk = findChunk(HORIZONTAL, row, column >>> 6);
+
+    if (chunk < 0)
+      return EMPTY;
+
+    long bit = 1L << column;
+
+    if ((blackChunks[chunk] & bit) != 0)
+      return BLACK;
+
+    else if ((whiteChunks[chunk] & bit) != 0)
+      return WHITE;
+
+    else
+      return EMPTY;
+  }
+
+  /**
+   * Determines whether a square is not occupied by a game piece
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  @Override
+  public boolean isEmpty(int row, int column)
+  {
+    return get(row, column) == EMPTY;
+  }
+
+  /**
+   * Returns the number of pieces of the same color in a straight line, starting at (and counting) the given square
+   * An empty square counts as a line of one, matching Gomoku.numberInLine
+   * @param row the row the first piece is at
+   * @param column the column the first piece is at
+   * @param direction HORIZONTAL, VERTICAL, DIAGONAL or ANTI_DIAGONAL
+   * @param forward true to follow ROW_STEP/COLUMN_STEP, false to go the opposite way
+   */
+  @Override
+  public int countRun(int row, int column, int direction, boolean forward)
+  {
+    int color = get(row, column);
+
+    if (color == EMPTY)
+      return 1;
+
+    int line = lineIndex(direction, row, column);
+    int position = position(direction, row, column);
+    int count = 1;
+
+    /** Squares off the board have no pieces, so a run always ends on the board */
+    if (forward)
+    {
+      for (int next = position + 1; ; next = (next | 63) + 1)
+      {
+        long clear = ~bits(color, direction, line, next >>> 6) >>> (next & 63);
+
+        if (clear != 0)
+          return count + Long.numberOfTrailingZeros(clear);
+
+        count += 64 - (next & 63);
+      }
+    }
+
+    for (int next = position - 1; next >= 0; next = (next & ~63) - 1)
+    {
+      long clear = ~bits(color, direction, line, next >>> 6) << (63 - (next & 63));
+
+      if (clear != 0)
+        return count + Long.numberOfLeadingZeros(clear);
+
+      count += (next & 63) + 1;
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the pieces of one color on the line through a square as a bit mask
+   * Bit i stands for the square (i - radius) steps forward from the given square; squares off the board are 0
+   * @param color BLACK or WHITE
+   * @param direction the line direction
+   * @param row the centre square's row number
+   * @param column the centre square's column number
+   * @param radius the number of squares to read on each side, at most 31
+   */
+  @Override
+  public long window(int color, int direction, int row, int column, int radius)
+  {
+    int line = lineIndex(direction, row, column);
+    int centre = position(direction, row, column);
+    int low = Math.max(0, centre - radius);
+    int count = centre + radius + 1 - low;
+    int offset = low & 63;
+    long value = bits(color, direction, line, low >>> 6) >>> offset;
+
+    if (offset + count > 64)
+      value |= bits(color, direction, line, (low >>> 6) + 1) << (64 - offset);
+
+    return (value & ((1L << count) - 1)) << (low - (centre - radius));
+  }
+
+  /**
+   * Returns the squares of a window (see window) that are off the board as a bit mask
+   * @param direction the line direction
+   * @param row the centre square's row number
+   * @param column the centre square's column number
+   * @param radius the number of squares to read on each side, at most 31
+   */
+  @Override
+  public long outside(int direction, int row, int column, int radius)
+  {
+    int lastRow = getRows() - 1;
+    int lastColumn = getColumns() - 1;
+    int back;
+    int ahead;
+
+    switch (direction)
+    {
+      case HORIZONTAL:
+        back = column;
+        ahead = lastColumn - column;
+        break;
+
+      case VERTICAL:
+        back = row;
+        ahead = lastRow - row;
+        break;
+
+      case DIAGONAL:
+        back = Math.min(row, column);
+        ahead = Math.min(lastRow - row, lastColumn - column);
+        break;
+
+      default:
+        back = Math.min(row, lastColumn - column);
+        ahead = Math.min(lastRow - row, column);
+        break;
+    }
+
+    int below = Math.max(0, radius - back);
+    int above = Math.max(0, radius - ahead);
+    long all = (1L << (2 * radius + 1)) - 1;
+
+    return ((1L << below) - 1) | (all & ~(all >>> above));
+  }
+
+  /**
+   * Takes every piece off the board and frees the chunks
+   * Note: Listeners are not told, they should be cleared along with the board
+   */
+  @Override
+  public void clear()
+  {
+    super.clear();
+    reset();
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Sets the bits of a new piece in the four lines through it, allocating chunks if needed
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  protected void store(int row, int column, int color)
+  {
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      int line = lineIndex(direction, row, column);
+      int position = position(direction, row, column);
+      int chunk = findChunk(direction, line, position >>> 6);
+
+      if (chunk < 0)
+        chunk = addChunk(direction, line, position >>> 6);
+
+      if (color == BLACK)
+        blackChunks[chunk] |= 1L << position;
+
+      else
+        whiteChunks[chunk] |= 1L << position;
+    }
+  }
+
+  /**
+   * Clears the bits of a piece; the chunks stay, since a game seldom leaves an area for good
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the piece's color
+   */
+  @Override
+  protected void erase(int row, int column, int color)
+  {
+    for (int direction = 0; direction < DIRECTIONS; direction++)
+    {
+      int position = position(direction, row, column);
+      int chunk = findChunk(direction, lineIndex(direction, row, column), position >>> 6);
+
+      if (color == BLACK)
+        blackChunks[chunk] &= ~(1L << position);
+
+      else
+        whiteChunks[chunk] &= ~(1L << position);
+    }
+  }
+
+  /**
+   * Returns the number of a line through a square; every direction numbers its lines from 0
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int lineIndex(int direction, int row, int column)
+  {
+    switch (direction)
+    {
+      case HORIZONTAL:
+        return row;
+
+      case VERTICAL:
+        return column;
+
+      case DIAGONAL:
+        return row - column + getColumns() - 1;
+
+      default:
+        return row + column;
+    }
+  }
+
+  /**
+   * Returns where a square is on its line; moving forward (ROW_STEP/COLUMN_STEP) adds one
+   * @param direction the line direction
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private static int position(int direction, int row, int column)
+  {
+    return (direction == HORIZONTAL) ? column : row;
+  }
+
+  /**
+   * Returns the pieces of one color in a chunk, or 0 if the chunk has not been allocated
+   * @param color BLACK or WHITE
+   * @param direction the line direction
+   * @param line the line number
+   * @param number the chunk's number along the line
+   */
+  private long bits(int color, int direction, int line, int number)
+  {
+    int chunk = findChunk(direction, line, number);
+
+    if (chunk < 0)
+      return 0L;
+
+    return (color == BLACK) ? blackChunks[chunk] : whiteChunks[chunk];
+  }
+
+  /**
+   * Returns the number of a chunk, or -1 if it has not been allocated
+   * @param direction the line direction
+   * @param line the line number
+   * @param number the chunk's number along the line
+   */
+  private int findChunk(int direction, int line, int number)
+  {
+    long key = chunkKey(direction, line, number);
+
+    if (key == cachedKey[direction])
+      return cachedChunk[direction];
+
+    int mask = keys.length - 1;
+
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask)
+    {
+      if (keys[slot] == key || keys[slot] == NO_KEY)
+      {
+        cachedKey[direction] = key;
+        cachedChunk[direction] = (keys[slot] == key) ? slots[slot] : -1;
+        return cachedChunk[direction];
+      }
+    }
+  }
+
+  /**
+   * Allocates a chunk and returns its number
+   * @param direction the line direction
+   * @param line the line number
+   * @param number the chunk's number along the line
+   */
+  private int addChunk(int direction, int line, int number)
+  {
+    /** The map is kept at most half full so that probes stay short */
+    if (2 * (chunkCount + 1) > keys.length)
+      growMap();
+
+    if (chunkCount == blackChunks.length)
+    {
+      blackChunks = Arrays.copyOf(blackChunks, chunkCount * 2);
+      whiteChunks = Arrays.copyOf(whiteChunks, chunkCount * 2);
+    }
+
+    long key = chunkKey(direction, line, number);
+    insert(key, chunkCount);
+    cachedKey[direction] = key;
+    cachedChunk[direction] = chunkCount;
+    return chunkCount++;
+  }
+
+  /**
+   * Doubles the chunk map and puts every chunk back in
+   */
+  private void growMap()
+  {
+    long[] oldKeys = keys;
+    int[] oldSlots = slots;
+    keys = new long[oldKeys.length * 2];
+    slots = new int[oldKeys.length * 2];
+    Arrays.fill(keys, NO_KEY);
+
+    for (int slot = 0; slot < oldKeys.length; slot++)
+    {
+      if (oldKeys[slot] != NO_KEY)
+        insert(oldKeys[slot], oldSlots[slot]);
+    }
+  }
+
+  /**
+   * Puts a chunk in the map, which must have room for it
+   * @param key the chunk's packed key
+   * @param chunk the chunk's number
+   */
+  private void insert(long key, int chunk)
+  {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+
+    while (keys[slot] != NO_KEY)
+      slot = (slot + 1) & mask;
+
+    keys[slot] = key;
+    slots[slot] = chunk;
+  }
+
+  /**
+   * Empties the map and the chunks
+   */
+  private void reset()
+  {
+    keys = new long[64];
+    slots = new int[64];
+    Arrays.fill(keys, NO_KEY);
+    blackChunks = new long[32];
+    whiteChunks = new long[32];
+    chunkCount = 0;
+    Arrays.fill(cachedKey, NO_KEY);
+    Arrays.fill(cachedChunk, -1);
+  }
+
+  /**
+   * Packs a direction (2 bits), a line number (32 bits) and a chunk number (24 bits) into one key
+   * @param direction the line direction
+   * @param line the line number
+   * @param number the chunk's number along the line
+   */
+  private static long chunkKey(int direction, int line, int number)
+  {
+    return ((long)direction << 56) | ((line & 0xFFFFFFFFL) << 24) | number;
+  }
+
+  /**
+   * Spreads the bits of a key so that neighbouring chunks land in different slots
+   * @param key the chunk's packed key
+   */
+  private static int hash(long key)
+  {
+    long mixed = key * 0x9E3779B97F4A7C15L;
+    return (int)(mixed >>> 32);
+  }
+}
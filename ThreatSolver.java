@@ -0,0 +1,703 @@
+import java.util.Arrays;
+
+/**
+ * This class represents a threat-space solver that looks for forced wins
+ * It only tries attacking moves: fours (VCF, victory by continuous fours) and, if asked, open threes as well
+ * (VCT, victory by continuous threats). After a four the defender has a single reply, so deep wins are found
+ * with few nodes; after a three every square that could stop it is tried
+ * The line patterns are the same PatternTable entries behind the Four-Four and Three-Three rules, and which lines
+ * win and which moves are forbidden follow the solver's rule set
+ */
+
+public class ThreatSolver
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents a solve that found a forced win */
+  public static final int WIN = 1;
+
+  /** Represents a solve that proved there is no forced win within the depth limit */
+  public static final int NO_WIN = 0;
+
+  /** Represents a solve that ran out of nodes or time before it could tell */
+  public static final int UNKNOWN = -1;
+
+  /** Represents the most attacking moves a solve can look ahead */
+  public static final int MAX_DEPTH = 60;
+
+  /** Represents the bits of a candidate that hold the square */
+  private static final int SQUARE_MASK = (1 << 28) - 1;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set */
+  private final RuleSet rules;
+
+  /** Represents the solver's own board */
+  private final Board board;
+
+  /** Represents the forbidden-move rules and winning lines on the solver's board */
+  private final ForbiddenMoves forbiddenMoves;
+
+  /** Represents the hash of the solver's board */
+  private final Zobrist zobrist;
+
+  /** Represents the line patterns for numWin */
+  private final PatternTable patterns;
+
+  /** Represents the empty squares within numWin - 1 of a piece, the only ones where anybody can make four or five */
+  private final CandidateMoves reach;
+
+  /** Represents positions already known to have no win, with the depth they were searched to */
+  private final TranspositionTable failed;
+
+  /** Represents the attacker's pieces, so that candidate moves are only looked for along their lines */
+  private final int[] attackerStones;
+
+  /** Represents the last visit of every square, so that each candidate is only looked at once per node */
+  private final int[] visited;
+
+  /** Represents the candidate moves of every ply */
+  private final int[][] candidates = new int[2 * MAX_DEPTH + 2][];
+
+  /** Represents the winning line found, attacker and defender moves in turn */
+  private final int[] line = new int[2 * MAX_DEPTH + 2];
+
+  /** Represents the number of moves in the winning line */
+  private int lineLength;
+
+  /** Represents the last square found by countFivesAround or countFivesEverywhere */
+  private int lastThreat;
+
+  /** Represents the number of attacker pieces on the board */
+  private int attackerCount;
+
+  /** Represents the number of the current visit, see visited */
+  private int visit;
+
+  /** Represents the attacking color */
+  private int attacker;
+
+  /** Represents if open threes are tried as well as fours */
+  private boolean threes;
+
+  /** Represents the node limit of the current solve */
+  private long nodeLimit;
+
+  /** Represents the time (System.nanoTime) at which the current solve must stop */
+  private long deadline;
+
+  /** Represents if the current solve ran out of nodes or time */
+  private boolean aborted;
+
+  /** Represents the number of positions visited by the current solve */
+  private long nodes;
+
+  /** Represents the result of the last solve: WIN, NO_WIN or UNKNOWN */
+  private int status = NO_WIN;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a solver for one board size that plays by this program's own rules (RuleSet.DEFAULT)
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param numWin number of pieces to be together that you can win
+   */
+  public ThreatSolver(int rows, int columns, int numWin)
+  {
+    this(rows, columns, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates a solver for one board size and rule set
+   * @param rows the number of rows of the board
+   * @param columns the number of columns of the board
+   * @param rules the rule set, which also gives the number of pieces to be together that you can win
+   */
+  public ThreatSolver(int rows, int columns, RuleSet rules)
+  {
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+    board = new Board(rows, columns);
+    forbiddenMoves = new ForbiddenMoves(board, rules);
+    zobrist = new Zobrist(board);
+    patterns = rules.getPatterns();
+    reach = new CandidateMoves(board, numWin - 1);
+    failed = new TranspositionTable(4);
+    attackerStones = new int[rows * columns];
+    visited = new int[rows * columns];
+
+    for (int ply = 0; ply < candidates.length; ply++)
+      candidates[ply] = new int[32];
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the result of the last solve: WIN, NO_WIN or UNKNOWN
+   */
+  public int getStatus()
+  {
+    return status;
+  }
+
+  /**
+   * Gets the number of positions visited by the last solve
+   */
+  public long getNodes()
+  {
+    return nodes;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Looks for a win by continuous fours
+   * Returns the winning line (squares numbered row * columns + column, attacker and defender in turn), or null
+   * @param position the position to solve, which is copied and not changed
+   * @param attacker the color to move and win
+   * @param maxNodes the most positions to visit
+   * @param millis the time limit in milliseconds
+   */
+  public int[] solveVcf(Board position, int attacker, long maxNodes, long millis)
+  {
+    return solve(position, attacker, false, MAX_DEPTH, maxNodes, millis);
+  }
+
+  /**
+   * Looks for a win by continuous fours and open threes
+   * Returns the winning line (squares numbered row * columns + column, attacker and defender in turn), or null
+   * @param position the position to solve, which is copied and not changed
+   * @param attacker the color to move and win
+   * @param maxDepth the most attacking moves to look ahead
+   * @param maxNodes the most positions to visit
+   * @param millis the time limit in milliseconds
+   */
+  public int[] solveVct(Board position, int attacker, int maxDepth, long maxNodes, long millis)
+  {
+    return solve(position, attacker, true, maxDepth, maxNodes, millis);
+  }
+
+  /**
+   * Looks for a forced win and sets the status
+   * @param position the position to solve, which is copied and not changed
+   * @param attacker the color to move and win
+   * @param threes whether open threes are tried as well as fours
+   * @param maxDepth the most attacking moves to look ahead
+   * @param maxNodes the most positions to visit
+   * @param millis the time limit in milliseconds
+   */
+  private int[] solve(Board position, int attacker, boolean threes, int maxDepth, long maxNodes, long millis)
+  {
+    copyPosition(position);
+    this.attacker = attacker;
+    this.threes = threes;
+    nodeLimit = maxNodes;
+    deadline = System.nanoTime() + millis * 1000000L;
+    aborted = false;
+    nodes = 0;
+    lineLength = 0;
+    failed.newSearch();
+
+    attackerCount = 0;
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < board.getColumns(); column++)
+      {
+        if (board.get(row, column) == attacker)
+          attackerStones[attackerCount++] = row * board.getColumns() + column;
+      }
+    }
+
+    boolean wins = attack(Math.min(maxDepth, MAX_DEPTH), 0, -1);
+
+    if (wins)
+    {
+      status = WIN;
+      return Arrays.copyOf(line, lineLength);
+    }
+
+    status = aborted ? UNKNOWN : NO_WIN;
+    return null;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Tries every attacking move for the attacker and returns true if one of them wins by force
+   * @param depth the number of attacking moves still allowed
+   * @param ply the number of moves made since the start of the solve
+   * @param lastDefence the defender's last move, or -1 at the start
+   */
+  private boolean attack(int depth, int ply, int lastDefence)
+  {
+    nodes++;
+
+    if (nodes > nodeLimit || ((nodes & 255) == 0 && System.nanoTime() > deadline))
+      aborted = true;
+
+    if (aborted)
+      return false;
+
+    int defender = Board.opponent(attacker);
+    int numColumn = board.getColumns();
+
+    /** A five the defender threatens must be blocked, unless the attacker makes five first */
+    int threat = -1;
+    int threatCount = (lastDefence < 0) ? countFivesEverywhere(defender) : countFivesAround(lastDefence, defender);
+
+    if (threatCount > 0)
+      threat = lastThreat;
+
+    int count = generateAttacks(ply);
+    int[] list = candidates[ply];
+
+    for (int i = 0; i < count; i++)
+    {
+      if ((list[i] >>> 28) == PatternTable.FIVE)
+      {
+        line[ply] = list[i] & SQUARE_MASK;
+        lineLength = ply + 1;
+        return true;
+      }
+    }
+
+    if (threatCount >= 2 || depth == 0)
+      return false;
+
+    long key = zobrist.getHash() ^ Zobrist.key(-2, attacker) ^ (threes ? Zobrist.key(-3, 0) : 0L);
+    long entry = failed.probe(key);
+
+    if (entry != 0 && TranspositionTable.depth(entry) >= depth)
+      return false;
+
+    /** Fours first, strongest first */
+    Arrays.sort(list, 0, count);
+
+    for (int i = count - 1; i >= 0; i--)
+    {
+      int type = list[i] >>> 28;
+      int move = list[i] & SQUARE_MASK;
+
+      if (threat >= 0 && move != threat)
+        continue;
+
+      int row = move / numColumn;
+      int column = move % numColumn;
+
+      board.place(row, column, attacker);
+      attackerStones[attackerCount++] = move;
+      boolean wins;
+
+      if (PatternTable.fourCount(type) > 0)
+        wins = followFour(move, depth, ply);
+
+      else
+        wins = followThree(move, depth, ply);
+
+      attackerCount--;
+      board.remove(row, column);
+
+      if (wins)
+      {
+        line[ply] = move;
+        return true;
+      }
+
+      if (aborted)
+        return false;
+    }
+
+    failed.store(key, -1, 0, depth, TranspositionTable.UPPER);
+    return false;
+  }
+
+  /**
+   * Plays the defender's only reply to a four and keeps attacking
+   * Returns true if the attacker wins by force
+   * @param move the attacker's four
+   * @param depth the number of attacking moves still allowed, including this one
+   * @param ply the ply of the four
+   */
+  private boolean followFour(int move, int depth, int ply)
+  {
+    int defender = Board.opponent(attacker);
+    int numColumn = board.getColumns();
+    int completions = countFivesAround(move, attacker);
+
+    /** An open four or two fours cannot both be blocked */
+    if (completions >= 2)
+    {
+      lineLength = ply + 1;
+      return true;
+    }
+
+    int reply = lastThreat;
+    int row = reply / numColumn;
+    int column = reply % numColumn;
+
+    if (forbiddenMoves.isForbidden(row, column, defender))
+    {
+      lineLength = ply + 1;
+      return true;
+    }
+
+    board.place(row, column, defender);
+    boolean wins = attack(depth - 1, ply + 2, reply);
+    board.remove(row, column);
+
+    if (wins)
+      line[ply + 1] = reply;
+
+    return wins;
+  }
+
+  /**
+   * Tries every reply to an open three (any square on its line that could stop it, and any defending four)
+   * Returns true if the attacker wins against all of them
+   * @param move the attacker's three
+   * @param depth the number of attacking moves still allowed, including this one
+   * @param ply the ply of the three
+   */
+  private boolean followThree(int move, int depth, int ply)
+  {
+    int defender = Board.opponent(attacker);
+    int numColumn = board.getColumns();
+    int count = generateDefences(move, ply + 1);
+    int[] list = candidates[ply + 1];
+
+    for (int i = 0; i < count; i++)
+    {
+      int reply = list[i];
+      int row = reply / numColumn;
+      int column = reply % numColumn;
+
+      if (forbiddenMoves.isForbidden(row, column, defender))
+        continue;
+
+      board.place(row, column, defender);
+      boolean wins = attack(depth - 1, ply + 2, reply);
+      board.remove(row, column);
+
+      if (!wins)
+        return false;
+
+      line[ply + 1] = reply;
+    }
+
+    return true;
+  }
+
+  /**
+   * Fills the candidate list of a ply with the attacker's threatening moves, each stored as
+   * (strongest line type << 28) | square so that sorting puts the strongest last, and returns how many there are
+   * @param ply the ply whose list is filled
+   */
+  private int generateAttacks(int ply)
+  {
+    int numColumn = board.getColumns();
+    int count = 0;
+    visit++;
+
+    for (int i = 0; i < attackerCount; i++)
+    {
+      int stoneRow = attackerStones[i] / numColumn;
+      int stoneColumn = attackerStones[i] % numColumn;
+
+      for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+      {
+        for (int step = 1 - numWin; step < numWin; step++)
+        {
+          int row = stoneRow + step * Board.ROW_STEP[direction];
+          int column = stoneColumn + step * Board.COLUMN_STEP[direction];
+
+          if (!board.isOnBoard(row, column) || !board.isEmpty(row, column))
+            continue;
+
+          int square = row * numColumn + column;
+
+          if (visited[square] == visit)
+            continue;
+
+          visited[square] = visit;
+          int type = threatType(row, column);
+
+          if (type != PatternTable.NONE)
+          {
+            if (count == candidates[ply].length)
+              candidates[ply] = Arrays.copyOf(candidates[ply], count * 2);
+
+            candidates[ply][count++] = (type << 28) | square;
+          }
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Fills the candidate list of a ply with the defender's replies to a three: the empty squares on the three's
+   * lines, and every move that makes a four for the defender
+   * @param move the attacker's three
+   * @param ply the ply whose list is filled
+   */
+  private int generateDefences(int move, int ply)
+  {
+    int defender = Board.opponent(attacker);
+    int numColumn = board.getColumns();
+    int moveRow = move / numColumn;
+    int moveColumn = move % numColumn;
+    int count = 0;
+    visit++;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      for (int step = -numWin; step <= numWin; step++)
+      {
+        int row = moveRow + step * Board.ROW_STEP[direction];
+        int column = moveColumn + step * Board.COLUMN_STEP[direction];
+
+        if (board.isOnBoard(row, column) && board.isEmpty(row, column) && visited[row * numColumn + column] != visit)
+        {
+          visited[row * numColumn + column] = visit;
+          count = addCandidate(ply, count, row * numColumn + column);
+        }
+      }
+    }
+
+    for (int square = reach.next(-1); square >= 0; square = reach.next(square))
+    {
+      if (visited[square] != visit && makesFour(square / numColumn, square % numColumn, defender))
+      {
+        visited[square] = visit;
+        count = addCandidate(ply, count, square);
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Adds a square to the candidate list of a ply and returns the new count
+   * @param ply the ply whose list grows
+   * @param count the number of candidates so far
+   * @param square the square to add
+   */
+  private int addCandidate(int ply, int count, int square)
+  {
+    if (count == candidates[ply].length)
+      candidates[ply] = Arrays.copyOf(candidates[ply], count * 2);
+
+    candidates[ply][count] = square;
+    return count + 1;
+  }
+
+  /**
+   * Returns the strongest threat the attacker makes on a square (FIVE for a winning line, a four, or OPEN_THREE when
+   * threes are tried), or NONE if the move is not a threat or is forbidden
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private int threatType(int row, int column)
+  {
+    int best = PatternTable.NONE;
+    int fours = 0;
+    int openThrees = 0;
+    boolean overline = false;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int type = patterns.lookup(board, row, column, attacker, direction);
+
+      if ((type == PatternTable.FIVE || type == PatternTable.OVERLINE) && wins(row, column, attacker, direction))
+        return PatternTable.FIVE;
+
+      if (type < PatternTable.FIVE && type > best)
+        best = type;
+
+      fours += PatternTable.fourCount(type);
+      overline |= type == PatternTable.OVERLINE;
+
+      if (type == PatternTable.OPEN_THREE)
+        openThrees++;
+    }
+
+    /** A move only needs the full check when its line types say it might be forbidden */
+    if (rules.hasForbiddenMoves(attacker) && (ForbiddenMoves.breaksRules(fours, openThrees) || overline)
+          && forbiddenMoves.isForbidden(row, column, attacker))
+      return PatternTable.NONE;
+
+    if (fours > 0 || (threes && best == PatternTable.OPEN_THREE))
+      return best;
+
+    return PatternTable.NONE;
+  }
+
+  /**
+   * Counts the empty squares on the lines through a square where color would make a winning line
+   * The last one found is left in lastThreat
+   * @param square the square the lines go through
+   * @param color the color that would make five
+   */
+  private int countFivesAround(int square, int color)
+  {
+    int numColumn = board.getColumns();
+    int centreRow = square / numColumn;
+    int centreColumn = square % numColumn;
+    int count = 0;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      for (int step = 1 - numWin; step < numWin; step++)
+      {
+        int row = centreRow + step * Board.ROW_STEP[direction];
+        int column = centreColumn + step * Board.COLUMN_STEP[direction];
+
+        if (step != 0 && board.isOnBoard(row, column) && board.isEmpty(row, column)
+              && wins(row, column, color, direction))
+        {
+          count++;
+          lastThreat = row * numColumn + column;
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Counts the empty squares anywhere on the board where color would make a winning line
+   * The last one found is left in lastThreat
+   * @param color the color that would make five
+   */
+  private int countFivesEverywhere(int color)
+  {
+    int numColumn = board.getColumns();
+    int count = 0;
+
+    for (int square = reach.next(-1); square >= 0; square = reach.next(square))
+    {
+      for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+      {
+        if (wins(square / numColumn, square % numColumn, color, direction))
+        {
+          count++;
+          lastThreat = square;
+          break;
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Determines whether a move makes a four (or a winning line) for a color
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the mover's color
+   */
+  private boolean makesFour(int row, int column, int color)
+  {
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int flags = forbiddenMoves.lineFlags(row, column, color, direction);
+
+      if ((flags & RuleSet.WINS) != 0 || RuleSet.fours(flags) > 0)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Determines whether a move makes a line that wins under the rule set
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the mover's color
+   * @param direction the line direction
+   */
+  private boolean wins(int row, int column, int color, int direction)
+  {
+    return (forbiddenMoves.lineFlags(row, column, color, direction) & RuleSet.WINS) != 0;
+  }
+
+  /**
+   * Makes the solver's board match a position
+   * @param position the position to copy
+   */
+  private void copyPosition(Board position)
+  {
+    if (position.getRows() != board.getRows() || position.getColumns() != board.getColumns())
+      throw new IllegalArgumentException("Solver was created for a " + board.getRows() + "x" + board.getColumns() + " board");
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < board.getColumns(); column++)
+      {
+        int color = position.get(row, column);
+
+        if (board.get(row, column) != color)
+        {
+          if (!board.isEmpty(row, column))
+            board.remove(row, column);
+
+          if (color != Board.EMPTY)
+            board.place(row, column, color);
+        }
+      }
+    }
+  }
+
+  /**
+   * Solves a puzzle given on the command line and prints the winning line
+   * Arguments: rows columns numWin vcf|vct moves..., where moves are "row,column" starting with black,
+   * and the side to move after them is the attacker
+   * @param args the puzzle
+   */
+  public static void main(String[] args)
+  {
+    if (args.length < 4)
+    {
+      System.out.println("Usage: ThreatSolver rows columns numWin vcf|vct row,column ...");
+      return;
+    }
+
+    int rows = Integer.parseInt(args[0]);
+    int columns = Integer.parseInt(args[1]);
+    Board board = new Board(rows, columns);
+    int color = Board.BLACK;
+
+    for (int i = 4; i < args.length; i++)
+    {
+      String[] square = args[i].split(",");
+      board.place(Integer.parseInt(square[0]), Integer.parseInt(square[1]), color);
+      color = Board.opponent(color);
+    }
+
+    ThreatSolver solver = new ThreatSolver(rows, columns, Integer.parseInt(args[2]));
+    long start = System.nanoTime();
+    int[] win = args[3].equalsIgnoreCase("vct") ? solver.solveVct(board, color, 10, 10000000, 60000)
+                                                : solver.solveVcf(board, color, 10000000, 60000);
+    long millis = (System.nanoTime() - start) / 1000000L;
+
+    if (win == null)
+      System.out.println((solver.getStatus() == UNKNOWN ? "Unknown" : "No win") + " (" + solver.getNodes() + " nodes, " + millis + "ms)");
+
+    else
+    {
+      StringBuilder moves = new StringBuilder();
+
+      for (int square : win)
+        moves.append(' ').append(square / columns).append(',').append(square % columns);
+
+      System.out.println((color == Board.BLACK ? "Black" : "White") + " wins:" + moves + " (" + solver.getNodes() + " nodes, " + millis + "ms)");
+    }
+  }
+}
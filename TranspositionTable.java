@@ -0,0 +1,197 @@
+/**
+ * This class represents a fixed-size transposition table made of primitive arrays
+ * Entries are grouped in buckets of two: the first slot keeps the deepest (or newest) result and the second
+ * slot is always replaced, so deep results survive while recent ones are still found
+ * Each entry packs the move, score, depth, bound type and search generation into one long
+ * The table can be shared by several search threads without locks: every slot stores its key XORed with its data,
+ * so a slot torn by two threads writing at once no longer matches any key and is simply treated as a miss
+ */
+
+public class TranspositionTable
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents a score that is exact */
+  public static final int EXACT = 0;
+
+  /** Represents a score that is at least the stored value (a beta cutoff) */
+  public static final int LOWER = 1;
+
+  /** Represents a score that is at most the stored value (no move beat alpha) */
+  public static final int UPPER = 2;
+
+  /** Represents the offset added to scores so they fit in 24 unsigned bits */
+  private static final int SCORE_OFFSET = 1 << 23;
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the hash key of every slot, XORed with the slot's data */
+  private final long[] keys;
+
+  /** Represents the packed entry of every slot */
+  private final long[] data;
+
+  /** Represents the mask turning a hash into a bucket number */
+  private final int bucketMask;
+
+  /** Represents the current search, so that entries left from older searches are replaced first */
+  private int generation = 0;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates an empty table
+   * @param megabytes the memory to use, rounded down to a power of two number of entries
+   */
+  public TranspositionTable(int megabytes)
+  {
+    long entries = Math.max(2L, (long)megabytes * 1024 * 1024 / 16);
+    int size = Integer.highestOneBit((int)Math.min(entries, 1 << 30));
+
+    keys = new long[size];
+    data = new long[size];
+    bucketMask = size / 2 - 1;
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the number of entries the table can hold
+   */
+  public int getCapacity()
+  {
+    return keys.length;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the packed entry for a hash, or 0 if there is none
+   * @param key the position's hash
+   */
+  public long probe(long key)
+  {
+    int slot = ((int)key & bucketMask) << 1;
+
+    for (int i = slot; i < slot + 2; i++)
+    {
+      /** Reads the data once, so that the check and the result use the same value */
+      long entry = data[i];
+
+      if (entry != 0 && (keys[i] ^ entry) == key)
+      {
+        return entry;
+      }
+    }
+
+    return 0L;
+  }
+
+  /**
+   * Stores a search result
+   * @param key the position's hash
+   * @param move the best move found, or -1
+   * @param score the score, already adjusted so that win scores do not depend on the ply
+   * @param depth the depth searched, from 0 to 254
+   * @param flag EXACT, LOWER or UPPER
+   */
+  public void store(long key, int move, int score, int depth, int flag)
+  {
+    int slot = ((int)key & bucketMask) << 1;
+    long packed = pack(move, score, depth, flag, generation);
+    long old = data[slot];
+
+    if (old == 0 || (keys[slot] ^ old) == key || depth(old) <= depth || generation(old) != generation)
+    {
+      keys[slot] = key ^ packed;
+      data[slot] = packed;
+    }
+
+    else
+    {
+      keys[slot + 1] = key ^ packed;
+      data[slot + 1] = packed;
+    }
+  }
+
+  /**
+   * Marks the start of a new search, so that older entries become the first to be replaced
+   */
+  public void newSearch()
+  {
+    generation = (generation + 1) & 63;
+  }
+
+  /**
+   * Empties the table
+   */
+  public void clear()
+  {
+    java.util.Arrays.fill(keys, 0L);
+    java.util.Arrays.fill(data, 0L);
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Packs an entry into a long; the depth is stored plus one so that a used entry is never 0
+   * @param move the best move, or -1
+   * @param score the score
+   * @param depth the depth searched
+   * @param flag the bound type
+   * @param generation the search generation
+   */
+  static long pack(int move, int score, int depth, int flag, int generation)
+  {
+    return ((long)(move + 1) & 0xFFFFFF)
+      | (((long)(score + SCORE_OFFSET) & 0xFFFFFF) << 24)
+      | (((long)Math.min(depth + 1, 255)) << 48)
+      | ((long)flag << 56)
+      | ((long)generation << 58);
+  }
+
+  /**
+   * Gets the move of a packed entry, or -1
+   * @param entry the packed entry
+   */
+  public static int move(long entry)
+  {
+    return (int)(entry & 0xFFFFFF) - 1;
+  }
+
+  /**
+   * Gets the score of a packed entry
+   * @param entry the packed entry
+   */
+  public static int score(long entry)
+  {
+    return (int)((entry >>> 24) & 0xFFFFFF) - SCORE_OFFSET;
+  }
+
+  /**
+   * Gets the depth of a packed entry
+   * @param entry the packed entry
+   */
+  public static int depth(long entry)
+  {
+    return (int)((entry >>> 48) & 0xFF) - 1;
+  }
+
+  /**
+   * Gets the bound type of a packed entry
+   * @param entry the packed entry
+   */
+  public static int flag(long entry)
+  {
+    return (int)((entry >>> 56) & 3);
+  }
+
+  /**
+   * Gets the search generation of a packed entry
+   * @param entry the packed entry
+   */
+  static int generation(long entry)
+  {
+    return (int)(entry >>> 58);
+  }
+}
@@ -0,0 +1,344 @@
+/**
+ * This class represents a win detector that only looks at the four lines through the last piece played
+ * Every run of same-colored pieces stores its length on its two end squares, so putting a piece down only merges
+ * the runs next to it: a constant amount of work per direction, however big the board is
+ * Which runs win comes from the rule set's run table: under this program's own rules a line longer than numWin (an
+ * overline) does not win, as in Gomoku.checkWin; the ends of a run are only looked at when it is long enough to win
+ * On a sparse board nothing is stored per square; the runs next to the new piece are counted on the board instead,
+ * which is at most numWin squares each way
+ */
+
+public class WinDetector implements BoardListener
+{
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the board being watched */
+  private final Board board;
+
+  /** Represents number of pieces to be together that you can win */
+  private final int numWin;
+
+  /** Represents the rule set, which decides which runs win */
+  private final RuleSet rules;
+
+  /** Represents the length of every run, stored on the run's two end squares, indexed by direction and square */
+  private final int[][] runLength = new int[Board.DIRECTIONS][];
+
+  /** Represents if the run lengths are kept in runLength rather than counted on a sparse board */
+  private final boolean stored;
+
+  /** Represents the color that has won, or EMPTY if nobody has */
+  private int winner = Board.EMPTY;
+
+  /** Represents the row of the first piece of the winning line */
+  private int winStartRow = -1;
+
+  /** Represents the column of the first piece of the winning line */
+  private int winStartColumn = -1;
+
+  /** Represents the row of the last piece of the winning line */
+  private int winEndRow = -1;
+
+  /** Represents the column of the last piece of the winning line */
+  private int winEndColumn = -1;
+
+  /** Represents if every check is timed in Metrics.WIN; only played games are timed, not the boards of searches */
+  private boolean timed = false;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a win detector and starts watching a board
+   * Pieces already on the board are counted, but cannot make a winner on their own
+   * @param board the board to watch
+   * @param numWin number of pieces to be together that you can win
+   */
+  public WinDetector(Board board, int numWin)
+  {
+    this(board, RuleSet.get(RuleSet.DEFAULT, numWin));
+  }
+
+  /**
+   * Creates a win detector for a rule set and starts watching a board
+   * Pieces already on the board are counted, but cannot make a winner on their own
+   * @param board the board to watch
+   * @param rules the rule set
+   */
+  public WinDetector(Board board, RuleSet rules)
+  {
+    this.board = board;
+    this.numWin = rules.getNumWin();
+    this.rules = rules;
+    this.stored = !board.isSparse();
+
+    if (stored)
+    {
+      for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+        runLength[direction] = new int[board.getRows() * board.getColumns()];
+
+      for (int row = 0; row < board.getRows(); row++)
+      {
+        for (int column = 0; column < board.getColumns(); column++)
+        {
+          if (!board.isEmpty(row, column))
+            merge(row, column, board.get(row, column), false);
+        }
+      }
+    }
+
+    board.addListener(this);
+  }
+
+  /** ==================================== GETTER/SETTER METHODS ==================================== */
+
+  /**
+   * Sets if every check is timed in Metrics.WIN
+   * @param timed true for the detector of a game being played
+   */
+  public void setTimed(boolean timed)
+  {
+    this.timed = timed;
+  }
+
+  /**
+   * Gets the color that has won: BLACK, WHITE, or EMPTY if nobody has
+   */
+  public int getWinner()
+  {
+    return winner;
+  }
+
+  /**
+   * Determines whether a winner has occurred yet
+   */
+  public boolean hasWinner()
+  {
+    return winner != Board.EMPTY;
+  }
+
+  /**
+   * Gets the row of the first piece of the winning line, or -1 if nobody has won
+   */
+  public int getWinStartRow()
+  {
+    return winStartRow;
+  }
+
+  /**
+   * Gets the column of the first piece of the winning line, or -1 if nobody has won
+   */
+  public int getWinStartColumn()
+  {
+    return winStartColumn;
+  }
+
+  /**
+   * Gets the row of the last piece of the winning line, or -1 if nobody has won
+   */
+  public int getWinEndRow()
+  {
+    return winEndRow;
+  }
+
+  /**
+   * Gets the column of the last piece of the winning line, or -1 if nobody has won
+   */
+  public int getWinEndColumn()
+  {
+    return winEndColumn;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the length of the line of same-colored pieces through a square
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param direction the line direction
+   */
+  public int lineLength(int row, int column, int direction)
+  {
+    if (board.isEmpty(row, column))
+      return 0;
+
+    return board.countRun(row, column, direction, false) + board.countRun(row, column, direction, true) - 1;
+  }
+
+  /**
+   * Merges the runs next to the new piece and checks whether the piece wins
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    long start = timed ? Metrics.now() : 0;
+
+    if (merge(row, column, color, winner == Board.EMPTY))
+      winner = color;
+
+    if (timed)
+      Metrics.WIN.recordSince(start);
+  }
+
+  /**
+   * Splits the run the piece was part of
+   * Taking any piece back also takes back the win, since the winning piece is always the last one played
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color the color of the piece that was taken off
+   */
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    if (!stored)
+    {
+      clearWinner();
+      return;
+    }
+
+    int numColumn = board.getColumns();
+    int square = row * numColumn + column;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int rowStep = Board.ROW_STEP[direction];
+      int columnStep = Board.COLUMN_STEP[direction];
+      int step = rowStep * numColumn + columnStep;
+
+      runLength[direction][square] = 0;
+
+      /** The part of the old run behind the square is now a run of its own */
+      if (isColor(row - rowStep, column - columnStep, color))
+      {
+        int behind = board.countRun(row - rowStep, column - columnStep, direction, false);
+        runLength[direction][square - step] = behind;
+        runLength[direction][square - behind * step] = behind;
+      }
+
+      /** The same goes for the part ahead of the square */
+      if (isColor(row + rowStep, column + columnStep, color))
+      {
+        int ahead = board.countRun(row + rowStep, column + columnStep, direction, true);
+        runLength[direction][square + step] = ahead;
+        runLength[direction][square + ahead * step] = ahead;
+      }
+    }
+
+    clearWinner();
+  }
+
+  /**
+   * Forgets the winner without touching the run lengths
+   * Note: Used after pieces are copied onto the board one by one, since a copy can pass through a line of numWin
+   * that later grows into an overline
+   */
+  public void clearWinner()
+  {
+    winner = Board.EMPTY;
+    winStartRow = -1;
+    winStartColumn = -1;
+    winEndRow = -1;
+    winEndColumn = -1;
+  }
+
+  /** ==================================== HELPER METHODS ==================================== */
+
+  /**
+   * Joins the new piece to the runs on both of its sides in every direction
+   * Returns true if a line the rule set lets win goes through the piece and the piece may win
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   * @param canWin whether the piece may become the winning piece
+   */
+  private boolean merge(int row, int column, int color, boolean canWin)
+  {
+    int numColumn = board.getColumns();
+    int square = stored ? row * numColumn + column : 0;
+    boolean wins = false;
+
+    for (int direction = 0; direction < Board.DIRECTIONS; direction++)
+    {
+      int rowStep = Board.ROW_STEP[direction];
+      int columnStep = Board.COLUMN_STEP[direction];
+      int step = rowStep * numColumn + columnStep;
+      int behind;
+      int ahead;
+
+      if (stored)
+      {
+        /** The neighbours are ends of their runs, since the new piece's square was empty until now */
+        behind = isColor(row - rowStep, column - columnStep, color) ? runLength[direction][square - step] : 0;
+        ahead = isColor(row + rowStep, column + columnStep, color) ? runLength[direction][square + step] : 0;
+        runLength[direction][square - behind * step] = behind + 1 + ahead;
+        runLength[direction][square + ahead * step] = behind + 1 + ahead;
+      }
+
+      else
+      {
+        behind = board.countRun(row, column, direction, false) - 1;
+        ahead = board.countRun(row, column, direction, true) - 1;
+      }
+
+      int total = behind + 1 + ahead;
+
+      if (canWin && total >= numWin && !wins
+            && rules.isWinningRun(color, total, blockedEnds(row, column, direction, behind, ahead)))
+      {
+        wins = true;
+        winStartRow = row - behind * rowStep;
+        winStartColumn = column - behind * columnStep;
+        winEndRow = row + ahead * rowStep;
+        winEndColumn = column + ahead * columnStep;
+      }
+    }
+
+    return wins;
+  }
+
+  /**
+   * Returns how many of a run's two ends are off the board or hold a piece, which must be the opponent's
+   * @param row the row of a piece of the run
+   * @param column the column of a piece of the run
+   * @param direction the line direction
+   * @param behind the number of the run's pieces behind the square
+   * @param ahead the number of the run's pieces ahead of the square
+   */
+  private int blockedEnds(int row, int column, int direction, int behind, int ahead)
+  {
+    int rowStep = Board.ROW_STEP[direction];
+    int columnStep = Board.COLUMN_STEP[direction];
+    int blocked = 0;
+
+    if (isBlocked(row - (behind + 1) * rowStep, column - (behind + 1) * columnStep))
+      blocked++;
+
+    if (isBlocked(row + (ahead + 1) * rowStep, column + (ahead + 1) * columnStep))
+      blocked++;
+
+    return blocked;
+  }
+
+  /**
+   * Determines whether a square is off the board or holds a piece
+   * @param row the square's row number
+   * @param column the square's column number
+   */
+  private boolean isBlocked(int row, int column)
+  {
+    return !board.isOnBoard(row, column) || !board.isEmpty(row, column);
+  }
+
+  /**
+   * Determines whether a square is on the board and holds a piece of the given color
+   * @param row the square's row number
+   * @param column the square's column number
+   * @param color BLACK or WHITE
+   */
+  private boolean isColor(int row, int column, int color)
+  {
+    return board.isOnBoard(row, column) && board.get(row, column) == color;
+  }
+}
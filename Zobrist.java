@@ -0,0 +1,82 @@
+/**
+ * This class represents the Zobrist hash of a board, kept up to date as pieces are put on and taken off
+ * Every (square, color) pair has a random 64-bit key and the hash is the XOR of the keys of the pieces on the board,
+ * so a move changes it with a single XOR
+ * Note: Keys are generated from the square number instead of stored, so huge boards cost no memory
+ */
+
+public class Zobrist implements BoardListener
+{
+  /** ==================================== CONSTANTS ==================================== */
+
+  /** Represents the key XORed in when it is white's turn */
+  public static final long WHITE_TO_MOVE = key(-1, Board.WHITE);
+
+  /** ==================================== FIELDS ==================================== */
+
+  /** Represents the number of columns of the board, used to number the squares */
+  private final int numColumn;
+
+  /** Represents the hash of the pieces on the board */
+  private long hash = 0L;
+
+  /** ==================================== CONSTRUCTORS ==================================== */
+
+  /**
+   * Creates a hash of a board and starts following it
+   * @param board the board to hash
+   */
+  public Zobrist(Board board)
+  {
+    numColumn = board.getColumns();
+
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      for (int column = 0; column < numColumn; column++)
+      {
+        if (!board.isEmpty(row, column))
+          hash ^= key(row * numColumn + column, board.get(row, column));
+      }
+    }
+
+    board.addListener(this);
+  }
+
+  /** ==================================== GETTER METHODS ==================================== */
+
+  /**
+   * Gets the hash of the pieces on the board
+   */
+  public long getHash()
+  {
+    return hash;
+  }
+
+  /** ==================================== IMPORTANT METHODS ==================================== */
+
+  /**
+   * Returns the key of a piece on a square
+   * @param square the square number (row * columns + column)
+   * @param color BLACK or WHITE
+   */
+  public static long key(int square, int color)
+  {
+    /** SplitMix64 finaliser, which spreads consecutive inputs over all 64 bits */
+    long z = (square * 3L + color) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  public void stonePlaced(int row, int column, int color)
+  {
+    hash ^= key(row * numColumn + column, color);
+  }
+
+  @Override
+  public void stoneRemoved(int row, int column, int color)
+  {
+    hash ^= key(row * numColumn + column, color);
+  }
+}